@@ -66,7 +66,9 @@ import com.cloud.agent.api.ReadyCommand;
 import com.cloud.agent.api.ShutdownCommand;
 import com.cloud.agent.api.StartupAnswer;
 import com.cloud.agent.api.StartupCommand;
+import com.cloud.agent.transport.BinaryCommandCodec;
 import com.cloud.agent.transport.Request;
+import com.cloud.agent.transport.Request.Version;
 import com.cloud.agent.transport.Response;
 import com.cloud.exception.AgentControlChannelException;
 import com.cloud.host.Host;
@@ -127,6 +129,8 @@ public class Agent implements HandlerFactory, IAgentControl {
     ServerResource _resource;
     Link _link;
     Long _id;
+    // Wire format of the requests we initiate, follows whatever the management server talks to us.
+    volatile Version _wireVersion = Version.v1;
 
     Timer _timer = new Timer("Agent Timer");
     Timer certTimer;
@@ -486,6 +490,7 @@ public class Agent implements HandlerFactory, IAgentControl {
         startup.setGuid(getResourceGuid());
         startup.setResourceName(getResourceName());
         startup.setVersion(getVersion());
+        startup.setBinaryWireSchema(BinaryCommandCodec.getSchemaFingerprint());
     }
 
     @Override
@@ -511,6 +516,7 @@ public class Agent implements HandlerFactory, IAgentControl {
 
         setLink(null);
         cancelTasks();
+        _wireVersion = Version.v1;
 
         _resource.disconnected();
 
@@ -585,6 +591,7 @@ public class Agent implements HandlerFactory, IAgentControl {
     protected void processRequest(final Request request, final Link link) {
         boolean requestLogged = false;
         Response response = null;
+        _wireVersion = request.getVersion();
         try {
             final Command[] cmds = request.getCommands();
             final Answer[] answers = new Answer[cmds.length];
@@ -853,6 +860,7 @@ public class Agent implements HandlerFactory, IAgentControl {
             final PingCommand ping = _resource.getCurrentStatus(getId());
             final Request request = new Request(_id, -1, ping, false);
             request.setSequence(getNextSequence());
+            request.setVersion(_wireVersion);
             if (s_logger.isDebugEnabled()) {
                 s_logger.debug("Sending ping: " + request.toString());
             }
@@ -949,6 +957,7 @@ public class Agent implements HandlerFactory, IAgentControl {
     }
 
     private void postRequest(final Request request) throws AgentControlChannelException {
+        request.setVersion(_wireVersion);
         if (_link != null) {
             try {
                 _link.send(request.toBytes());
@@ -29,6 +29,7 @@ import java.util.Map;
 
 import com.cloud.utils.Pair;
 import com.cloud.utils.exception.CloudRuntimeException;
+import com.cloud.utils.net.RangedHttpDownloader;
 import org.apache.commons.collections.MapUtils;
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpStatus;
@@ -44,6 +45,7 @@ public class HttpDirectTemplateDownloader extends DirectTemplateDownloaderImpl {
     public static final Logger s_logger = Logger.getLogger(HttpDirectTemplateDownloader.class.getName());
     protected GetMethod request;
     protected Map<String, String> reqHeaders = new HashMap<>();
+    private int downloadSegments = 1;
 
     public HttpDirectTemplateDownloader(String url, Long templateId, String destPoolPath, String checksum,
                                         Map<String, String> headers, Integer connectTimeout, Integer soTimeout, String downloadPath) {
@@ -78,8 +80,21 @@ public class HttpDirectTemplateDownloader extends DirectTemplateDownloaderImpl {
         return request;
     }
 
+    /**
+     * @param downloadSegments number of connections to download large templates with, when the server allows it
+     */
+    public void setDownloadSegments(int downloadSegments) {
+        this.downloadSegments = downloadSegments;
+    }
+
     @Override
     public Pair<Boolean, String> downloadTemplate() {
+        if (downloadSegments > 1) {
+            Pair<Boolean, String> result = downloadInSegments();
+            if (result != null) {
+                return result;
+            }
+        }
         try {
             int status = client.executeMethod(request);
             if (status != HttpStatus.SC_OK) {
@@ -94,6 +109,30 @@ public class HttpDirectTemplateDownloader extends DirectTemplateDownloaderImpl {
         }
     }
 
+    /**
+     * Download the template over several connections
+     * @return null if the server does not accept range requests, could not be asked, or the template is too small
+     */
+    protected Pair<Boolean, String> downloadInSegments() {
+        RangedHttpDownloader ranged = new RangedHttpDownloader(client, getUrl(), reqHeaders, downloadSegments, RangedHttpDownloader.DEFAULT_MIN_SEGMENT_SIZE);
+        try {
+            if (!ranged.isSupported()) {
+                return null;
+            }
+        } catch (IOException e) {
+            s_logger.info("Unable to check whether " + getUrl() + " accepts range requests, downloading it over a single connection: " + e.getMessage());
+            return null;
+        }
+        try {
+            s_logger.info("Downloading template " + getTemplateId() + " from " + getUrl() + " to: " + getDownloadedFilePath() + " in " + downloadSegments + " segments");
+            ranged.download(new File(getDownloadedFilePath()));
+        } catch (IOException e) {
+            s_logger.error("Error downloading template " + getTemplateId() + " due to: " + e.getMessage());
+            return new Pair<>(false, null);
+        }
+        return new Pair<>(true, getDownloadedFilePath());
+    }
+
     protected Pair<Boolean, String> performDownload() {
         s_logger.info("Downloading template " + getTemplateId() + " from " + getUrl() + " to: " + getDownloadedFilePath());
         try (
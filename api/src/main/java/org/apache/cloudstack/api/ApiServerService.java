@@ -19,6 +19,7 @@ package org.apache.cloudstack.api;
 import java.net.InetAddress;
 import java.util.Map;
 
+import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 
 import com.cloud.exception.CloudAuthenticationException;
@@ -41,5 +42,11 @@ public interface ApiServerService {
 
     public String handleRequest(Map<String, Object[]> params, String responseType, StringBuilder auditTrailSb) throws ServerApiException;
 
+    /**
+     * Same as {@link #handleRequest(Map, String, StringBuilder)}, except that the responses loaded page by page are
+     * streamed to resp, in which case null is returned.
+     */
+    public String handleRequest(Map<String, Object[]> params, String responseType, StringBuilder auditTrailSb, HttpServletResponse resp) throws ServerApiException;
+
     public Class<?> getCmdClass(String cmdName);
 }
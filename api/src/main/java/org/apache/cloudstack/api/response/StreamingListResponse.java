@@ -0,0 +1,157 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.api.response;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.apache.cloudstack.api.ResponseObject;
+
+import com.cloud.utils.Pair;
+
+/**
+ * List response loading its objects page by page while they are serialized,
+ * so only one page of them is held in memory at a time. The first page is
+ * loaded along with the count when the response is created, the next ones
+ * as {@link #pages()} is iterated.
+ *
+ * {@link #getResponses()} still returns the whole list, loading all the
+ * pages, for the callers post-processing the responses.
+ */
+public class StreamingListResponse<T extends ResponseObject> extends ListResponse<T> {
+
+    public interface PageLoader<T> {
+        /**
+         * @param count whether the number of objects matching the search has to be returned as well
+         * @return up to limit objects starting at offset, and the number of objects if asked for
+         */
+        Pair<List<T>, Integer> loadPage(long offset, long limit, boolean count);
+    }
+
+    private final transient PageLoader<T> loader;
+    private final transient long streamingPageSize;
+    private transient long offset;
+    // null when the whole result is listed
+    private transient Long remaining;
+    private transient List<T> firstPage;
+    private transient boolean morePages;
+    private transient boolean streamed;
+
+    /**
+     * @param startIndex index of the first object to return, null for the first one
+     * @param pageSize number of objects to return, null for all of them
+     * @param streamingPageSize number of objects loaded at once
+     */
+    public StreamingListResponse(PageLoader<T> loader, Long startIndex, Long pageSize, long streamingPageSize) {
+        this.loader = loader;
+        this.streamingPageSize = streamingPageSize;
+        this.offset = startIndex != null ? startIndex : 0;
+        this.remaining = pageSize;
+
+        Pair<List<T>, Integer> page = loader.loadPage(offset, nextLimit(), true);
+        firstPage = page.first();
+        morePages = advance(firstPage.size());
+        setResponses(null, page.second());
+    }
+
+    private long nextLimit() {
+        return remaining != null ? Math.min(remaining, streamingPageSize) : streamingPageSize;
+    }
+
+    /**
+     * @return false once the last page was loaded
+     */
+    private boolean advance(int loaded) {
+        boolean more = loaded > 0 && loaded == nextLimit();
+        offset += loaded;
+        if (remaining != null) {
+            remaining -= loaded;
+            more = more && remaining > 0;
+        }
+        return more;
+    }
+
+    /**
+     * Iterates over the pages of the response, loading each of them when it is reached.
+     * The pages can only be iterated once.
+     */
+    public Iterable<List<T>> pages() {
+        if (streamed) {
+            throw new IllegalStateException("The pages of the response were already iterated");
+        }
+        streamed = true;
+        return new Iterable<List<T>>() {
+            @Override
+            public Iterator<List<T>> iterator() {
+                return new PageIterator();
+            }
+        };
+    }
+
+    @Override
+    public List<T> getResponses() {
+        List<T> responses = super.getResponses();
+        if (responses == null && !streamed) {
+            responses = new ArrayList<T>();
+            for (List<T> page : pages()) {
+                responses.addAll(page);
+            }
+            setResponses(responses, getCount());
+        }
+        return responses;
+    }
+
+    private class PageIterator implements Iterator<List<T>> {
+        private List<T> next;
+        private boolean more;
+
+        PageIterator() {
+            next = firstPage.isEmpty() ? null : firstPage;
+            more = morePages;
+            firstPage = null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null && more) {
+                next = loader.loadPage(offset, nextLimit(), false).first();
+                more = advance(next.size());
+                if (next.isEmpty()) {
+                    next = null;
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public List<T> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            List<T> page = next;
+            next = null;
+            return page;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -109,6 +109,10 @@ public interface QueryService {
             "allow.user.view.all.domain.accounts", "false",
             "Determines whether users can view all user accounts within the same domain", true, ConfigKey.Scope.Domain);
 
+    ConfigKey<Integer> ApiResponseStreamingPageSize = new ConfigKey<>("Advanced", Integer.class, "api.response.streaming.page.size", "0",
+            "Number of objects loaded and serialized at once when the listVirtualMachines, listVolumes and listEvents responses are larger than it, " +
+            "including pagesize=-1. The responses are then streamed to the client instead of being built in memory. 0 to disable.", true, ConfigKey.Scope.Global);
+
     ListResponse<UserResponse> searchForUsers(ListUsersCmd cmd) throws PermissionDeniedException;
 
     ListResponse<UserResponse> searchForUsers(Long domainId, boolean recursive) throws PermissionDeniedException;
@@ -0,0 +1,119 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.api.response;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.cloud.utils.Pair;
+
+public class StreamingListResponseTest {
+
+    /**
+     * Serves the ids [0, total) as SuccessResponses, recording the pages asked for.
+     */
+    private static class RecordingLoader implements StreamingListResponse.PageLoader<SuccessResponse> {
+        private final int total;
+        private final List<String> calls = new ArrayList<String>();
+
+        RecordingLoader(int total) {
+            this.total = total;
+        }
+
+        @Override
+        public Pair<List<SuccessResponse>, Integer> loadPage(long offset, long limit, boolean count) {
+            calls.add(offset + "+" + limit + (count ? "c" : ""));
+            List<SuccessResponse> page = new ArrayList<SuccessResponse>();
+            for (long i = offset; i < Math.min(total, offset + limit); i++) {
+                page.add(new SuccessResponse(String.valueOf(i)));
+            }
+            return new Pair<List<SuccessResponse>, Integer>(page, count ? total : null);
+        }
+    }
+
+    private static List<String> collect(StreamingListResponse<SuccessResponse> response) {
+        List<String> names = new ArrayList<String>();
+        for (List<SuccessResponse> page : response.pages()) {
+            for (SuccessResponse r : page) {
+                names.add(r.getResponseName());
+            }
+        }
+        return names;
+    }
+
+    @Test
+    public void testUnlimitedPageSize() {
+        RecordingLoader loader = new RecordingLoader(25);
+        StreamingListResponse<SuccessResponse> response = new StreamingListResponse<SuccessResponse>(loader, null, null, 10);
+        Assert.assertEquals(Integer.valueOf(25), response.getCount());
+        // only the first page is loaded with the response
+        Assert.assertEquals(1, loader.calls.size());
+
+        List<String> names = collect(response);
+        Assert.assertEquals(25, names.size());
+        Assert.assertEquals("24", names.get(24));
+        Assert.assertEquals("[0+10c, 10+10, 20+10]", loader.calls.toString());
+    }
+
+    @Test
+    public void testExactMultipleOfStreamingPageSize() {
+        RecordingLoader loader = new RecordingLoader(20);
+        StreamingListResponse<SuccessResponse> response = new StreamingListResponse<SuccessResponse>(loader, null, null, 10);
+        Assert.assertEquals(20, collect(response).size());
+        // the last, empty, page tells that there is nothing left
+        Assert.assertEquals("[0+10c, 10+10, 20+10]", loader.calls.toString());
+    }
+
+    @Test
+    public void testPageWindow() {
+        RecordingLoader loader = new RecordingLoader(100);
+        StreamingListResponse<SuccessResponse> response = new StreamingListResponse<SuccessResponse>(loader, 40L, 25L, 10);
+        List<String> names = collect(response);
+        Assert.assertEquals(25, names.size());
+        Assert.assertEquals("40", names.get(0));
+        Assert.assertEquals("64", names.get(24));
+        Assert.assertEquals("[40+10c, 50+10, 60+5]", loader.calls.toString());
+    }
+
+    @Test
+    public void testEmptyResult() {
+        RecordingLoader loader = new RecordingLoader(0);
+        StreamingListResponse<SuccessResponse> response = new StreamingListResponse<SuccessResponse>(loader, null, null, 10);
+        Assert.assertEquals(Integer.valueOf(0), response.getCount());
+        Assert.assertTrue(collect(response).isEmpty());
+        Assert.assertEquals(1, loader.calls.size());
+    }
+
+    @Test
+    public void testGetResponsesLoadsAllThePages() {
+        RecordingLoader loader = new RecordingLoader(25);
+        StreamingListResponse<SuccessResponse> response = new StreamingListResponse<SuccessResponse>(loader, null, null, 10);
+        Assert.assertEquals(25, response.getResponses().size());
+        Assert.assertSame(response.getResponses(), response.getResponses());
+        Assert.assertEquals(3, loader.calls.size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testPagesCanOnlyBeIteratedOnce() {
+        StreamingListResponse<SuccessResponse> response = new StreamingListResponse<SuccessResponse>(new RecordingLoader(5), null, null, 10);
+        collect(response);
+        response.pages();
+    }
+}
@@ -0,0 +1,124 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+
+package com.cloud.agent.api;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.cloud.agent.api.LogLevel.Log4jLevel;
+
+/**
+ * Adds and removes members of the security groups a host keeps sets of, for
+ * the rules of its vms referencing them. Each change comes with the version of
+ * the members it leads to. A host ignores the changes it already holds, and
+ * fails the command if it has no set of a group or misses earlier changes. It
+ * has to get the full rules of its vms instead.
+ */
+public class SecurityGroupMembersCmd extends Command {
+    public static final char ADDED = '+';
+    public static final char REMOVED = '-';
+
+    public static class GroupMembers {
+        private final long groupId;
+        private long version;
+        @LogLevel(Log4jLevel.Trace)
+        private final List<String> added = new ArrayList<String>();
+        @LogLevel(Log4jLevel.Trace)
+        private final List<String> removed = new ArrayList<String>();
+
+        public GroupMembers(final long groupId) {
+            this.groupId = groupId;
+        }
+
+        public long getGroupId() {
+            return groupId;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public void setVersion(final long version) {
+            this.version = version;
+        }
+
+        public List<String> getAdded() {
+            return added;
+        }
+
+        public List<String> getRemoved() {
+            return removed;
+        }
+    }
+
+    private final List<GroupMembers> groups = new ArrayList<GroupMembers>();
+    private Long msId;
+
+    public SecurityGroupMembersCmd() {
+    }
+
+    public List<GroupMembers> getGroups() {
+        return groups;
+    }
+
+    public GroupMembers getGroup(final long groupId) {
+        for (final GroupMembers group : groups) {
+            if (group.getGroupId() == groupId) {
+                return group;
+            }
+        }
+        final GroupMembers group = new GroupMembers(groupId);
+        groups.add(group);
+        return group;
+    }
+
+    /**
+     * @return the changes as "groupId:version:+cidr,-cidr;groupId:...".
+     */
+    public String stringifyMembers() {
+        final StringBuilder sb = new StringBuilder();
+        for (final GroupMembers group : groups) {
+            sb.append(group.getGroupId()).append(':').append(group.getVersion()).append(':');
+            for (final String cidr : group.getAdded()) {
+                sb.append(ADDED).append(cidr).append(SecurityGroupRulesCmd.RULE_TARGET_SEPARATOR);
+            }
+            for (final String cidr : group.getRemoved()) {
+                sb.append(REMOVED).append(cidr).append(SecurityGroupRulesCmd.RULE_TARGET_SEPARATOR);
+            }
+            sb.append(SecurityGroupRulesCmd.RULE_COMMAND_SEPARATOR);
+        }
+        return sb.toString();
+    }
+
+    public void setMsId(final long msId) {
+        this.msId = msId;
+    }
+
+    public Long getMsId() {
+        return msId;
+    }
+
+    @Override
+    public boolean executeInSequence() {
+        // Keeps its order with the rules of the vms on the host
+        return true;
+    }
+}
@@ -23,6 +23,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.zip.DeflaterOutputStream;
 
 import org.apache.commons.codec.binary.Base64;
@@ -39,6 +40,11 @@ public class SecurityGroupRulesCmd extends Command {
     public static final char RULE_COMMAND_SEPARATOR = ';';
     protected static final String EGRESS_RULE = "E:";
     protected static final String INGRESS_RULE = "I:";
+    /**
+     * Prefix of the allowed cidrs standing for the members of a security
+     * group, kept by the host in a set named after the group.
+     */
+    public static final String GROUP_PREFIX = "sg:";
     private static final Logger LOGGER = Logger.getLogger(SecurityGroupRulesCmd.class);
 
     private final String guestIp;
@@ -53,6 +59,9 @@ public class SecurityGroupRulesCmd extends Command {
     private List<IpPortAndProto> egressRuleSet;
     private final List<String> secIps;
     private VirtualMachineTO vmTO;
+    @LogLevel(Log4jLevel.Trace)
+    private Map<Long, List<String>> groupMembers;
+    private Map<Long, Long> groupMembersVersions;
 
     public static class IpPortAndProto {
         private final String proto;
@@ -277,6 +286,48 @@ public class SecurityGroupRulesCmd extends Command {
         return count;
     }
 
+    /**
+     * @return the members of the groups referenced by the rules, by group id.
+     */
+    public Map<Long, List<String>> getGroupMembers() {
+        return groupMembers;
+    }
+
+    public void setGroupMembers(final Map<Long, List<String>> groupMembers) {
+        this.groupMembers = groupMembers;
+    }
+
+    /**
+     * @return the version of the members of each group, by group id. A host
+     *         keeps the members of a group it holds a newer version of.
+     */
+    public Map<Long, Long> getGroupMembersVersions() {
+        return groupMembersVersions;
+    }
+
+    public void setGroupMembersVersions(final Map<Long, Long> groupMembersVersions) {
+        this.groupMembersVersions = groupMembersVersions;
+    }
+
+    /**
+     * @return the group members as "groupId:version:cidr,cidr;groupId:..." or
+     *         an empty string when the rules reference no group.
+     */
+    public String stringifyGroupMembers() {
+        final StringBuilder sb = new StringBuilder();
+        if (groupMembers != null) {
+            for (final Map.Entry<Long, List<String>> group : groupMembers.entrySet()) {
+                final Long version = groupMembersVersions != null ? groupMembersVersions.get(group.getKey()) : null;
+                sb.append(group.getKey()).append(':').append(version != null ? version : 0).append(':');
+                for (final String cidr : group.getValue()) {
+                    sb.append(cidr).append(RULE_TARGET_SEPARATOR);
+                }
+                sb.append(RULE_COMMAND_SEPARATOR);
+            }
+        }
+        return sb.toString();
+    }
+
     public void setMsId(final long msId) {
         this.msId = msId;
     }
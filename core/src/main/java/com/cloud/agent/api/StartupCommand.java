@@ -47,6 +47,7 @@ public class StartupCommand extends Command {
     String resourceName;
     String gatewayIpAddress;
     String msHostList;
+    String binaryWireSchema;
 
     public StartupCommand(Host.Type type) {
         this.type = type;
@@ -290,6 +291,18 @@ public class StartupCommand extends Command {
         this.msHostList = msHostList;
     }
 
+    /**
+     * @return schema fingerprint of the binary wire format understood by the
+     *         agent, null if the agent only speaks json.
+     */
+    public String getBinaryWireSchema() {
+        return binaryWireSchema;
+    }
+
+    public void setBinaryWireSchema(String binaryWireSchema) {
+        this.binaryWireSchema = binaryWireSchema;
+    }
+
     @Override
     public boolean executeInSequence() {
         return false;
@@ -28,6 +28,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -83,12 +84,14 @@ public class VirtualRoutingResource {
     private VirtualRouterDeployer _vrDeployer;
     private Map<String, Queue<NetworkElementCommand>> _vrAggregateCommandsSet;
     protected Map<String, Lock> _vrLockMap = new HashMap<String, Lock>();
+    private final Map<String, List<CoalescedCommand>> _vrCoalescedCommands = new HashMap<>();
 
     private String _name;
     private int _sleep;
     private int _retry;
     private int _port;
     private Duration _eachTimeout;
+    private int _coalesceWindow;
 
     private String _cfgVersion = "1.0";
 
@@ -97,15 +100,13 @@ public class VirtualRoutingResource {
     }
 
     public Answer executeRequest(final NetworkElementCommand cmd) {
+        if (_coalesceWindow > 0 && isCoalescable(cmd)) {
+            return executeCoalesced(cmd);
+        }
+
         boolean aggregated = false;
         String routerName = cmd.getAccessDetail(NetworkElementCommand.ROUTER_NAME);
-        Lock lock;
-        if (_vrLockMap.containsKey(routerName)) {
-            lock = _vrLockMap.get(routerName);
-        } else {
-            lock = new ReentrantLock();
-            _vrLockMap.put(routerName, lock);
-        }
+        Lock lock = getRouterLock(routerName);
         lock.lock();
 
         try {
@@ -141,12 +142,7 @@ public class VirtualRoutingResource {
                 return new Answer(cmd);
             }
 
-            List<ConfigItem> cfg = generateCommandCfg(cmd);
-            if (cfg == null) {
-                return Answer.createUnsupportedCommandAnswer(cmd);
-            }
-
-            return applyConfig(cmd, cfg);
+            return applyCommand(cmd);
         } catch (final IllegalArgumentException e) {
             return new Answer(cmd, false, e.getMessage());
         } finally {
@@ -160,6 +156,209 @@ public class VirtualRoutingResource {
         }
     }
 
+    private synchronized Lock getRouterLock(final String routerName) {
+        Lock lock = _vrLockMap.get(routerName);
+        if (lock == null) {
+            lock = new ReentrantLock();
+            _vrLockMap.put(routerName, lock);
+        }
+        return lock;
+    }
+
+    private Answer applyCommand(final NetworkElementCommand cmd) {
+        List<ConfigItem> cfg = generateCommandCfg(cmd);
+        if (cfg == null) {
+            return Answer.createUnsupportedCommandAnswer(cmd);
+        }
+
+        final AbstractConfigItemFacade configItemFacade = AbstractConfigItemFacade.getInstance(cmd.getClass());
+        Answer answer = applyConfig(cmd, cfg);
+        if (configItemFacade.configApplied(cmd, answer.getResult())) {
+            answer = applyConfig(cmd, generateCommandCfg(cmd));
+            configItemFacade.configApplied(cmd, answer.getResult());
+        }
+        return answer;
+    }
+
+    private boolean isCoalescable(final NetworkElementCommand cmd) {
+        return !cmd.isQuery() && !(cmd instanceof AggregationControlCommand) && !(cmd instanceof SetupKeyStoreCommand) && !(cmd instanceof SetupCertificateCommand)
+                && AbstractConfigItemFacade.hasInstance(cmd.getClass());
+    }
+
+    /*
+     * Commands reaching the same router within the coalesce window are applied
+     * together: the first one waits for the window to pass, then sends the
+     * config of all of them in one file and runs it with a single vr_cfg.sh
+     * call, the way the aggregated commands are applied on router start.
+     */
+    private Answer executeCoalesced(final NetworkElementCommand cmd) {
+        final String routerName = cmd.getAccessDetail(NetworkElementCommand.ROUTER_NAME);
+        final CoalescedCommand coalesced = new CoalescedCommand(cmd);
+        List<CoalescedCommand> batch;
+        synchronized (_vrCoalescedCommands) {
+            batch = _vrCoalescedCommands.get(routerName);
+            if (batch != null) {
+                batch.add(coalesced);
+                batch = null;
+            } else {
+                batch = new ArrayList<>();
+                batch.add(coalesced);
+                _vrCoalescedCommands.put(routerName, batch);
+            }
+        }
+        if (batch == null) {
+            return coalesced.await();
+        }
+
+        try {
+            Thread.sleep(_coalesceWindow);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (_vrCoalescedCommands) {
+            _vrCoalescedCommands.remove(routerName);
+        }
+
+        try {
+            executeBatch(routerName, batch);
+        } finally {
+            for (final CoalescedCommand c : batch) {
+                c.complete(new Answer(c.getCommand(), false, "Command was not applied to the router"));
+            }
+        }
+        return coalesced.await();
+    }
+
+    private void executeBatch(final String routerName, final List<CoalescedCommand> batch) {
+        final List<CoalescedCommand> prepared = new ArrayList<>();
+        final List<NetworkElementCommand> aggregated = new ArrayList<>();
+        final Lock lock = getRouterLock(routerName);
+        lock.lock();
+        try {
+            for (final CoalescedCommand c : batch) {
+                final ExecutionResult rc = _vrDeployer.prepareCommand(c.getCommand());
+                if (rc.isSuccess()) {
+                    prepared.add(c);
+                } else {
+                    s_logger.error("Failed to prepare VR command due to " + rc.getDetails());
+                    c.complete(new Answer(c.getCommand(), false, rc.getDetails()));
+                }
+            }
+
+            if (_vrAggregateCommandsSet.containsKey(routerName)) {
+                for (final CoalescedCommand c : prepared) {
+                    _vrAggregateCommandsSet.get(routerName).add(c.getCommand());
+                    aggregated.add(c.getCommand());
+                    c.complete(new Answer(c.getCommand()));
+                }
+                return;
+            }
+
+            if (prepared.size() > 1 && applyBatch(prepared)) {
+                return;
+            }
+
+            for (final CoalescedCommand c : prepared) {
+                try {
+                    c.complete(applyCommand(c.getCommand()));
+                } catch (final IllegalArgumentException e) {
+                    c.complete(new Answer(c.getCommand(), false, e.getMessage()));
+                }
+            }
+        } finally {
+            lock.unlock();
+            for (final CoalescedCommand c : prepared) {
+                if (aggregated.contains(c.getCommand())) {
+                    continue;
+                }
+                final ExecutionResult rc = _vrDeployer.cleanupCommand(c.getCommand());
+                if (!rc.isSuccess()) {
+                    s_logger.error("Failed to cleanup VR command due to " + rc.getDetails());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return false if the commands have to be applied one by one, to find out which one failed
+     */
+    private boolean applyBatch(final List<CoalescedCommand> batch) {
+        final List<CoalescedCommand> generated = new ArrayList<>();
+        final List<List<ConfigItem>> cfgs = new ArrayList<>();
+        final StringBuilder sb = new StringBuilder(getAggregatedConfigHeader());
+        for (final CoalescedCommand c : batch) {
+            final List<ConfigItem> cfg;
+            try {
+                cfg = generateCommandCfg(c.getCommand());
+            } catch (final IllegalArgumentException e) {
+                c.complete(new Answer(c.getCommand(), false, e.getMessage()));
+                continue;
+            }
+            if (cfg == null) {
+                c.complete(Answer.createUnsupportedCommandAnswer(c.getCommand()));
+                continue;
+            }
+            for (final ConfigItem configItem : cfg) {
+                sb.append(configItem.getAggregateCommand());
+            }
+            generated.add(c);
+            cfgs.add(cfg);
+        }
+        if (generated.isEmpty()) {
+            return true;
+        }
+
+        final Duration timeout = Duration.standardSeconds(VRScripts.VR_SCRIPT_EXEC_TIMEOUT.getStandardSeconds() * generated.size());
+        final ExecutionResult result = applyAggregatedConfig(generated.get(0).getCommand().getRouterAccessIp(), sb.toString(), timeout);
+        for (final CoalescedCommand c : generated) {
+            final AbstractConfigItemFacade configItemFacade = AbstractConfigItemFacade.getInstance(c.getCommand().getClass());
+            if (result.isSuccess()) {
+                configItemFacade.configApplied(c.getCommand(), true);
+            } else {
+                // Any command of the batch may have failed, the commands are sent again in full
+                configItemFacade.forgetConfig(c.getCommand());
+            }
+        }
+        if (!result.isSuccess()) {
+            s_logger.warn("Failed to apply " + generated.size() + " coalesced commands, applying them one by one: " + result.getDetails());
+            return false;
+        }
+
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Applied " + generated.size() + " coalesced commands to router " + generated.get(0).getCommand().getAccessDetail(NetworkElementCommand.ROUTER_NAME));
+        }
+        for (int i = 0; i < generated.size(); i++) {
+            final NetworkElementCommand cmd = generated.get(i).getCommand();
+            final List<ConfigItem> cfg = cfgs.get(i);
+            if (cfg.size() <= 1) {
+                generated.get(i).complete(new Answer(cmd, true, cfg.isEmpty() ? "Nothing to do" : null));
+                continue;
+            }
+            final String[] details = new String[cfg.size()];
+            for (int j = 0; j < details.length; j++) {
+                details[j] = cfg.get(j).getInfo() + " - success: coalesced";
+            }
+            generated.get(i).complete(new GroupAnswer(cmd, true, details.length, details));
+        }
+        return true;
+    }
+
+    private String getAggregatedConfigHeader() {
+        return "#Apache CloudStack Virtual Router Config File\n<version>\n" + _cfgVersion + "\n</version>\n";
+    }
+
+    private ExecutionResult applyAggregatedConfig(final String routerAccessIp, final String config, final Duration timeout) {
+        String cfgFileName = "VR-"+ UUID.randomUUID().toString() + ".cfg";
+        FileConfigItem fileConfigItem = new FileConfigItem(VRScripts.CONFIG_CACHE_LOCATION, cfgFileName, config);
+        ScriptConfigItem scriptConfigItem = new ScriptConfigItem(VRScripts.VR_CFG, "-c " + VRScripts.CONFIG_CACHE_LOCATION + cfgFileName);
+
+        ExecutionResult result = applyConfigToVR(routerAccessIp, fileConfigItem, timeout);
+        if (!result.isSuccess()) {
+            return result;
+        }
+        return applyConfigToVR(routerAccessIp, scriptConfigItem, timeout);
+    }
+
     private Answer execute(final SetupKeyStoreCommand cmd) {
         final String args = String.format("/usr/local/cloud/systemvm/conf/agent.properties " +
                         "/usr/local/cloud/systemvm/conf/%s " +
@@ -458,6 +657,12 @@ public class VirtualRoutingResource {
             s_logger.debug("The router.aggregation.command.each.timeout in seconds is set to " + _eachTimeout.getStandardSeconds());
         }
 
+        value = (String)params.get("router.command.coalesce.window");
+        _coalesceWindow = NumbersUtil.parseInt(value, 0);
+        if (_coalesceWindow > 0) {
+            s_logger.info("Commands reaching the same router within " + _coalesceWindow + "ms are applied together");
+        }
+
         if (_vrDeployer == null) {
             throw new ConfigurationException("Unable to find the resource for VirtualRouterDeployer!");
         }
@@ -533,14 +738,14 @@ public class VirtualRoutingResource {
 
             Queue<NetworkElementCommand> queue = new LinkedBlockingQueue<>();
             _vrAggregateCommandsSet.put(routerName, queue);
+            // The aggregated config is sent in full, whatever the router had before
+            AbstractConfigItemFacade.resetRouter(routerName);
             return new Answer(cmd, true, "Command aggregation started");
         } else if (action == Action.Finish) {
             Queue<NetworkElementCommand> queue = _vrAggregateCommandsSet.get(routerName);
             int answerCounts = 0;
             try {
-                StringBuilder sb = new StringBuilder();
-                sb.append("#Apache CloudStack Virtual Router Config File\n");
-                sb.append("<version>\n" + _cfgVersion + "\n</version>\n");
+                StringBuilder sb = new StringBuilder(getAggregatedConfigHeader());
                 for (NetworkElementCommand command : queue) {
                     answerCounts += command.getAnswersCount();
                     List<ConfigItem> cfg = generateCommandCfg(command);
@@ -555,21 +760,13 @@ public class VirtualRoutingResource {
                 }
 
                 // TODO replace with applyConfig with a stop on fail
-                String cfgFileName = "VR-"+ UUID.randomUUID().toString() + ".cfg";
-                FileConfigItem fileConfigItem = new FileConfigItem(VRScripts.CONFIG_CACHE_LOCATION, cfgFileName, sb.toString());
-                ScriptConfigItem scriptConfigItem = new ScriptConfigItem(VRScripts.VR_CFG, "-c " + VRScripts.CONFIG_CACHE_LOCATION + cfgFileName);
                 // 120s is the minimal timeout
                 Duration timeout = _eachTimeout.withDurationAdded(_eachTimeout.getStandardSeconds(), answerCounts);
                 if (s_logger.isDebugEnabled()){
                     s_logger.debug("Aggregate action timeout in seconds is " + timeout.getStandardSeconds());
                 }
 
-                ExecutionResult result = applyConfigToVR(cmd.getRouterAccessIp(), fileConfigItem, timeout);
-                if (!result.isSuccess()) {
-                    return new Answer(cmd, false, result.getDetails());
-                }
-
-                result = applyConfigToVR(cmd.getRouterAccessIp(), scriptConfigItem, timeout);
+                ExecutionResult result = applyAggregatedConfig(cmd.getRouterAccessIp(), sb.toString(), timeout);
                 if (!result.isSuccess()) {
                     return new Answer(cmd, false, result.getDetails());
                 }
@@ -578,8 +775,43 @@ public class VirtualRoutingResource {
             } finally {
                 queue.clear();
                 _vrAggregateCommandsSet.remove(routerName);
+                AbstractConfigItemFacade.resetRouter(routerName);
             }
         }
         return new Answer(cmd, false, "Fail to recognize aggregation action " + action.toString());
     }
+
+    private static class CoalescedCommand {
+        private final NetworkElementCommand _cmd;
+        private final CountDownLatch _done = new CountDownLatch(1);
+        private volatile Answer _answer;
+
+        CoalescedCommand(final NetworkElementCommand cmd) {
+            _cmd = cmd;
+        }
+
+        NetworkElementCommand getCommand() {
+            return _cmd;
+        }
+
+        /**
+         * Only the first answer is kept.
+         */
+        synchronized void complete(final Answer answer) {
+            if (_answer == null) {
+                _answer = answer;
+                _done.countDown();
+            }
+        }
+
+        Answer await() {
+            try {
+                _done.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return new Answer(_cmd, false, "Interrupted while waiting for the router to be configured");
+            }
+            return _answer;
+        }
+    }
 }
@@ -108,6 +108,24 @@ public abstract class AbstractConfigItemFacade {
         return instance;
     }
 
+    public static boolean hasInstance(final Class<? extends NetworkElementCommand> key) {
+        return flyweight.containsKey(key);
+    }
+
+    /**
+     * Forgets what was sent to the router by the facades sending deltas, their
+     * next config is sent in full.
+     */
+    public static void resetRouter(final String routerName) {
+        for (final AbstractConfigItemFacade facade : flyweight.values()) {
+            facade.forgetRouter(routerName);
+        }
+    }
+
+    protected static String toJson(final Object object) {
+        return gson.toJson(object);
+    }
+
     private static String appendUuidToJsonFiles(final String filename) {
         String remoteFileName = new String(filename);
         if (remoteFileName.endsWith("json")) {
@@ -137,4 +155,25 @@ public abstract class AbstractConfigItemFacade {
     }
 
     public abstract List<ConfigItem> generateConfig(NetworkElementCommand cmd);
+
+    /**
+     * Tells the facade whether the config generated last for the command made
+     * it to the router.
+     *
+     * @return true if the command has to be generated and applied again
+     */
+    public boolean configApplied(final NetworkElementCommand cmd, final boolean success) {
+        return false;
+    }
+
+    /**
+     * Tells the facade that it is not known how much of the config generated
+     * last for the command made it to the router, like when a batch of
+     * commands failed. The next config for the command is sent in full.
+     */
+    public void forgetConfig(final NetworkElementCommand cmd) {
+    }
+
+    protected void forgetRouter(final String routerName) {
+    }
 }
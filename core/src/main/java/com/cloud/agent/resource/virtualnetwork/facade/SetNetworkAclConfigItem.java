@@ -19,8 +19,17 @@
 
 package com.cloud.agent.resource.virtualnetwork.facade;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.log4j.Logger;
 
@@ -30,6 +39,7 @@ import com.cloud.agent.api.to.NicTO;
 import com.cloud.agent.resource.virtualnetwork.ConfigItem;
 import com.cloud.agent.resource.virtualnetwork.VRScripts;
 import com.cloud.agent.resource.virtualnetwork.model.AclRule;
+import com.cloud.agent.resource.virtualnetwork.model.AclRulesDelta;
 import com.cloud.agent.resource.virtualnetwork.model.AllAclRule;
 import com.cloud.agent.resource.virtualnetwork.model.ConfigBase;
 import com.cloud.agent.resource.virtualnetwork.model.IcmpAclRule;
@@ -37,12 +47,24 @@ import com.cloud.agent.resource.virtualnetwork.model.NetworkACL;
 import com.cloud.agent.resource.virtualnetwork.model.ProtocolAclRule;
 import com.cloud.agent.resource.virtualnetwork.model.TcpAclRule;
 import com.cloud.agent.resource.virtualnetwork.model.UdpAclRule;
+import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.utils.net.NetUtils;
 
 public class SetNetworkAclConfigItem extends AbstractConfigItemFacade {
 
     public static final Logger s_logger = Logger.getLogger(SetNetworkAclConfigItem.class.getName());
 
+    /*
+     * Rules last applied on each router nic, keyed by router name and device.
+     * Once the router holds known rules, only the changes are sent along with
+     * the hash of the rules they apply to. The hash identifies the content, so
+     * a delta from an agent or management server holding other rules for the
+     * router, like after a migration, is refused. The rules are then sent
+     * again in full.
+     */
+    private final Map<String, AppliedRules> appliedRules = new ConcurrentHashMap<String, AppliedRules>();
+    private final Map<String, AppliedRules> pendingRules = new ConcurrentHashMap<String, AppliedRules>();
+
     @Override
     public List<ConfigItem> generateConfig(final NetworkElementCommand cmd) {
         final SetNetworkACLCommand command = (SetNetworkACLCommand) cmd;
@@ -95,13 +117,203 @@ public class SetNetworkAclConfigItem extends AbstractConfigItemFacade {
         final NetworkACL networkACL = new NetworkACL(dev, nic.getMac(), privateGw != null, nic.getIp(), netmask, ingressRules.toArray(new AclRule[ingressRules.size()]),
                 egressRules.toArray(new AclRule[egressRules.size()]));
 
+        final String key = getKey(cmd, dev);
+        final AppliedRules previous = key != null ? appliedRules.get(key) : null;
+        // Rules generated but not confirmed yet, like in a batch of commands, are followed by full rules
+        final AppliedRules unconfirmed = key != null ? pendingRules.get(key) : null;
+        final List<String> ingressKeys = toKeys(ingressRules);
+        final List<String> egressKeys = toKeys(egressRules);
+        final AppliedRules next = new AppliedRules(hashRules(ingressKeys, egressKeys), ingressKeys, egressKeys);
+        networkACL.setRulesHash(next.hash);
+        if (unconfirmed == null && previous != null && previous.deltaSupported) {
+            final AclRulesDelta ingressDelta = computeDelta(previous.ingress, next.ingress, ingressRules);
+            final AclRulesDelta egressDelta = computeDelta(previous.egress, next.egress, egressRules);
+            if (ingressDelta != null && egressDelta != null && ingressDelta.size() + egressDelta.size() < ingressRules.size() + egressRules.size()) {
+                if (s_logger.isDebugEnabled()) {
+                    s_logger.debug("Sending " + ingressDelta.size() + " ingress and " + egressDelta.size() + " egress acl rule changes to " + key + " instead of "
+                            + (ingressRules.size() + egressRules.size()) + " rules");
+                }
+                networkACL.setBaseRulesHash(previous.hash);
+                networkACL.setIngressDelta(ingressDelta);
+                networkACL.setEgressDelta(egressDelta);
+                networkACL.setIngressRules(null);
+                networkACL.setEgressRules(null);
+                next.delta = true;
+            }
+        }
+        if (key != null) {
+            pendingRules.put(key, next);
+        }
+
         return generateConfigItems(networkACL);
     }
 
+    @Override
+    public boolean configApplied(final NetworkElementCommand cmd, final boolean success) {
+        final String key = getKey(cmd, "eth" + ((SetNetworkACLCommand)cmd).getNic().getDeviceId());
+        if (key == null) {
+            return false;
+        }
+        final AppliedRules applied = pendingRules.remove(key);
+        if (applied == null) {
+            return false;
+        }
+        if (success) {
+            // A router that failed a delta but took the full rules does not know about deltas
+            final AppliedRules previous = appliedRules.get(key);
+            applied.deltaSupported = previous == null || previous.deltaSupported;
+            appliedRules.put(key, applied);
+            return false;
+        }
+        if (applied.delta) {
+            s_logger.info("Router " + key + " refused the acl rule changes, sending all the rules");
+            final AppliedRules previous = appliedRules.remove(key);
+            if (previous != null) {
+                appliedRules.put(key, new AppliedRules(previous.hash, null, null, false));
+            }
+            return true;
+        }
+        appliedRules.remove(key);
+        return false;
+    }
+
+    @Override
+    public void forgetConfig(final NetworkElementCommand cmd) {
+        final String key = getKey(cmd, "eth" + ((SetNetworkACLCommand)cmd).getNic().getDeviceId());
+        if (key == null) {
+            return;
+        }
+        pendingRules.remove(key);
+        // Keep knowing a router that does not take deltas, without the rules it holds
+        final AppliedRules previous = appliedRules.remove(key);
+        if (previous != null && !previous.deltaSupported) {
+            appliedRules.put(key, new AppliedRules(previous.hash, null, null, false));
+        }
+    }
+
+    @Override
+    protected void forgetRouter(final String routerName) {
+        final String prefix = routerName + "/";
+        for (final Map<String, AppliedRules> rules : Arrays.asList(appliedRules, pendingRules)) {
+            final Iterator<String> it = rules.keySet().iterator();
+            while (it.hasNext()) {
+                if (it.next().startsWith(prefix)) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    private static String getKey(final NetworkElementCommand cmd, final String dev) {
+        final String routerName = cmd.getAccessDetail(NetworkElementCommand.ROUTER_NAME);
+        return routerName == null ? null : routerName + "/" + dev;
+    }
+
+    private static List<String> toKeys(final List<AclRule> rules) {
+        final List<String> keys = new ArrayList<String>(rules.size());
+        for (final AclRule rule : rules) {
+            keys.add(rule.getClass().getSimpleName() + toJson(rule));
+        }
+        return keys;
+    }
+
+    /**
+     * @return the first 64 bits of the SHA-256 digest of the ingress and
+     *         egress rules, in order
+     */
+    static long hashRules(final List<String> ingress, final List<String> egress) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (final NoSuchAlgorithmException e) {
+            throw new CloudRuntimeException("Unable to hash the acl rules", e);
+        }
+        for (final List<String> keys : Arrays.asList(ingress, egress)) {
+            for (final String key : keys) {
+                digest.update(key.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte)'\n');
+            }
+            digest.update((byte)0);
+        }
+        return ByteBuffer.wrap(digest.digest()).getLong();
+    }
+
+    /**
+     * @return the changes turning the previous rules into the new ones, or
+     *         null when the rules kept were reordered
+     */
+    static AclRulesDelta computeDelta(final List<String> previous, final List<String> keys, final List<AclRule> rules) {
+        if (previous == null) {
+            return null;
+        }
+        final Map<String, Integer> remaining = new HashMap<String, Integer>();
+        for (final String key : keys) {
+            final Integer count = remaining.get(key);
+            remaining.put(key, count == null ? 1 : count + 1);
+        }
+
+        final List<Integer> removed = new ArrayList<Integer>();
+        final List<String> kept = new ArrayList<String>();
+        for (int i = 0; i < previous.size(); i++) {
+            final String key = previous.get(i);
+            final Integer count = remaining.get(key);
+            if (count == null || count == 0) {
+                removed.add(i);
+            } else {
+                remaining.put(key, count - 1);
+                kept.add(key);
+            }
+        }
+
+        final List<Integer> positions = new ArrayList<Integer>();
+        final List<AclRule> added = new ArrayList<AclRule>();
+        int k = 0;
+        for (int i = 0; i < keys.size(); i++) {
+            if (k < kept.size() && kept.get(k).equals(keys.get(i))) {
+                k++;
+            } else {
+                positions.add(i);
+                added.add(rules.get(i));
+            }
+        }
+        if (k < kept.size()) {
+            return null;
+        }
+
+        return new AclRulesDelta(toArray(removed), toArray(positions), added.toArray(new AclRule[added.size()]));
+    }
+
+    private static int[] toArray(final List<Integer> values) {
+        final int[] array = new int[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+
     @Override
     protected List<ConfigItem> generateConfigItems(final ConfigBase configuration) {
         destinationFile = VRScripts.NETWORK_ACL_CONFIG;
 
         return super.generateConfigItems(configuration);
     }
+
+    private static class AppliedRules {
+        private final long hash;
+        private final List<String> ingress;
+        private final List<String> egress;
+        private boolean deltaSupported = true;
+        private boolean delta;
+
+        AppliedRules(final long hash, final List<String> ingress, final List<String> egress) {
+            this.hash = hash;
+            this.ingress = ingress;
+            this.egress = egress;
+        }
+
+        AppliedRules(final long hash, final List<String> ingress, final List<String> egress, final boolean deltaSupported) {
+            this(hash, ingress, egress);
+            this.deltaSupported = deltaSupported;
+        }
+    }
 }
@@ -0,0 +1,70 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.agent.resource.virtualnetwork.model;
+
+/**
+ * Changes to an ordered list of acl rules. The removed indexes refer to the
+ * previous list, the added rules are then inserted at their position in the
+ * new list, in ascending order.
+ */
+public class AclRulesDelta {
+    private int[] removed;
+    private int[] addedPositions;
+    private AclRule[] added;
+
+    public AclRulesDelta() {
+        // Empty constructor for (de)serialization
+    }
+
+    public AclRulesDelta(int[] removed, int[] addedPositions, AclRule[] added) {
+        this.removed = removed;
+        this.addedPositions = addedPositions;
+        this.added = added;
+    }
+
+    public int[] getRemoved() {
+        return removed;
+    }
+
+    public void setRemoved(int[] removed) {
+        this.removed = removed;
+    }
+
+    public int[] getAddedPositions() {
+        return addedPositions;
+    }
+
+    public void setAddedPositions(int[] addedPositions) {
+        this.addedPositions = addedPositions;
+    }
+
+    public AclRule[] getAdded() {
+        return added;
+    }
+
+    public void setAdded(AclRule[] added) {
+        this.added = added;
+    }
+
+    public int size() {
+        return removed.length + added.length;
+    }
+
+}
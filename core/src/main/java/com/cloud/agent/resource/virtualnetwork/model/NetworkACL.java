@@ -27,6 +27,10 @@ public class NetworkACL extends ConfigBase {
     private String nicNetmask;
     private AclRule[] ingressRules;
     private AclRule[] egressRules;
+    private Long rulesHash;
+    private Long baseRulesHash;
+    private AclRulesDelta ingressDelta;
+    private AclRulesDelta egressDelta;
 
     public NetworkACL() {
         super(ConfigBase.NETWORK_ACL);
@@ -99,4 +103,39 @@ public class NetworkACL extends ConfigBase {
         this.egressRules = egressRules;
     }
 
+    public Long getRulesHash() {
+        return rulesHash;
+    }
+
+    public void setRulesHash(Long rulesHash) {
+        this.rulesHash = rulesHash;
+    }
+
+    /**
+     * @return the hash of the rules the deltas apply to, null when the rules are sent in full
+     */
+    public Long getBaseRulesHash() {
+        return baseRulesHash;
+    }
+
+    public void setBaseRulesHash(Long baseRulesHash) {
+        this.baseRulesHash = baseRulesHash;
+    }
+
+    public AclRulesDelta getIngressDelta() {
+        return ingressDelta;
+    }
+
+    public void setIngressDelta(AclRulesDelta ingressDelta) {
+        this.ingressDelta = ingressDelta;
+    }
+
+    public AclRulesDelta getEgressDelta() {
+        return egressDelta;
+    }
+
+    public void setEgressDelta(AclRulesDelta egressDelta) {
+        this.egressDelta = egressDelta;
+    }
+
 }
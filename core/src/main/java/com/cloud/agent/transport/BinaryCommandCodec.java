@@ -0,0 +1,749 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.agent.transport;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+import org.apache.cloudstack.storage.to.ImageStoreTO;
+import org.apache.cloudstack.storage.to.PrimaryDataStoreTO;
+import org.apache.cloudstack.storage.to.SnapshotObjectTO;
+import org.apache.cloudstack.storage.to.TemplateObjectTO;
+import org.apache.cloudstack.storage.to.VolumeObjectTO;
+
+import com.google.gson.Gson;
+
+import com.cloud.agent.api.Answer;
+import com.cloud.agent.api.CheckHealthAnswer;
+import com.cloud.agent.api.CheckHealthCommand;
+import com.cloud.agent.api.CheckNetworkAnswer;
+import com.cloud.agent.api.CheckNetworkCommand;
+import com.cloud.agent.api.CheckVirtualMachineAnswer;
+import com.cloud.agent.api.CheckVirtualMachineCommand;
+import com.cloud.agent.api.Command;
+import com.cloud.agent.api.GetHostStatsAnswer;
+import com.cloud.agent.api.GetHostStatsCommand;
+import com.cloud.agent.api.GetStorageStatsAnswer;
+import com.cloud.agent.api.GetStorageStatsCommand;
+import com.cloud.agent.api.GetVmDiskStatsAnswer;
+import com.cloud.agent.api.GetVmDiskStatsCommand;
+import com.cloud.agent.api.GetVmNetworkStatsAnswer;
+import com.cloud.agent.api.GetVmNetworkStatsCommand;
+import com.cloud.agent.api.GetVmStatsAnswer;
+import com.cloud.agent.api.GetVmStatsCommand;
+import com.cloud.agent.api.GetVolumeStatsAnswer;
+import com.cloud.agent.api.GetVolumeStatsCommand;
+import com.cloud.agent.api.NetworkUsageAnswer;
+import com.cloud.agent.api.NetworkUsageCommand;
+import com.cloud.agent.api.PingAnswer;
+import com.cloud.agent.api.PingCommand;
+import com.cloud.agent.api.PingRoutingCommand;
+import com.cloud.agent.api.PingStorageCommand;
+import com.cloud.agent.api.ReadyAnswer;
+import com.cloud.agent.api.ReadyCommand;
+import com.cloud.agent.api.StartAnswer;
+import com.cloud.agent.api.StartCommand;
+import com.cloud.agent.api.StopAnswer;
+import com.cloud.agent.api.StopCommand;
+import com.cloud.agent.api.UnsupportedAnswer;
+import com.cloud.agent.api.to.NfsTO;
+import com.cloud.agent.api.to.SwiftTO;
+import com.cloud.serializer.GsonHelper;
+import com.cloud.utils.exception.CloudRuntimeException;
+
+/**
+ * Compact binary marshalling of Command and Answer arrays used by
+ * {@link Request.Version#v4}.
+ *
+ * Registered classes (the commands and answers exchanged most often between
+ * the management server and the agents) are written field by field, in a
+ * fixed order derived from their declared fields, with a one or two byte class
+ * reference instead of the fully qualified class name. Nested CloudStack
+ * objects are written the same way; class names that are not registered are
+ * only written once per message and referenced afterwards. Commands that are
+ * not registered, and values whose type is not a CloudStack type, fall back to
+ * the regular Gson representation so that nothing is lost.
+ *
+ * Both ends have to agree on the field layout of the registered classes, which
+ * is why the schema fingerprint is exchanged before the binary format is used.
+ * Fields declared with an interface or abstract type only reach the fingerprint
+ * through the known implementations listed in {@link #s_implementations}; any
+ * other class is written with a digest of its field layout the first time it
+ * is named in a message, and the receiving end refuses to decode it when its
+ * own layout differs.
+ */
+public class BinaryCommandCodec {
+
+    /**
+     * Append only. The position in this list is the class id on the wire.
+     */
+    private static final List<Class<?>> s_registered = Arrays.<Class<?>>asList(
+            Command.class, Answer.class, UnsupportedAnswer.class,
+            PingCommand.class, PingRoutingCommand.class, PingStorageCommand.class, PingAnswer.class,
+            ReadyCommand.class, ReadyAnswer.class,
+            CheckHealthCommand.class, CheckHealthAnswer.class,
+            GetHostStatsCommand.class, GetHostStatsAnswer.class,
+            GetVmStatsCommand.class, GetVmStatsAnswer.class,
+            GetVmDiskStatsCommand.class, GetVmDiskStatsAnswer.class,
+            GetVmNetworkStatsCommand.class, GetVmNetworkStatsAnswer.class,
+            GetVolumeStatsCommand.class, GetVolumeStatsAnswer.class,
+            GetStorageStatsCommand.class, GetStorageStatsAnswer.class,
+            NetworkUsageCommand.class, NetworkUsageAnswer.class,
+            CheckVirtualMachineCommand.class, CheckVirtualMachineAnswer.class,
+            CheckNetworkCommand.class, CheckNetworkAnswer.class,
+            StartCommand.class, StartAnswer.class,
+            StopCommand.class, StopAnswer.class);
+
+    /**
+     * Implementations of the interface and abstract types used by the fields of
+     * the registered classes, which the field types alone don't lead to.
+     */
+    private static final List<Class<?>> s_implementations = Arrays.<Class<?>>asList(
+            VolumeObjectTO.class, TemplateObjectTO.class, SnapshotObjectTO.class,
+            PrimaryDataStoreTO.class, ImageStoreTO.class, NfsTO.class, SwiftTO.class);
+
+    private static final Map<Class<?>, Integer> s_registeredIds = new HashMap<Class<?>, Integer>();
+
+    static {
+        for (int i = 0; i < s_registered.size(); i++) {
+            s_registeredIds.put(s_registered.get(i), i);
+        }
+    }
+
+    private static final byte T_NULL = 0;
+    private static final byte T_TRUE = 1;
+    private static final byte T_FALSE = 2;
+    private static final byte T_BYTE = 3;
+    private static final byte T_SHORT = 4;
+    private static final byte T_CHAR = 5;
+    private static final byte T_INT = 6;
+    private static final byte T_LONG = 7;
+    private static final byte T_FLOAT = 8;
+    private static final byte T_DOUBLE = 9;
+    private static final byte T_STRING = 10;
+    private static final byte T_ENUM = 11;
+    private static final byte T_BYTES = 12;
+    private static final byte T_ARRAY = 13;
+    private static final byte T_LIST = 14;
+    private static final byte T_SET = 15;
+    private static final byte T_MAP = 16;
+    private static final byte T_OBJECT = 17;
+    private static final byte T_JSON = 18;
+
+    private static final byte C_REGISTERED = 0;
+    private static final byte C_NAME = 1;
+    private static final byte C_REFERENCE = 2;
+
+    private static final Map<String, Class<?>> s_primitives = new HashMap<String, Class<?>>();
+
+    static {
+        for (Class<?> clazz : new Class<?>[] {boolean.class, byte.class, short.class, char.class, int.class, long.class, float.class, double.class}) {
+            s_primitives.put(clazz.getName(), clazz);
+        }
+    }
+
+    private static final Map<Class<?>, Field[]> s_schemas = new ConcurrentHashMap<Class<?>, Field[]>();
+    private static final Map<Class<?>, Integer> s_layouts = new ConcurrentHashMap<Class<?>, Integer>();
+
+    private static final Gson s_gson = GsonHelper.getGson();
+
+    private static volatile String s_fingerprint;
+
+    private static Object s_unsafe;
+    private static Method s_allocateInstance;
+
+    private BinaryCommandCodec() {
+    }
+
+    public static boolean isRegistered(final Class<?> clazz) {
+        return s_registeredIds.containsKey(clazz);
+    }
+
+    public static byte[] encode(final Command[] cmds) {
+        final Output out = new Output(256);
+        out.writeVarInt(cmds.length);
+        for (final Command cmd : cmds) {
+            if (cmd == null) {
+                out.writeByte(T_NULL);
+            } else if (isRegistered(cmd.getClass())) {
+                writeObject(out, cmd);
+            } else {
+                writeJson(out, cmd);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T extends Command> T[] decode(final byte[] bytes, final Class<T> type) {
+        final Input in = new Input(ByteBuffer.wrap(bytes));
+        final int count = in.readVarInt();
+        final T[] cmds = (T[])Array.newInstance(type, count);
+        for (int i = 0; i < count; i++) {
+            cmds[i] = (T)readValue(in, type);
+        }
+        return cmds;
+    }
+
+    /**
+     * @return the number of commands encoded in the payload, or 1 when even
+     *         that can't be read.
+     */
+    public static int count(final byte[] bytes) {
+        try {
+            final int count = new Input(ByteBuffer.wrap(bytes)).readVarInt();
+            return count > 0 && count <= bytes.length ? count : 1;
+        } catch (RuntimeException e) {
+            return 1;
+        }
+    }
+
+    /**
+     * @return a digest of the field layout of every registered class and of
+     *         the CloudStack types reachable from their declared fields.
+     */
+    public static String getSchemaFingerprint() {
+        String fingerprint = s_fingerprint;
+        if (fingerprint == null) {
+            final CRC32 crc = new CRC32();
+            final Set<Class<?>> visited = new HashSet<Class<?>>();
+            for (final Class<?> clazz : s_registered) {
+                addToFingerprint(crc, clazz, visited);
+            }
+            for (final Class<?> clazz : s_implementations) {
+                addToFingerprint(crc, clazz, visited);
+            }
+            fingerprint = s_registered.size() + "-" + Long.toHexString(crc.getValue());
+            s_fingerprint = fingerprint;
+        }
+        return fingerprint;
+    }
+
+    private static void addToFingerprint(final CRC32 crc, final Class<?> clazz, final Set<Class<?>> visited) {
+        if (!visited.add(clazz)) {
+            return;
+        }
+        crc.update(clazz.getName().getBytes(StandardCharsets.UTF_8));
+        for (final Field field : getSchema(clazz)) {
+            crc.update(field.getName().getBytes(StandardCharsets.UTF_8));
+            crc.update(field.getType().getName().getBytes(StandardCharsets.UTF_8));
+            Class<?> type = field.getType();
+            while (type.isArray()) {
+                type = type.getComponentType();
+            }
+            if (isCloudType(type) && !type.isInterface() && !Modifier.isAbstract(type.getModifiers()) && !type.isEnum()) {
+                addToFingerprint(crc, type, visited);
+            }
+        }
+    }
+
+    /**
+     * @return a digest of the field layout of the class alone, checked on
+     *         decoding for the classes which aren't registered.
+     */
+    protected static int getLayout(final Class<?> clazz) {
+        Integer layout = s_layouts.get(clazz);
+        if (layout == null) {
+            final CRC32 crc = new CRC32();
+            crc.update(clazz.getName().getBytes(StandardCharsets.UTF_8));
+            for (final Field field : getSchema(clazz)) {
+                crc.update(field.getName().getBytes(StandardCharsets.UTF_8));
+                crc.update(field.getType().getName().getBytes(StandardCharsets.UTF_8));
+            }
+            layout = (int)crc.getValue();
+            s_layouts.put(clazz, layout);
+        }
+        return layout;
+    }
+
+    protected static Field[] getSchema(final Class<?> clazz) {
+        Field[] schema = s_schemas.get(clazz);
+        if (schema == null) {
+            final List<Class<?>> hierarchy = new ArrayList<Class<?>>();
+            for (Class<?> c = clazz; c != null && c != Object.class; c = c.getSuperclass()) {
+                hierarchy.add(0, c);
+            }
+            final List<Field> fields = new ArrayList<Field>();
+            for (final Class<?> c : hierarchy) {
+                final Field[] declared = c.getDeclaredFields();
+                Arrays.sort(declared, new Comparator<Field>() {
+                    @Override
+                    public int compare(final Field f1, final Field f2) {
+                        return f1.getName().compareTo(f2.getName());
+                    }
+                });
+                for (final Field field : declared) {
+                    final int modifiers = field.getModifiers();
+                    // Same exclusions as Gson applies by default.
+                    if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()) {
+                        continue;
+                    }
+                    field.setAccessible(true);
+                    fields.add(field);
+                }
+            }
+            schema = fields.toArray(new Field[fields.size()]);
+            s_schemas.put(clazz, schema);
+        }
+        return schema;
+    }
+
+    protected static boolean isCloudType(final Class<?> clazz) {
+        final String name = clazz.getName();
+        return name.startsWith("com.cloud.") || name.startsWith("org.apache.cloudstack.");
+    }
+
+    private static void writeObject(final Output out, final Object obj) {
+        final Field[] schema = getSchema(obj.getClass());
+        out.writeByte(T_OBJECT);
+        writeClass(out, obj.getClass(), true);
+        out.writeVarInt(schema.length);
+        try {
+            for (final Field field : schema) {
+                writeValue(out, field.get(obj));
+            }
+        } catch (final IllegalAccessException e) {
+            throw new CloudRuntimeException("Unable to marshall " + obj.getClass().getName(), e);
+        }
+    }
+
+    private static void writeJson(final Output out, final Object obj) {
+        out.writeByte(T_JSON);
+        writeClass(out, obj.getClass());
+        out.writeString(s_gson.toJson(obj));
+    }
+
+    private static void writeValue(final Output out, final Object value) {
+        if (value == null) {
+            out.writeByte(T_NULL);
+            return;
+        }
+        final Class<?> clazz = value.getClass();
+        if (clazz == String.class) {
+            out.writeByte(T_STRING);
+            out.writeString((String)value);
+        } else if (clazz == Long.class) {
+            out.writeByte(T_LONG);
+            out.writeVarLong((Long)value);
+        } else if (clazz == Integer.class) {
+            out.writeByte(T_INT);
+            out.writeVarLong((Integer)value);
+        } else if (clazz == Boolean.class) {
+            out.writeByte((Boolean)value ? T_TRUE : T_FALSE);
+        } else if (clazz == Double.class) {
+            out.writeByte(T_DOUBLE);
+            out.writeLong(Double.doubleToRawLongBits((Double)value));
+        } else if (clazz == Float.class) {
+            out.writeByte(T_FLOAT);
+            out.writeInt(Float.floatToRawIntBits((Float)value));
+        } else if (clazz == Short.class) {
+            out.writeByte(T_SHORT);
+            out.writeVarLong((Short)value);
+        } else if (clazz == Byte.class) {
+            out.writeByte(T_BYTE);
+            out.writeByte((Byte)value);
+        } else if (clazz == Character.class) {
+            out.writeByte(T_CHAR);
+            out.writeVarInt((Character)value);
+        } else if (value instanceof Enum) {
+            out.writeByte(T_ENUM);
+            writeClass(out, ((Enum<?>)value).getDeclaringClass());
+            out.writeString(((Enum<?>)value).name());
+        } else if (clazz == byte[].class) {
+            final byte[] bytes = (byte[])value;
+            out.writeByte(T_BYTES);
+            out.writeVarInt(bytes.length);
+            out.writeBytes(bytes, 0, bytes.length);
+        } else if (clazz.isArray()) {
+            final int length = Array.getLength(value);
+            out.writeByte(T_ARRAY);
+            writeClass(out, clazz.getComponentType());
+            out.writeVarInt(length);
+            for (int i = 0; i < length; i++) {
+                writeValue(out, Array.get(value, i));
+            }
+        } else if (value instanceof Collection) {
+            final Collection<?> collection = (Collection<?>)value;
+            out.writeByte(value instanceof Set ? T_SET : T_LIST);
+            out.writeVarInt(collection.size());
+            for (final Object element : collection) {
+                writeValue(out, element);
+            }
+        } else if (value instanceof Map) {
+            final Map<?, ?> map = (Map<?, ?>)value;
+            out.writeByte(T_MAP);
+            out.writeVarInt(map.size());
+            for (final Map.Entry<?, ?> entry : map.entrySet()) {
+                writeValue(out, entry.getKey());
+                writeValue(out, entry.getValue());
+            }
+        } else if (isCloudType(clazz) && !clazz.isAnonymousClass() && !clazz.isLocalClass()) {
+            writeObject(out, value);
+        } else {
+            writeJson(out, value);
+        }
+    }
+
+    private static void writeClass(final Output out, final Class<?> clazz) {
+        writeClass(out, clazz, false);
+    }
+
+    private static void writeClass(final Output out, final Class<?> clazz, final boolean withLayout) {
+        final Integer id = s_registeredIds.get(clazz);
+        if (id != null) {
+            out.writeByte(C_REGISTERED);
+            out.writeVarInt(id);
+            return;
+        }
+        final Integer ref = out.classes.get(clazz);
+        if (ref != null) {
+            out.writeByte(C_REFERENCE);
+            out.writeVarInt(ref);
+            return;
+        }
+        out.classes.put(clazz, out.classes.size());
+        out.writeByte(C_NAME);
+        out.writeString(clazz.getName());
+        if (withLayout) {
+            out.writeInt(getLayout(clazz));
+        }
+    }
+
+    private static Class<?> readClass(final Input in) {
+        return readClass(in, false);
+    }
+
+    private static Class<?> readClass(final Input in, final boolean withLayout) {
+        final byte kind = in.readByte();
+        switch (kind) {
+        case C_REGISTERED:
+            final int id = in.readVarInt();
+            if (id >= s_registered.size()) {
+                throw new CloudRuntimeException("Unknown registered class id " + id);
+            }
+            return s_registered.get(id);
+        case C_REFERENCE:
+            return in.classes.get(in.readVarInt());
+        case C_NAME:
+            final String name = in.readString();
+            Class<?> clazz = s_primitives.get(name);
+            if (clazz == null) {
+                try {
+                    clazz = Class.forName(name);
+                } catch (final ClassNotFoundException e) {
+                    throw new CloudRuntimeException("can't find " + name);
+                }
+            }
+            if (withLayout && in.readInt() != getLayout(clazz)) {
+                throw new CloudRuntimeException("Schema mismatch for " + name + ", the field layout differs between both ends");
+            }
+            in.classes.add(clazz);
+            return clazz;
+        default:
+            throw new CloudRuntimeException("Corrupted class reference " + kind);
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object readValue(final Input in, final Class<?> declared) {
+        final byte tag = in.readByte();
+        switch (tag) {
+        case T_NULL:
+            return null;
+        case T_TRUE:
+            return Boolean.TRUE;
+        case T_FALSE:
+            return Boolean.FALSE;
+        case T_BYTE:
+            return in.readByte();
+        case T_SHORT:
+            return (short)in.readVarLong();
+        case T_CHAR:
+            return (char)in.readVarInt();
+        case T_INT:
+            return (int)in.readVarLong();
+        case T_LONG:
+            return in.readVarLong();
+        case T_FLOAT:
+            return Float.intBitsToFloat(in.readInt());
+        case T_DOUBLE:
+            return Double.longBitsToDouble(in.readLong());
+        case T_STRING:
+            return in.readString();
+        case T_ENUM:
+            final Class enumClass = readClass(in);
+            return Enum.valueOf(enumClass, in.readString());
+        case T_BYTES:
+            final byte[] bytes = new byte[in.readVarInt()];
+            in.readBytes(bytes);
+            return bytes;
+        case T_ARRAY:
+            final Class<?> component = readClass(in);
+            final int length = in.readVarInt();
+            final Object array = Array.newInstance(component, length);
+            for (int i = 0; i < length; i++) {
+                Array.set(array, i, readValue(in, component));
+            }
+            return array;
+        case T_LIST:
+        case T_SET:
+            final int size = in.readVarInt();
+            final Collection collection = newCollection(declared, tag == T_SET, size);
+            for (int i = 0; i < size; i++) {
+                collection.add(readValue(in, Object.class));
+            }
+            return collection;
+        case T_MAP:
+            final int entries = in.readVarInt();
+            final Map map = newMap(declared, entries);
+            for (int i = 0; i < entries; i++) {
+                final Object key = readValue(in, Object.class);
+                map.put(key, readValue(in, Object.class));
+            }
+            return map;
+        case T_OBJECT:
+            return readObject(in, readClass(in, true));
+        case T_JSON:
+            final Class<?> clazz = readClass(in);
+            return s_gson.fromJson(in.readString(), clazz);
+        default:
+            throw new CloudRuntimeException("Corrupted binary content, unknown tag " + tag);
+        }
+    }
+
+    private static Object readObject(final Input in, final Class<?> clazz) {
+        final Field[] schema = getSchema(clazz);
+        final int count = in.readVarInt();
+        if (count != schema.length) {
+            throw new CloudRuntimeException("Schema mismatch for " + clazz.getName() + ": expected " + schema.length + " fields but got " + count);
+        }
+        final Object obj = newInstance(clazz);
+        try {
+            for (final Field field : schema) {
+                final Object value = readValue(in, field.getType());
+                if (value != null || !field.getType().isPrimitive()) {
+                    field.set(obj, value);
+                }
+            }
+        } catch (final IllegalAccessException | IllegalArgumentException e) {
+            throw new CloudRuntimeException("Unable to unmarshall " + clazz.getName(), e);
+        }
+        return obj;
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static Collection newCollection(final Class<?> declared, final boolean set, final int size) {
+        if (declared.isInterface() || Modifier.isAbstract(declared.getModifiers()) || declared == Object.class) {
+            if (set) {
+                return declared.isAssignableFrom(LinkedHashSet.class) ? new LinkedHashSet(size) : (Collection)newInstance(declared);
+            }
+            return declared.isAssignableFrom(ArrayList.class) ? new ArrayList(size) : (Collection)newInstance(declared);
+        }
+        return (Collection)newInstance(declared);
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static Map newMap(final Class<?> declared, final int size) {
+        if (declared.isInterface() || Modifier.isAbstract(declared.getModifiers()) || declared == Object.class) {
+            return declared.isAssignableFrom(LinkedHashMap.class) ? new LinkedHashMap(size) : (Map)newInstance(declared);
+        }
+        return (Map)newInstance(declared);
+    }
+
+    private static Object newInstance(final Class<?> clazz) {
+        try {
+            final Constructor<?> constructor = clazz.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            return constructor.newInstance();
+        } catch (final NoSuchMethodException e) {
+            // Like Gson, fall through to allocating the object without running a constructor.
+        } catch (final ReflectiveOperationException e) {
+            throw new CloudRuntimeException("Unable to instantiate " + clazz.getName(), e);
+        }
+        try {
+            synchronized (BinaryCommandCodec.class) {
+                if (s_allocateInstance == null) {
+                    final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                    final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                    theUnsafe.setAccessible(true);
+                    s_unsafe = theUnsafe.get(null);
+                    s_allocateInstance = unsafeClass.getMethod("allocateInstance", Class.class);
+                }
+            }
+            return s_allocateInstance.invoke(s_unsafe, clazz);
+        } catch (final ReflectiveOperationException e) {
+            throw new CloudRuntimeException("Unable to instantiate " + clazz.getName(), e);
+        }
+    }
+
+    protected static class Output {
+        private byte[] _buf;
+        private int _pos;
+        final Map<Class<?>, Integer> classes = new HashMap<Class<?>, Integer>();
+
+        Output(final int capacity) {
+            _buf = new byte[capacity];
+        }
+
+        private void ensure(final int more) {
+            if (_pos + more > _buf.length) {
+                _buf = Arrays.copyOf(_buf, Math.max(_buf.length << 1, _pos + more));
+            }
+        }
+
+        void writeByte(final int b) {
+            ensure(1);
+            _buf[_pos++] = (byte)b;
+        }
+
+        void writeBytes(final byte[] bytes, final int offset, final int length) {
+            ensure(length);
+            System.arraycopy(bytes, offset, _buf, _pos, length);
+            _pos += length;
+        }
+
+        void writeInt(final int v) {
+            ensure(4);
+            _buf[_pos++] = (byte)(v >>> 24);
+            _buf[_pos++] = (byte)(v >>> 16);
+            _buf[_pos++] = (byte)(v >>> 8);
+            _buf[_pos++] = (byte)v;
+        }
+
+        void writeLong(final long v) {
+            writeInt((int)(v >>> 32));
+            writeInt((int)v);
+        }
+
+        void writeVarInt(int v) {
+            ensure(5);
+            while ((v & ~0x7F) != 0) {
+                _buf[_pos++] = (byte)((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            _buf[_pos++] = (byte)v;
+        }
+
+        /**
+         * Zig-zag encoded so that small negative values (-1 is a common
+         * "unset" marker in commands) stay small on the wire.
+         */
+        void writeVarLong(final long value) {
+            long v = (value << 1) ^ (value >> 63);
+            ensure(10);
+            while ((v & ~0x7FL) != 0) {
+                _buf[_pos++] = (byte)((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            _buf[_pos++] = (byte)v;
+        }
+
+        void writeString(final String s) {
+            final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(bytes.length);
+            writeBytes(bytes, 0, bytes.length);
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(_buf, _pos);
+        }
+    }
+
+    protected static class Input {
+        private final ByteBuffer _buf;
+        final List<Class<?>> classes = new ArrayList<Class<?>>();
+
+        Input(final ByteBuffer buf) {
+            _buf = buf;
+        }
+
+        byte readByte() {
+            return _buf.get();
+        }
+
+        void readBytes(final byte[] bytes) {
+            _buf.get(bytes);
+        }
+
+        int readInt() {
+            return _buf.getInt();
+        }
+
+        long readLong() {
+            return _buf.getLong();
+        }
+
+        int readVarInt() {
+            int result = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                final byte b = _buf.get();
+                result |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            throw new CloudRuntimeException("Malformed variable length integer");
+        }
+
+        long readVarLong() {
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                final byte b = _buf.get();
+                result |= (long)(b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return (result >>> 1) ^ -(result & 1);
+                }
+            }
+            throw new CloudRuntimeException("Malformed variable length long");
+        }
+
+        String readString() {
+            final int length = readVarInt();
+            final String s;
+            if (_buf.hasArray()) {
+                s = new String(_buf.array(), _buf.arrayOffset() + _buf.position(), length, StandardCharsets.UTF_8);
+                _buf.position(_buf.position() + length);
+            } else {
+                final byte[] bytes = new byte[length];
+                _buf.get(bytes);
+                s = new String(bytes, StandardCharsets.UTF_8);
+            }
+            return s;
+        }
+    }
+}
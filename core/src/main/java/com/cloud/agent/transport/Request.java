@@ -26,6 +26,7 @@ import java.io.StringReader;
 import java.lang.reflect.Type;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
@@ -85,7 +86,8 @@ public class Request {
     public enum Version {
         v1, // using gson to marshall
         v2, // now using gson as marshalled.
-        v3; // Adding routing information into the Request data structure.
+        v3, // Adding routing information into the Request data structure.
+        v4; // Compact binary marshalling of registered commands, see BinaryCommandCodec.
 
         public static Version get(final byte ver) throws UnsupportedVersionException {
             for (final Version version : Version.values()) {
@@ -114,6 +116,7 @@ public class Request {
     protected long _agentId;
     protected Command[] _cmds;
     protected String _content;
+    protected byte[] _binaryContent;
     protected String _agentName;
 
     protected Request() {
@@ -139,6 +142,11 @@ public class Request {
         _content = content;
     }
 
+    protected Request(Version ver, long seq, long agentId, long mgmtId, long via, short flags, final byte[] binaryContent) {
+        this(ver, seq, agentId, mgmtId, via, flags, (Command[])null);
+        _binaryContent = binaryContent;
+    }
+
     public Request(long agentId, long mgmtId, Command command, boolean fromServer) {
         this(agentId, mgmtId, new Command[] {command}, true, fromServer);
     }
@@ -219,6 +227,14 @@ public class Request {
         return _ver;
     }
 
+    /**
+     * Sets the wire format used by {@link #toBytes()}. Responses are sent in
+     * the same format as the request they answer.
+     */
+    public void setVersion(Version ver) {
+        _ver = ver;
+    }
+
     public void setAgentId(long agentId) {
         _agentId = agentId;
     }
@@ -245,7 +261,14 @@ public class Request {
     }
 
     public Command[] getCommands() {
-        if (_cmds == null) {
+        if (_cmds == null && _binaryContent != null) {
+            try {
+                _cmds = deserializeContent();
+            } catch (RuntimeException e) {
+                s_logger.error("Unable to unmarshall binary content of " + getType() + _agentId + "-" + _seq, e);
+                _cmds = new Command[] { new BadCommand() };
+            }
+        } else if (_cmds == null) {
             try {
                 StringReader reader = new StringReader(_content);
                 JsonReader jsonReader = new JsonReader(reader);
@@ -330,10 +353,17 @@ public class Request {
         final ByteBuffer[] buffers = new ByteBuffer[2];
         ByteBuffer tmp;
 
-        if (_content == null) {
-            _content = s_gson.toJson(_cmds, _cmds.getClass());
+        if (_ver == Version.v4) {
+            if (_binaryContent == null) {
+                _binaryContent = BinaryCommandCodec.encode(getCommands());
+            }
+            tmp = ByteBuffer.wrap(_binaryContent);
+        } else {
+            if (_content == null) {
+                _content = s_gson.toJson(getCommands(), _cmds.getClass());
+            }
+            tmp = ByteBuffer.wrap(_content.getBytes());
         }
-        tmp = ByteBuffer.wrap(_content.getBytes());
         int capacity = tmp.capacity();
         /* Check if we need to compress the data */
         if (capacity >= 8192) {
@@ -401,7 +431,7 @@ public class Request {
         if (logContent) {
             if (_cmds == null) {
                 try {
-                    _cmds = s_gson.fromJson(_content, this instanceof Response ? Answer[].class : Command[].class);
+                    _cmds = deserializeContent();
                 } catch (RuntimeException e) {
                     s_logger.error("Unable to deserialize from json: " + _content);
                     throw e;
@@ -424,7 +454,7 @@ public class Request {
             }
         } else {
             if (_cmds == null) {
-                _cmds = s_gson.fromJson(_content, this instanceof Response ? Answer[].class : Command[].class);
+                _cmds = deserializeContent();
             }
             content.append("{ ");
             for (Command cmd : _cmds) {
@@ -457,6 +487,14 @@ public class Request {
         return buf.toString();
     }
 
+    private Command[] deserializeContent() {
+        if (_binaryContent != null) {
+            final Class<? extends Command> type = this instanceof Response ? Answer.class : Command.class;
+            return BinaryCommandCodec.decode(_binaryContent, type);
+        }
+        return s_gson.fromJson(_content, this instanceof Response ? Answer[].class : Command[].class);
+    }
+
     public static String cleanPassword(String logString) {
         String cleanLogString = null;
         if (logString != null) {
@@ -491,7 +529,7 @@ public class Request {
         ByteBuffer buff = ByteBuffer.wrap(bytes);
         final byte ver = buff.get();
         final Version version = Version.get(ver);
-        if (version.ordinal() != Version.v1.ordinal() && version.ordinal() != Version.v3.ordinal()) {
+        if (version.ordinal() != Version.v1.ordinal() && version.ordinal() != Version.v3.ordinal() && version.ordinal() != Version.v4.ordinal()) {
             throw new UnsupportedVersionException("This version is no longer supported: " + version.toString(), UnsupportedVersionException.IncompatibleVersion);
         }
         buff.get();
@@ -505,7 +543,7 @@ public class Request {
         final long agentId = buff.getLong();
 
         long via;
-        if (version.ordinal() == Version.v1.ordinal()) {
+        if (version.ordinal() == Version.v1.ordinal() || version.ordinal() == Version.v4.ordinal()) {
             via = buff.getLong();
         } else {
             via = agentId;
@@ -526,6 +564,15 @@ public class Request {
             offset = 0;
         }
 
+        if (version.ordinal() == Version.v4.ordinal()) {
+            final byte[] binaryContent = offset == 0 ? command : Arrays.copyOfRange(command, offset, command.length);
+            if (isRequest) {
+                return new Request(version, seq, agentId, mgmtId, via, flags, binaryContent);
+            } else {
+                return new Response(version, seq, agentId, mgmtId, via, flags, binaryContent);
+            }
+        }
+
         final String content = new String(command, offset, command.length - offset);
 
         if (isRequest) {
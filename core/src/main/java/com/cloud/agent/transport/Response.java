@@ -19,6 +19,10 @@
 
 package com.cloud.agent.transport;
 
+import org.apache.log4j.Logger;
+
+import com.google.gson.JsonParseException;
+
 import com.cloud.agent.api.Answer;
 import com.cloud.exception.UnsupportedVersionException;
 
@@ -26,6 +30,8 @@ import com.cloud.exception.UnsupportedVersionException;
  *
  */
 public class Response extends Request {
+    private static final Logger s_logger = Logger.getLogger(Response.class);
+
     protected Response() {
     }
 
@@ -51,18 +57,42 @@ public class Response extends Request {
         super(ver, seq, agentId, mgmtId, via, flags, ans);
     }
 
+    protected Response(Version ver, long seq, long agentId, long mgmtId, long via, short flags, byte[] binaryContent) {
+        super(ver, seq, agentId, mgmtId, via, flags, binaryContent);
+    }
+
     public Answer getAnswer() {
         Answer[] answers = getAnswers();
         return answers[0];
     }
 
     public Answer[] getAnswers() {
-        if (_cmds == null) {
-            _cmds = s_gson.fromJson(_content, Answer[].class);
+        if (_cmds == null && _binaryContent != null) {
+            try {
+                _cmds = BinaryCommandCodec.decode(_binaryContent, Answer.class);
+            } catch (RuntimeException e) {
+                s_logger.error("Unable to unmarshall binary content of " + getType() + _agentId + "-" + _seq, e);
+                _cmds = failedAnswers(BinaryCommandCodec.count(_binaryContent), e);
+            }
+        } else if (_cmds == null) {
+            try {
+                _cmds = s_gson.fromJson(_content, Answer[].class);
+            } catch (JsonParseException e) {
+                s_logger.error("Unable to unmarshall content of " + getType() + _agentId + "-" + _seq, e);
+                _cmds = failedAnswers(1, e);
+            }
         }
         return (Answer[])_cmds;
     }
 
+    private static Answer[] failedAnswers(final int count, final RuntimeException e) {
+        final Answer[] answers = new Answer[Math.max(count, 1)];
+        for (int i = 0; i < answers.length; i++) {
+            answers[i] = new Answer(null, false, "Unable to decode the answer: " + e.getMessage());
+        }
+        return answers;
+    }
+
     @Override
     protected String getType() {
         return "Ans: ";
@@ -21,6 +21,10 @@ package com.cloud.info;
 
 public class ConsoleProxyStatus {
     private ConsoleProxyConnectionInfo[] connections;
+    private int activeRequests;
+    private int requestQueueDepth;
+    private long rejectedRequests;
+    private boolean overloaded;
 
     public ConsoleProxyStatus() {
     }
@@ -28,4 +32,23 @@ public class ConsoleProxyStatus {
     public ConsoleProxyConnectionInfo[] getConnections() {
         return connections;
     }
+
+    public int getActiveRequests() {
+        return activeRequests;
+    }
+
+    public int getRequestQueueDepth() {
+        return requestQueueDepth;
+    }
+
+    public long getRejectedRequests() {
+        return rejectedRequests;
+    }
+
+    /**
+     * @return true if the proxy declines new sessions because its requests queue up
+     */
+    public boolean isOverloaded() {
+        return overloaded;
+    }
 }
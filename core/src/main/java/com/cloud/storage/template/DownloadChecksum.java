@@ -0,0 +1,115 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.storage.template;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.apache.cloudstack.utils.security.ChecksumValue;
+import org.apache.cloudstack.utils.security.DigestHelper;
+import org.apache.log4j.Logger;
+
+/**
+ * Checksum of a template computed while it is downloaded, from the same
+ * buffers that are written to the secondary storage, so the file does not
+ * have to be read back once complete.
+ *
+ * A download restarts the checksum with {@link #start()}. When the bytes
+ * do not all go through the downloader (a resumed download), it calls
+ * {@link #invalidate()} instead and {@link #getValue()} returns null, the
+ * caller then has to compute the checksum of the file itself.
+ */
+public class DownloadChecksum {
+    private static final Logger s_logger = Logger.getLogger(DownloadChecksum.class);
+
+    private final String algorithm;
+    private MessageDigest digest;
+    private ChecksumValue value;
+
+    /**
+     * @param algorithm the digest algorithm, or null to not compute any checksum
+     */
+    public DownloadChecksum(String algorithm) {
+        this.algorithm = algorithm;
+    }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    public synchronized void start() {
+        value = null;
+        digest = null;
+        if (algorithm == null) {
+            return;
+        }
+        try {
+            digest = MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            s_logger.warn("Unable to compute the checksum of the download: unknown algorithm " + algorithm);
+        }
+    }
+
+    public synchronized void invalidate() {
+        digest = null;
+        value = null;
+    }
+
+    public void update(byte[] bytes, int offset, int length) {
+        if (digest != null) {
+            digest.update(bytes, offset, length);
+        }
+    }
+
+    /**
+     * Adds the remaining bytes of the buffer, without moving its position.
+     */
+    public void update(ByteBuffer buffer) {
+        if (digest != null) {
+            digest.update(buffer.duplicate());
+        }
+    }
+
+    public InputStream wrap(InputStream in) {
+        return digest != null ? new DigestInputStream(in, digest) : in;
+    }
+
+    public OutputStream wrap(OutputStream out) {
+        return digest != null ? new DigestOutputStream(out, digest) : out;
+    }
+
+    /**
+     * @return the checksum of the bytes seen since {@link #start()}, or null
+     *         if it was not computed. Completes the checksum, later updates
+     *         are ignored.
+     */
+    public synchronized ChecksumValue getValue() {
+        if (value == null && digest != null) {
+            value = DigestHelper.checksum(digest);
+            digest = null;
+        }
+        return value;
+    }
+}
@@ -46,11 +46,13 @@ import org.apache.log4j.Logger;
 
 import org.apache.cloudstack.managed.context.ManagedContextRunnable;
 import org.apache.cloudstack.storage.command.DownloadCommand.ResourceType;
+import org.apache.cloudstack.utils.security.ChecksumValue;
 
 import com.cloud.storage.StorageLayer;
 import com.cloud.utils.Pair;
 import com.cloud.utils.UriUtils;
 import com.cloud.utils.net.Proxy;
+import com.cloud.utils.net.RangedHttpDownloader;
 
 import static com.cloud.utils.NumbersUtil.toHumanReadableSize;
 
@@ -81,6 +83,9 @@ public class HttpTemplateDownloader extends ManagedContextRunnable implements Te
     private long maxTemplateSizeInBytes;
     private ResourceType resourceType = ResourceType.TEMPLATE;
     private final HttpMethodRetryHandler myretryhandler;
+    private DownloadChecksum checksum = new DownloadChecksum(null);
+    private int downloadSegments = 1;
+    private volatile RangedHttpDownloader rangedDownload;
 
     public HttpTemplateDownloader(StorageLayer storageLayer, String downloadUrl, String toDir, DownloadCompleteCallback callback, long maxTemplateSizeInBytes,
             String user, String password, Proxy proxy, ResourceType resourceType) {
@@ -194,6 +199,15 @@ public class HttpTemplateDownloader extends ManagedContextRunnable implements Te
 
             Date start = new Date();
 
+            if (localFileSize == 0 && downloadInSegments(file)) {
+                if (status != Status.IN_PROGRESS) {
+                    return 0;
+                }
+                checkDowloadCompletion();
+                downloadTime += new Date().getTime() - start.getTime();
+                return totalBytes;
+            }
+
             if (checkServerResponse(localFileSize)) return 0;
 
             if (!tryAndGetRemoteSize()) return 0;
@@ -206,6 +220,12 @@ public class HttpTemplateDownloader extends ManagedContextRunnable implements Te
                  RandomAccessFile out = new RandomAccessFile(file, "rw");
             ) {
                 out.seek(localFileSize);
+                if (localFileSize > 0) {
+                    // the bytes already on disk are not seen here
+                    checksum.invalidate();
+                } else {
+                    checksum.start();
+                }
 
                 s_logger.info("Starting download from " + downloadUrl + " to " + toFile + " remoteSize=" + toHumanReadableSize(remoteSize) + " , max size=" + toHumanReadableSize(maxTemplateSizeInBytes));
 
@@ -237,6 +257,52 @@ public class HttpTemplateDownloader extends ManagedContextRunnable implements Te
         return 0;
     }
 
+    /**
+     * Downloads the file over several connections, when configured to and the server accepts range requests.
+     * @return true if the download was handled, false if it has to go through a single connection
+     */
+    private boolean downloadInSegments(File file) throws IOException {
+        if (downloadSegments < 2) {
+            return false;
+        }
+        RangedHttpDownloader ranged = new RangedHttpDownloader(client, downloadUrl, null, downloadSegments, RangedHttpDownloader.DEFAULT_MIN_SEGMENT_SIZE);
+        try {
+            if (!ranged.isSupported()) {
+                return false;
+            }
+        } catch (IOException e) {
+            s_logger.info("Unable to check whether " + downloadUrl + " accepts range requests, downloading it over a single connection: " + e.getMessage());
+            return false;
+        }
+
+        remoteSize = ranged.getContentLength();
+        if (!canHandleDownloadSize()) {
+            return true;
+        }
+
+        status = Status.IN_PROGRESS;
+        // the segments are not written in order, the checksum is computed from the file afterwards
+        checksum.invalidate();
+        // like the single connection, check the format once the first MB is there rather than after the whole file
+        final VerifyFormat verifyFormat = new VerifyFormat(file);
+        ranged.setHeadListener(1048576, new RangedHttpDownloader.HeadListener() {
+            @Override
+            public void headWritten() {
+                verifyFormat.invoke();
+            }
+        });
+        rangedDownload = ranged;
+        try {
+            totalBytes = ranged.download(file);
+        } finally {
+            rangedDownload = null;
+        }
+        if (!verifyFormat.isVerifiedFormat()) {
+            verifyFormat.invoke();
+        }
+        return true;
+    }
+
     private boolean copyBytes(File file, InputStream in, RandomAccessFile out) throws IOException {
         int bytes;
         byte[] block = new byte[CHUNK_SIZE];
@@ -260,6 +326,7 @@ public class HttpTemplateDownloader extends ManagedContextRunnable implements Te
 
     private long writeBlock(int bytes, RandomAccessFile out, byte[] block, long offset) throws IOException {
         out.write(block, 0, bytes);
+        checksum.update(block, 0, bytes);
         offset += bytes;
         out.seek(offset);
         totalBytes += bytes;
@@ -385,7 +452,8 @@ public class HttpTemplateDownloader extends ManagedContextRunnable implements Te
 
     @Override
     public long getDownloadedBytes() {
-        return totalBytes;
+        RangedHttpDownloader ranged = rangedDownload;
+        return ranged != null ? ranged.getDownloadedBytes() : totalBytes;
     }
 
     @Override
@@ -396,6 +464,10 @@ public class HttpTemplateDownloader extends ManagedContextRunnable implements Te
                 if (request != null) {
                     request.abort();
                 }
+                RangedHttpDownloader ranged = rangedDownload;
+                if (ranged != null) {
+                    ranged.abort();
+                }
                 status = TemplateDownloader.Status.ABORTED;
                 return true;
             case UNKNOWN:
@@ -422,7 +494,7 @@ public class HttpTemplateDownloader extends ManagedContextRunnable implements Te
             return 0;
         }
 
-        return (int)(100.0 * totalBytes / remoteSize);
+        return (int)(100.0 * getDownloadedBytes() / remoteSize);
     }
 
     @Override
@@ -466,6 +538,23 @@ public class HttpTemplateDownloader extends ManagedContextRunnable implements Te
         return maxTemplateSizeInBytes;
     }
 
+    /**
+     * @param downloadSegments number of connections to download large files with, when the server allows it
+     */
+    public void setDownloadSegments(int downloadSegments) {
+        this.downloadSegments = downloadSegments;
+    }
+
+    @Override
+    public void setChecksumAlgorithm(String algorithm) {
+        checksum = new DownloadChecksum(algorithm);
+    }
+
+    @Override
+    public ChecksumValue getChecksum() {
+        return checksum.getValue();
+    }
+
     // TODO move this test code to unit tests or integration tests
     public static void main(String[] args) {
         String url = "http:// dev.mysql.com/get/Downloads/MySQL-5.0/mysql-noinstall-5.0.77-win32.zip/from/http://mirror.services.wisc.edu/mysql/";
@@ -93,10 +93,12 @@ public class LocalTemplateDownloader extends TemplateDownloaderBase implements T
             _remoteSize = src.length();
             _totalBytes = 0;
             _status = TemplateDownloader.Status.IN_PROGRESS;
+            _checksum.start();
 
             try {
                 while (_status != Status.ABORTED && fic.read(buffer) != -1) {
                     buffer.flip();
+                    _checksum.update(buffer);
                     int count = foc.write(buffer);
                     _totalBytes += count;
                     buffer.clear();
@@ -104,9 +104,11 @@ public class MetalinkTemplateDownloader extends TemplateDownloaderBase implement
     }
 
     private boolean performDownload() {
+        // each mirror attempt writes the file from the start again
+        _checksum.start();
         try (
                 InputStream in = request.getResponseBodyAsStream();
-                OutputStream out = new FileOutputStream(_toFile);
+                OutputStream out = _checksum.wrap(new FileOutputStream(_toFile));
         ) {
             IOUtils.copy(in, out);
         } catch (IOException e) {
@@ -19,6 +19,8 @@
 
 package com.cloud.storage.template;
 
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -37,6 +39,7 @@ import com.cloud.utils.component.AdapterBase;
 public class QCOW2Processor extends AdapterBase implements Processor {
     private static final Logger s_logger = Logger.getLogger(QCOW2Processor.class);
     private static final int VIRTUALSIZE_HEADER_LOCATION = 24;
+    private static final int QCOW2_MAGIC = 0x514649fb;
 
     private StorageLayer _storage;
 
@@ -102,6 +105,22 @@ public class QCOW2Processor extends AdapterBase implements Processor {
         return NumbersUtil.bytesToLong(b);
     }
 
+    /**
+     * @return true if the file is a qcow2 image with a backing file, as the incremental backups of KVM snapshots
+     */
+    public static boolean hasBackingFile(File file) throws IOException {
+        try (DataInputStream strm = new DataInputStream(new FileInputStream(file))) {
+            if (strm.readInt() != QCOW2_MAGIC) {
+                return false;
+            }
+            // skip the version, the backing file offset follows
+            strm.readInt();
+            return strm.readLong() != 0;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
     @Override
     public boolean configure(String name, Map<String, Object> params) throws ConfigurationException {
         _storage = (StorageLayer)params.get(StorageLayer.InstanceConfigKey);
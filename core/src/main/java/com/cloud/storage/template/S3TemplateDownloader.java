@@ -32,6 +32,7 @@ import com.cloud.utils.net.Proxy;
 import com.cloud.utils.storage.S3.S3Utils;
 import org.apache.cloudstack.managed.context.ManagedContextRunnable;
 import org.apache.cloudstack.storage.command.DownloadCommand.ResourceType;
+import org.apache.cloudstack.utils.security.ChecksumValue;
 import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.URIException;
@@ -73,6 +74,7 @@ public class S3TemplateDownloader extends ManagedContextRunnable implements Temp
     private long downloadTime;
     private long totalBytes;
     private long maxTemplateSizeInByte;
+    private DownloadChecksum checksum = new DownloadChecksum(null);
 
     private boolean resume = false;
 
@@ -160,7 +162,9 @@ public class S3TemplateDownloader extends ManagedContextRunnable implements Temp
         InputStream inputStream;
 
         try {
-            inputStream = new BufferedInputStream(getMethod.getResponseBodyAsStream());
+            // digested below the buffer, which takes care of any mark and reset of the upload
+            checksum.start();
+            inputStream = new BufferedInputStream(checksum.wrap(getMethod.getResponseBodyAsStream()));
         } catch (IOException e) {
             errorString = "Exception occurred while opening InputStream for template " + downloadUrl;
             LOGGER.warn(errorString);
@@ -353,6 +357,16 @@ public class S3TemplateDownloader extends ManagedContextRunnable implements Temp
         return maxTemplateSizeInByte;
     }
 
+    @Override
+    public void setChecksumAlgorithm(String algorithm) {
+        checksum = new DownloadChecksum(algorithm);
+    }
+
+    @Override
+    public ChecksumValue getChecksum() {
+        return checksum.getValue();
+    }
+
     @Override
     public void setDownloadError(String error) {
         errorString = error;
@@ -19,6 +19,8 @@
 
 package com.cloud.storage.template;
 
+import org.apache.cloudstack.utils.security.ChecksumValue;
+
 public interface TemplateDownloader extends Runnable {
 
     /**
@@ -92,4 +94,16 @@ public interface TemplateDownloader extends Runnable {
     boolean isInited();
 
     long getMaxTemplateSizeInBytes();
+
+    /**
+     * Computes the checksum of the downloaded file while it is written
+     * @param algorithm digest algorithm of the checksum
+     */
+    void setChecksumAlgorithm(String algorithm);
+
+    /**
+     * Get the checksum computed during the download
+     * @return checksum of the downloaded file, or null if it has to be computed from the file
+     */
+    ChecksumValue getChecksum();
 }
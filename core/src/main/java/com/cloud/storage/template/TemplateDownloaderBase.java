@@ -24,6 +24,7 @@ import java.io.File;
 import org.apache.log4j.Logger;
 
 import org.apache.cloudstack.managed.context.ManagedContextRunnable;
+import org.apache.cloudstack.utils.security.ChecksumValue;
 
 import com.cloud.storage.StorageLayer;
 
@@ -43,6 +44,7 @@ public abstract class TemplateDownloaderBase extends ManagedContextRunnable impl
     protected long _start;
     protected StorageLayer _storage;
     protected boolean _inited = false;
+    protected DownloadChecksum _checksum = new DownloadChecksum(null);
     private long maxTemplateSizeInBytes;
 
     public TemplateDownloaderBase(StorageLayer storage, String downloadUrl, String toDir, long maxTemplateSizeInBytes, DownloadCompleteCallback callback) {
@@ -128,6 +130,16 @@ public abstract class TemplateDownloaderBase extends ManagedContextRunnable impl
         return this.maxTemplateSizeInBytes;
     }
 
+    @Override
+    public void setChecksumAlgorithm(String algorithm) {
+        _checksum = new DownloadChecksum(algorithm);
+    }
+
+    @Override
+    public ChecksumValue getChecksum() {
+        return _checksum.getValue();
+    }
+
     @Override
     protected void runInContext() {
         try {
@@ -19,9 +19,13 @@
 
 package com.cloud.agent.api;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.Vector;
 
 import org.junit.Before;
@@ -91,4 +95,23 @@ public class SecurityGroupRulesCmdTest {
         assertTrue(compressed.equals(a));
     }
 
+    /**
+     * Test method for {@link com.cloud.agent.api.SecurityGroupRulesCmd#stringifyGroupMembers()}.
+     */
+    @Test
+    public void testStringifyGroupMembers() throws Exception {
+        assertEquals("", securityGroupRulesCmd.stringifyGroupMembers());
+
+        final Map<Long, List<String>> groupMembers = new TreeMap<Long, List<String>>();
+        groupMembers.put(3L, Arrays.asList("10.1.1.1/32", "10.1.1.2/32"));
+        groupMembers.put(4L, Arrays.<String>asList());
+        securityGroupRulesCmd.setGroupMembers(groupMembers);
+        assertEquals("3:0:10.1.1.1/32,10.1.1.2/32,;4:0:;", securityGroupRulesCmd.stringifyGroupMembers());
+
+        final Map<Long, Long> versions = new TreeMap<Long, Long>();
+        versions.put(3L, 7L);
+        securityGroupRulesCmd.setGroupMembersVersions(versions);
+        assertEquals("3:7:10.1.1.1/32,10.1.1.2/32,;4:0:;", securityGroupRulesCmd.stringifyGroupMembers());
+    }
+
 }
@@ -0,0 +1,184 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.agent.resource.virtualnetwork;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.naming.ConfigurationException;
+
+import org.apache.log4j.Logger;
+import org.joda.time.Duration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cloud.agent.api.Answer;
+import com.cloud.agent.api.routing.DhcpEntryCommand;
+import com.cloud.agent.api.routing.NetworkElementCommand;
+import com.cloud.utils.ExecutionResult;
+
+/**
+ * Runs the resource against a simulated router, where every script call and
+ * file creation stands for an ssh connection to the router.
+ */
+public class VirtualRoutingResourceCoalesceTest implements VirtualRouterDeployer {
+    private static final Logger s_logger = Logger.getLogger(VirtualRoutingResourceCoalesceTest.class);
+
+    private static final String ROUTERIP = "169.254.3.4";
+    private static final String ROUTERNAME = "r-9-VM";
+    private static final int COMMANDS = 40;
+
+    private final AtomicInteger _scripts = new AtomicInteger();
+    private final AtomicInteger _files = new AtomicInteger();
+    private final AtomicInteger _cleanups = new AtomicInteger();
+    private volatile boolean _failAggregatedConfig;
+    private ExecutorService _executor;
+
+    @Before
+    public void setUp() {
+        _executor = Executors.newFixedThreadPool(COMMANDS);
+    }
+
+    @After
+    public void tearDown() {
+        _executor.shutdownNow();
+    }
+
+    @Override
+    public ExecutionResult executeInVR(final String routerIp, final String script, final String args) {
+        return executeInVR(routerIp, script, args, Duration.standardSeconds(60L));
+    }
+
+    @Override
+    public ExecutionResult executeInVR(final String routerIp, final String script, final String args, final Duration timeout) {
+        assertEquals(ROUTERIP, routerIp);
+        _scripts.incrementAndGet();
+        simulateSsh();
+        if (_failAggregatedConfig && VRScripts.VR_CFG.equals(script)) {
+            return new ExecutionResult(false, "VR config: execution failed");
+        }
+        return new ExecutionResult(true, null);
+    }
+
+    @Override
+    public ExecutionResult createFileInVR(final String routerIp, final String path, final String filename, final String content) {
+        assertEquals(ROUTERIP, routerIp);
+        _files.incrementAndGet();
+        simulateSsh();
+        return new ExecutionResult(true, null);
+    }
+
+    @Override
+    public ExecutionResult prepareCommand(final NetworkElementCommand cmd) {
+        cmd.setRouterAccessIp(ROUTERIP);
+        return new ExecutionResult(true, null);
+    }
+
+    @Override
+    public ExecutionResult cleanupCommand(final NetworkElementCommand cmd) {
+        _cleanups.incrementAndGet();
+        return new ExecutionResult(true, null);
+    }
+
+    private static void simulateSsh() {
+        try {
+            Thread.sleep(5);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private VirtualRoutingResource createResource(final int coalesceWindow) throws ConfigurationException {
+        final VirtualRoutingResource resource = new VirtualRoutingResource(this);
+        final Map<String, Object> params = new HashMap<String, Object>();
+        params.put("router.command.coalesce.window", String.valueOf(coalesceWindow));
+        resource.configure("VRResource", params);
+        return resource;
+    }
+
+    private List<Answer> executeConcurrently(final VirtualRoutingResource resource) throws Exception {
+        final List<Future<Answer>> futures = new ArrayList<Future<Answer>>();
+        for (int i = 0; i < COMMANDS; i++) {
+            final DhcpEntryCommand cmd = new DhcpEntryCommand(String.format("02:00:00:00:00:%02x", i), "10.1.1." + (i + 10), "vm-" + i, null, true);
+            cmd.setAccessDetail(NetworkElementCommand.ROUTER_NAME, ROUTERNAME);
+            futures.add(_executor.submit(new Callable<Answer>() {
+                @Override
+                public Answer call() {
+                    return resource.executeRequest(cmd);
+                }
+            }));
+        }
+        final List<Answer> answers = new ArrayList<Answer>();
+        for (final Future<Answer> future : futures) {
+            answers.add(future.get());
+        }
+        return answers;
+    }
+
+    private static void assertAllSucceeded(final List<Answer> answers) {
+        assertEquals(COMMANDS, answers.size());
+        for (final Answer answer : answers) {
+            assertTrue(answer.getDetails(), answer.getResult());
+        }
+    }
+
+    @Test
+    public void testCoalescedCommandsSaveSshCalls() throws Exception {
+        long start = System.currentTimeMillis();
+        assertAllSucceeded(executeConcurrently(createResource(0)));
+        final long separateMillis = System.currentTimeMillis() - start;
+        final int separateCalls = _scripts.get() + _files.get();
+        assertEquals(COMMANDS, _scripts.get());
+        assertEquals(COMMANDS, _cleanups.get());
+
+        _scripts.set(0);
+        _files.set(0);
+        _cleanups.set(0);
+        start = System.currentTimeMillis();
+        assertAllSucceeded(executeConcurrently(createResource(200)));
+        final long coalescedMillis = System.currentTimeMillis() - start;
+        final int coalescedCalls = _scripts.get() + _files.get();
+        assertEquals(COMMANDS, _cleanups.get());
+
+        s_logger.info(COMMANDS + " dhcp entries: " + separateCalls + " ssh calls in " + separateMillis + "ms applied one by one, " + coalescedCalls + " ssh calls in "
+                + coalescedMillis + "ms coalesced");
+        assertTrue(_scripts.get() < COMMANDS / 4);
+    }
+
+    @Test
+    public void testFailedBatchIsAppliedOneByOne() throws Exception {
+        _failAggregatedConfig = true;
+        assertAllSucceeded(executeConcurrently(createResource(200)));
+        // The commands of the failed batches were applied on their own after it
+        assertTrue(_scripts.get() > COMMANDS);
+        assertEquals(COMMANDS, _cleanups.get());
+    }
+}
@@ -0,0 +1,224 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.agent.resource.virtualnetwork.facade;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.cloud.agent.api.routing.NetworkElementCommand;
+import com.cloud.agent.api.routing.SetNetworkACLCommand;
+import com.cloud.agent.api.to.NetworkACLTO;
+import com.cloud.agent.api.to.NicTO;
+import com.cloud.agent.resource.virtualnetwork.ConfigItem;
+import com.cloud.agent.resource.virtualnetwork.FileConfigItem;
+import com.cloud.agent.resource.virtualnetwork.model.AclRule;
+import com.cloud.agent.resource.virtualnetwork.model.AclRulesDelta;
+import com.cloud.agent.resource.virtualnetwork.model.TcpAclRule;
+import com.cloud.network.vpc.NetworkACLItem.TrafficType;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+public class SetNetworkAclConfigItemTest {
+
+    private static final String ROUTERNAME = "r-7-VM";
+
+    private final AbstractConfigItemFacade facade = AbstractConfigItemFacade.getInstance(SetNetworkACLCommand.class);
+
+    @After
+    public void tearDown() {
+        AbstractConfigItemFacade.resetRouter(ROUTERNAME);
+    }
+
+    private static SetNetworkACLCommand generateCommand(final int... ports) {
+        final List<NetworkACLTO> acls = new ArrayList<>();
+        for (int i = 0; i < ports.length; i++) {
+            acls.add(new NetworkACLTO(i + 1, "64", "TCP", ports[i], ports[i], false, false, Arrays.asList("10.0.0.0/8"), 0, 0, TrafficType.Ingress, true, i + 1));
+        }
+        final NicTO nic = new NicTO();
+        nic.setMac("01:23:45:67:89:AB");
+        nic.setIp("192.168.1.1");
+        nic.setNetmask("255.255.255.0");
+        nic.setDeviceId(2);
+        final SetNetworkACLCommand cmd = new SetNetworkACLCommand(acls, nic);
+        cmd.setAccessDetail(NetworkElementCommand.ROUTER_NAME, ROUTERNAME);
+        return cmd;
+    }
+
+    private JsonObject generate(final SetNetworkACLCommand cmd) {
+        final List<ConfigItem> config = facade.generateConfig(cmd);
+        return new JsonParser().parse(((FileConfigItem)config.get(0)).getFileContents()).getAsJsonObject();
+    }
+
+    private static int[] toArray(final JsonObject delta, final String member) {
+        final int[] values = new int[delta.getAsJsonArray(member).size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = delta.getAsJsonArray(member).get(i).getAsInt();
+        }
+        return values;
+    }
+
+    private static List<AclRule> rules(final int... ports) {
+        final List<AclRule> rules = new ArrayList<>();
+        for (final int port : ports) {
+            rules.add(new TcpAclRule("10.0.0.0/8", true, port, port));
+        }
+        return rules;
+    }
+
+    private static List<String> keys(final int... ports) {
+        final List<String> keys = new ArrayList<>();
+        for (final int port : ports) {
+            keys.add(String.valueOf(port));
+        }
+        return keys;
+    }
+
+    @Test
+    public void testComputeDelta() {
+        final AclRulesDelta delta = SetNetworkAclConfigItem.computeDelta(keys(22, 80, 443, 8080), keys(21, 22, 443, 8080, 9090), rules(21, 22, 443, 8080, 9090));
+        assertArrayEquals(new int[] {1}, delta.getRemoved());
+        assertArrayEquals(new int[] {0, 4}, delta.getAddedPositions());
+        assertEquals(21, ((TcpAclRule)delta.getAdded()[0]).getFirstPort());
+        assertEquals(9090, ((TcpAclRule)delta.getAdded()[1]).getFirstPort());
+    }
+
+    @Test
+    public void testComputeDeltaReordered() {
+        assertNull(SetNetworkAclConfigItem.computeDelta(keys(22, 80), keys(80, 22), rules(80, 22)));
+        assertNull(SetNetworkAclConfigItem.computeDelta(null, keys(80), rules(80)));
+    }
+
+    @Test
+    public void testHashRules() {
+        assertEquals(SetNetworkAclConfigItem.hashRules(keys(22, 80), keys(443)), SetNetworkAclConfigItem.hashRules(keys(22, 80), keys(443)));
+        assertNotEquals(SetNetworkAclConfigItem.hashRules(keys(22, 80), keys(443)), SetNetworkAclConfigItem.hashRules(keys(80, 22), keys(443)));
+        assertNotEquals(SetNetworkAclConfigItem.hashRules(keys(22, 80), keys(443)), SetNetworkAclConfigItem.hashRules(keys(22), keys(80, 443)));
+    }
+
+    @Test
+    public void testSameRulesSameBaseAfterReset() {
+        // Another agent or management server sending the same rules, like after a migration of the router
+        generate(generateCommand(22, 80, 443));
+        facade.configApplied(generateCommand(), true);
+        final JsonObject acl = generate(generateCommand(22, 80, 443, 8080));
+        facade.configApplied(generateCommand(), true);
+
+        AbstractConfigItemFacade.resetRouter(ROUTERNAME);
+        generate(generateCommand(22, 80, 443));
+        facade.configApplied(generateCommand(), true);
+        assertEquals(acl.get("base_rules_hash").getAsLong(), generate(generateCommand(22, 80, 443, 8080)).get("base_rules_hash").getAsLong());
+    }
+
+    @Test
+    public void testDeltaAfterFullRules() {
+        JsonObject acl = generate(generateCommand(22, 80, 443, 8080));
+        assertFalse(acl.has("base_rules_hash"));
+        assertEquals(4, acl.getAsJsonArray("ingress_rules").size());
+        final long rulesHash = acl.get("rules_hash").getAsLong();
+        assertFalse(facade.configApplied(generateCommand(22, 80, 443, 8080), true));
+
+        acl = generate(generateCommand(22, 443, 8080, 9090));
+        assertEquals(rulesHash, acl.get("base_rules_hash").getAsLong());
+        assertNotEquals(rulesHash, acl.get("rules_hash").getAsLong());
+        assertFalse(acl.has("ingress_rules"));
+        final JsonObject delta = acl.getAsJsonObject("ingress_delta");
+        assertArrayEquals(new int[] {1}, toArray(delta, "removed"));
+        assertArrayEquals(new int[] {3}, toArray(delta, "added_positions"));
+        assertEquals(9090, delta.getAsJsonArray("added").get(0).getAsJsonObject().get("first_port").getAsInt());
+        assertEquals(0, acl.getAsJsonObject("egress_delta").getAsJsonArray("added").size());
+    }
+
+    @Test
+    public void testFullRulesWhenDeltaRefused() {
+        generate(generateCommand(22, 80, 443, 8080));
+        facade.configApplied(generateCommand(), true);
+
+        final SetNetworkACLCommand cmd = generateCommand(22, 80, 443, 8080, 9090);
+        assertTrue(generate(cmd).has("base_rules_hash"));
+        assertTrue(facade.configApplied(cmd, false));
+
+        JsonObject acl = generate(cmd);
+        assertFalse(acl.has("base_rules_hash"));
+        assertEquals(5, acl.getAsJsonArray("ingress_rules").size());
+        assertFalse(facade.configApplied(cmd, true));
+
+        // The router took the full rules only, keep sending them until it is restarted
+        assertFalse(generate(generateCommand(22, 80)).has("base_rules_hash"));
+        facade.configApplied(cmd, true);
+
+        AbstractConfigItemFacade.resetRouter(ROUTERNAME);
+        assertFalse(generate(generateCommand(22, 80)).has("base_rules_hash"));
+        facade.configApplied(cmd, true);
+        assertTrue(generate(generateCommand(22, 80, 443)).has("base_rules_hash"));
+    }
+
+    @Test
+    public void testFullRulesAfterFailedBatch() {
+        generate(generateCommand(22, 80, 443));
+        facade.configApplied(generateCommand(), true);
+
+        // Another command of the batch failed, the router may hold either rules
+        assertTrue(generate(generateCommand(22, 80, 443, 8080)).has("base_rules_hash"));
+        facade.forgetConfig(generateCommand());
+
+        final SetNetworkACLCommand cmd = generateCommand(22, 80, 443, 8080);
+        assertFalse(generate(cmd).has("base_rules_hash"));
+        assertFalse(facade.configApplied(cmd, true));
+
+        // The router still takes deltas
+        assertTrue(generate(generateCommand(22, 80, 443, 8080, 9090)).has("base_rules_hash"));
+    }
+
+    @Test
+    public void testFullRulesAfterUnconfirmedRules() {
+        generate(generateCommand(22, 80, 443));
+        facade.configApplied(generateCommand(), true);
+
+        // Two commands applied in the same batch, the second cannot build on the first one yet
+        final JsonObject first = generate(generateCommand(22, 80, 443, 8080));
+        assertTrue(first.has("base_rules_hash"));
+        final JsonObject second = generate(generateCommand(22, 80, 443, 8080, 9090));
+        assertFalse(second.has("base_rules_hash"));
+        facade.configApplied(generateCommand(), true);
+        facade.configApplied(generateCommand(), true);
+
+        final JsonObject acl = generate(generateCommand(22, 80, 443, 8080, 9090, 9091));
+        assertEquals(second.get("rules_hash").getAsLong(), acl.get("base_rules_hash").getAsLong());
+    }
+
+    @Test
+    public void testFullRulesWhenMostRulesChange() {
+        generate(generateCommand(22, 80));
+        facade.configApplied(generateCommand(), true);
+
+        assertFalse(generate(generateCommand(443, 8080)).has("base_rules_hash"));
+    }
+}
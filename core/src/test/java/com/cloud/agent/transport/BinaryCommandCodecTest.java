@@ -0,0 +1,217 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.agent.transport;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.cloudstack.storage.to.TemplateObjectTO;
+import org.apache.cloudstack.storage.to.VolumeObjectTO;
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.cloud.agent.api.Answer;
+import com.cloud.agent.api.Command;
+import com.cloud.agent.api.GetVmStatsAnswer;
+import com.cloud.agent.api.GetVmStatsCommand;
+import com.cloud.agent.api.HostVmStateReportEntry;
+import com.cloud.agent.api.PingRoutingCommand;
+import com.cloud.agent.api.UpdateHostPasswordCommand;
+import com.cloud.agent.api.VmStatsEntry;
+import com.cloud.agent.api.to.NfsTO;
+import com.cloud.agent.transport.Request.Version;
+import com.cloud.host.Host;
+import com.cloud.serializer.GsonHelper;
+import com.cloud.utils.exception.CloudRuntimeException;
+import com.cloud.vm.VirtualMachine.PowerState;
+
+public class BinaryCommandCodecTest {
+    private static final Logger s_logger = Logger.getLogger(BinaryCommandCodecTest.class);
+
+    private static PingRoutingCommand createPing(final int vms) {
+        final Map<String, HostVmStateReportEntry> report = new HashMap<String, HostVmStateReportEntry>();
+        for (int i = 0; i < vms; i++) {
+            report.put("i-2-" + i + "-VM", new HostVmStateReportEntry(i % 7 == 0 ? PowerState.PowerOff : PowerState.PowerOn, "kvm-host-01"));
+        }
+        final PingRoutingCommand ping = new PingRoutingCommand(Host.Type.Routing, 42L, report);
+        ping.setGatewayAccessible(false);
+        return ping;
+    }
+
+    private static GetVmStatsAnswer createVmStatsAnswer(final int vms) {
+        final List<String> names = new ArrayList<String>();
+        final HashMap<String, VmStatsEntry> stats = new HashMap<String, VmStatsEntry>();
+        for (int i = 0; i < vms; i++) {
+            final String name = "i-2-" + i + "-VM";
+            names.add(name);
+            final VmStatsEntry entry = new VmStatsEntry(4194304, 1048576, 4194304, 12.5 + i, 1024.25, 2048.75, 4, "vm");
+            entry.setVmId(i);
+            entry.setDiskReadKBs(i * 10.0);
+            stats.put(name, entry);
+        }
+        return new GetVmStatsAnswer(new GetVmStatsCommand(names, "host-guid", "kvm-host-01"), stats);
+    }
+
+    @Test
+    public void testPingRoutingRoundTrip() {
+        final PingRoutingCommand ping = createPing(60);
+        final Command[] cmds = BinaryCommandCodec.decode(BinaryCommandCodec.encode(new Command[] {ping}), Command.class);
+
+        Assert.assertEquals(1, cmds.length);
+        final PingRoutingCommand decoded = (PingRoutingCommand)cmds[0];
+        Assert.assertEquals(42L, decoded.getHostId());
+        Assert.assertEquals(Host.Type.Routing, decoded.getHostType());
+        Assert.assertFalse(decoded.isGatewayAccessible());
+        Assert.assertTrue(decoded.isVnetAccessible());
+        Assert.assertEquals(60, decoded.getHostVmStateReport().size());
+        Assert.assertEquals(PowerState.PowerOff, decoded.getHostVmStateReport().get("i-2-0-VM").getState());
+        Assert.assertEquals(PowerState.PowerOn, decoded.getHostVmStateReport().get("i-2-1-VM").getState());
+        Assert.assertEquals("kvm-host-01", decoded.getHostVmStateReport().get("i-2-59-VM").getHost());
+    }
+
+    @Test
+    public void testAnswerRoundTrip() {
+        final GetVmStatsAnswer answer = createVmStatsAnswer(10);
+        final Answer[] answers = BinaryCommandCodec.decode(BinaryCommandCodec.encode(new Answer[] {answer}), Answer.class);
+
+        final GetVmStatsAnswer decoded = (GetVmStatsAnswer)answers[0];
+        Assert.assertTrue(decoded.getResult());
+        Assert.assertEquals(10, decoded.getVmStatsMap().size());
+        final VmStatsEntry entry = decoded.getVmStatsMap().get("i-2-3-VM");
+        Assert.assertEquals(3L, entry.getVmId());
+        Assert.assertEquals(15.5, entry.getCPUUtilization(), 0);
+        Assert.assertEquals(30.0, entry.getDiskReadKBs(), 0);
+        Assert.assertEquals(4, entry.getNumCPUs());
+    }
+
+    @Test
+    public void testUnregisteredCommandFallsBackToJson() {
+        final UpdateHostPasswordCommand cmd = new UpdateHostPasswordCommand("root", "secret", "10.1.1.1");
+        Assert.assertFalse(BinaryCommandCodec.isRegistered(cmd.getClass()));
+
+        final Command[] cmds = BinaryCommandCodec.decode(BinaryCommandCodec.encode(new Command[] {cmd, null}), Command.class);
+        Assert.assertEquals(2, cmds.length);
+        Assert.assertEquals("root", ((UpdateHostPasswordCommand)cmds[0]).getUsername());
+        Assert.assertEquals("10.1.1.1", ((UpdateHostPasswordCommand)cmds[0]).getHostIp());
+        Assert.assertNull(cmds[1]);
+    }
+
+    @Test
+    public void testRequestResponseOverBinaryWire() throws Exception {
+        final Request request = new Request(2, 3, new Command[] {new GetVmStatsCommand(Arrays.asList("i-2-3-VM"), "guid", "host")}, true, true);
+        request.setSequence(892403719);
+        request.setVersion(Version.v4);
+
+        byte[] bytes = request.getBytes();
+        Assert.assertEquals(Version.v4, Request.getVersion(bytes));
+        Assert.assertEquals(892403719, Request.getSequence(bytes));
+        Assert.assertEquals(2, Request.getViaAgentId(bytes));
+
+        final Request parsed = Request.parse(bytes);
+        Assert.assertEquals(Version.v4, parsed.getVersion());
+        Assert.assertEquals(Arrays.asList("i-2-3-VM"), ((GetVmStatsCommand)parsed.getCommand()).getVmNames());
+
+        final Response response = new Response(parsed, createVmStatsAnswer(100));
+        bytes = response.getBytes();
+        Assert.assertEquals(Version.v4, Request.getVersion(bytes));
+
+        final Response parsedResponse = Response.parse(bytes);
+        Assert.assertEquals(892403719, parsedResponse.getSequence());
+        Assert.assertEquals(100, ((GetVmStatsAnswer)parsedResponse.getAnswer()).getVmStatsMap().size());
+    }
+
+    @Test
+    public void testSchemaFingerprintIsStable() {
+        Assert.assertEquals(BinaryCommandCodec.getSchemaFingerprint(), BinaryCommandCodec.getSchemaFingerprint());
+    }
+
+    @Test
+    public void testImplementationsOfAbstractFieldTypesAreFingerprinted() {
+        Assert.assertFalse(BinaryCommandCodec.getLayout(VolumeObjectTO.class) == BinaryCommandCodec.getLayout(TemplateObjectTO.class));
+        Assert.assertEquals(BinaryCommandCodec.getLayout(NfsTO.class), BinaryCommandCodec.getLayout(NfsTO.class));
+    }
+
+    @Test(expected = CloudRuntimeException.class)
+    public void testLayoutMismatchIsRejected() {
+        final byte[] bytes = BinaryCommandCodec.encode(new Command[] {createVmStatsAnswer(1)});
+        corruptLayout(bytes, VmStatsEntry.class);
+        BinaryCommandCodec.decode(bytes, Answer.class);
+    }
+
+    @Test
+    public void testUndecodableResponseIsAFailedAnswer() throws Exception {
+        final Request request = new Request(2, 3, new Command[] {new GetVmStatsCommand(Arrays.asList("i-2-3-VM"), "guid", "host")}, true, true);
+        request.setVersion(Version.v4);
+        final Response response = new Response(request, new Answer[] {createVmStatsAnswer(1), new Answer(null, true, "done")});
+        final byte[] bytes = response.getBytes();
+        corruptLayout(bytes, VmStatsEntry.class);
+
+        final Answer[] answers = Response.parse(bytes).getAnswers();
+        Assert.assertEquals(2, answers.length);
+        for (final Answer answer : answers) {
+            Assert.assertFalse(answer.getResult());
+            Assert.assertTrue(answer.getDetails().startsWith("Unable to decode the answer"));
+        }
+    }
+
+    /**
+     * Flips the layout digest written right after the first occurrence of the
+     * name of the class.
+     */
+    private static void corruptLayout(final byte[] bytes, final Class<?> clazz) {
+        final byte[] name = clazz.getName().getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i + name.length < bytes.length; i++) {
+            if (Arrays.equals(Arrays.copyOfRange(bytes, i, i + name.length), name)) {
+                bytes[i + name.length] ^= 0x5A;
+                return;
+            }
+        }
+        Assert.fail(clazz.getName() + " is not written by name");
+    }
+
+    /**
+     * The binary format has to stay smaller than the json one for the most
+     * frequent agent traffic, and decode to the same commands.
+     */
+    @Test
+    public void testCompareWithJson() throws Exception {
+        final Command[][] samples = new Command[][] {
+            new Command[] {createPing(60)},
+            new Command[] {createVmStatsAnswer(60)}
+        };
+        for (final Command[] sample : samples) {
+            // Compare the payloads before compression kicks in for the larger ones.
+            final String json = GsonHelper.getGson().toJson(sample, Command[].class);
+            final byte[] binary = BinaryCommandCodec.encode(sample);
+            s_logger.info(sample[0].getClass().getSimpleName() + ": json " + json.getBytes().length + " bytes, binary " + binary.length + " bytes");
+            Assert.assertTrue(binary.length < json.getBytes().length);
+
+            final Request req = new Request(2, 3, sample, true, true);
+            req.setVersion(Version.v4);
+            final Command[] parsed = Request.parse(req.getBytes()).getCommands();
+            Assert.assertEquals(json, GsonHelper.getGson().toJson(parsed, Command[].class));
+        }
+    }
+}
@@ -0,0 +1,114 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.storage.template;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.apache.cloudstack.utils.security.ChecksumValue;
+import org.apache.cloudstack.utils.security.DigestHelper;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DownloadChecksumTest {
+
+    private static byte[] content(int size) {
+        byte[] content = new byte[size];
+        new Random(7).nextBytes(content);
+        return content;
+    }
+
+    @Test
+    public void testSameAsDigestHelper() throws Exception {
+        byte[] content = content(100000);
+        DownloadChecksum checksum = new DownloadChecksum("MD5");
+        checksum.start();
+        checksum.update(content, 0, 40000);
+        ByteBuffer buffer = ByteBuffer.wrap(content, 40000, 60000);
+        checksum.update(buffer);
+        Assert.assertEquals(40000, buffer.position());
+
+        ChecksumValue expected = DigestHelper.digest("MD5", new ByteArrayInputStream(content));
+        Assert.assertEquals(expected, checksum.getValue());
+        Assert.assertEquals(expected, checksum.getValue());
+    }
+
+    @Test
+    public void testNoChecksum() {
+        DownloadChecksum checksum = new DownloadChecksum(null);
+        checksum.start();
+        checksum.update(new byte[10], 0, 10);
+        Assert.assertNull(checksum.getValue());
+
+        checksum = new DownloadChecksum("NOT-AN-ALGORITHM");
+        checksum.start();
+        Assert.assertNull(checksum.getValue());
+
+        checksum = new DownloadChecksum("SHA-256");
+        checksum.start();
+        checksum.update(new byte[10], 0, 10);
+        checksum.invalidate();
+        Assert.assertNull(checksum.getValue());
+    }
+
+    @Test
+    public void testRestart() throws Exception {
+        byte[] content = content(1000);
+        DownloadChecksum checksum = new DownloadChecksum("SHA-256");
+        checksum.start();
+        checksum.update(content(500), 0, 500);
+        checksum.start();
+        checksum.update(content, 0, content.length);
+        Assert.assertEquals(DigestHelper.digest("SHA-256", new ByteArrayInputStream(content)), checksum.getValue());
+    }
+
+    @Test
+    public void testWrappedStreams() throws Exception {
+        byte[] content = content(200000);
+        ChecksumValue expected = DigestHelper.digest("SHA-512", new ByteArrayInputStream(content));
+
+        DownloadChecksum checksum = new DownloadChecksum("SHA-512");
+        checksum.start();
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (OutputStream out = checksum.wrap(bos)) {
+            out.write(content);
+        }
+        Assert.assertEquals(expected, checksum.getValue());
+
+        // a reader going back in the stream does not digest the bytes twice
+        checksum = new DownloadChecksum("SHA-512");
+        checksum.start();
+        try (InputStream in = new BufferedInputStream(checksum.wrap(new ByteArrayInputStream(content)))) {
+            in.mark(4096);
+            Assert.assertEquals(4096, in.read(new byte[4096]));
+            in.reset();
+            byte[] buffer = new byte[8192];
+            while (in.read(buffer) > 0) {
+                continue;
+            }
+        }
+        Assert.assertEquals(expected, checksum.getValue());
+    }
+}
@@ -19,10 +19,17 @@
 
 package com.cloud.storage.template;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.nio.file.Files;
+import java.util.Random;
 
+import org.apache.cloudstack.utils.security.ChecksumValue;
+import org.apache.cloudstack.utils.security.DigestHelper;
 import org.junit.Test;
 
 
@@ -38,4 +45,27 @@ public class LocalTemplateDownloaderTest {
         }
     }
 
+    @Test
+    public void checksumComputedWhileDownloading() throws Exception {
+        File src = File.createTempFile("template", ".qcow2");
+        File dstDir = Files.createTempDirectory("download").toFile();
+        try {
+            byte[] content = new byte[3 * 1024 * 1024 + 17];
+            new Random(42).nextBytes(content);
+            Files.write(src.toPath(), content);
+
+            TemplateDownloader td = new LocalTemplateDownloader(null, src.toURI().toString(), dstDir.getAbsolutePath(), TemplateDownloader.DEFAULT_MAX_TEMPLATE_SIZE_IN_BYTES, null);
+            td.setChecksumAlgorithm("SHA-256");
+            assertEquals(content.length, td.download(false, null));
+
+            // the downloaded copy is not needed to get its checksum
+            File dst = new File(td.getDownloadLocalPath());
+            assertTrue(dst.delete());
+            ChecksumValue expected = DigestHelper.digest("SHA-256", new ByteArrayInputStream(content));
+            assertEquals(expected, td.getChecksum());
+        } finally {
+            src.delete();
+            dstDir.delete();
+        }
+    }
 }
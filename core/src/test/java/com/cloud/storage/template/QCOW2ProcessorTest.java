@@ -18,7 +18,9 @@
  */
 package com.cloud.storage.template;
 
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
@@ -109,4 +111,23 @@ public class QCOW2ProcessorTest {
         Assert.assertEquals(virtualSize, processor.getVirtualSize(mockFile));
         Mockito.verify(mockFile, Mockito.times(0)).length();
     }
-}
\ No newline at end of file
+
+    private File createImage(int magic, long backingFileOffset) throws IOException {
+        File file = File.createTempFile("qcow2", null);
+        file.deleteOnExit();
+        try (DataOutputStream strm = new DataOutputStream(new FileOutputStream(file))) {
+            strm.writeInt(magic);
+            strm.writeInt(3);
+            strm.writeLong(backingFileOffset);
+            strm.write(new byte[104]);
+        }
+        return file;
+    }
+
+    @Test
+    public void testHasBackingFile() throws Exception {
+        Assert.assertTrue(QCOW2Processor.hasBackingFile(createImage(0x514649fb, 0x200)));
+        Assert.assertFalse(QCOW2Processor.hasBackingFile(createImage(0x514649fb, 0)));
+        Assert.assertFalse(QCOW2Processor.hasBackingFile(createImage(0, 0x200)));
+    }
+}
@@ -18,15 +18,13 @@ package com.cloud.agent.manager;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -58,6 +56,7 @@ import com.cloud.agent.api.StartCommand;
 import com.cloud.agent.api.StopCommand;
 import com.cloud.agent.api.storage.CreateCommand;
 import com.cloud.agent.transport.Request;
+import com.cloud.agent.transport.Request.Version;
 import com.cloud.agent.transport.Response;
 import com.cloud.exception.AgentUnavailableException;
 import com.cloud.exception.OperationTimedoutException;
@@ -73,44 +72,16 @@ public abstract class AgentAttache {
     private static final ScheduledExecutorService s_listenerExecutor = Executors.newScheduledThreadPool(10, new NamedThreadFactory("ListenerTimer"));
     private static final Random s_rand = new Random(System.currentTimeMillis());
 
-    protected static final Comparator<Request> s_reqComparator = new Comparator<Request>() {
-        @Override
-        public int compare(final Request o1, final Request o2) {
-            long seq1 = o1.getSequence();
-            long seq2 = o2.getSequence();
-            if (seq1 < seq2) {
-                return -1;
-            } else if (seq1 > seq2) {
-                return 1;
-            } else {
-                return 0;
-            }
-        }
-    };
-
-    protected static final Comparator<Object> s_seqComparator = new Comparator<Object>() {
-        @Override
-        public int compare(final Object o1, final Object o2) {
-            long seq1 = ((Request)o1).getSequence();
-            long seq2 = (Long)o2;
-            if (seq1 < seq2) {
-                return -1;
-            } else if (seq1 > seq2) {
-                return 1;
-            } else {
-                return 0;
-            }
-        }
-    };
-
     protected final long _id;
     protected String _name = null;
     protected final ConcurrentHashMap<Long, Listener> _waitForList;
-    protected final LinkedList<Request> _requests;
+    // requests waiting for the current sequence to be answered, by sequence
+    protected final ConcurrentSkipListMap<Long, Request> _requests;
     protected Long _currentSequence;
     protected Status _status = Status.Connecting;
     protected boolean _maintenance;
     protected long _nextSequence;
+    protected volatile Version _wireVersion = Version.v1;
 
     protected AgentManagerImpl _agentMgr;
 
@@ -131,7 +102,7 @@ public abstract class AgentAttache {
         _waitForList = new ConcurrentHashMap<Long, Listener>();
         _currentSequence = null;
         _maintenance = maintenance;
-        _requests = new LinkedList<Request>();
+        _requests = new ConcurrentSkipListMap<Long, Request>();
         _agentMgr = agentMgr;
         _nextSequence = new Long(s_rand.nextInt(Short.MAX_VALUE)).longValue() << 48;
     }
@@ -140,6 +111,14 @@ public abstract class AgentAttache {
         return ++_nextSequence;
     }
 
+    public Version getWireVersion() {
+        return _wireVersion;
+    }
+
+    public void setWireVersion(final Version wireVersion) {
+        _wireVersion = wireVersion;
+    }
+
     public synchronized void setMaintenanceMode(final boolean value) {
         _maintenance = value;
     }
@@ -182,10 +161,9 @@ public abstract class AgentAttache {
         }
     }
 
-    protected synchronized void addRequest(final Request req) {
-        int index = findRequest(req);
-        assert (index < 0) : "How can we get index again? " + index + ":" + req.toString();
-        _requests.add(-index - 1, req);
+    protected void addRequest(final Request req) {
+        final Request previous = _requests.putIfAbsent(req.getSequence(), req);
+        assert (previous == null) : "How can we get the same sequence again? " + req.toString();
     }
 
     protected void cancel(final Request req) {
@@ -193,26 +171,20 @@ public abstract class AgentAttache {
         cancel(seq);
     }
 
+    /**
+     * Holds the attache lock like sendNext, so a queued request that is
+     * cancelled is never sent. The request is removed from the queue before
+     * its listener is told about the disconnection.
+     */
     protected synchronized void cancel(final long seq) {
         if (s_logger.isDebugEnabled()) {
             s_logger.debug(log(seq, "Cancelling."));
         }
+        _requests.remove(seq);
         final Listener listener = _waitForList.remove(seq);
         if (listener != null) {
             listener.processDisconnect(_id, Status.Disconnected);
         }
-        int index = findRequest(seq);
-        if (index >= 0) {
-            _requests.remove(index);
-        }
-    }
-
-    protected synchronized int findRequest(final Request req) {
-        return Collections.binarySearch(_requests, req, s_reqComparator);
-    }
-
-    protected synchronized int findRequest(final long seq) {
-        return Collections.binarySearch(_requests, seq, s_seqComparator);
     }
 
     protected String log(final long seq, final String msg) {
@@ -463,14 +435,14 @@ public abstract class AgentAttache {
 
     protected synchronized void sendNext(final long seq) {
         _currentSequence = null;
-        if (_requests.isEmpty()) {
+        final Map.Entry<Long, Request> next = _requests.pollFirstEntry();
+        if (next == null) {
             if (s_logger.isDebugEnabled()) {
                 s_logger.debug(log(seq, "No more commands found"));
             }
             return;
         }
-
-        Request req = _requests.pop();
+        Request req = next.getValue();
         if (s_logger.isDebugEnabled()) {
             s_logger.debug(log(req.getSequence(), "Sending now.  is current sequence."));
         }
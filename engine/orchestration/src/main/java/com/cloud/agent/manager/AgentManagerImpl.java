@@ -74,6 +74,7 @@ import com.cloud.agent.api.StartupRoutingCommand;
 import com.cloud.agent.api.StartupSecondaryStorageCommand;
 import com.cloud.agent.api.StartupStorageCommand;
 import com.cloud.agent.api.UnsupportedAnswer;
+import com.cloud.agent.transport.BinaryCommandCodec;
 import com.cloud.agent.transport.Request;
 import com.cloud.agent.transport.Response;
 import com.cloud.alert.AlertManager;
@@ -202,6 +203,12 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
             "Percentage (as a value between 0 and 1) of direct.agent.pool.size to be used as upper thread cap for a single direct agent to process requests", false);
     protected final ConfigKey<Boolean> CheckTxnBeforeSending = new ConfigKey<Boolean>("Developer", Boolean.class, "check.txn.before.sending.agent.commands", "false",
             "This parameter allows developers to enable a check to see if a transaction wraps commands that are sent to the resource.  This is not to be enabled on production systems.", true);
+    protected final ConfigKey<Boolean> BinaryWireFormat = new ConfigKey<Boolean>("Advanced", Boolean.class, "agent.binary.wire.format", "false",
+            "Use the compact binary wire format instead of json for agents that report the same command schema as the management server. Applied when agents (re)connect.", true);
+    protected final ConfigKey<Integer> Selectors = new ConfigKey<Integer>("Advanced", Integer.class, "agent.nio.selectors", "1",
+            "Number of selectors serving remote agent connections, 0 for one per core.", false);
+    protected final ConfigKey<Integer> HandlerQueueSize = new ConfigKey<Integer>("Advanced", Integer.class, "agent.nio.handler.queue.size", "0",
+            "Number of agent requests and handshakes that can wait for a worker thread before the agents are pushed back, 0 for no limit.", false);
 
     @Override
     public boolean configure(final String name, final Map<String, Object> params) throws ConfigurationException {
@@ -226,7 +233,7 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
         // allow core threads to time out even when there are no items in the queue
         _connectExecutor.allowCoreThreadTimeOut(true);
 
-        _connection = new NioServer("AgentManager", Port.value(), Workers.value() + 10, this, caService);
+        _connection = new NioServer("AgentManager", Port.value(), Workers.value() + 10, this, caService, Selectors.value(), HandlerQueueSize.value());
         s_logger.info("Listening on " + Port.value() + " with " + Workers.value() + " workers");
 
         // executes all agent commands other than cron and ping
@@ -452,6 +459,7 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
 
         final Request req = new Request(hostId, agent.getName(), _nodeId, cmds, commands.stopOnError(), true);
         req.setSequence(agent.getNextSequence());
+        req.setVersion(agent.getWireVersion());
         final Answer[] answers = agent.send(req, timeout);
         notifyAnswersToMonitors(hostId, req.getSequence(), answers);
         commands.setAnswers(answers);
@@ -502,6 +510,7 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
 
         final Request req = new Request(hostId, agent.getName(), _nodeId, cmds, commands.stopOnError(), true);
         req.setSequence(agent.getNextSequence());
+        req.setVersion(agent.getWireVersion());
 
         agent.send(req, listener);
         return req.getSequence();
@@ -1107,6 +1116,10 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
                 }
 
                 attache = createAttacheForConnect(host, link);
+                if (BinaryWireFormat.value() && BinaryCommandCodec.getSchemaFingerprint().equals(startup[0].getBinaryWireSchema())) {
+                    s_logger.debug("Using binary wire format for agent " + host.getId());
+                    attache.setWireVersion(Request.Version.v4);
+                }
                 attache = notifyMonitorsOfConnection(attache, startup, false);
             }
         } catch (final Exception e) {
@@ -1725,7 +1738,7 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
     @Override
     public ConfigKey<?>[] getConfigKeys() {
         return new ConfigKey<?>[] { CheckTxnBeforeSending, Workers, Port, Wait, AlertWait, DirectAgentLoadSize, DirectAgentPoolSize,
-            DirectAgentThreadCap };
+            DirectAgentThreadCap, BinaryWireFormat, Selectors, HandlerQueueSize };
     }
 
     protected class SetHostParamsListener implements Listener {
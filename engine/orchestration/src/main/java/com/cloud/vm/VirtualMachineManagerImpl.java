@@ -4829,7 +4829,7 @@ public class VirtualMachineManagerImpl extends ManagerBase implements VirtualMac
 
             // reset VM power state tracking so that we won't lost signal when VM has
             // been translated to
-            _vmDao.resetVmPowerStateTracking(vmId);
+            _syncMgr.resetVmSyncState(vmId);
         }
     }
 
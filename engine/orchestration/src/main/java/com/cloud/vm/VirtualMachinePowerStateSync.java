@@ -24,6 +24,12 @@ public interface VirtualMachinePowerStateSync {
 
     void resetHostSyncState(long hostId);
 
+    /**
+     * Resets the power state tracking of the vm, so its next report is
+     * handled as a new one.
+     */
+    void resetVmSyncState(long vmId);
+
     void processHostVmStateReport(long hostId, Map<String, HostVmStateReportEntry> report);
 
     // to adapt legacy ping report
@@ -19,8 +19,12 @@ package com.cloud.vm;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.inject.Inject;
 
@@ -41,15 +45,44 @@ public class VirtualMachinePowerStateSyncImpl implements VirtualMachinePowerStat
     @Inject VMInstanceDao _instanceDao;
     @Inject ManagementServiceConfiguration mgmtServiceConf;
 
+    // number of pings after which a vm whose power state did not change is checked against the database again
+    private static final int SNAPSHOT_VALIDITY_PINGS = 10;
+
+    /*
+     * Power state last reported by each host for its vms, once the database
+     * record stopped changing for them. The same state reported again is then
+     * skipped without touching the database.
+     */
+    private final Map<Long, Map<Long, PowerStateSnapshot>> _hostSnapshots = new ConcurrentHashMap<Long, Map<Long, PowerStateSnapshot>>();
+    private final AtomicLong _appliedUpdates = new AtomicLong();
+    private final AtomicLong _suppressedUpdates = new AtomicLong();
+
     public VirtualMachinePowerStateSyncImpl() {
     }
 
     @Override
     public void resetHostSyncState(long hostId) {
         s_logger.info("Reset VM power state sync for host: " + hostId);
+        _hostSnapshots.remove(hostId);
         _instanceDao.resetHostPowerStateTracking(hostId);
     }
 
+    @Override
+    public void resetVmSyncState(long vmId) {
+        for (Map<Long, PowerStateSnapshot> snapshots : _hostSnapshots.values()) {
+            snapshots.remove(vmId);
+        }
+        _instanceDao.resetVmPowerStateTracking(vmId);
+    }
+
+    public long getAppliedUpdates() {
+        return _appliedUpdates.get();
+    }
+
+    public long getSuppressedUpdates() {
+        return _suppressedUpdates.get();
+    }
+
     @Override
     public void processHostVmStateReport(long hostId, Map<String, HostVmStateReportEntry> report) {
             s_logger.debug("Process host VM state report. host: " + hostId);
@@ -73,30 +106,63 @@ public class VirtualMachinePowerStateSyncImpl implements VirtualMachinePowerStat
             s_logger.debug("Process VM state report. host: " + hostId + ", number of records in report: " + translatedInfo.size());
         }
 
+        Map<Long, PowerStateSnapshot> snapshots = _hostSnapshots.get(hostId);
+        if (snapshots == null) {
+            snapshots = new ConcurrentHashMap<Long, PowerStateSnapshot>();
+            _hostSnapshots.put(hostId, snapshots);
+        }
+
+        long now = System.currentTimeMillis();
+        Map<Long, VirtualMachine.PowerState> changes = new HashMap<Long, VirtualMachine.PowerState>();
         for (Map.Entry<Long, VirtualMachine.PowerState> entry : translatedInfo.entrySet()) {
 
             if (s_logger.isDebugEnabled())
                 s_logger.debug("VM state report. host: " + hostId + ", vm id: " + entry.getKey() + ", power state: " + entry.getValue());
 
-            if (_instanceDao.updatePowerState(entry.getKey(), hostId, entry.getValue(), DateUtil.currentGMTTime())) {
+            PowerStateSnapshot snapshot = snapshots.get(entry.getKey());
+            if (snapshot != null && snapshot.isSameState(entry.getValue(), now)) {
+                if (s_logger.isTraceEnabled()) {
+                    s_logger.trace("VM power state does not change, skip DB writing. vm id: " + entry.getKey());
+                }
+                continue;
+            }
+            changes.put(entry.getKey(), entry.getValue());
+        }
+
+        Set<Long> updated = _instanceDao.updatePowerState(changes, hostId, DateUtil.currentGMTTime());
+        long validUntil = now + mgmtServiceConf.getPingInterval() * 1000L * SNAPSHOT_VALIDITY_PINGS;
+        for (Map.Entry<Long, VirtualMachine.PowerState> entry : changes.entrySet()) {
+            if (updated.contains(entry.getKey())) {
                 if (s_logger.isInfoEnabled()) {
                     s_logger.debug("VM state report is updated. host: " + hostId + ", vm id: " + entry.getKey() + ", power state: " + entry.getValue());
                 }
+                snapshots.remove(entry.getKey());
 
                 _messageBus.publish(null, VirtualMachineManager.Topics.VM_POWER_STATE, PublishScope.GLOBAL, entry.getKey());
             } else {
                 if (s_logger.isTraceEnabled()) {
                     s_logger.trace("VM power state does not change, skip DB writing. vm id: " + entry.getKey());
                 }
+                snapshots.put(entry.getKey(), new PowerStateSnapshot(entry.getValue(), validUntil));
             }
         }
 
+        // vms no longer reported by the host go through the database again if they come back
+        snapshots.keySet().retainAll(translatedInfo.keySet());
+
+        _appliedUpdates.addAndGet(updated.size());
+        _suppressedUpdates.addAndGet(translatedInfo.size() - updated.size());
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Power state report of host " + hostId + ": " + updated.size() + " updated, " + (translatedInfo.size() - changes.size())
+                    + " skipped without DB access. Total updated: " + _appliedUpdates.get() + ", suppressed: " + _suppressedUpdates.get());
+        }
+
         // any state outdates should be checked against the time before this list was retrieved
         Date startTime = DateUtil.currentGMTTime();
         // for all running/stopping VMs, we provide monitoring of missing report
         List<VMInstanceVO> vmsThatAreMissingReport = _instanceDao.findByHostInStates(hostId, VirtualMachine.State.Running,
                 VirtualMachine.State.Stopping, VirtualMachine.State.Starting);
-        java.util.Iterator<VMInstanceVO> it = vmsThatAreMissingReport.iterator();
+        Iterator<VMInstanceVO> it = vmsThatAreMissingReport.iterator();
         while (it.hasNext()) {
             VMInstanceVO instance = it.next();
             if (translatedInfo.get(instance.getId()) != null)
@@ -119,7 +185,7 @@ public class VirtualMachinePowerStateSyncImpl implements VirtualMachinePowerStat
                 try {
                     if (!_instanceDao.isPowerStateUpToDate(instance.getId())) {
                         s_logger.warn("Detected missing VM but power state is outdated, wait for another process report run for VM id: " + instance.getId());
-                        _instanceDao.resetVmPowerStateTracking(instance.getId());
+                        resetVmSyncState(instance.getId());
                         continue;
                     }
                 } catch (CloudRuntimeException e) {
@@ -199,4 +265,18 @@ public class VirtualMachinePowerStateSyncImpl implements VirtualMachinePowerStat
     private VMInstanceVO findVM(String vmName) {
         return _instanceDao.findVMByInstanceName(vmName);
     }
+
+    private static class PowerStateSnapshot {
+        private final VirtualMachine.PowerState _powerState;
+        private final long _validUntil;
+
+        PowerStateSnapshot(VirtualMachine.PowerState powerState, long validUntil) {
+            _powerState = powerState;
+            _validUntil = validUntil;
+        }
+
+        boolean isSameState(VirtualMachine.PowerState powerState, long now) {
+            return _powerState == powerState && now < _validUntil;
+        }
+    }
 }
@@ -0,0 +1,178 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.manager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.cloud.agent.Listener;
+import com.cloud.agent.api.Command;
+import com.cloud.agent.transport.Request;
+import com.cloud.exception.AgentUnavailableException;
+import com.cloud.host.Status;
+
+public class AgentAttacheTest {
+    private static class InSequenceCommand extends Command {
+        @Override
+        public boolean executeInSequence() {
+            return true;
+        }
+    }
+
+    private static class TestAttache extends AgentAttache {
+        private final List<Long> _sent = new ArrayList<Long>();
+
+        TestAttache() {
+            super(null, 1L, "test-host", false);
+        }
+
+        @Override
+        public void send(final Request req) throws AgentUnavailableException {
+            _sent.add(req.getSequence());
+        }
+
+        @Override
+        public void disconnect(final Status state) {
+        }
+
+        @Override
+        protected boolean isClosed() {
+            return false;
+        }
+    }
+
+    private TestAttache _attache;
+
+    @Before
+    public void setUp() {
+        _attache = new TestAttache();
+    }
+
+    private Request createRequest(final long seq) {
+        final Request req = new Request(1L, 2L, new Command[] {new InSequenceCommand()}, true, true);
+        req.setSequence(seq);
+        return req;
+    }
+
+    @Test
+    public void testQueuedRequestsAreSentInSequenceOrder() throws Exception {
+        _attache.send(createRequest(10), null);
+        // queued behind the current sequence, out of order
+        _attache.send(createRequest(13), null);
+        _attache.send(createRequest(11), null);
+        _attache.send(createRequest(12), null);
+        Assert.assertEquals(3, _attache.getQueueSize());
+
+        _attache.sendNext(10);
+        _attache.sendNext(11);
+        _attache.sendNext(12);
+        _attache.sendNext(13);
+        Assert.assertEquals(0, _attache.getQueueSize());
+        Assert.assertEquals(Long.valueOf(10L), _attache._sent.get(0));
+        Assert.assertEquals(Long.valueOf(11L), _attache._sent.get(1));
+        Assert.assertEquals(Long.valueOf(12L), _attache._sent.get(2));
+        Assert.assertEquals(Long.valueOf(13L), _attache._sent.get(3));
+        Assert.assertNull(_attache._currentSequence);
+    }
+
+    @Test
+    public void testCancelQueuedRequest() throws Exception {
+        final Listener listener = Mockito.mock(Listener.class);
+        Mockito.when(listener.getTimeout()).thenReturn(-1);
+        _attache.send(createRequest(10), null);
+        _attache.send(createRequest(11), listener);
+        _attache.send(createRequest(12), null);
+
+        _attache.cancel(11);
+        Mockito.verify(listener).processDisconnect(1L, Status.Disconnected);
+        Assert.assertNull(_attache.getListener(11));
+        Assert.assertEquals(1, _attache.getQueueSize());
+
+        _attache.sendNext(10);
+        Assert.assertEquals(Long.valueOf(12L), _attache._currentSequence);
+        Assert.assertFalse(_attache._sent.contains(11L));
+    }
+
+    @Test
+    public void testCancelledRequestIsNotSentByConcurrentSendNext() throws Exception {
+        final CountDownLatch disconnecting = new CountDownLatch(1);
+        final CountDownLatch disconnected = new CountDownLatch(1);
+        final Listener listener = Mockito.mock(Listener.class);
+        Mockito.when(listener.getTimeout()).thenReturn(-1);
+        Mockito.doAnswer(invocation -> {
+            disconnecting.countDown();
+            disconnected.await();
+            return true;
+        }).when(listener).processDisconnect(1L, Status.Disconnected);
+        _attache.send(createRequest(10), null);
+        _attache.send(createRequest(11), listener);
+        _attache.send(createRequest(12), null);
+
+        final Thread canceller = new Thread(() -> _attache.cancel(11));
+        canceller.start();
+        disconnecting.await();
+        // the answer to the current sequence arrives while 11 is being cancelled
+        final Thread sender = new Thread(() -> _attache.sendNext(10));
+        sender.start();
+        sender.join(200);
+        Assert.assertTrue(sender.isAlive());
+
+        disconnected.countDown();
+        canceller.join();
+        sender.join();
+        Assert.assertFalse(_attache._sent.contains(11L));
+        Assert.assertEquals(Long.valueOf(12L), _attache._currentSequence);
+    }
+
+    @Test
+    public void testLongBacklog() throws Exception {
+        final int count = 10000;
+        final List<Request> requests = new ArrayList<Request>();
+        for (int i = 0; i < count; i++) {
+            requests.add(createRequest(1000 + i));
+        }
+        _attache.send(createRequest(1), null);
+
+        // the backlog is queued in the reverse order of the sequences
+        for (int i = count - 1; i >= 0; i--) {
+            _attache.send(requests.get(i), null);
+        }
+        Assert.assertEquals(count, _attache.getQueueSize());
+
+        for (int i = 0; i < count; i += 2) {
+            _attache.cancel(requests.get(i).getSequence());
+        }
+        Assert.assertEquals(count / 2, _attache.getQueueSize());
+
+        long seq = 1;
+        while (_attache.getQueueSize() > 0) {
+            _attache.sendNext(seq);
+            seq = _attache._currentSequence;
+        }
+
+        Assert.assertEquals(count / 2 + 1, _attache._sent.size());
+        for (int i = 1; i <= count / 2; i++) {
+            Assert.assertEquals(Long.valueOf(1000L + 2 * i - 1), _attache._sent.get(i));
+        }
+    }
+}
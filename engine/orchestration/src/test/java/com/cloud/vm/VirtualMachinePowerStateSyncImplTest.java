@@ -0,0 +1,179 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.vm;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.cloudstack.framework.messagebus.MessageBus;
+import org.apache.cloudstack.framework.messagebus.PublishScope;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import com.cloud.agent.api.HostVmStateReportEntry;
+import com.cloud.configuration.ManagementServiceConfiguration;
+import com.cloud.vm.VirtualMachine.PowerState;
+import com.cloud.vm.dao.VMInstanceDao;
+
+@RunWith(MockitoJUnitRunner.class)
+public class VirtualMachinePowerStateSyncImplTest {
+    private static final long HOST_ID = 4L;
+    private static final int VMS = 60;
+
+    @Mock
+    private MessageBus _messageBus;
+    @Mock
+    private VMInstanceDao _instanceDao;
+    @Mock
+    private ManagementServiceConfiguration mgmtServiceConf;
+    @InjectMocks
+    private VirtualMachinePowerStateSyncImpl _sync = new VirtualMachinePowerStateSyncImpl();
+
+    // power state and update count of each vm, as the database keeps them
+    private final Map<Long, PowerState> _powerStates = new HashMap<Long, PowerState>();
+    private final Map<Long, Integer> _updateCounts = new HashMap<Long, Integer>();
+    private final List<Integer> _checkedVms = new ArrayList<Integer>();
+
+    @Before
+    public void setUp() {
+        when(mgmtServiceConf.getPingInterval()).thenReturn(60);
+        when(_instanceDao.findByHostInStates(anyLong(), any(VirtualMachine.State.class), any(VirtualMachine.State.class), any(VirtualMachine.State.class)))
+                .thenReturn(new ArrayList<VMInstanceVO>());
+        when(_instanceDao.findVMByInstanceName(anyString())).thenAnswer(new Answer<VMInstanceVO>() {
+            @Override
+            public VMInstanceVO answer(final InvocationOnMock invocation) {
+                final VMInstanceVO vm = mock(VMInstanceVO.class);
+                when(vm.getId()).thenReturn(Long.parseLong(((String)invocation.getArguments()[0]).split("-")[2]));
+                return vm;
+            }
+        });
+        when(_instanceDao.updatePowerState(anyMapOf(Long.class, PowerState.class), eq(HOST_ID), any(Date.class))).thenAnswer(new Answer<Set<Long>>() {
+            @SuppressWarnings("unchecked")
+            @Override
+            public Set<Long> answer(final InvocationOnMock invocation) {
+                final Map<Long, PowerState> states = (Map<Long, PowerState>)invocation.getArguments()[0];
+                _checkedVms.add(states.size());
+                final Set<Long> updated = new HashSet<Long>();
+                for (final Map.Entry<Long, PowerState> entry : states.entrySet()) {
+                    if (_powerStates.get(entry.getKey()) != entry.getValue()) {
+                        _powerStates.put(entry.getKey(), entry.getValue());
+                        _updateCounts.put(entry.getKey(), 1);
+                        updated.add(entry.getKey());
+                    } else if (_updateCounts.get(entry.getKey()) < 3) {
+                        _updateCounts.put(entry.getKey(), _updateCounts.get(entry.getKey()) + 1);
+                        updated.add(entry.getKey());
+                    }
+                }
+                return updated;
+            }
+        });
+    }
+
+    private static Map<String, HostVmStateReportEntry> createReport(final int vms, final PowerState powerState) {
+        final Map<String, HostVmStateReportEntry> report = new HashMap<String, HostVmStateReportEntry>();
+        for (int i = 1; i <= vms; i++) {
+            report.put("i-2-" + i + "-VM", new HostVmStateReportEntry(powerState, "host"));
+        }
+        return report;
+    }
+
+    private void ping(final Map<String, HostVmStateReportEntry> report, final int times) {
+        for (int i = 0; i < times; i++) {
+            _sync.processHostVmStatePingReport(HOST_ID, report);
+        }
+    }
+
+    @Test
+    public void testOnlyTransitionsReachTheDatabase() {
+        final Map<String, HostVmStateReportEntry> report = createReport(VMS, PowerState.PowerOn);
+        ping(report, 10);
+
+        // The first report and two confirmations are written, the database is then left alone
+        verify(_messageBus, times(3 * VMS)).publish(isNull(String.class), eq(VirtualMachineManager.Topics.VM_POWER_STATE), eq(PublishScope.GLOBAL), any(Long.class));
+        Assert.assertEquals(Integer.valueOf(VMS), _checkedVms.get(3));
+        for (int i = 4; i < 10; i++) {
+            Assert.assertEquals(Integer.valueOf(0), _checkedVms.get(i));
+        }
+        Assert.assertEquals(3 * VMS, _sync.getAppliedUpdates());
+        Assert.assertEquals(7 * VMS, _sync.getSuppressedUpdates());
+
+        report.put("i-2-5-VM", new HostVmStateReportEntry(PowerState.PowerOff, "host"));
+        ping(report, 1);
+        Assert.assertEquals(Integer.valueOf(1), _checkedVms.get(10));
+        Assert.assertEquals(PowerState.PowerOff, _powerStates.get(5L));
+        verify(_messageBus, times(4)).publish(isNull(String.class), eq(VirtualMachineManager.Topics.VM_POWER_STATE), eq(PublishScope.GLOBAL), eq(5L));
+    }
+
+    @Test
+    public void testResetVmGoesBackToTheDatabase() {
+        final Map<String, HostVmStateReportEntry> report = createReport(VMS, PowerState.PowerOn);
+        ping(report, 5);
+
+        _updateCounts.put(7L, 0);
+        _sync.resetVmSyncState(7L);
+        verify(_instanceDao).resetVmPowerStateTracking(7L);
+        ping(report, 1);
+        Assert.assertEquals(Integer.valueOf(1), _checkedVms.get(5));
+        Assert.assertEquals(Integer.valueOf(1), _updateCounts.get(7L));
+    }
+
+    @Test
+    public void testMissingVmIsCheckedAgainWhenReportedBack() {
+        final Map<String, HostVmStateReportEntry> report = createReport(VMS, PowerState.PowerOn);
+        ping(report, 5);
+
+        final HostVmStateReportEntry entry = report.remove("i-2-9-VM");
+        ping(report, 1);
+        report.put("i-2-9-VM", entry);
+        ping(report, 1);
+        Assert.assertEquals(Integer.valueOf(1), _checkedVms.get(6));
+    }
+
+    @Test
+    public void testResetHostGoesBackToTheDatabase() {
+        final Map<String, HostVmStateReportEntry> report = createReport(VMS, PowerState.PowerOn);
+        ping(report, 5);
+
+        _sync.resetHostSyncState(HOST_ID);
+        verify(_instanceDao).resetHostPowerStateTracking(HOST_ID);
+        ping(report, 1);
+        Assert.assertEquals(Integer.valueOf(VMS), _checkedVms.get(5));
+    }
+}
@@ -20,6 +20,7 @@ import java.util.Date;
 import java.util.Map;
 import java.util.UUID;
 
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.EnumType;
@@ -38,6 +39,7 @@ import com.cloud.utils.db.GenericDao;
 
 @Entity
 @Table(name = "data_center")
+@Cacheable
 public class DataCenterVO implements DataCenter {
 
     @Id
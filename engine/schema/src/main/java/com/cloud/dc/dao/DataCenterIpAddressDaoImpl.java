@@ -18,6 +18,7 @@ package com.cloud.dc.dao;
 
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 
@@ -29,6 +30,7 @@ import org.springframework.stereotype.Component;
 
 import com.cloud.dc.DataCenterIpAddressVO;
 import com.cloud.utils.db.DB;
+import com.cloud.utils.db.EntityCache;
 import com.cloud.utils.db.GenericDaoBase;
 import com.cloud.utils.db.GenericSearchBuilder;
 import com.cloud.utils.db.SearchBuilder;
@@ -162,6 +164,8 @@ public class DataCenterIpAddressDaoImpl extends GenericDaoBase<DataCenterIpAddre
                     updatePstmt.executeUpdate();
                 }
             }
+            // The zone is cached and its mac_address was bumped behind the back of its DAO.
+            EntityCache.invalidateOnWrite(Collections.singleton("data_center"), dcId);
             txn.commit();
         } catch (SQLException ex) {
             throw new CloudRuntimeException("Unable to persist ip address range ", ex);
@@ -18,6 +18,8 @@ package com.cloud.network.security;
 
 import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
@@ -28,6 +30,7 @@ import javax.persistence.Table;
 
 import org.apache.cloudstack.api.InternalIdentity;
 
+import com.cloud.hypervisor.Hypervisor.HypervisorType;
 import com.cloud.vm.VirtualMachine.State;
 
 @Entity
@@ -56,6 +59,13 @@ public class SecurityGroupVMMapVO implements InternalIdentity {
     @Column(name = "name", table = "security_group", insertable = false, updatable = false)
     private String groupName;
 
+    @Column(name = "host_id", table = "vm_instance", insertable = false, updatable = false)
+    private Long hostId;
+
+    @Column(name = "hypervisor_type", table = "vm_instance", insertable = false, updatable = false)
+    @Enumerated(value = EnumType.STRING)
+    private HypervisorType hypervisorType;
+
     public SecurityGroupVMMapVO() {
     }
 
@@ -88,4 +98,12 @@ public class SecurityGroupVMMapVO implements InternalIdentity {
     public String getGroupName() {
         return groupName;
     }
+
+    public Long getHostId() {
+        return hostId;
+    }
+
+    public HypervisorType getHypervisorType() {
+        return hypervisorType;
+    }
 }
@@ -48,6 +48,9 @@ public class SecurityGroupVO implements SecurityGroup {
     @Column(name = "uuid")
     private String uuid;
 
+    @Column(name = "members_version")
+    private long membersVersion;
+
     public SecurityGroupVO() {
         uuid = UUID.randomUUID().toString();
     }
@@ -98,6 +101,14 @@ public class SecurityGroupVO implements SecurityGroup {
         this.uuid = uuid;
     }
 
+    /**
+     * @return the version of the running members of the group, increased on
+     *         every start and stop of one of them.
+     */
+    public long getMembersVersion() {
+        return membersVersion;
+    }
+
     @Override
     public Class<?> getEntityType() {
         return SecurityGroup.class;
@@ -31,4 +31,9 @@ public interface SecurityGroupDao extends GenericDao<SecurityGroupVO, Long> {
     List<SecurityGroupVO> findByAccountAndNames(Long accountId, String... names);
 
     int removeByAccountId(long accountId);
+
+    /**
+     * @return the new version of the running members of the group, or 0 if the group does not exist
+     */
+    long incrementMembersVersion(long groupId);
 }
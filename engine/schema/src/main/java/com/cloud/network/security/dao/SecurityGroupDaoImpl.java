@@ -26,16 +26,20 @@ import com.cloud.network.security.SecurityGroupVO;
 import com.cloud.server.ResourceTag.ResourceObjectType;
 import com.cloud.tags.dao.ResourceTagDao;
 import com.cloud.utils.db.DB;
+import com.cloud.utils.db.Attribute;
 import com.cloud.utils.db.GenericDaoBase;
 import com.cloud.utils.db.SearchBuilder;
 import com.cloud.utils.db.SearchCriteria;
 import com.cloud.utils.db.TransactionLegacy;
+import com.cloud.utils.db.UpdateBuilder;
 
 @Component
 public class SecurityGroupDaoImpl extends GenericDaoBase<SecurityGroupVO, Long> implements SecurityGroupDao {
     private SearchBuilder<SecurityGroupVO> AccountIdSearch;
     private SearchBuilder<SecurityGroupVO> AccountIdNameSearch;
     private SearchBuilder<SecurityGroupVO> AccountIdNamesSearch;
+    private SearchBuilder<SecurityGroupVO> IdSearch;
+    private final Attribute _membersVersionAttr;
     @Inject
     ResourceTagDao _tagsDao;
 
@@ -52,6 +56,13 @@ public class SecurityGroupDaoImpl extends GenericDaoBase<SecurityGroupVO, Long>
         AccountIdNamesSearch.and("accountId", AccountIdNamesSearch.entity().getAccountId(), SearchCriteria.Op.EQ);
         AccountIdNamesSearch.and("groupNames", AccountIdNamesSearch.entity().getName(), SearchCriteria.Op.IN);
         AccountIdNameSearch.done();
+
+        IdSearch = createSearchBuilder();
+        IdSearch.and("id", IdSearch.entity().getId(), SearchCriteria.Op.EQ);
+        IdSearch.done();
+
+        _membersVersionAttr = _allAttributes.get("membersVersion");
+        assert _membersVersionAttr != null : "Cannot find membersVersion";
     }
 
     @Override
@@ -102,6 +113,21 @@ public class SecurityGroupDaoImpl extends GenericDaoBase<SecurityGroupVO, Long>
         return expunge(sc);
     }
 
+    @Override
+    @DB
+    public long incrementMembersVersion(long groupId) {
+        TransactionLegacy txn = TransactionLegacy.currentTxn();
+        txn.start();
+        SearchCriteria<SecurityGroupVO> sc = IdSearch.create();
+        sc.setParameters("id", groupId);
+        UpdateBuilder ub = getUpdateBuilder(createForUpdate());
+        ub.incr(_membersVersionAttr, 1);
+        update(ub, sc, null);
+        SecurityGroupVO group = findById(groupId);
+        txn.commit();
+        return group == null ? 0 : group.getMembersVersion();
+    }
+
     @Override
     @DB
     public boolean remove(Long id) {
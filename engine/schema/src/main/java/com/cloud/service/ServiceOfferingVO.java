@@ -18,6 +18,7 @@ package com.cloud.service;
 
 import java.util.Map;
 
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.DiscriminatorValue;
 import javax.persistence.Entity;
@@ -32,6 +33,7 @@ import com.cloud.vm.VirtualMachine;
 
 @Entity
 @Table(name = "service_offering")
+@Cacheable
 @DiscriminatorValue(value = "Service")
 @PrimaryKeyJoinColumn(name = "id")
 public class ServiceOfferingVO extends DiskOfferingVO implements ServiceOffering {
@@ -20,6 +20,7 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import com.cloud.utils.Pair;
 import com.cloud.utils.db.GenericDao;
@@ -147,6 +148,14 @@ public interface VMInstanceDao extends GenericDao<VMInstanceVO, Long>, StateDao<
 
     boolean updatePowerState(long instanceId, long powerHostId, VirtualMachine.PowerState powerState, Date wisdomEra);
 
+    /**
+     * Updates the power state of several vms reported by the same host, with a
+     * statement per new state instead of one per vm.
+     *
+     * @return the ids of the vms whose power state was updated
+     */
+    Set<Long> updatePowerState(Map<Long, VirtualMachine.PowerState> powerStates, long powerHostId, Date wisdomEra);
+
     void resetVmPowerStateTracking(long instanceId);
 
     void resetHostPowerStateTracking(long hostId);
@@ -20,10 +20,14 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.PostConstruct;
 import javax.inject.Inject;
@@ -96,6 +100,7 @@ public class VMInstanceDaoImpl extends GenericDaoBase<VMInstanceVO, Long> implem
     protected SearchBuilder<VMInstanceVO> NotMigratingSearch;
     protected SearchBuilder<VMInstanceVO> BackupSearch;
     protected SearchBuilder<VMInstanceVO> LastHostAndStatesSearch;
+    protected SearchBuilder<VMInstanceVO> PowerStateUpdateSearch;
 
     @Inject
     ResourceTagDao _tagsDao;
@@ -140,6 +145,13 @@ public class VMInstanceDaoImpl extends GenericDaoBase<VMInstanceVO, Long> implem
         IdStatesSearch.and("states", IdStatesSearch.entity().getState(), Op.IN);
         IdStatesSearch.done();
 
+        PowerStateUpdateSearch = createSearchBuilder();
+        PowerStateUpdateSearch.and("ids", PowerStateUpdateSearch.entity().getId(), Op.IN);
+        PowerStateUpdateSearch.and().op("neverUpdated", PowerStateUpdateSearch.entity().getPowerStateUpdateTime(), Op.NULL);
+        PowerStateUpdateSearch.or("wisdomEra", PowerStateUpdateSearch.entity().getPowerStateUpdateTime(), Op.LT);
+        PowerStateUpdateSearch.cp();
+        PowerStateUpdateSearch.done();
+
         VMClusterSearch = createSearchBuilder();
         SearchBuilder<HostVO> hostSearch = _hostDao.createSearchBuilder();
         VMClusterSearch.join("hostSearch", hostSearch, hostSearch.entity().getId(), VMClusterSearch.entity().getHostId(), JoinType.INNER);
@@ -901,6 +913,85 @@ public class VMInstanceDaoImpl extends GenericDaoBase<VMInstanceVO, Long> implem
         });
     }
 
+    @Override
+    public Set<Long> updatePowerState(final Map<Long, VirtualMachine.PowerState> powerStates, final long powerHostId, final Date wisdomEra) {
+        if (powerStates.isEmpty()) {
+            return Collections.emptySet();
+        }
+        return Transaction.execute(new TransactionCallback<Set<Long>>() {
+            @Override
+            public Set<Long> doInTransaction(TransactionStatus status) {
+                SearchCriteria<VMInstanceVO> sc = PowerStateUpdateSearch.create();
+                sc.setParameters("ids", powerStates.keySet().toArray());
+                sc.setParameters("wisdomEra", wisdomEra);
+
+                // Same rules as the single vm update, with one statement per new state and per update count.
+                // The rows are locked so that no other report changes them between the decision and the update.
+                Map<VirtualMachine.PowerState, List<Long>> changed = new EnumMap<VirtualMachine.PowerState, List<Long>>(VirtualMachine.PowerState.class);
+                Map<Integer, List<Long>> repeated = new HashMap<Integer, List<Long>>();
+                for (VMInstanceVO instance : lockRows(sc, null, true)) {
+                    VirtualMachine.PowerState powerState = powerStates.get(instance.getId());
+                    Long savedPowerHostId = instance.getPowerHostId();
+                    if (instance.getPowerState() != powerState || savedPowerHostId == null || savedPowerHostId.longValue() != powerHostId) {
+                        addToGroup(changed, powerState, instance.getId());
+                    } else if (instance.getPowerStateUpdateCount() < MAX_CONSECUTIVE_SAME_STATE_UPDATE_COUNT) {
+                        addToGroup(repeated, instance.getPowerStateUpdateCount() + 1, instance.getId());
+                    }
+                }
+
+                Set<Long> updated = new HashSet<Long>();
+                Date now = DateUtil.currentGMTTime();
+                for (Map.Entry<VirtualMachine.PowerState, List<Long>> entry : changed.entrySet()) {
+                    VMInstanceVO instance = createForUpdate();
+                    instance.setPowerState(entry.getKey());
+                    instance.setPowerHostId(powerHostId);
+                    instance.setPowerStateUpdateCount(1);
+                    instance.setPowerStateUpdateTime(now);
+                    updated.addAll(updatePowerStates(instance, entry.getValue(), wisdomEra, entry.getKey(), powerHostId, 1));
+                }
+                for (Map.Entry<Integer, List<Long>> entry : repeated.entrySet()) {
+                    VMInstanceVO instance = createForUpdate();
+                    instance.setPowerStateUpdateCount(entry.getKey());
+                    instance.setPowerStateUpdateTime(now);
+                    updated.addAll(updatePowerStates(instance, entry.getValue(), wisdomEra, null, null, entry.getKey()));
+                }
+                return updated;
+            }
+        });
+    }
+
+    /**
+     * @return the ids of the vms the update matched
+     */
+    private List<Long> updatePowerStates(VMInstanceVO instance, List<Long> ids, Date wisdomEra, VirtualMachine.PowerState powerState, Long powerHostId, int updateCount) {
+        SearchCriteria<VMInstanceVO> sc = PowerStateUpdateSearch.create();
+        sc.setParameters("ids", ids.toArray());
+        sc.setParameters("wisdomEra", wisdomEra);
+        int rows = update(instance, sc);
+        if (rows == ids.size()) {
+            return ids;
+        }
+
+        s_logger.warn("Power state update matched " + rows + " of " + ids.size() + " vms, checking which ones were updated");
+        List<Long> updated = new ArrayList<Long>();
+        for (VMInstanceVO vm : listByIds(ids)) {
+            if ((powerState == null || vm.getPowerState() == powerState) && (powerHostId == null || powerHostId.equals(vm.getPowerHostId()))
+                    && vm.getPowerStateUpdateCount() == updateCount) {
+                updated.add(vm.getId());
+            }
+        }
+        return updated;
+    }
+
+    private static <K> void addToGroup(Map<K, List<Long>> groups, K key, Long id) {
+        List<Long> ids = groups.get(key);
+        if (ids == null) {
+            ids = new ArrayList<Long>();
+            groups.put(key, ids);
+        }
+        ids.add(id);
+    }
+
     @Override
     public boolean isPowerStateUpToDate(final long instanceId) {
         VMInstanceVO instance = findById(instanceId);
@@ -128,6 +128,7 @@ BEGIN
 CALL `cloud`.`IDEMPOTENT_ADD_COLUMN`('cloud.account','created', 'datetime DEFAULT NULL COMMENT ''date created'' AFTER `state` ');
 CALL `cloud`.`IDEMPOTENT_ADD_COLUMN`('cloud.domain','created', 'datetime DEFAULT NULL COMMENT ''date created'' AFTER `next_child_seq` ');
 CALL `cloud`.`IDEMPOTENT_ADD_COLUMN`('cloud_usage.account','created', 'datetime DEFAULT NULL COMMENT ''date created'' AFTER `state` ');
+CALL `cloud`.`IDEMPOTENT_ADD_COLUMN`('cloud.security_group','members_version', 'bigint unsigned NOT NULL DEFAULT 0 COMMENT ''version of the running members of the group, sent to the hosts keeping them in ipsets'' AFTER `account_id` ');
 
 DROP VIEW IF EXISTS `cloud`.`account_view`;
 CREATE VIEW `cloud`.`account_view` AS
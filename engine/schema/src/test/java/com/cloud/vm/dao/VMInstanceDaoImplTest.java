@@ -17,7 +17,10 @@
 
 package com.cloud.vm.dao;
 
+import com.cloud.host.dao.HostDaoImpl;
 import com.cloud.utils.Pair;
+import com.cloud.utils.db.Attribute;
+import com.cloud.utils.db.SearchCriteria;
 import com.cloud.vm.VirtualMachine;
 import org.joda.time.DateTime;
 import org.junit.Before;
@@ -25,9 +28,24 @@ import org.junit.Test;
 import org.junit.Assert;
 import org.mockito.Mock;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 import static com.cloud.vm.VirtualMachine.State.Running;
 import static com.cloud.vm.VirtualMachine.State.Stopped;
 
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 import com.cloud.vm.VMInstanceVO;
 import org.mockito.MockitoAnnotations;
@@ -67,6 +85,119 @@ public class VMInstanceDaoImplTest {
         Assert.assertEquals(vmInstanceDao.ifStateUnchanged(Stopped, Running, null, null), false);
     }
 
+    private static final long POWER_HOST_ID = 10L;
+
+    private final List<SearchCriteria<VMInstanceVO>> lockedCriteria = new ArrayList<SearchCriteria<VMInstanceVO>>();
+    private final List<SearchCriteria<VMInstanceVO>> updateCriteria = new ArrayList<SearchCriteria<VMInstanceVO>>();
+    private final List<VMInstanceVO> updates = new ArrayList<VMInstanceVO>();
+
+    @SuppressWarnings("unchecked")
+    private void mockPowerStateRows(final VMInstanceVO... rows) {
+        vmInstanceDao._hostDao = new HostDaoImpl();
+        vmInstanceDao._nicDao = new NicDaoImpl();
+        vmInstanceDao.init();
+
+        doAnswer(invocation -> {
+            lockedCriteria.add(invocation.getArgument(0));
+            return Arrays.asList(rows);
+        }).when(vmInstanceDao).lockRows(any(SearchCriteria.class), isNull(), eq(true));
+        doAnswer(invocation -> {
+            updates.add(invocation.getArgument(0));
+            SearchCriteria<VMInstanceVO> sc = invocation.getArgument(1);
+            updateCriteria.add(sc);
+            int ids = 0;
+            for (Pair<Attribute, Object> value : sc.getValues()) {
+                if ("id".equals(value.first().getColumnName())) {
+                    ids++;
+                }
+            }
+            return ids;
+        }).when(vmInstanceDao).update(any(VMInstanceVO.class), any(SearchCriteria.class));
+    }
+
+    private static VMInstanceVO powerStateRow(long id, VirtualMachine.PowerState powerState, Long powerHostId, int updateCount, Date updateTime) {
+        VMInstanceVO row = mock(VMInstanceVO.class);
+        when(row.getId()).thenReturn(id);
+        when(row.getPowerState()).thenReturn(powerState);
+        when(row.getPowerHostId()).thenReturn(powerHostId);
+        when(row.getPowerStateUpdateCount()).thenReturn(updateCount);
+        when(row.getPowerStateUpdateTime()).thenReturn(updateTime);
+        return row;
+    }
+
+    private static Map<Long, VirtualMachine.PowerState> report(long id, VirtualMachine.PowerState powerState) {
+        Map<Long, VirtualMachine.PowerState> powerStates = new HashMap<Long, VirtualMachine.PowerState>();
+        powerStates.put(id, powerState);
+        return powerStates;
+    }
+
+    private static void assertMatchesNeverUpdatedVms(SearchCriteria<VMInstanceVO> sc) {
+        String where = sc.getWhereClause().replaceAll("\\s+", "");
+        Assert.assertTrue(where, where.contains("(vm_instance.power_state_update_timeISNULLORvm_instance.power_state_update_time<?)"));
+    }
+
+    @Test
+    public void testUpdatePowerStateOfNeverUpdatedVm() {
+        mockPowerStateRows(powerStateRow(1L, VirtualMachine.PowerState.PowerUnknown, null, 0, null));
+
+        Set<Long> updated = vmInstanceDao.updatePowerState(report(1L, VirtualMachine.PowerState.PowerOn), POWER_HOST_ID, new Date());
+
+        Assert.assertEquals(Collections.singleton(1L), updated);
+        assertMatchesNeverUpdatedVms(lockedCriteria.get(0));
+        assertMatchesNeverUpdatedVms(updateCriteria.get(0));
+    }
+
+    @Test
+    public void testUpdateChangedPowerState() {
+        mockPowerStateRows(powerStateRow(1L, VirtualMachine.PowerState.PowerOff, POWER_HOST_ID, 3, new Date(0)));
+
+        Set<Long> updated = vmInstanceDao.updatePowerState(report(1L, VirtualMachine.PowerState.PowerOn), POWER_HOST_ID, new Date());
+
+        Assert.assertEquals(Collections.singleton(1L), updated);
+        Assert.assertEquals(1, updates.size());
+        Assert.assertEquals(VirtualMachine.PowerState.PowerOn, updates.get(0).getPowerState());
+        Assert.assertEquals(Long.valueOf(POWER_HOST_ID), updates.get(0).getPowerHostId());
+        Assert.assertEquals(1, updates.get(0).getPowerStateUpdateCount());
+        Assert.assertNotNull(updates.get(0).getPowerStateUpdateTime());
+    }
+
+    @Test
+    public void testUpdateRepeatedPowerState() {
+        mockPowerStateRows(powerStateRow(1L, VirtualMachine.PowerState.PowerOn, POWER_HOST_ID, 1, new Date(0)));
+
+        Set<Long> updated = vmInstanceDao.updatePowerState(report(1L, VirtualMachine.PowerState.PowerOn), POWER_HOST_ID, new Date());
+
+        Assert.assertEquals(Collections.singleton(1L), updated);
+        Assert.assertEquals(1, updates.size());
+        Assert.assertEquals(2, updates.get(0).getPowerStateUpdateCount());
+        Assert.assertNotNull(updates.get(0).getPowerStateUpdateTime());
+    }
+
+    @Test
+    public void testRepeatedPowerStateNotUpdatedPastTheLimit() {
+        mockPowerStateRows(powerStateRow(1L, VirtualMachine.PowerState.PowerOn, POWER_HOST_ID, 3, new Date(0)));
+
+        Set<Long> updated = vmInstanceDao.updatePowerState(report(1L, VirtualMachine.PowerState.PowerOn), POWER_HOST_ID, new Date());
+
+        Assert.assertTrue(updated.isEmpty());
+        Assert.assertTrue(updates.isEmpty());
+    }
+
+    @Test
+    public void testUpdatePowerStateReturnsOnlyTheUpdatedVms() {
+        mockPowerStateRows(powerStateRow(1L, VirtualMachine.PowerState.PowerOff, POWER_HOST_ID, 3, new Date(0)),
+                powerStateRow(2L, VirtualMachine.PowerState.PowerOff, POWER_HOST_ID, 3, new Date(0)));
+        doReturn(1).when(vmInstanceDao).update(any(VMInstanceVO.class), any(SearchCriteria.class));
+        doReturn(Arrays.asList(powerStateRow(1L, VirtualMachine.PowerState.PowerOn, POWER_HOST_ID, 1, new Date()),
+                powerStateRow(2L, VirtualMachine.PowerState.PowerOff, 11L, 1, new Date()))).when(vmInstanceDao).listByIds(any());
+
+        Map<Long, VirtualMachine.PowerState> powerStates = report(1L, VirtualMachine.PowerState.PowerOn);
+        powerStates.put(2L, VirtualMachine.PowerState.PowerOn);
+        Set<Long> updated = vmInstanceDao.updatePowerState(powerStates, POWER_HOST_ID, new Date());
+
+        Assert.assertEquals(Collections.singleton(1L), updated);
+    }
+
 }
 
 
@@ -139,38 +139,44 @@ public class DefaultSnapshotStrategy extends SnapshotStrategyBase {
             VolumeVO volume = volumeDao.findById(snapshot.getVolumeId());
             if (oldestSnapshotOnPrimary != null) {
                 if (oldestSnapshotOnPrimary.getDataStoreId() == volume.getPoolId() && oldestSnapshotOnPrimary.getId() != parentSnapshotOnPrimaryStore.getId()) {
-                    int _deltaSnapshotMax = NumbersUtil.parseInt(configDao.getValue("snapshot.delta.max"),
-                            SnapshotManager.DELTAMAX);
-                    int deltaSnap = _deltaSnapshotMax;
-                    int i;
-
-                    for (i = 1; i < deltaSnap; i++) {
-                        Long prevBackupId = parentSnapshotOnBackupStore.getParentSnapshotId();
-                        if (prevBackupId == 0) {
-                            break;
-                        }
-                        parentSnapshotOnBackupStore = snapshotStoreDao.findBySnapshot(prevBackupId, DataStoreRole.Image);
-                        if (parentSnapshotOnBackupStore == null) {
-                            break;
-                        }
-                    }
-
-                    if (i >= deltaSnap) {
-                        fullBackup = true;
-                    } else {
-                        fullBackup = false;
-                    }
+                    fullBackup = isDeltaChainFull(parentSnapshotOnBackupStore);
                 } else if (oldestSnapshotOnPrimary.getId() != parentSnapshotOnPrimaryStore.getId()){
                     // if there is an snapshot entry for previousPool(primary storage) of migrated volume, delete it becasue CS created one more snapshot entry for current pool
                     snapshotStoreDao.remove(oldestSnapshotOnPrimary.getId());
                 }
             }
+        } else if (parentSnapshotOnBackupStore != null && hypervisorType == Hypervisor.HypervisorType.KVM
+                && SnapshotManager.KvmIncrementalSnapshot.valueIn(snapshot.getDataCenterId())) {
+            // KVM compares the new snapshot with the backup of the previous one, there is no delta chain on primary to follow
+            fullBackup = isDeltaChainFull(parentSnapshotOnBackupStore);
         }
 
         snapshot.setFullBackup(fullBackup);
         return snapshotSvr.backupSnapshot(snapshot);
     }
 
+    /**
+     * @return true if the backup chain ending with the given backup already holds snapshot.delta.max snapshots,
+     *         so the next backup has to be a full one
+     */
+    protected boolean isDeltaChainFull(SnapshotDataStoreVO parentSnapshotOnBackupStore) {
+        int deltaSnap = NumbersUtil.parseInt(configDao.getValue("snapshot.delta.max"), SnapshotManager.DELTAMAX);
+        int i;
+
+        for (i = 1; i < deltaSnap; i++) {
+            Long prevBackupId = parentSnapshotOnBackupStore.getParentSnapshotId();
+            if (prevBackupId == 0) {
+                break;
+            }
+            parentSnapshotOnBackupStore = snapshotStoreDao.findBySnapshot(prevBackupId, DataStoreRole.Image);
+            if (parentSnapshotOnBackupStore == null) {
+                break;
+            }
+        }
+
+        return i >= deltaSnap;
+    }
+
     protected boolean deleteSnapshotChain(SnapshotInfo snapshot) {
         s_logger.debug("delete snapshot chain for snapshot: " + snapshot.getId());
         boolean result = false;
@@ -51,11 +51,13 @@ import org.apache.log4j.Logger;
 import com.cloud.storage.CreateSnapshotPayload;
 import com.cloud.event.EventTypes;
 import com.cloud.event.UsageEventUtils;
+import com.cloud.hypervisor.Hypervisor.HypervisorType;
 import com.cloud.storage.DataStoreRole;
 import com.cloud.storage.Snapshot;
 import com.cloud.storage.SnapshotVO;
 import com.cloud.storage.dao.SnapshotDao;
 import com.cloud.storage.dao.SnapshotDetailsDao;
+import com.cloud.storage.snapshot.SnapshotManager;
 import com.cloud.storage.template.TemplateConstants;
 import com.cloud.utils.db.Transaction;
 import com.cloud.utils.db.TransactionCallbackNoReturn;
@@ -249,6 +251,9 @@ public class SnapshotServiceImpl implements SnapshotService {
             SnapshotDataStoreVO parentSnapshotOnBackupStore = null;
             if (parentSnapshot != null) {
                 parentSnapshotOnBackupStore = _snapshotStoreDao.findBySnapshot(parentSnapshot.getId(), DataStoreRole.Image);
+            } else if (snapshot.getHypervisorType() == HypervisorType.KVM && SnapshotManager.KvmIncrementalSnapshot.valueIn(snapshot.getDataCenterId())) {
+                // KVM doesn't chain the snapshots on primary, the delta is taken against the latest backup of the volume
+                parentSnapshotOnBackupStore = _snapshotStoreDao.findLatestSnapshotForVolume(snapshot.getVolumeId(), DataStoreRole.Image);
             }
             if (parentSnapshotOnBackupStore == null) {
                 return dataStoreMgr.getImageStoreWithFreeCapacity(snapshot.getDataCenterId());
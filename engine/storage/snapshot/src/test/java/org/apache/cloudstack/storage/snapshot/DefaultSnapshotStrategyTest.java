@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.cloudstack.storage.snapshot;
+
+import org.apache.cloudstack.engine.subsystem.api.storage.SnapshotInfo;
+import org.apache.cloudstack.engine.subsystem.api.storage.SnapshotService;
+import org.apache.cloudstack.engine.subsystem.api.storage.VolumeInfo;
+import org.apache.cloudstack.framework.config.dao.ConfigurationDao;
+import org.apache.cloudstack.storage.datastore.db.SnapshotDataStoreDao;
+import org.apache.cloudstack.storage.datastore.db.SnapshotDataStoreVO;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.cloud.hypervisor.Hypervisor.HypervisorType;
+import com.cloud.storage.DataStoreRole;
+
+@RunWith(MockitoJUnitRunner.class)
+public class DefaultSnapshotStrategyTest {
+
+    @InjectMocks
+    private DefaultSnapshotStrategy defaultSnapshotStrategy;
+    @Mock
+    private SnapshotDataStoreDao snapshotStoreDao;
+    @Mock
+    private ConfigurationDao configDao;
+    @Mock
+    private SnapshotService snapshotSvr;
+
+    /**
+     * Backups 1 to length of the same volume, each one a delta of the previous one.
+     */
+    private SnapshotDataStoreVO mockBackupChain(int length) {
+        SnapshotDataStoreVO backup = null;
+        for (long id = 1; id <= length; id++) {
+            backup = Mockito.mock(SnapshotDataStoreVO.class);
+            Mockito.when(backup.getParentSnapshotId()).thenReturn(id - 1);
+            Mockito.when(snapshotStoreDao.findBySnapshot(id, DataStoreRole.Image)).thenReturn(backup);
+        }
+        return backup;
+    }
+
+    @Test
+    public void isDeltaChainFullTestShortChain() {
+        Mockito.when(configDao.getValue("snapshot.delta.max")).thenReturn("4");
+        Assert.assertFalse(defaultSnapshotStrategy.isDeltaChainFull(mockBackupChain(3)));
+    }
+
+    @Test
+    public void isDeltaChainFullTestFullChain() {
+        Mockito.when(configDao.getValue("snapshot.delta.max")).thenReturn("4");
+        Assert.assertTrue(defaultSnapshotStrategy.isDeltaChainFull(mockBackupChain(4)));
+    }
+
+    @Test
+    public void isDeltaChainFullTestMissingParent() {
+        Mockito.when(configDao.getValue("snapshot.delta.max")).thenReturn("4");
+        SnapshotDataStoreVO backup = mockBackupChain(6);
+        Mockito.when(snapshotStoreDao.findBySnapshot(4L, DataStoreRole.Image)).thenReturn(null);
+        Assert.assertFalse(defaultSnapshotStrategy.isDeltaChainFull(backup));
+    }
+
+    @Test
+    public void backupSnapshotTestKvmFullWhenIncrementalDisabled() {
+        SnapshotInfo snapshot = Mockito.mock(SnapshotInfo.class);
+        VolumeInfo volume = Mockito.mock(VolumeInfo.class);
+        Mockito.when(snapshot.getVolumeId()).thenReturn(1L);
+        Mockito.when(snapshot.getBaseVolume()).thenReturn(volume);
+        Mockito.when(volume.getHypervisorType()).thenReturn(HypervisorType.KVM);
+        SnapshotDataStoreVO backup = mockBackupChain(1);
+        Mockito.when(snapshotStoreDao.findLatestSnapshotForVolume(1L, DataStoreRole.Image)).thenReturn(backup);
+
+        defaultSnapshotStrategy.backupSnapshot(snapshot);
+
+        Mockito.verify(snapshot).setFullBackup(true);
+        Mockito.verify(snapshotSvr).backupSnapshot(snapshot);
+    }
+}
@@ -40,6 +40,7 @@ import com.cloud.hypervisor.Hypervisor;
 import com.cloud.storage.DataStoreRole;
 import com.cloud.storage.SnapshotVO;
 import com.cloud.storage.dao.SnapshotDao;
+import com.cloud.storage.snapshot.SnapshotManager;
 import com.cloud.utils.db.DB;
 import com.cloud.utils.db.Filter;
 import com.cloud.utils.db.GenericDaoBase;
@@ -316,7 +317,7 @@ public class SnapshotDataStoreDaoImpl extends GenericDaoBase<SnapshotDataStoreVO
     @Override
     @DB
     public SnapshotDataStoreVO findParent(DataStoreRole role, Long storeId, Long volumeId) {
-        if(isSnapshotChainingRequired(volumeId)) {
+        if(isSnapshotChainingRequired(volumeId, role)) {
             SearchCriteria<SnapshotDataStoreVO> sc = parentSnapshotSearch.create();
             sc.setParameters("volume_id", volumeId);
             sc.setParameters("store_role", role.toString());
@@ -494,7 +495,7 @@ public class SnapshotDataStoreDaoImpl extends GenericDaoBase<SnapshotDataStoreVO
         return findOneBy(sc);
     }
 
-    private boolean isSnapshotChainingRequired(long volumeId) {
+    private boolean isSnapshotChainingRequired(long volumeId, DataStoreRole role) {
 
         hypervisorsSupportingSnapshotsChaining.add(Hypervisor.HypervisorType.XenServer);
 
@@ -507,6 +508,11 @@ public class SnapshotDataStoreDaoImpl extends GenericDaoBase<SnapshotDataStoreVO
             return true;
         }
 
+        // KVM only chains the incremental backups on secondary storage, the snapshots on primary stay independent
+        if (volSnapshot != null && role == DataStoreRole.Image && volSnapshot.getHypervisorType() == Hypervisor.HypervisorType.KVM) {
+            return SnapshotManager.KvmIncrementalSnapshot.valueIn(volSnapshot.getDataCenterId());
+        }
+
         return false;
     }
 
@@ -16,6 +16,8 @@
 // under the License.
 package com.cloud.cluster;
 
+import java.util.List;
+
 import org.apache.cloudstack.management.ManagementServerHost;
 import org.apache.cloudstack.framework.config.ConfigKey;
 
@@ -53,6 +55,12 @@ public interface ClusterManager extends Manager {
 
     void registerDispatcher(Dispatcher dispatcher);
 
+    /**
+     * Registers a transport that is tried before the cluster service adapter
+     * when sending PDUs to a peer.
+     */
+    void registerPeerTransport(PeerTransport transport);
+
     ManagementServerHost getPeer(String peerName);
 
     String getSelfPeerName();
@@ -68,4 +76,28 @@ public interface ClusterManager extends Manager {
 
         String dispatch(ClusterServicePdu pdu);
     }
+
+    /**
+     * Sends PDUs again that a transport accepted but could not deliver, ahead
+     * of the PDUs still queued for the peer.
+     */
+    void resendClusterPdus(String strPeer, List<ClusterServicePdu> pdus);
+
+    public interface PeerTransport {
+        /**
+         * Result of {@link ClusterService#execute(ClusterServicePdu)} of a
+         * pipelined transport: the PDU is on its way. The transport reports it
+         * as sent on the channel once the peer acknowledged it, or hands it back
+         * through {@link ClusterManager#resendClusterPdus(String, List)}.
+         */
+        String PDU_ACCEPTED = "accepted";
+
+        /**
+         * @param channel outgoing channel of the peer, the transport reports the round trips it measures on it
+         * @return the service to the peer or null if the peer can not be reached over this transport
+         */
+        ClusterService getPeerService(String strPeer, ClusterPeerChannel channel);
+
+        void invalidatePeerService(String strPeer);
+    }
 }
@@ -25,13 +25,18 @@ import java.sql.Connection;
 import java.sql.SQLNonTransientException;
 import java.sql.SQLRecoverableException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -58,6 +63,7 @@ import com.cloud.utils.concurrency.NamedThreadFactory;
 import com.cloud.utils.db.ConnectionConcierge;
 import com.cloud.utils.db.DB;
 import com.cloud.utils.db.DbProperties;
+import com.cloud.utils.db.EntityCache;
 import com.cloud.utils.db.Transaction;
 import com.cloud.utils.db.TransactionCallback;
 import com.cloud.utils.db.TransactionLegacy;
@@ -72,7 +78,8 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
     private static final Logger s_logger = Logger.getLogger(ClusterManagerImpl.class);
 
     private static final int EXECUTOR_SHUTDOWN_TIMEOUT = 1000; // 1 second
-    private static final int DEFAULT_OUTGOING_WORKERS = 5;
+    private static final int DEFAULT_OUTGOING_WORKERS = 5; // per peer
+    private static final int CACHE_INVALIDATION_INTERVAL = 100; // milliseconds
 
     private final List<ClusterManagerListener> _listeners = new ArrayList<ClusterManagerListener>();
     private final Map<Long, ManagementServerHostVO> _activePeers = new HashMap<Long, ManagementServerHostVO>();
@@ -83,6 +90,9 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
     protected ConfigDepot _configDepot;
 
     private final ScheduledExecutorService _heartbeatScheduler = Executors.newScheduledThreadPool(1, new NamedThreadFactory("Cluster-Heartbeat"));
+    private final ScheduledExecutorService _cacheInvalidationScheduler = Executors.newScheduledThreadPool(1, new NamedThreadFactory("Cluster-CacheInvalidation"));
+    private final ConcurrentLinkedQueue<String> _cacheInvalidations = new ConcurrentLinkedQueue<String>();
+    private volatile List<String> _cacheInvalidationPeers = Collections.emptyList();
     private final ExecutorService _notificationExecutor = Executors.newFixedThreadPool(1, new NamedThreadFactory("Cluster-Notification"));
     private final List<ClusterManagerMessage> _notificationMsgs = new ArrayList<ClusterManagerMessage>();
     private ConnectionConcierge _heartbeatConnection = null;
@@ -90,6 +100,7 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
     private final ExecutorService _executor;
 
     private ClusterServiceAdapter _currentServiceAdapter;
+    private volatile PeerTransport _peerTransport;
 
     @Inject
     private List<ClusterServiceAdapter> _serviceAdapters;
@@ -114,7 +125,7 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
 
     private String _clusterNodeIP = "127.0.0.1";
 
-    private final List<ClusterServicePdu> _clusterPduOutgoingQueue = new ArrayList<ClusterServicePdu>();
+    private final Map<String, ClusterPeerChannel> _peerChannels = new ConcurrentHashMap<String, ClusterPeerChannel>();
     private final List<ClusterServicePdu> _clusterPduIncomingQueue = new ArrayList<ClusterServicePdu>();
     private final Map<Long, ClusterServiceRequestPdu> _outgoingPdusWaitingForAck = new HashMap<Long, ClusterServiceRequestPdu>();
 
@@ -139,6 +150,11 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
         _dispatcher = dispatcher;
     }
 
+    @Override
+    public void registerPeerTransport(final PeerTransport transport) {
+        _peerTransport = transport;
+    }
+
     private ClusterServiceRequestPdu popRequestPdu(final long ackSequenceId) {
         synchronized (_outgoingPdusWaitingForAck) {
             if (_outgoingPdusWaitingForAck.get(ackSequenceId) != null) {
@@ -174,26 +190,34 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
     }
 
     private void addOutgoingClusterPdu(final ClusterServicePdu pdu) {
-        synchronized (_clusterPduOutgoingQueue) {
-            _clusterPduOutgoingQueue.add(pdu);
-            _clusterPduOutgoingQueue.notifyAll();
+        final ClusterPeerChannel channel = getPeerChannel(pdu.getDestPeer());
+        if (channel.offer(pdu)) {
+            _executor.execute(getClusterPduSendingTask(channel));
         }
     }
 
-    private ClusterServicePdu popOutgoingClusterPdu(final long timeoutMs) {
-        synchronized (_clusterPduOutgoingQueue) {
-            try {
-                _clusterPduOutgoingQueue.wait(timeoutMs);
-            } catch (final InterruptedException e) {
-            }
+    @Override
+    public void resendClusterPdus(final String strPeer, final List<ClusterServicePdu> pdus) {
+        final ClusterPeerChannel channel = getPeerChannel(strPeer);
+        if (channel.requeue(pdus)) {
+            _executor.execute(getClusterPduSendingTask(channel));
+        }
+    }
 
-            if (_clusterPduOutgoingQueue.size() > 0) {
-                final ClusterServicePdu pdu = _clusterPduOutgoingQueue.get(0);
-                _clusterPduOutgoingQueue.remove(0);
-                return pdu;
+    private ClusterPeerChannel getPeerChannel(final String strPeer) {
+        ClusterPeerChannel channel = _peerChannels.get(strPeer);
+        if (channel == null) {
+            channel = new ClusterPeerChannel(strPeer, DEFAULT_OUTGOING_WORKERS);
+            final ClusterPeerChannel existing = _peerChannels.putIfAbsent(strPeer, channel);
+            if (existing != null) {
+                channel = existing;
             }
         }
-        return null;
+        return channel;
+    }
+
+    ClusterPeerChannel findPeerChannel(final String strPeer) {
+        return _peerChannels.get(strPeer);
     }
 
     private void addIncomingClusterPdu(final ClusterServicePdu pdu) {
@@ -219,11 +243,11 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
         return null;
     }
 
-    private Runnable getClusterPduSendingTask() {
+    private Runnable getClusterPduSendingTask(final ClusterPeerChannel channel) {
         return new ManagedContextRunnable() {
             @Override
             protected void runInContext() {
-                onSendingClusterPdu();
+                onSendingClusterPdu(channel);
             }
         };
     }
@@ -237,12 +261,15 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
         };
     }
 
-    private void onSendingClusterPdu() {
+    private void onSendingClusterPdu(final ClusterPeerChannel channel) {
         while (true) {
             try {
-                final ClusterServicePdu pdu = popOutgoingClusterPdu(1000);
+                final ClusterServicePdu pdu = channel.poll();
                 if (pdu == null) {
-                    continue;
+                    if (channel.releaseSender()) {
+                        continue;
+                    }
+                    return;
                 }
 
                 ClusterService peerService = null;
@@ -265,6 +292,9 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
 
                             final String strResult = peerService.execute(pdu);
                             profiler.stop();
+                            if (!channel.isPipelined()) {
+                                channel.recordRoundTrip(profiler.getDuration());
+                            }
 
                             if (s_logger.isDebugEnabled()) {
                                 s_logger.debug("Cluster PDU " + getSelfPeerName() + " -> " + pdu.getDestPeer() + " completed. time: " +
@@ -273,6 +303,10 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
                             }
 
                             if ("true".equals(strResult)) {
+                                channel.pduSent();
+                                break;
+                            }
+                            if (PeerTransport.PDU_ACCEPTED.equals(strResult)) {
                                 break;
                             }
 
@@ -312,6 +346,8 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
                             } else {
                                 s_logger.warn("Original request has already been cancelled. pdu: " + pdu.getJsonPackage());
                             }
+                        } else if (pdu.getPduType() == ClusterServicePdu.PDU_TYPE_CACHE_INVALIDATION) {
+                            applyCacheInvalidations(pdu.getJsonPackage());
                         } else {
                             String result = _dispatcher.dispatch(pdu);
                             if (result == null) {
@@ -337,6 +373,40 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
         }
     }
 
+    /**
+     * Sends the entity cache invalidations queued since the last run to the
+     * peers, one PDU per peer.
+     */
+    private void sendCacheInvalidations() {
+        final Set<String> invalidations = new LinkedHashSet<String>();
+        String invalidation;
+        while ((invalidation = _cacheInvalidations.poll()) != null) {
+            invalidations.add(invalidation);
+        }
+        if (invalidations.isEmpty()) {
+            return;
+        }
+
+        final String payload = String.join("\n", invalidations);
+        for (final String peer : _cacheInvalidationPeers) {
+            final ClusterServicePdu pdu = new ClusterServicePdu();
+            pdu.setPduType(ClusterServicePdu.PDU_TYPE_CACHE_INVALIDATION);
+            pdu.setSourcePeer(getSelfPeerName());
+            pdu.setDestPeer(peer);
+            pdu.setJsonPackage(payload);
+            addOutgoingClusterPdu(pdu);
+        }
+    }
+
+    private void applyCacheInvalidations(final String payload) {
+        for (final String invalidation : payload.split("\n")) {
+            final int separator = invalidation.indexOf(' ');
+            if (separator > 0) {
+                EntityCache.invalidateFromPeer(invalidation.substring(0, separator), invalidation.substring(separator + 1));
+            }
+        }
+    }
+
     @Override
     public void OnReceiveClusterServicePdu(final ClusterServicePdu pdu) {
         addIncomingClusterPdu(pdu);
@@ -504,6 +574,14 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
     }
 
     public ClusterService getPeerService(final String strPeer) throws RemoteException {
+        final PeerTransport transport = _peerTransport;
+        if (transport != null) {
+            final ClusterService service = transport.getPeerService(strPeer, getPeerChannel(strPeer));
+            if (service != null) {
+                return service;
+            }
+        }
+
         synchronized (_clusterPeers) {
             if (_clusterPeers.containsKey(strPeer)) {
                 return _clusterPeers.get(strPeer);
@@ -526,6 +604,11 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
     }
 
     public void invalidatePeerService(final String strPeer) {
+        final PeerTransport transport = _peerTransport;
+        if (transport != null) {
+            transport.invalidatePeerService(strPeer);
+        }
+
         synchronized (_clusterPeers) {
             if (_clusterPeers.containsKey(strPeer)) {
                 _clusterPeers.remove(strPeer);
@@ -914,6 +997,15 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
             queueNotification(new ClusterManagerMessage(ClusterManagerMessage.MessageType.nodeAdded, newNodeList));
         }
 
+        final List<String> cacheInvalidationPeers = new ArrayList<String>();
+        for (final ManagementServerHostVO peer : _activePeers.values()) {
+            final String peerName = Long.toString(peer.getMsid());
+            if (!getSelfPeerName().equals(peerName)) {
+                cacheInvalidationPeers.add(peerName);
+            }
+        }
+        _cacheInvalidationPeers = cacheInvalidationPeers;
+
         profiler.stop();
 
         if (profiler.getDurationInMillis() >= HeartbeatInterval.value()) {
@@ -989,6 +1081,21 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
         _heartbeatScheduler.scheduleAtFixedRate(getHeartbeatTask(), HeartbeatInterval.value(), HeartbeatInterval.value(), TimeUnit.MILLISECONDS);
         _notificationExecutor.submit(getNotificationTask());
 
+        EntityCache.setBroadcaster(new EntityCache.Broadcaster() {
+            @Override
+            public void broadcast(final String table, final String id) {
+                if (!_cacheInvalidationPeers.isEmpty()) {
+                    _cacheInvalidations.add(table + " " + id);
+                }
+            }
+        });
+        _cacheInvalidationScheduler.scheduleWithFixedDelay(new ManagedContextRunnable() {
+            @Override
+            protected void runInContext() {
+                sendCacheInvalidations();
+            }
+        }, CACHE_INVALIDATION_INTERVAL, CACHE_INVALIDATION_INTERVAL, TimeUnit.MILLISECONDS);
+
         if (s_logger.isInfoEnabled()) {
             s_logger.info("Cluster manager was started successfully");
         }
@@ -1009,6 +1116,8 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
             _mshostDao.update(_mshostId, mshost);
         }
 
+        EntityCache.setBroadcaster(null);
+        _cacheInvalidationScheduler.shutdownNow();
         _heartbeatScheduler.shutdownNow();
         _executor.shutdownNow();
 
@@ -1046,10 +1155,6 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
             throw new ConfigurationException("cluster node IP should be valid local address where the server is running, please check your configuration");
         }
 
-        for (int i = 0; i < DEFAULT_OUTGOING_WORKERS; i++) {
-            _executor.execute(getClusterPduSendingTask());
-        }
-
         // notification task itself in turn works as a task dispatcher
         _executor.execute(getClusterPduNotificationTask());
 
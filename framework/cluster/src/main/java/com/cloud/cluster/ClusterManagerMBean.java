@@ -28,4 +28,14 @@ public interface ClusterManagerMBean {
     public int getHeartbeatInterval();
 
     public int getHeartbeatThreshold();
+
+    public int getOutgoingQueueDepth();
+
+    public long getOutgoingPduCount();
+
+    public double getLastRoundTripTime();
+
+    public double getAverageRoundTripTime();
+
+    public boolean isPipelined();
 }
@@ -64,4 +64,38 @@ public class ClusterManagerMBeanImpl extends StandardMBean implements ClusterMan
     public int getHeartbeatThreshold() {
         return ClusterManager.HeartbeatThreshold.value();
     }
+
+    @Override
+    public int getOutgoingQueueDepth() {
+        ClusterPeerChannel channel = getPeerChannel();
+        return channel != null ? channel.getQueueDepth() : 0;
+    }
+
+    @Override
+    public long getOutgoingPduCount() {
+        ClusterPeerChannel channel = getPeerChannel();
+        return channel != null ? channel.getSentCount() : 0;
+    }
+
+    @Override
+    public double getLastRoundTripTime() {
+        ClusterPeerChannel channel = getPeerChannel();
+        return channel != null ? channel.getLastRoundTripMillis() : 0;
+    }
+
+    @Override
+    public double getAverageRoundTripTime() {
+        ClusterPeerChannel channel = getPeerChannel();
+        return channel != null ? channel.getAverageRoundTripMillis() : 0;
+    }
+
+    @Override
+    public boolean isPipelined() {
+        ClusterPeerChannel channel = getPeerChannel();
+        return channel != null && channel.isPipelined();
+    }
+
+    private ClusterPeerChannel getPeerChannel() {
+        return _clusterMgr.findPeerChannel(String.valueOf(_mshostVo.getMsid()));
+    }
 }
@@ -0,0 +1,143 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.cluster;
+
+import java.util.List;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Outgoing PDU queue of a single peer, along with the statistics reported
+ * for it. PDUs to different peers never wait for each other, a slow peer
+ * only backs up its own queue.
+ *
+ * The queue is drained by at most {@link #getMaxSenders()} sending tasks at
+ * a time; one when the peer is reached through a pipelined transport, so the
+ * PDUs keep their order on the wire.
+ */
+public class ClusterPeerChannel {
+    private final String _peer;
+    private final int _maxSenders;
+    private final LinkedBlockingDeque<ClusterServicePdu> _queue = new LinkedBlockingDeque<ClusterServicePdu>();
+    private final AtomicInteger _senders = new AtomicInteger();
+    private volatile boolean _pipelined;
+
+    private final AtomicLong _sentCount = new AtomicLong();
+    private final AtomicLong _roundTripCount = new AtomicLong();
+    private final AtomicLong _roundTripTotalNanos = new AtomicLong();
+    private volatile long _lastRoundTripNanos;
+
+    public ClusterPeerChannel(final String peer, final int maxSenders) {
+        _peer = peer;
+        _maxSenders = maxSenders;
+    }
+
+    public String getPeer() {
+        return _peer;
+    }
+
+    /**
+     * @return true if the caller has to start a new sending task for this channel
+     */
+    public boolean offer(final ClusterServicePdu pdu) {
+        _queue.add(pdu);
+        return tryAcquireSender();
+    }
+
+    /**
+     * Puts PDUs that could not be delivered back in front of the queue, in
+     * their original order.
+     *
+     * @return true if the caller has to start a new sending task for this channel
+     */
+    public boolean requeue(final List<ClusterServicePdu> pdus) {
+        for (int i = pdus.size() - 1; i >= 0; i--) {
+            _queue.addFirst(pdus.get(i));
+        }
+        return tryAcquireSender();
+    }
+
+    public ClusterServicePdu poll() {
+        return _queue.poll();
+    }
+
+    /**
+     * Called by a sending task that found the queue empty.
+     *
+     * @return true if the task has to keep going because a PDU was queued in the meantime
+     */
+    public boolean releaseSender() {
+        _senders.decrementAndGet();
+        return !_queue.isEmpty() && tryAcquireSender();
+    }
+
+    private boolean tryAcquireSender() {
+        while (true) {
+            final int senders = _senders.get();
+            if (senders >= getMaxSenders()) {
+                return false;
+            }
+            if (_senders.compareAndSet(senders, senders + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public int getMaxSenders() {
+        return _pipelined ? 1 : _maxSenders;
+    }
+
+    public boolean isPipelined() {
+        return _pipelined;
+    }
+
+    public void setPipelined(final boolean pipelined) {
+        _pipelined = pipelined;
+    }
+
+    public int getQueueDepth() {
+        return _queue.size();
+    }
+
+    public void pduSent() {
+        _sentCount.incrementAndGet();
+    }
+
+    public long getSentCount() {
+        return _sentCount.get();
+    }
+
+    public void recordRoundTrip(final long nanos) {
+        _lastRoundTripNanos = nanos;
+        _roundTripTotalNanos.addAndGet(nanos);
+        _roundTripCount.incrementAndGet();
+    }
+
+    public double getLastRoundTripMillis() {
+        return (double)_lastRoundTripNanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    public double getAverageRoundTripMillis() {
+        final long count = _roundTripCount.get();
+        if (count == 0) {
+            return 0;
+        }
+        return (double)_roundTripTotalNanos.get() / count / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,448 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.cluster;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.charset.StandardCharsets;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+
+import org.apache.cloudstack.framework.ca.CAService;
+import org.apache.cloudstack.framework.config.ConfigKey;
+import org.apache.cloudstack.framework.config.Configurable;
+import org.apache.log4j.Logger;
+
+import com.cloud.cluster.dao.ManagementServerHostDao;
+import com.cloud.utils.component.ManagerBase;
+import com.cloud.utils.exception.CloudRuntimeException;
+import com.cloud.utils.exception.NioConnectionException;
+import com.cloud.utils.nio.HandlerFactory;
+import com.cloud.utils.nio.Link;
+import com.cloud.utils.nio.NioClient;
+import com.cloud.utils.nio.NioServer;
+import com.cloud.utils.nio.Task;
+
+/**
+ * Persistent TLS channel between management servers, built on the agent NIO
+ * framework and the keystore of the CA framework.
+ *
+ * PDUs are written to the peer without waiting for the previous one to be
+ * processed; the peer acknowledges each of them with its sequence id. A PDU
+ * only counts as sent on the {@link ClusterPeerChannel} once it is
+ * acknowledged, and the PDUs still unacknowledged when the channel closes are
+ * handed back to the cluster manager, which sends them again over a new
+ * channel or the cluster service servlet. A PDU may hence be delivered twice
+ * when the channel breaks after the peer got it.
+ *
+ * The receiving side only takes PDUs from links whose remote address is the
+ * service IP of the management server named as their source peer.
+ * Request and response PDUs are still paired by {@link ClusterManagerImpl}.
+ * Peers that can not be reached on the channel port keep using the cluster
+ * service servlet.
+ */
+public class ClusterServiceNioTransport extends ManagerBase implements ClusterManager.PeerTransport, Configurable {
+    private static final Logger s_logger = Logger.getLogger(ClusterServiceNioTransport.class);
+
+    private static final int WORKERS = 5;
+    private static final long CONNECT_TIMEOUT = 5000; // milliseconds
+    private static final long RECONNECT_INTERVAL = 60000; // milliseconds
+
+    static final byte FRAME_PDU = 1;
+    static final byte FRAME_ACK = 2;
+
+    static final ConfigKey<Integer> PeerChannelPort = new ConfigKey<Integer>(Integer.class, "cluster.peer.channel.port", "Advanced", "0",
+            "Port of the persistent TLS channel used between management servers, 0 to only use the cluster service servlet", false);
+
+    @Inject
+    private ClusterManager _clusterMgr;
+    @Inject
+    private ManagementServerHostDao _mshostDao;
+    @Inject
+    private CAService _caService;
+
+    private NioServer _server;
+    private int _port;
+    private final Map<String, PeerService> _peers = new ConcurrentHashMap<String, PeerService>();
+    private final Map<String, Long> _unreachablePeers = new ConcurrentHashMap<String, Long>();
+
+    @Override
+    public boolean start() {
+        _port = PeerChannelPort.value();
+        if (_port <= 0) {
+            return true;
+        }
+
+        _server = new NioServer("ClusterPeerServer", _port, WORKERS, new HandlerFactory() {
+            @Override
+            public Task create(final Task.Type type, final Link link, final byte[] data) {
+                return new ServerTask(type, link, data);
+            }
+        }, _caService);
+        try {
+            _server.start();
+        } catch (final NioConnectionException e) {
+            s_logger.error("Unable to start the cluster peer channel on port " + _port + ", peers are reached through the cluster service servlet", e);
+            _server = null;
+            return true;
+        }
+
+        _clusterMgr.registerPeerTransport(this);
+        s_logger.info("Cluster peer channel is listening on port " + _port);
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        if (_server != null) {
+            _server.stop();
+        }
+        for (final PeerService service : _peers.values()) {
+            service.close(false);
+        }
+        _peers.clear();
+        return true;
+    }
+
+    @Override
+    public ClusterService getPeerService(final String strPeer, final ClusterPeerChannel channel) {
+        final PeerService service = _peers.get(strPeer);
+        if (service != null) {
+            return service;
+        }
+
+        final Long failedAt = _unreachablePeers.get(strPeer);
+        if (failedAt != null && System.currentTimeMillis() - failedAt < RECONNECT_INTERVAL) {
+            return null;
+        }
+
+        synchronized (this) {
+            if (_peers.containsKey(strPeer)) {
+                return _peers.get(strPeer);
+            }
+
+            final ManagementServerHostVO mshost = _mshostDao.findByMsid(Long.parseLong(strPeer));
+            if (mshost == null) {
+                return null;
+            }
+
+            final PeerService newService = new PeerService(strPeer, mshost.getServiceIP(), channel);
+            if (!newService.connect()) {
+                s_logger.info("Unable to reach peer " + strPeer + " on the cluster peer channel " + mshost.getServiceIP() + ":" + _port + ", using the cluster service servlet");
+                _unreachablePeers.put(strPeer, System.currentTimeMillis());
+                return null;
+            }
+
+            _unreachablePeers.remove(strPeer);
+            _peers.put(strPeer, newService);
+            return newService;
+        }
+    }
+
+    @Override
+    public void invalidatePeerService(final String strPeer) {
+        final PeerService service = _peers.remove(strPeer);
+        if (service != null) {
+            service.close(true);
+        }
+    }
+
+    @Override
+    public String getConfigComponentName() {
+        return ClusterManager.class.getSimpleName();
+    }
+
+    @Override
+    public ConfigKey<?>[] getConfigKeys() {
+        return new ConfigKey<?>[] {PeerChannelPort};
+    }
+
+    static byte[] encodePdu(final ClusterServicePdu pdu) {
+        final byte[] sourcePeer = toBytes(pdu.getSourcePeer());
+        final byte[] destPeer = toBytes(pdu.getDestPeer());
+        final byte[] jsonPackage = toBytes(pdu.getJsonPackage());
+
+        final ByteBuffer buffer = ByteBuffer.allocate(1 + 8 * 3 + 4 + 1 + 4 * 3 + length(sourcePeer) + length(destPeer) + length(jsonPackage));
+        buffer.put(FRAME_PDU);
+        buffer.putLong(pdu.getSequenceId());
+        buffer.putLong(pdu.getAckSequenceId());
+        buffer.putLong(pdu.getAgentId());
+        buffer.putInt(pdu.getPduType());
+        buffer.put((byte)(pdu.isStopOnError() ? 1 : 0));
+        putBytes(buffer, sourcePeer);
+        putBytes(buffer, destPeer);
+        putBytes(buffer, jsonPackage);
+        return buffer.array();
+    }
+
+    static ClusterServicePdu decodePdu(final byte[] data) {
+        final ByteBuffer buffer = ByteBuffer.wrap(data);
+        if (buffer.get() != FRAME_PDU) {
+            throw new CloudRuntimeException("Not a cluster PDU frame");
+        }
+
+        final ClusterServicePdu pdu = new ClusterServicePdu();
+        pdu.setSequenceId(buffer.getLong());
+        pdu.setAckSequenceId(buffer.getLong());
+        pdu.setAgentId(buffer.getLong());
+        pdu.setPduType(buffer.getInt());
+        pdu.setStopOnError(buffer.get() != 0);
+        pdu.setSourcePeer(getString(buffer));
+        pdu.setDestPeer(getString(buffer));
+        pdu.setJsonPackage(getString(buffer));
+        return pdu;
+    }
+
+    static byte[] encodeAck(final long sequenceId) {
+        return ByteBuffer.allocate(1 + 8).put(FRAME_ACK).putLong(sequenceId).array();
+    }
+
+    static long decodeAck(final byte[] data) {
+        final ByteBuffer buffer = ByteBuffer.wrap(data);
+        if (buffer.get() != FRAME_ACK) {
+            throw new CloudRuntimeException("Not a cluster PDU acknowledgement frame");
+        }
+        return buffer.getLong();
+    }
+
+    private static byte[] toBytes(final String value) {
+        return value != null ? value.getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    private static int length(final byte[] value) {
+        return value != null ? value.length : 0;
+    }
+
+    private static void putBytes(final ByteBuffer buffer, final byte[] value) {
+        if (value == null) {
+            buffer.putInt(-1);
+            return;
+        }
+        buffer.putInt(value.length);
+        buffer.put(value);
+    }
+
+    private static String getString(final ByteBuffer buffer) {
+        final int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        final String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    /**
+     * @return true if the link comes from the service IP of the management
+     *         server the PDU claims to come from. The peer is remembered on the
+     *         link, the following PDUs have to come from the same peer.
+     */
+    boolean isPeerLink(final Link link, final String sourcePeer) {
+        final Object peer = link.attachment();
+        if (peer != null) {
+            return peer.equals(sourcePeer);
+        }
+
+        final long msid;
+        try {
+            msid = Long.parseLong(sourcePeer);
+        } catch (final NumberFormatException e) {
+            return false;
+        }
+        final ManagementServerHostVO mshost = _mshostDao.findByMsid(msid);
+        if (mshost == null || mshost.getRemoved() != null || mshost.getServiceIP() == null) {
+            return false;
+        }
+        try {
+            if (!InetAddress.getByName(mshost.getServiceIP()).equals(link.getSocketAddress().getAddress())) {
+                return false;
+            }
+        } catch (final UnknownHostException e) {
+            s_logger.warn("Unable to resolve the service IP " + mshost.getServiceIP() + " of management server " + sourcePeer);
+            return false;
+        }
+        link.attach(sourcePeer);
+        return true;
+    }
+
+    /**
+     * Receiving side: hands the PDUs of known peers over to the cluster
+     * manager and acknowledges them right away, before they are processed.
+     */
+    private class ServerTask extends Task {
+        ServerTask(final Task.Type type, final Link link, final byte[] data) {
+            super(type, link, data);
+        }
+
+        @Override
+        protected void doTask(final Task task) {
+            if (task.getType() != Task.Type.DATA) {
+                return;
+            }
+
+            final ClusterServicePdu pdu;
+            try {
+                pdu = decodePdu(task.getData());
+            } catch (final RuntimeException e) {
+                s_logger.warn("Dropping malformed frame from " + task.getLink().getIpAddress(), e);
+                return;
+            }
+
+            if (!isPeerLink(task.getLink(), pdu.getSourcePeer())) {
+                s_logger.warn("Closing the cluster peer channel from " + task.getLink().getIpAddress() + ", it is not the service IP of management server "
+                        + pdu.getSourcePeer());
+                task.getLink().close();
+                return;
+            }
+
+            _clusterMgr.OnReceiveClusterServicePdu(pdu);
+            try {
+                task.getLink().send(encodeAck(pdu.getSequenceId()));
+            } catch (final ClosedChannelException e) {
+                s_logger.debug("Peer " + pdu.getSourcePeer() + " closed the cluster peer channel before PDU " + pdu.getSequenceId() + " was acknowledged");
+            }
+        }
+    }
+
+    /**
+     * Sending side of the channel to one peer.
+     */
+    private class PeerService implements ClusterService {
+        private final String _peer;
+        private final ClusterPeerChannel _channel;
+        private final NioClient _client;
+        private final CountDownLatch _connected = new CountDownLatch(1);
+        // PDUs written but not acknowledged yet, by sequence id
+        private final ConcurrentSkipListMap<Long, InflightPdu> _inflight = new ConcurrentSkipListMap<Long, InflightPdu>();
+        private volatile Link _link;
+
+        PeerService(final String peer, final String host, final ClusterPeerChannel channel) {
+            _peer = peer;
+            _channel = channel;
+            _client = new NioClient("ClusterPeer-" + peer, host, _port, 1, new HandlerFactory() {
+                @Override
+                public Task create(final Task.Type type, final Link link, final byte[] data) {
+                    return new ClientTask(type, link, data);
+                }
+            });
+            _client.setCAService(_caService);
+        }
+
+        boolean connect() {
+            try {
+                _client.start();
+                if (_client.isStartup() && _connected.await(CONNECT_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                    _channel.setPipelined(true);
+                    return true;
+                }
+            } catch (final NioConnectionException e) {
+                s_logger.debug("Unable to connect to peer " + _peer + ": " + e.getMessage());
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            close(false);
+            return false;
+        }
+
+        /**
+         * @param resend whether the unacknowledged PDUs are handed back to the
+         *        cluster manager to be sent again
+         */
+        void close(final boolean resend) {
+            _channel.setPipelined(false);
+            _link = null;
+            final List<ClusterServicePdu> unacked = new ArrayList<ClusterServicePdu>();
+            Map.Entry<Long, InflightPdu> entry;
+            while ((entry = _inflight.pollFirstEntry()) != null) {
+                unacked.add(entry.getValue().pdu);
+            }
+            if (_client.isStartup()) {
+                _client.stop();
+            }
+            if (resend && !unacked.isEmpty()) {
+                s_logger.info("Sending " + unacked.size() + " unacknowledged PDUs to peer " + _peer + " again");
+                _clusterMgr.resendClusterPdus(_peer, unacked);
+            }
+        }
+
+        @Override
+        public String execute(final ClusterServicePdu pdu) throws RemoteException {
+            final Link link = _link;
+            if (link == null) {
+                throw new RemoteException("Cluster peer channel to " + _peer + " is closed");
+            }
+
+            _inflight.put(pdu.getSequenceId(), new InflightPdu(pdu, System.nanoTime()));
+            try {
+                link.send(encodePdu(pdu));
+            } catch (final ClosedChannelException e) {
+                _inflight.remove(pdu.getSequenceId());
+                throw new RemoteException("Cluster peer channel to " + _peer + " is closed", e);
+            }
+            return ClusterManager.PeerTransport.PDU_ACCEPTED;
+        }
+
+        @Override
+        public boolean ping(final String callingPeer) throws RemoteException {
+            return _link != null;
+        }
+
+        private class ClientTask extends Task {
+            ClientTask(final Task.Type type, final Link link, final byte[] data) {
+                super(type, link, data);
+            }
+
+            @Override
+            protected void doTask(final Task task) {
+                if (task.getType() == Task.Type.CONNECT) {
+                    _link = task.getLink();
+                    _connected.countDown();
+                } else if (task.getType() == Task.Type.DATA) {
+                    final InflightPdu acked = _inflight.remove(decodeAck(task.getData()));
+                    if (acked != null) {
+                        _channel.recordRoundTrip(System.nanoTime() - acked.sentAt);
+                        _channel.pduSent();
+                    }
+                } else if (task.getType() == Task.Type.DISCONNECT) {
+                    s_logger.info("Cluster peer channel to " + _peer + " is disconnected");
+                    _peers.remove(_peer, PeerService.this);
+                    close(true);
+                }
+            }
+        }
+    }
+
+    private static class InflightPdu {
+        final ClusterServicePdu pdu;
+        final long sentAt;
+
+        InflightPdu(final ClusterServicePdu pdu, final long sentAt) {
+            this.pdu = pdu;
+            this.sentAt = sentAt;
+        }
+    }
+}
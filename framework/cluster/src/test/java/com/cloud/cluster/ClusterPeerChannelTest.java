@@ -0,0 +1,107 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.cluster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ClusterPeerChannelTest {
+
+    private static ClusterServicePdu createPdu(String destPeer, String json) {
+        ClusterServicePdu pdu = new ClusterServicePdu();
+        pdu.setSourcePeer("1");
+        pdu.setDestPeer(destPeer);
+        pdu.setJsonPackage(json);
+        return pdu;
+    }
+
+    @Test
+    public void testSendersAreBounded() {
+        ClusterPeerChannel channel = new ClusterPeerChannel("2", 2);
+
+        assertTrue(channel.offer(createPdu("2", "a")));
+        assertTrue(channel.offer(createPdu("2", "b")));
+        assertFalse(channel.offer(createPdu("2", "c")));
+        assertEquals(3, channel.getQueueDepth());
+    }
+
+    @Test
+    public void testPipelinedChannelKeepsOrder() {
+        ClusterPeerChannel channel = new ClusterPeerChannel("2", 5);
+        channel.setPipelined(true);
+
+        ClusterServicePdu first = createPdu("2", "a");
+        ClusterServicePdu second = createPdu("2", "b");
+        assertTrue(channel.offer(first));
+        assertFalse(channel.offer(second));
+
+        assertSame(first, channel.poll());
+        assertSame(second, channel.poll());
+        assertNull(channel.poll());
+        assertFalse(channel.releaseSender());
+
+        // the sender is released, the next PDU starts a new one
+        assertTrue(channel.offer(createPdu("2", "c")));
+    }
+
+    @Test
+    public void testReleaseSenderWithQueuedPdu() {
+        ClusterPeerChannel channel = new ClusterPeerChannel("2", 1);
+        assertTrue(channel.offer(createPdu("2", "a")));
+        assertFalse(channel.offer(createPdu("2", "b")));
+
+        // a PDU that is still queued keeps the sender going
+        assertTrue(channel.releaseSender());
+    }
+
+    @Test
+    public void testRequeuedPdusGoFirst() {
+        ClusterPeerChannel channel = new ClusterPeerChannel("2", 1);
+        channel.setPipelined(true);
+        ClusterServicePdu queued = createPdu("2", "c");
+        assertTrue(channel.offer(queued));
+
+        ClusterServicePdu first = createPdu("2", "a");
+        ClusterServicePdu second = createPdu("2", "b");
+        // the sender of the queued PDU is still running
+        assertFalse(channel.requeue(Arrays.asList(first, second)));
+
+        assertSame(first, channel.poll());
+        assertSame(second, channel.poll());
+        assertSame(queued, channel.poll());
+    }
+
+    @Test
+    public void testRoundTripStats() {
+        ClusterPeerChannel channel = new ClusterPeerChannel("2", 1);
+        assertEquals(0, channel.getAverageRoundTripMillis(), 0);
+
+        channel.recordRoundTrip(TimeUnit.MILLISECONDS.toNanos(2));
+        channel.recordRoundTrip(TimeUnit.MILLISECONDS.toNanos(4));
+
+        assertEquals(4, channel.getLastRoundTripMillis(), 0.001);
+        assertEquals(3, channel.getAverageRoundTripMillis(), 0.001);
+    }
+}
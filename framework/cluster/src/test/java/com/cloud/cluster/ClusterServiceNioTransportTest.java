@@ -0,0 +1,104 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.cluster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Field;
+import java.net.InetSocketAddress;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.cloud.cluster.dao.ManagementServerHostDao;
+import com.cloud.utils.nio.Link;
+
+public class ClusterServiceNioTransportTest {
+
+    @Test
+    public void testPduRoundTrip() {
+        ClusterServicePdu pdu = new ClusterServicePdu();
+        pdu.setSourcePeer("345049101620");
+        pdu.setDestPeer("345049103441");
+        pdu.setAgentId(42);
+        pdu.setAckSequenceId(7);
+        pdu.setPduType(ClusterServicePdu.PDU_TYPE_REQUEST);
+        pdu.setStopOnError(true);
+        pdu.setJsonPackage("[{\"com.cloud.agent.api.CheckHealthCommand\":{\"wait\":50}}] é");
+
+        ClusterServicePdu decoded = ClusterServiceNioTransport.decodePdu(ClusterServiceNioTransport.encodePdu(pdu));
+
+        assertEquals(pdu.getSequenceId(), decoded.getSequenceId());
+        assertEquals(7, decoded.getAckSequenceId());
+        assertEquals(42, decoded.getAgentId());
+        assertEquals(ClusterServicePdu.PDU_TYPE_REQUEST, decoded.getPduType());
+        assertTrue(decoded.isStopOnError());
+        assertEquals("345049101620", decoded.getSourcePeer());
+        assertEquals("345049103441", decoded.getDestPeer());
+        assertEquals(pdu.getJsonPackage(), decoded.getJsonPackage());
+    }
+
+    @Test
+    public void testPduWithoutPayload() {
+        ClusterServicePdu pdu = new ClusterServicePdu();
+        pdu.setDestPeer("2");
+
+        ClusterServicePdu decoded = ClusterServiceNioTransport.decodePdu(ClusterServiceNioTransport.encodePdu(pdu));
+
+        assertNull(decoded.getSourcePeer());
+        assertNull(decoded.getJsonPackage());
+        assertEquals("2", decoded.getDestPeer());
+    }
+
+    @Test
+    public void testAck() {
+        assertEquals(123456789L, ClusterServiceNioTransport.decodeAck(ClusterServiceNioTransport.encodeAck(123456789L)));
+    }
+
+    @Test
+    public void testOnlyKnownPeersAreAccepted() throws Exception {
+        ManagementServerHostVO mshost = new ManagementServerHostVO();
+        mshost.setMsid(345049101620L);
+        mshost.setServiceIP("10.1.1.5");
+        ManagementServerHostDao mshostDao = Mockito.mock(ManagementServerHostDao.class);
+        Mockito.when(mshostDao.findByMsid(345049101620L)).thenReturn(mshost);
+        ClusterServiceNioTransport transport = new ClusterServiceNioTransport();
+        Field field = ClusterServiceNioTransport.class.getDeclaredField("_mshostDao");
+        field.setAccessible(true);
+        field.set(transport, mshostDao);
+
+        Link link = Mockito.mock(Link.class);
+        Mockito.when(link.getSocketAddress()).thenReturn(new InetSocketAddress("10.1.1.5", 40000));
+        assertTrue(transport.isPeerLink(link, "345049101620"));
+        Mockito.verify(link).attach("345049101620");
+
+        Link other = Mockito.mock(Link.class);
+        Mockito.when(other.getSocketAddress()).thenReturn(new InetSocketAddress("10.1.1.6", 40000));
+        assertFalse(transport.isPeerLink(other, "345049101620"));
+        assertFalse(transport.isPeerLink(other, "345049103441"));
+        assertFalse(transport.isPeerLink(other, "not a peer"));
+        Mockito.verify(other, Mockito.never()).attach(Mockito.any());
+
+        // once known, a link can't switch to another peer
+        Mockito.when(link.attachment()).thenReturn("345049101620");
+        assertTrue(transport.isPeerLink(link, "345049101620"));
+        assertFalse(transport.isPeerLink(link, "345049103441"));
+    }
+}
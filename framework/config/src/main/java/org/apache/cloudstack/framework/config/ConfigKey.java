@@ -19,7 +19,6 @@ package org.apache.cloudstack.framework.config;
 import java.sql.Date;
 
 import org.apache.cloudstack.framework.config.impl.ConfigDepotImpl;
-import org.apache.cloudstack.framework.config.impl.ConfigurationVO;
 
 import com.cloud.utils.exception.CloudRuntimeException;
 
@@ -139,8 +138,10 @@ public class ConfigKey<T> {
 
     public T value() {
         if (_value == null || isDynamic()) {
-            ConfigurationVO vo = s_depot != null ? s_depot.global().findById(key()) : null;
-            final String value = (vo != null && vo.getValue() != null) ? vo.getValue() : defaultValue();
+            String value = s_depot != null ? s_depot.getGlobalValue(key()) : null;
+            if (value == null) {
+                value = defaultValue();
+            }
             _value = ((value == null) ? (T)defaultValue() : valueOf(value));
         }
 
@@ -152,7 +153,7 @@ public class ConfigKey<T> {
             return value();
         }
 
-        String value = s_depot != null ? s_depot.findScopedConfigStorage(this).getConfigValue(id, this) : null;
+        String value = s_depot != null ? s_depot.getScopedValue(this, id) : null;
         if (value == null) {
             return value();
         } else {
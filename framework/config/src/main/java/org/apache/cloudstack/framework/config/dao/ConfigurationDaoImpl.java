@@ -139,6 +139,7 @@ public class ConfigurationDaoImpl extends GenericDaoBase<ConfigurationVO, String
     @Deprecated
     public boolean update(String name, String value) {
         TransactionLegacy txn = TransactionLegacy.currentTxn();
+        invalidateEntityCache(name);
         try (PreparedStatement stmt = txn.prepareStatement(UPDATE_CONFIGURATION_SQL);){
             stmt.setString(1, value);
             stmt.setString(2, name);
@@ -153,6 +154,7 @@ public class ConfigurationDaoImpl extends GenericDaoBase<ConfigurationVO, String
     @Override
     public boolean update(String name, String category, String value) {
         TransactionLegacy txn = TransactionLegacy.currentTxn();
+        invalidateEntityCache(name);
         try {
             value = ("Hidden".equals(category) || "Secure".equals(category)) ? DBEncryptionUtil.encrypt(value) : value;
             try (PreparedStatement stmt = txn.prepareStatement(UPDATE_CONFIGURATION_SQL);) {
@@ -19,10 +19,13 @@ package org.apache.cloudstack.framework.config.impl;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.function.Supplier;
 
 import javax.annotation.PostConstruct;
 import javax.inject.Inject;
@@ -37,7 +40,10 @@ import org.apache.commons.lang.ObjectUtils;
 import org.apache.log4j.Logger;
 
 import com.cloud.utils.Pair;
+import com.cloud.utils.db.EntityCache;
+import com.cloud.utils.db.TransactionLegacy;
 import com.cloud.utils.exception.CloudRuntimeException;
+import com.cloud.utils.mgmt.JmxUtil;
 
 /**
  * ConfigDepotImpl implements the ConfigDepot and ConfigDepotAdmin interface.
@@ -49,6 +55,10 @@ import com.cloud.utils.exception.CloudRuntimeException;
  *   - Hide the data source where configs are stored and retrieved.
  *
  * When dealing with this class, we must be very careful on cluster situations.
+ * The values of the dynamic keys are cached, global ones by name and scoped
+ * ones by scope, id and name. The caches follow the writes to the
+ * configuration and details tables through {@link EntityCache}, so an update
+ * made on any management server drops the values it may change everywhere.
  *
  * TODO:
  *   - Move the rest of the changes to the config table to here.
@@ -66,8 +76,24 @@ import com.cloud.utils.exception.CloudRuntimeException;
  *     when constructing a ConfigKey then configuration server should use the
  *     validation class to validate the value the admin input for the key.
  */
-public class ConfigDepotImpl implements ConfigDepot, ConfigDepotAdmin {
+public class ConfigDepotImpl implements ConfigDepot, ConfigDepotAdmin, EntityCache.TableListener {
     private final static Logger s_logger = Logger.getLogger(ConfigDepotImpl.class);
+
+    protected static final String CONFIGURATION_TABLE = "configuration";
+    // Tables of the ScopedConfigStorage of each scope
+    protected static final Map<ConfigKey.Scope, String> SCOPE_TABLES = new EnumMap<ConfigKey.Scope, String>(ConfigKey.Scope.class);
+    static {
+        SCOPE_TABLES.put(ConfigKey.Scope.Zone, "data_center_details");
+        SCOPE_TABLES.put(ConfigKey.Scope.Cluster, "cluster_details");
+        SCOPE_TABLES.put(ConfigKey.Scope.StoragePool, "storage_pool_details");
+        SCOPE_TABLES.put(ConfigKey.Scope.Account, "account_details");
+        SCOPE_TABLES.put(ConfigKey.Scope.ImageStore, "image_store_details");
+        SCOPE_TABLES.put(ConfigKey.Scope.Domain, "domain_details");
+    }
+    private static final int GLOBAL_VALUE_CACHE_SIZE = 5000;
+    private static final int SCOPED_VALUE_CACHE_SIZE = 20000;
+    private static final int VALUE_CACHE_TIME_TO_LIVE = 300;
+
     @Inject
     ConfigurationDao _configDao;
     List<Configurable> _configurables;
@@ -78,9 +104,34 @@ public class ConfigDepotImpl implements ConfigDepot, ConfigDepotAdmin {
 
     HashMap<ConfigKey.Scope, Set<ConfigKey<?>>> _scopeLevelConfigsMap = new HashMap<ConfigKey.Scope, Set<ConfigKey<?>>>();
 
+    ConfigValueCache _globalValues;
+    Map<ConfigKey.Scope, ConfigValueCache> _scopedValues = new EnumMap<ConfigKey.Scope, ConfigValueCache>(ConfigKey.Scope.class);
+
     public ConfigDepotImpl() {
         ConfigKey.init(this);
         createEmptyScopeLevelMappings();
+        createValueCaches();
+    }
+
+    protected void createValueCaches() {
+        _globalValues = createValueCache(ConfigKey.Scope.Global, GLOBAL_VALUE_CACHE_SIZE);
+        for (ConfigKey.Scope scope : SCOPE_TABLES.keySet()) {
+            _scopedValues.put(scope, createValueCache(scope, SCOPED_VALUE_CACHE_SIZE));
+        }
+
+        List<String> tables = new ArrayList<String>(SCOPE_TABLES.values());
+        tables.add(CONFIGURATION_TABLE);
+        EntityCache.addTableListener(tables, this);
+    }
+
+    private ConfigValueCache createValueCache(ConfigKey.Scope scope, int maxElements) {
+        ConfigValueCache cache = new ConfigValueCache(scope.toString(), maxElements, VALUE_CACHE_TIME_TO_LIVE);
+        try {
+            JmxUtil.registerMBean("ConfigValueCache", scope.toString(), cache);
+        } catch (Exception e) {
+            s_logger.warn("Unable to register the config value cache " + scope + " with JMX", e);
+        }
+        return cache;
     }
 
     /**
@@ -176,6 +227,70 @@ public class ConfigDepotImpl implements ConfigDepot, ConfigDepotAdmin {
         return _configDao;
     }
 
+    /**
+     * @return the value of the key in the configuration table, or null if it
+     *         has none.
+     */
+    public String getGlobalValue(final String name) {
+        Supplier<String> loader = new Supplier<String>() {
+            @Override
+            public String get() {
+                ConfigurationVO vo = _configDao.findById(name);
+                return vo != null ? vo.getValue() : null;
+            }
+        };
+        // A transaction may have changed the value, and may still roll it back
+        if (TransactionLegacy.currentTxnStarted()) {
+            return loader.get();
+        }
+        return _globalValues.get(name, loader);
+    }
+
+    /**
+     * @return the value of the key for the resource of its scope, or null if
+     *         it isn't overridden there.
+     */
+    public String getScopedValue(final ConfigKey<?> key, final long id) {
+        final ScopedConfigStorage storage = findScopedConfigStorage(key);
+        Supplier<String> loader = new Supplier<String>() {
+            @Override
+            public String get() {
+                return storage.getConfigValue(id, key);
+            }
+        };
+        ConfigValueCache cache = _scopedValues.get(key.scope());
+        if (cache == null || TransactionLegacy.currentTxnStarted()) {
+            return loader.get();
+        }
+        return cache.get(id + "/" + key.key(), loader);
+    }
+
+    @Override
+    public void tableChanged(String table, String id, boolean fromPeer) {
+        if (CONFIGURATION_TABLE.equals(table)) {
+            _globalValues.invalidate(EntityCache.ALL.equals(id) ? null : id);
+            return;
+        }
+        // The id is the one of the details row, not of the resource, drop the whole scope
+        for (Map.Entry<ConfigKey.Scope, String> entry : SCOPE_TABLES.entrySet()) {
+            if (entry.getValue().equals(table)) {
+                _scopedValues.get(entry.getKey()).invalidate(null);
+            }
+        }
+    }
+
+    /**
+     * @return the lookups of config values answered without going to the
+     *         database, across all scopes.
+     */
+    public long getCachedLookups() {
+        long hits = _globalValues.getHits();
+        for (ConfigValueCache cache : _scopedValues.values()) {
+            hits += cache.getHits();
+        }
+        return hits;
+    }
+
     public ScopedConfigStorage findScopedConfigStorage(ConfigKey<?> config) {
         for (ScopedConfigStorage storage : _scopedStorages) {
             if (storage.getScope() == config.scope()) {
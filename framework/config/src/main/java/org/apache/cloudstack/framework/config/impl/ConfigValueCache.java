@@ -0,0 +1,122 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.framework.config.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Element;
+
+/**
+ * Config values read from one of the config storages, null values included
+ * since most keys are never overridden. A value loaded before an
+ * invalidation isn't put in the cache, so a slow reader can't bring back the
+ * previous value. The time to live only bounds how long a change made behind
+ * the back of the DAOs goes unnoticed.
+ */
+public class ConfigValueCache implements ConfigValueCacheMBean {
+    private final String _name;
+    private final Cache _cache;
+    private final AtomicLong _version = new AtomicLong();
+    private final AtomicLong _hits = new AtomicLong();
+    private final AtomicLong _misses = new AtomicLong();
+    private final AtomicLong _invalidations = new AtomicLong();
+
+    public ConfigValueCache(final String name, final int maxElements, final int timeToLive) {
+        _name = name;
+        _cache = new Cache("ConfigValueCache-" + name, maxElements, false, false, timeToLive, timeToLive);
+        final CacheManager cm = CacheManager.create();
+        if (cm.cacheExists(_cache.getName())) {
+            cm.removeCache(_cache.getName());
+        }
+        cm.addCache(_cache);
+    }
+
+    /**
+     * @return the cached value of the key, or the one returned by the loader
+     *         when it isn't cached.
+     */
+    public String get(final String key, final Supplier<String> loader) {
+        final Element element = _cache.get(key);
+        if (element != null) {
+            _hits.incrementAndGet();
+            return (String)element.getObjectValue();
+        }
+        _misses.incrementAndGet();
+
+        final long version = _version.get();
+        final String value = loader.get();
+        synchronized (this) {
+            if (_version.get() == version) {
+                _cache.put(new Element(key, value));
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Drops the key, or all of them when it is null.
+     */
+    public synchronized void invalidate(final String key) {
+        _version.incrementAndGet();
+        if (key == null) {
+            _cache.removeAll();
+        } else {
+            _cache.remove(key);
+        }
+        _invalidations.incrementAndGet();
+    }
+
+    @Override
+    public String getName() {
+        return _name;
+    }
+
+    @Override
+    public int getSize() {
+        return _cache.getSize();
+    }
+
+    @Override
+    public long getHits() {
+        return _hits.get();
+    }
+
+    @Override
+    public long getMisses() {
+        return _misses.get();
+    }
+
+    @Override
+    public double getHitRatio() {
+        final long hits = _hits.get();
+        final long total = hits + _misses.get();
+        return total == 0 ? 0 : (double)hits / total;
+    }
+
+    @Override
+    public long getInvalidations() {
+        return _invalidations.get();
+    }
+
+    @Override
+    public void clear() {
+        invalidate(null);
+    }
+}
@@ -18,14 +18,31 @@
 //
 package org.apache.cloudstack.framework.config.impl;
 
+import java.util.Arrays;
+import java.util.Collections;
+
 import org.apache.cloudstack.framework.config.ConfigKey;
+import org.apache.cloudstack.framework.config.ScopedConfigStorage;
+import org.apache.cloudstack.framework.config.dao.ConfigurationDao;
+import org.junit.After;
 import org.junit.Assert;
 import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.cloud.utils.db.EntityCache;
 
 public class ConfigDepotImplTest {
+    private final static ConfigKey<Integer> DynamicIntCK = new ConfigKey<Integer>("Advanced", Integer.class, "dynIntKey", "10", "Test Key", true);
+    private final static ConfigKey<Integer> ClusterIntCK = new ConfigKey<Integer>("Advanced", Integer.class, "clusterIntKey", "10", "Test Key", true, ConfigKey.Scope.Cluster);
 
     private ConfigDepotImpl configDepotImpl = new ConfigDepotImpl();
 
+    @After
+    public void tearDown() {
+        EntityCache.removeTableListener(configDepotImpl);
+        ConfigKey.init(null);
+    }
+
     @Test
     public void createEmptyScopeLevelMappingsTest() {
         configDepotImpl.createEmptyScopeLevelMappings();
@@ -40,4 +57,69 @@ public class ConfigDepotImplTest {
         }
     }
 
+    @Test
+    public void globalValueIsCachedUntilConfigurationChanges() {
+        ConfigurationDao configDao = Mockito.mock(ConfigurationDao.class);
+        configDepotImpl._configDao = configDao;
+        ConfigurationVO vo = new ConfigurationVO("UnitTestComponent", DynamicIntCK);
+        vo.setValue("20");
+        Mockito.when(configDao.findById(DynamicIntCK.key())).thenReturn(vo);
+
+        Assert.assertEquals(20, DynamicIntCK.value().intValue());
+        Assert.assertEquals(20, DynamicIntCK.value().intValue());
+        Mockito.verify(configDao, Mockito.times(1)).findById(DynamicIntCK.key());
+        Assert.assertEquals(1, configDepotImpl.getCachedLookups());
+
+        // An update made on another management server
+        vo.setValue("30");
+        EntityCache.invalidateFromPeer("configuration", DynamicIntCK.key());
+        Assert.assertEquals(30, DynamicIntCK.value().intValue());
+        Mockito.verify(configDao, Mockito.times(2)).findById(DynamicIntCK.key());
+    }
+
+    @Test
+    public void missingGlobalValueIsCached() {
+        ConfigurationDao configDao = Mockito.mock(ConfigurationDao.class);
+        configDepotImpl._configDao = configDao;
+
+        Assert.assertEquals(10, DynamicIntCK.value().intValue());
+        Assert.assertEquals(10, DynamicIntCK.value().intValue());
+        Mockito.verify(configDao, Mockito.times(1)).findById(DynamicIntCK.key());
+
+        EntityCache.invalidate(Collections.singleton("configuration"), null);
+        Assert.assertEquals(10, DynamicIntCK.value().intValue());
+        Mockito.verify(configDao, Mockito.times(2)).findById(DynamicIntCK.key());
+    }
+
+    @Test
+    public void scopedValueIsCachedUntilDetailsChange() {
+        ConfigurationDao configDao = Mockito.mock(ConfigurationDao.class);
+        configDepotImpl._configDao = configDao;
+        ScopedConfigStorage storage = Mockito.mock(ScopedConfigStorage.class);
+        Mockito.when(storage.getScope()).thenReturn(ConfigKey.Scope.Cluster);
+        Mockito.when(storage.getConfigValue(1L, ClusterIntCK)).thenReturn("40");
+        configDepotImpl.setScopedStorages(Arrays.asList(storage));
+
+        for (int i = 0; i < 5; i++) {
+            Assert.assertEquals(40, ClusterIntCK.valueIn(1L).intValue());
+            // Not overridden for this cluster, falls back to the global value
+            Assert.assertEquals(10, ClusterIntCK.valueIn(2L).intValue());
+        }
+        Mockito.verify(storage, Mockito.times(1)).getConfigValue(1L, ClusterIntCK);
+        Mockito.verify(storage, Mockito.times(1)).getConfigValue(2L, ClusterIntCK);
+        Mockito.verify(configDao, Mockito.times(1)).findById(ClusterIntCK.key());
+        Assert.assertEquals(4 + 4 + 4, configDepotImpl.getCachedLookups());
+
+        // The row id of the details isn't the id of the cluster
+        Mockito.when(storage.getConfigValue(2L, ClusterIntCK)).thenReturn("50");
+        EntityCache.invalidate(Collections.singleton("cluster_details"), 7L);
+        Assert.assertEquals(50, ClusterIntCK.valueIn(2L).intValue());
+        Assert.assertEquals(40, ClusterIntCK.valueIn(1L).intValue());
+        Mockito.verify(storage, Mockito.times(2)).getConfigValue(1L, ClusterIntCK);
+
+        // Other tables leave the values alone
+        EntityCache.invalidate(Collections.singleton("account_details"), null);
+        Assert.assertEquals(50, ClusterIntCK.valueIn(2L).intValue());
+        Mockito.verify(storage, Mockito.times(2)).getConfigValue(2L, ClusterIntCK);
+    }
 }
@@ -0,0 +1,361 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Element;
+
+import org.apache.log4j.Logger;
+
+import com.cloud.utils.exception.CloudRuntimeException;
+import com.cloud.utils.mgmt.JmxUtil;
+
+/**
+ * Caches the entities returned by {@link GenericDaoBase#findById} for the VO
+ * classes annotated with {@link javax.persistence.Cacheable}.
+ *
+ * Entries are invalidated by table and id, so a change made through any DAO
+ * that writes to one of the tables of a cached entity (e.g. UserVmDao and the
+ * vm_instance table) drops it. Invalidations are applied locally right away
+ * and again once the transaction commits, when they are also handed to the
+ * {@link Broadcaster} to be replayed on the other management servers.
+ *
+ * Every invalidation bumps a version, and an entity loaded before it is not
+ * put in the cache, so a slow reader can't bring back a stale row. The cached
+ * instances never leave the cache, callers get a copy they are free to change.
+ *
+ * Caches of things other than entities can follow the changes made to a
+ * table, here and on the other management servers, with a
+ * {@link TableListener}.
+ */
+public class EntityCache<T> implements EntityCacheMBean {
+    private static final Logger s_logger = Logger.getLogger(EntityCache.class);
+
+    public static final String ALL = "*";
+
+    public interface Broadcaster {
+        /**
+         * @param id the id invalidated or {@link #ALL} for the whole table.
+         */
+        void broadcast(String table, String id);
+    }
+
+    /**
+     * Told about the rows written to a table, including the inserted ones.
+     */
+    public interface TableListener {
+        /**
+         * @param id the id of the row changed or {@link #ALL} for the whole table.
+         */
+        void tableChanged(String table, String id, boolean fromPeer);
+    }
+
+    private static final Map<String, List<EntityCache<?>>> s_cachesByTable = new ConcurrentHashMap<String, List<EntityCache<?>>>();
+    private static final Map<String, List<TableListener>> s_listenersByTable = new ConcurrentHashMap<String, List<TableListener>>();
+    private static volatile Broadcaster s_broadcaster;
+
+    private final String _name;
+    private final Class<T> _type;
+    private final Supplier<T> _factory;
+    private final Field[] _fields;
+    private final Cache _cache;
+    private final AtomicLong _version = new AtomicLong();
+    private final AtomicLong _hits = new AtomicLong();
+    private final AtomicLong _misses = new AtomicLong();
+    private final AtomicLong _invalidations = new AtomicLong();
+    private final AtomicLong _peerInvalidations = new AtomicLong();
+
+    protected EntityCache(final String name, final Class<T> type, final Supplier<T> factory, final int maxElements, final int timeToLive) {
+        _name = name;
+        _type = type;
+        _factory = factory;
+        _fields = getFields(type);
+        _cache = new Cache("EntityCache-" + name, maxElements, false, false, timeToLive, timeToLive);
+        final CacheManager cm = CacheManager.create();
+        if (cm.cacheExists(_cache.getName())) {
+            cm.removeCache(_cache.getName());
+        }
+        cm.addCache(_cache);
+    }
+
+    /**
+     * Creates the cache of a DAO and registers it for the invalidations of
+     * the tables its entities are read from.
+     */
+    public static <T> EntityCache<T> create(final String name, final Class<T> type, final Supplier<T> factory, final Collection<String> tables, final int maxElements,
+            final int timeToLive) {
+        final EntityCache<T> cache = new EntityCache<T>(name, type, factory, maxElements, timeToLive);
+        for (final String table : tables) {
+            List<EntityCache<?>> caches = s_cachesByTable.get(table);
+            if (caches == null) {
+                s_cachesByTable.putIfAbsent(table, new CopyOnWriteArrayList<EntityCache<?>>());
+                caches = s_cachesByTable.get(table);
+            }
+            caches.add(cache);
+        }
+        try {
+            JmxUtil.registerMBean("EntityCache", name, cache);
+        } catch (final Exception e) {
+            s_logger.warn("Unable to register the entity cache " + name + " with JMX", e);
+        }
+        s_logger.info("Entity cache created for " + name + " on " + tables);
+        return cache;
+    }
+
+    public static void addTableListener(final Collection<String> tables, final TableListener listener) {
+        for (final String table : tables) {
+            List<TableListener> listeners = s_listenersByTable.get(table);
+            if (listeners == null) {
+                s_listenersByTable.putIfAbsent(table, new CopyOnWriteArrayList<TableListener>());
+                listeners = s_listenersByTable.get(table);
+            }
+            listeners.add(listener);
+        }
+    }
+
+    public static void removeTableListener(final TableListener listener) {
+        for (final List<TableListener> listeners : s_listenersByTable.values()) {
+            listeners.remove(listener);
+        }
+    }
+
+    public static void setBroadcaster(final Broadcaster broadcaster) {
+        s_broadcaster = broadcaster;
+    }
+
+    /**
+     * @return true if a cache or a listener follows one of the tables.
+     */
+    public static boolean isCached(final Collection<String> tables) {
+        for (final String table : tables) {
+            if (s_cachesByTable.containsKey(table) || s_listenersByTable.containsKey(table)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Drops the entity, or all of them when id is null, from the caches
+     * reading the tables. Called by the DAOs before they write.
+     */
+    public static void invalidate(final Collection<String> tables, final Object id) {
+        for (final String table : tables) {
+            invalidate(table, id == null ? ALL : id.toString(), false);
+        }
+    }
+
+    /**
+     * Same as {@link #invalidate(Collection, Object)} once the change is
+     * committed, and for the other management servers too.
+     */
+    public static void invalidateCommitted(final Collection<String> tables, final Object id) {
+        final Broadcaster broadcaster = s_broadcaster;
+        for (final String table : tables) {
+            final String key = id == null ? ALL : id.toString();
+            if (invalidate(table, key, false) && broadcaster != null) {
+                broadcaster.broadcast(table, key);
+            }
+        }
+    }
+
+    /**
+     * For the writes issued with plain SQL instead of through the DAO of the
+     * table: drops the entity right away and again once the current
+     * transaction commits.
+     */
+    public static void invalidateOnWrite(final Collection<String> tables, final Object id) {
+        if (!isCached(tables)) {
+            return;
+        }
+        invalidate(tables, id);
+        TransactionLegacy.currentTxn().afterCommit(new Runnable() {
+            @Override
+            public void run() {
+                invalidateCommitted(tables, id);
+            }
+        });
+    }
+
+    /**
+     * Applies an invalidation received from another management server.
+     */
+    public static void invalidateFromPeer(final String table, final String id) {
+        invalidate(table, id, true);
+    }
+
+    private static boolean invalidate(final String table, final String id, final boolean fromPeer) {
+        final List<EntityCache<?>> caches = s_cachesByTable.get(table);
+        final List<TableListener> listeners = s_listenersByTable.get(table);
+        if (caches == null && listeners == null) {
+            return false;
+        }
+        if (caches != null) {
+            for (final EntityCache<?> cache : caches) {
+                cache.invalidate(id, fromPeer);
+            }
+        }
+        if (listeners != null) {
+            for (final TableListener listener : listeners) {
+                listener.tableChanged(table, id, fromPeer);
+            }
+        }
+        return true;
+    }
+
+    protected synchronized void invalidate(final String id, final boolean fromPeer) {
+        _version.incrementAndGet();
+        if (ALL.equals(id)) {
+            _cache.removeAll();
+        } else {
+            _cache.remove(id);
+        }
+        if (fromPeer) {
+            _peerInvalidations.incrementAndGet();
+        } else {
+            _invalidations.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return a copy of the cached entity or null if it isn't cached.
+     */
+    @SuppressWarnings("unchecked")
+    public T get(final Object id) {
+        final Element element = _cache.get(id.toString());
+        if (element == null) {
+            _misses.incrementAndGet();
+            return null;
+        }
+        _hits.incrementAndGet();
+        return copy((T)element.getObjectValue());
+    }
+
+    /**
+     * @return the version to hand back to {@link #put} with the entity
+     *         loaded after this call.
+     */
+    public long getVersion() {
+        return _version.get();
+    }
+
+    /**
+     * Caches a copy of the entity unless it was invalidated since version
+     * was taken.
+     */
+    public synchronized void put(final Object id, final T entity, final long version) {
+        if (_version.get() != version) {
+            return;
+        }
+        _cache.put(new Element(id.toString(), copy(entity)));
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    protected T copy(final T from) {
+        final T to = _factory.get();
+        try {
+            for (final Field field : _fields) {
+                Object value = field.get(from);
+                if (value instanceof Date) {
+                    value = ((Date)value).clone();
+                } else if (value instanceof List) {
+                    value = new ArrayList((List)value);
+                } else if (value instanceof Set) {
+                    value = new HashSet((Set)value);
+                } else if (value instanceof Map) {
+                    value = new HashMap((Map)value);
+                }
+                field.set(to, value);
+            }
+            return to;
+        } catch (final IllegalAccessException e) {
+            throw new CloudRuntimeException("Unable to copy " + _type.getName(), e);
+        }
+    }
+
+    protected static Field[] getFields(final Class<?> type) {
+        final List<Field> fields = new ArrayList<Field>();
+        for (Class<?> clazz = type; clazz != null && clazz != Object.class; clazz = clazz.getSuperclass()) {
+            for (final Field field : clazz.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers()) || field.isSynthetic()) {
+                    continue;
+                }
+                field.setAccessible(true);
+                fields.add(field);
+            }
+        }
+        return fields.toArray(new Field[fields.size()]);
+    }
+
+    @Override
+    public String getName() {
+        return _name;
+    }
+
+    @Override
+    public int getSize() {
+        return _cache.getSize();
+    }
+
+    @Override
+    public long getHits() {
+        return _hits.get();
+    }
+
+    @Override
+    public long getMisses() {
+        return _misses.get();
+    }
+
+    @Override
+    public double getHitRatio() {
+        final long hits = _hits.get();
+        final long total = hits + _misses.get();
+        return total == 0 ? 0 : (double)hits / total;
+    }
+
+    @Override
+    public long getInvalidations() {
+        return _invalidations.get();
+    }
+
+    @Override
+    public long getPeerInvalidations() {
+        return _peerInvalidations.get();
+    }
+
+    @Override
+    public void clear() {
+        invalidate(ALL, false);
+    }
+}
@@ -17,8 +17,10 @@
 package com.cloud.utils.db;
 
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 import javax.naming.ConfigurationException;
 
@@ -59,6 +61,12 @@ public interface GenericDao<T, ID extends Serializable> {
     // Finds one unique VO using uuid including removed entities
     T findByUuidIncludingRemoved(String uuid);
 
+    // Finds the VOs of the uuids including removed entities, in one query
+    List<T> listByUuidsIncludingRemoved(Collection<String> uuids);
+
+    // Finds the VOs of the ids, in one query
+    List<T> listByIds(Collection<ID> ids);
+
     /**
      * @return VO object ready to be used for update.  It won't have any fields filled in.
      */
@@ -169,6 +177,21 @@ public interface GenericDao<T, ID extends Serializable> {
 
     List<T> searchIncludingRemoved(SearchCriteria<T> sc, final Filter filter, final Boolean lock, final boolean cache, final boolean enableQueryCache);
 
+    /**
+     * Hands the entity beans to the consumer one row at a time while they are
+     * read from a forward only, streaming result set, so large tables can be
+     * scanned without holding the whole result in memory.  The connection is
+     * busy until all rows are read, the consumer must not run other queries
+     * in the same transaction.  Entities with element collections are read
+     * in full first, as their collections need queries of their own.
+     * @param sc
+     * @param filter
+     * @param consumer called for every entity bean found.
+     */
+    void forEach(SearchCriteria<T> sc, Filter filter, Consumer<T> consumer);
+
+    void forEachIncludingRemoved(SearchCriteria<T> sc, Filter filter, Consumer<T> consumer);
+
     /**
      * Customized search with SearchCritiria
      * @param sc
@@ -199,6 +222,23 @@ public interface GenericDao<T, ID extends Serializable> {
      **/
     T persist(T entity);
 
+    /**
+     * Persist the entity beans with JDBC batches instead of a statement per
+     * entity.  The id field of the entities is updated with the new ids, the
+     * entities are not read back from the database.
+     * @param entities the beans to persist.
+     * @return the entities passed in.
+     **/
+    List<T> persistBatch(List<T> entities);
+
+    /**
+     * Writes the changes made to the entity beans with JDBC batches, one per
+     * set of changed columns.
+     * @param entities beans retrieved from this dao or created with createForUpdate.
+     * @return number of rows updated.
+     **/
+    int updateBatch(List<T> entities);
+
     /**
      * remove the entity bean.  This will call delete automatically if
      * the entity bean does not have a removed field.
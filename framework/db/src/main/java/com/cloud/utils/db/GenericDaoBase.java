@@ -40,14 +40,19 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import javax.naming.ConfigurationException;
 import javax.persistence.AttributeOverride;
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.EmbeddedId;
 import javax.persistence.EntityExistsException;
@@ -121,6 +126,9 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
 
     protected final static TimeZone s_gmtTimeZone = TimeZone.getTimeZone("GMT");
 
+    // Rows sent to the database per JDBC batch in persistBatch and updateBatch
+    protected static final int BATCH_SIZE = 500;
+
     protected final static Map<Class<?>, GenericDao<?, ? extends Serializable>> s_daoMaps = new ConcurrentHashMap<Class<?>, GenericDao<?, ? extends Serializable>>(71);
 
     protected Class<T> _entityBeanType;
@@ -361,6 +369,60 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
 
     @Override
     public List<T> searchIncludingRemoved(SearchCriteria<T> sc, final Filter filter, final Boolean lock, final boolean cache, final boolean enableQueryCache) {
+        final TransactionLegacy txn = TransactionLegacy.currentTxn();
+        PreparedStatement pstmt = null;
+        final List<T> result = new ArrayList<T>();
+        try {
+            pstmt = prepareSearch(txn, sc, filter, lock, enableQueryCache, false);
+            final ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                result.add(toEntityBean(rs, cache));
+            }
+            return result;
+        } catch (final SQLException e) {
+            throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
+        } catch (final Throwable e) {
+            throw new CloudRuntimeException("Caught: " + pstmt, e);
+        }
+    }
+
+    @Override
+    @DB()
+    public void forEach(SearchCriteria<T> sc, final Filter filter, final Consumer<T> consumer) {
+        sc = checkAndSetRemovedIsNull(sc);
+        forEachIncludingRemoved(sc, filter, consumer);
+    }
+
+    @Override
+    public void forEachIncludingRemoved(final SearchCriteria<T> sc, final Filter filter, final Consumer<T> consumer) {
+        if (!_ecAttributes.isEmpty()) {
+            // Element collections are loaded with statements of their own, which
+            // can't run on the connection while a streaming result set is open.
+            for (final T entity : searchIncludingRemoved(sc, filter, null, false)) {
+                consumer.accept(entity);
+            }
+            return;
+        }
+        final TransactionLegacy txn = TransactionLegacy.currentTxn();
+        String sql = null;
+        try (PreparedStatement pstmt = prepareSearch(txn, sc, filter, null, false, true)) {
+            sql = pstmt.toString();
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    consumer.accept(toEntityBean(rs, false));
+                }
+            }
+        } catch (final SQLException e) {
+            throw new CloudRuntimeException("DB Exception on: " + sql, e);
+        }
+    }
+
+    /**
+     * Builds and binds the select statement for the search criteria.  Streaming statements
+     * are not closed with the transaction, the caller has to close them.
+     */
+    private PreparedStatement prepareSearch(final TransactionLegacy txn, final SearchCriteria<T> sc, final Filter filter, final Boolean lock, final boolean enableQueryCache,
+            final boolean streaming) throws SQLException {
         String clause = sc != null ? sc.getWhereClause() : null;
         if (clause != null && clause.length() == 0) {
             clause = null;
@@ -382,7 +444,6 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         List<Object> groupByValues = addGroupBy(str, sc);
         addFilter(str, filter);
 
-        final TransactionLegacy txn = TransactionLegacy.currentTxn();
         if (lock != null) {
             assert (txn.dbTxnStarted() == true) : "As nice as I can here now....how do you lock when there's no DB transaction?  Review your db 101 course from college.";
             str.append(lock ? FOR_UPDATE_CLAUSE : SHARE_MODE_CLAUSE);
@@ -390,10 +451,8 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
 
         final String sql = str.toString();
 
-        PreparedStatement pstmt = null;
-        final List<T> result = new ArrayList<T>();
+        final PreparedStatement pstmt = streaming ? txn.prepareStreamingStatement(sql) : txn.prepareAutoCloseStatement(sql);
         try {
-            pstmt = txn.prepareAutoCloseStatement(sql);
             int i = 1;
             if (clause != null) {
                 for (final Pair<Attribute, Object> value : sc.getValues()) {
@@ -410,20 +469,17 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
                     pstmt.setObject(i++, value);
                 }
             }
-
-            if (s_logger.isDebugEnabled() && lock != null) {
-                txn.registerLock(pstmt.toString());
-            }
-            final ResultSet rs = pstmt.executeQuery();
-            while (rs.next()) {
-                result.add(toEntityBean(rs, cache));
+        } catch (final SQLException | RuntimeException e) {
+            if (streaming) {
+                pstmt.close();
             }
-            return result;
-        } catch (final SQLException e) {
-            throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
-        } catch (final Throwable e) {
-            throw new CloudRuntimeException("Caught: " + pstmt, e);
+            throw e;
         }
+
+        if (s_logger.isDebugEnabled() && lock != null) {
+            txn.registerLock(pstmt.toString());
+        }
+        return pstmt;
     }
 
     @Override
@@ -785,6 +841,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         if (_cache != null) {
             _cache.remove(id);
         }
+        invalidateEntityCache(id);
         SearchCriteria<T> sc = createSearchCriteria();
         sc.addAnd(_idAttributes.get(_table)[0], SearchCriteria.Op.EQ, id);
         TransactionLegacy txn = TransactionLegacy.currentTxn();
@@ -816,6 +873,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             if (sql == null) {
                 return 0;
             }
+            invalidateEntityCache(sc);
 
             sql.append(searchClause);
 
@@ -949,12 +1007,35 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             } else {
                 result = (T)element.getObjectValue();
             }
+        } else if (_entityCache != null) {
+            result = findCachedById(id);
         } else {
             result = lockRow(id, null);
         }
         return result;
     }
 
+    /**
+     * Reads inside a transaction go to the database, they may have to see
+     * changes of the transaction and what they read may not be committed.
+     */
+    @DB()
+    protected T findCachedById(final ID id) {
+        final TransactionLegacy txn = TransactionLegacy.currentTxn();
+        if (txn.dbTxnStarted()) {
+            return lockRow(id, null);
+        }
+        T result = _entityCache.get(id);
+        if (result == null) {
+            final long version = _entityCache.getVersion();
+            result = lockRow(id, null);
+            if (result != null) {
+                _entityCache.put(id, result, version);
+            }
+        }
+        return result;
+    }
+
     @Override
     @DB()
     public T findByUuid(final String uuid) {
@@ -971,6 +1052,28 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         return findOneIncludingRemovedBy(sc);
     }
 
+    @Override
+    @DB()
+    public List<T> listByUuidsIncludingRemoved(final Collection<String> uuids) {
+        if (uuids.isEmpty()) {
+            return new ArrayList<T>();
+        }
+        SearchCriteria<T> sc = createSearchCriteria();
+        sc.addAnd("uuid", SearchCriteria.Op.IN, uuids.toArray());
+        return searchIncludingRemoved(sc, null, null, false);
+    }
+
+    @Override
+    @DB()
+    public List<T> listByIds(final Collection<ID> ids) {
+        if (ids.isEmpty()) {
+            return new ArrayList<T>();
+        }
+        SearchCriteria<T> sc = createSearchCriteria();
+        sc.addAnd(_idAttributes.get(_table)[0], SearchCriteria.Op.IN, ids.toArray());
+        return search(sc, null);
+    }
+
     @Override
     @DB()
     public T findByIdIncludingRemoved(final ID id) {
@@ -1174,6 +1277,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         PreparedStatement pstmt = null;
         String sql = null;
         try {
+            invalidateEntityCache(id);
             txn.start();
             for (final Pair<String, Attribute[]> deletSql : _deleteSqls) {
                 sql = deletSql.first();
@@ -1217,6 +1321,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         final TransactionLegacy txn = TransactionLegacy.currentTxn();
         PreparedStatement pstmt = null;
         try {
+            invalidateEntityCache(sc);
             pstmt = txn.prepareAutoCloseStatement(sql);
             int i = 0;
             for (final Pair<Attribute, Object> value : sc.getValues()) {
@@ -1444,6 +1549,8 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
 
                 insertElementCollection(entity, _idAttributes.get(_table)[0], id, ecAttributes);
             }
+            // Nothing cached has this id yet, but the table listeners follow the inserts too
+            invalidateEntityCache(id);
             txn.commit();
         } catch (final SQLException e) {
             handleEntityExistsException(e);
@@ -1457,6 +1564,131 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         return _idField != null ? findByIdIncludingRemoved(id) : null;
     }
 
+    @Override
+    @DB()
+    @SuppressWarnings("unchecked")
+    public List<T> persistBatch(final List<T> entities) {
+        // Entities spread over several tables need the id of the first insert for the others.
+        if (_insertSqls.size() != 1 || (_ecAttributes != null && _ecAttributes.size() > 0)) {
+            for (final T entity : entities) {
+                persist(entity);
+            }
+            return entities;
+        }
+
+        final String sql = _insertSqls.get(0).first();
+        final Attribute[] attrs = _insertSqls.get(0).second();
+        final TransactionLegacy txn = TransactionLegacy.currentTxn();
+        PreparedStatement pstmt = null;
+        try {
+            txn.start();
+            pstmt = txn.prepareAutoCloseStatement(sql, Statement.RETURN_GENERATED_KEYS);
+            for (int start = 0; start < entities.size(); start += BATCH_SIZE) {
+                final List<T> batch = entities.subList(start, Math.min(start + BATCH_SIZE, entities.size()));
+                for (final T entity : batch) {
+                    assert !Enhancer.isEnhanced(entity.getClass()) : "Entity is already persisted, use updateBatch";
+                    prepareAttributes(pstmt, entity, attrs, 1);
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+
+                if (_idField != null) {
+                    // With rewriteBatchedStatements the batch goes out as one multi-row INSERT,
+                    // the driver still returns a key per row, in the order of the rows.
+                    final ResultSet rs = pstmt.getGeneratedKeys();
+                    for (final T entity : batch) {
+                        if (rs == null || !rs.next()) {
+                            throw new CloudRuntimeException("Missing generated keys for the batch of " + batch.size() + " rows inserted in " + _table);
+                        }
+                        final Object id = rs.getObject(1);
+                        _idField.set(entity, id instanceof BigInteger ? ((BigInteger)id).longValue() : id);
+                        invalidateEntityCache((ID)_idField.get(entity));
+                    }
+                }
+            }
+            txn.commit();
+        } catch (final SQLException e) {
+            handleEntityExistsException(e);
+            throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
+        } catch (final IllegalAccessException e) {
+            throw new CloudRuntimeException("Unable to set the id of " + _entityBeanType, e);
+        }
+        return entities;
+    }
+
+    @Override
+    @DB()
+    @SuppressWarnings("unchecked")
+    public int updateBatch(final List<T> entities) {
+        // Entities changing the same columns share a statement
+        final Map<String, List<Pair<T, SearchCriteria<T>>>> batches = new LinkedHashMap<String, List<Pair<T, SearchCriteria<T>>>>();
+        int rows = 0;
+        for (final T entity : entities) {
+            assert Enhancer.isEnhanced(entity.getClass()) : "Entity is not generated by this dao";
+            final UpdateBuilder ub = getUpdateBuilder(entity);
+            final ID id;
+            try {
+                id = (ID)_idField.get(entity);
+            } catch (final IllegalAccessException e) {
+                throw new CloudRuntimeException("Unable to get the id of " + _entityBeanType, e);
+            }
+            if (ub.getCollectionChanges() != null) {
+                rows += update(id, ub, entity);
+                continue;
+            }
+            final StringBuilder sql = ub.toSql(_tables);
+            if (sql == null) {
+                continue;
+            }
+            final SearchCriteria<T> sc = createSearchCriteria();
+            sc.addAnd(_idAttributes.get(_table)[0], SearchCriteria.Op.EQ, id);
+            final String key = sql.append(sc.getWhereClause()).toString();
+            List<Pair<T, SearchCriteria<T>>> batch = batches.get(key);
+            if (batch == null) {
+                batch = new ArrayList<Pair<T, SearchCriteria<T>>>();
+                batches.put(key, batch);
+            }
+            batch.add(new Pair<T, SearchCriteria<T>>(entity, sc));
+        }
+        if (batches.isEmpty()) {
+            return rows;
+        }
+
+        final TransactionLegacy txn = TransactionLegacy.currentTxn();
+        txn.start();
+        for (final Map.Entry<String, List<Pair<T, SearchCriteria<T>>>> batch : batches.entrySet()) {
+            try (PreparedStatement pstmt = txn.prepareStatement(batch.getKey())) {
+                final List<Pair<T, SearchCriteria<T>>> batchEntities = batch.getValue();
+                for (int start = 0; start < batchEntities.size(); start += BATCH_SIZE) {
+                    final List<Pair<T, SearchCriteria<T>>> chunk = batchEntities.subList(start, Math.min(start + BATCH_SIZE, batchEntities.size()));
+                    for (final Pair<T, SearchCriteria<T>> entity : chunk) {
+                        final UpdateBuilder ub = getUpdateBuilder(entity.first());
+                        invalidateEntityCache(entity.second());
+                        int i = 1;
+                        for (final Ternary<Attribute, Boolean, Object> value : ub.getChanges()) {
+                            prepareAttribute(i++, pstmt, value.first(), value.third());
+                        }
+                        for (final Pair<Attribute, Object> value : entity.second().getValues()) {
+                            prepareAttribute(i++, pstmt, value.first(), value.second());
+                        }
+                        pstmt.addBatch();
+                    }
+                    for (final int count : pstmt.executeBatch()) {
+                        rows += count > 0 ? count : 0;
+                    }
+                    for (final Pair<T, SearchCriteria<T>> entity : chunk) {
+                        getUpdateBuilder(entity.first()).clear();
+                    }
+                }
+            } catch (final SQLException e) {
+                handleEntityExistsException(e);
+                throw new CloudRuntimeException("DB Exception on: " + batch.getKey(), e);
+            }
+        }
+        txn.commit();
+        return rows;
+    }
+
     protected void insertElementCollection(T entity, Attribute idAttribute, ID id, Map<Attribute, Object> ecAttributes) throws SQLException {
         TransactionLegacy txn = TransactionLegacy.currentTxn();
         txn.start();
@@ -1787,6 +2019,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         final TransactionLegacy txn = TransactionLegacy.currentTxn();
         PreparedStatement pstmt = null;
         try {
+            invalidateEntityCache(id);
             txn.start();
             pstmt = txn.prepareAutoCloseStatement(_removeSql.first());
             final Attribute[] attrs = _removeSql.second();
@@ -1829,7 +2062,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         final TransactionLegacy txn = TransactionLegacy.currentTxn();
         PreparedStatement pstmt = null;
         try {
-
+            invalidateEntityCache(id);
             txn.start();
             pstmt = txn.prepareAutoCloseStatement(_removeSql.first());
             final Attribute[] attrs = _removeSql.second();
@@ -1863,6 +2096,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
     }
 
     protected Cache _cache;
+    protected EntityCache<T> _entityCache;
 
     @DB()
     protected void createCache(final Map<String, ? extends Object> params) {
@@ -1881,6 +2115,46 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         }
     }
 
+    /**
+     * Creates the entity cache if the VO class is annotated with
+     * {@link Cacheable} and entity.cache.size is set above 0. The cache is
+     * off by default, reads can be stale until the invalidation of a write
+     * made on another management server arrives.
+     */
+    @DB()
+    protected void createEntityCache(final Map<String, ? extends Object> params) {
+        final Cacheable cacheable = _entityBeanType.getAnnotation(Cacheable.class);
+        final int maxElements = NumbersUtil.parseInt((String)params.get("entity.cache.size"), 0);
+        if (cacheable == null || !cacheable.value() || maxElements <= 0 || _idField.getAnnotation(EmbeddedId.class) != null) {
+            _entityCache = null;
+            return;
+        }
+        final int live = NumbersUtil.parseInt((String)params.get("entity.cache.time.to.live"), 300);
+        _entityCache = EntityCache.create(getName(), _entityBeanType, new Supplier<T>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public T get() {
+                return (T)_factory.newInstance(new Callback[] {NoOp.INSTANCE, new UpdateBuilder(GenericDaoBase.this)});
+            }
+        }, _idAttributes.keySet(), maxElements, live);
+    }
+
+    /**
+     * Drops the entity from the entity caches reading any of the tables of
+     * this DAO, here and on the other management servers.
+     */
+    protected void invalidateEntityCache(final ID id) {
+        invalidateEntityCache((Object)id);
+    }
+
+    protected void invalidateEntityCache(final SearchCriteria<?> sc) {
+        invalidateEntityCache(sc.getSingleId());
+    }
+
+    private void invalidateEntityCache(final Object id) {
+        EntityCache.invalidateOnWrite(_idAttributes.keySet(), id);
+    }
+
     @Override
     @DB()
     public boolean configure(final String name, final Map<String, Object> params) throws ConfigurationException {
@@ -1890,6 +2164,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         _timeoutSeconds = NumbersUtil.parseInt(value, 300);
 
         createCache(params);
+        createEntityCache(params);
         final boolean load = Boolean.parseBoolean((String)params.get("cache.preload"));
         if (load) {
             listAll();
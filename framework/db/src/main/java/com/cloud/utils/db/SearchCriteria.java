@@ -18,6 +18,7 @@ package com.cloud.utils.db;
 
 import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
@@ -268,6 +269,28 @@ public class SearchCriteria<K> {
         return sql.toString();
     }
 
+    /**
+     * @return the only id the rows matched can have, or null if the criteria
+     *         doesn't pin it down to a single row.
+     */
+    protected Object getSingleId() {
+        Object value = null;
+        for (final List<Condition> conditions : Arrays.asList(_conditions, _additionals)) {
+            for (final Condition condition : conditions) {
+                if (condition.op == Op.OR || condition.op == Op.NOT || condition.op == Op.SC || (condition.cond != null && condition.cond.contains("OR"))) {
+                    return null;
+                }
+                if (condition.op == Op.EQ && condition.attr != null && condition.attr.isId()) {
+                    final Object[] params = condition.isPreset() ? condition.presets : _params.get(condition.name);
+                    if (params != null && params.length == 1 && params[0] != null) {
+                        value = params[0];
+                    }
+                }
+            }
+        }
+        return value;
+    }
+
     public List<Pair<Attribute, Object>> getValues() {
         ArrayList<Pair<Attribute, Object>> params = new ArrayList<Pair<Attribute, Object>>(_params.size());
         for (Condition condition : _conditions) {
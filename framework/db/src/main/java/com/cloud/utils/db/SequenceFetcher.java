@@ -19,6 +19,7 @@ package com.cloud.utils.db;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Collections;
 import java.util.Random;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
@@ -151,6 +152,9 @@ public class SequenceFetcher {
                         int rows = updateStmt.executeUpdate();
                         assert rows == 1 : "Come on....how exactly did we update this many rows " + rows + " for " + updateStmt.toString();
                         txn.commit();
+                        if (_key != null) {
+                            EntityCache.invalidateCommitted(Collections.singleton(_tg.table()), _key);
+                        }
                         return (T)obj;
                     } catch (SQLException e) {
                         s_logger.warn("Caught this exception when running: " + (updateStmt != null ? updateStmt.toString() : ""), e);
@@ -25,6 +25,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Savepoint;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -100,6 +101,7 @@ public class TransactionLegacy implements Closeable {
     private String _name;
     private Connection _conn;
     private boolean _txn;
+    private List<Runnable> _afterCommit;
     private short _dbId;
     private long _txnTime;
     private Statement _stmt;
@@ -207,6 +209,15 @@ public class TransactionLegacy implements Closeable {
         return _txn;
     }
 
+    /**
+     * Same as {@link #dbTxnStarted()} for the transaction of the calling
+     * thread, false when it has none.
+     */
+    public static boolean currentTxnStarted() {
+        final TransactionLegacy txn = tls.get();
+        return txn != null && txn.dbTxnStarted();
+    }
+
     public static Connection getStandaloneConnectionWithException() throws SQLException {
         Connection conn = s_ds.getConnection();
         if (s_connLogger.isTraceEnabled()) {
@@ -536,6 +547,28 @@ public class TransactionLegacy implements Closeable {
         return pstmt;
     }
 
+    /**
+     * Prepares a forward only, read only statement that streams its result
+     * set row by row instead of fetching it all into memory.  The statement
+     * is not closed automatically, the caller has to close it as no other
+     * statement can run on the connection until the result set is consumed
+     * or closed.
+     *
+     * @param sql sql String
+     * @return PreparedStatement
+     * @throws SQLException if problem with JDBC layer.
+     */
+    public PreparedStatement prepareStreamingStatement(final String sql) throws SQLException {
+        final Connection conn = getConnection();
+        final PreparedStatement pstmt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        // Integer.MIN_VALUE is what makes the MySQL driver stream the rows
+        pstmt.setFetchSize(Integer.MIN_VALUE);
+        if (s_stmtLogger.isTraceEnabled()) {
+            s_stmtLogger.trace("Preparing streaming: " + sql);
+        }
+        return pstmt;
+    }
+
     /**
      * Returns the db connection.
      *
@@ -703,6 +736,36 @@ public class TransactionLegacy implements Closeable {
         }
     }
 
+    /**
+     * Runs the task once the database transaction in progress is committed,
+     * or right away if there is none. The task is dropped on rollback.
+     */
+    public void afterCommit(final Runnable task) {
+        if (!_txn) {
+            task.run();
+            return;
+        }
+        if (_afterCommit == null) {
+            _afterCommit = new ArrayList<Runnable>();
+        }
+        _afterCommit.add(task);
+    }
+
+    protected void runAfterCommit() {
+        final List<Runnable> tasks = _afterCommit;
+        _afterCommit = null;
+        if (tasks == null) {
+            return;
+        }
+        for (final Runnable task : tasks) {
+            try {
+                task.run();
+            } catch (final RuntimeException e) {
+                s_logger.warn("Unable to run the after commit task " + task, e);
+            }
+        }
+    }
+
     public boolean commit() {
         if (!_txn) {
             s_logger.warn("txn: Commit called when it is not a transaction: " + buildName());
@@ -733,6 +796,7 @@ public class TransactionLegacy implements Closeable {
                 clearLockTimes();
                 closeConnection();
             }
+            runAfterCommit();
             return true;
         } catch (final SQLException e) {
             rollbackTransaction();
@@ -842,6 +906,7 @@ public class TransactionLegacy implements Closeable {
         }
         assert (!hasTxnInStack()) : "Who's rolling back transaction when there's still txn in stack?";
         _txn = false;
+        _afterCommit = null;
         try {
             if (_conn != null) {
                 if (s_logger.isDebugEnabled()) {
@@ -0,0 +1,176 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class EntityCacheTest {
+    private static final Supplier<DbTestVO> FACTORY = new Supplier<DbTestVO>() {
+        @Override
+        public DbTestVO get() {
+            return new DbTestVO();
+        }
+    };
+
+    @After
+    public void tearDown() {
+        EntityCache.setBroadcaster(null);
+    }
+
+    private static DbTestVO createVO(final long id, final String value) {
+        final DbTestVO vo = new DbTestVO();
+        vo.id = id;
+        vo.fieldString = value;
+        vo.fieldLong = id * 10;
+        return vo;
+    }
+
+    @Test
+    public void testGetReturnsCopies() {
+        final EntityCache<DbTestVO> cache = EntityCache.create("copies", DbTestVO.class, FACTORY, Arrays.asList("entity_cache_copies"), 100, 300);
+        final DbTestVO vo = createVO(1, "a");
+        cache.put(1L, vo, cache.getVersion());
+        vo.fieldString = "changed by the caller";
+
+        final DbTestVO cached = cache.get(1L);
+        Assert.assertNotSame(vo, cached);
+        Assert.assertEquals("a", cached.getFieldString());
+        Assert.assertEquals(10L, cached.getFieldLong());
+
+        cached.fieldString = "changed again";
+        Assert.assertEquals("a", cache.get(1L).getFieldString());
+        Assert.assertNull(cache.get(2L));
+        Assert.assertEquals(2, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testStaleLoadIsNotCached() {
+        final EntityCache<DbTestVO> cache = EntityCache.create("stale", DbTestVO.class, FACTORY, Arrays.asList("entity_cache_stale"), 100, 300);
+        final long version = cache.getVersion();
+        // Someone changes the row while it is being loaded
+        EntityCache.invalidate(Arrays.asList("entity_cache_stale"), 1L);
+        cache.put(1L, createVO(1, "old"), version);
+        Assert.assertNull(cache.get(1L));
+
+        cache.put(1L, createVO(1, "new"), cache.getVersion());
+        Assert.assertEquals("new", cache.get(1L).getFieldString());
+    }
+
+    @Test
+    public void testInvalidationByTable() {
+        final EntityCache<DbTestVO> parent = EntityCache.create("parent", DbTestVO.class, FACTORY, Arrays.asList("entity_cache_parent"), 100, 300);
+        final EntityCache<DbTestVO> child = EntityCache.create("child", DbTestVO.class, FACTORY, Arrays.asList("entity_cache_child", "entity_cache_parent"), 100, 300);
+        parent.put(1L, createVO(1, "a"), parent.getVersion());
+        parent.put(2L, createVO(2, "b"), parent.getVersion());
+        child.put(1L, createVO(1, "a"), child.getVersion());
+
+        Assert.assertTrue(EntityCache.isCached(Arrays.asList("entity_cache_child")));
+        Assert.assertFalse(EntityCache.isCached(Arrays.asList("entity_cache_unknown")));
+
+        // A write through the child's DAO touches both tables
+        EntityCache.invalidate(Arrays.asList("entity_cache_child", "entity_cache_parent"), 1L);
+        Assert.assertNull(parent.get(1L));
+        Assert.assertNull(child.get(1L));
+        Assert.assertNotNull(parent.get(2L));
+
+        // A bulk update drops the whole table
+        EntityCache.invalidate(Arrays.asList("entity_cache_parent"), null);
+        Assert.assertNull(parent.get(2L));
+        Assert.assertEquals(0, parent.getSize());
+    }
+
+    @Test
+    public void testCommittedInvalidationsAreBroadcast() {
+        final EntityCache<DbTestVO> cache = EntityCache.create("broadcast", DbTestVO.class, FACTORY, Arrays.asList("entity_cache_broadcast"), 100, 300);
+        final List<String> broadcast = new ArrayList<String>();
+        EntityCache.setBroadcaster(new EntityCache.Broadcaster() {
+            @Override
+            public void broadcast(final String table, final String id) {
+                broadcast.add(table + " " + id);
+            }
+        });
+
+        cache.put(1L, createVO(1, "a"), cache.getVersion());
+        EntityCache.invalidateCommitted(Arrays.asList("entity_cache_broadcast", "entity_cache_not_cached"), 1L);
+        Assert.assertNull(cache.get(1L));
+        Assert.assertEquals(Collections.singletonList("entity_cache_broadcast 1"), broadcast);
+
+        cache.put(1L, createVO(1, "a"), cache.getVersion());
+        EntityCache.invalidateFromPeer("entity_cache_broadcast", "1");
+        Assert.assertNull(cache.get(1L));
+        Assert.assertEquals(1, cache.getPeerInvalidations());
+        Assert.assertEquals(1, broadcast.size());
+    }
+
+    @Test
+    public void testInvalidateOnWrite() {
+        final EntityCache<DbTestVO> cache = EntityCache.create("write", DbTestVO.class, FACTORY, Arrays.asList("entity_cache_write"), 100, 300);
+        final List<String> broadcast = new ArrayList<String>();
+        EntityCache.setBroadcaster(new EntityCache.Broadcaster() {
+            @Override
+            public void broadcast(final String table, final String id) {
+                broadcast.add(table + " " + id);
+            }
+        });
+
+        cache.put(1L, createVO(1, "a"), cache.getVersion());
+        cache.put(2L, createVO(2, "b"), cache.getVersion());
+        final TransactionLegacy txn = TransactionLegacy.open("testInvalidateOnWrite");
+        try {
+            EntityCache.invalidateOnWrite(Collections.singleton("entity_cache_write"), 1L);
+        } finally {
+            txn.close();
+        }
+        Assert.assertNull(cache.get(1L));
+        Assert.assertNotNull(cache.get(2L));
+        Assert.assertEquals(Collections.singletonList("entity_cache_write 1"), broadcast);
+
+        EntityCache.invalidateOnWrite(Collections.singleton("entity_cache_not_cached"), 2L);
+        Assert.assertEquals(1, broadcast.size());
+    }
+
+    @Test
+    public void testSingleIdOfSearchCriteria() {
+        new DbTestDao();
+        SearchCriteria<DbTestVO> sc = new SearchBuilder<DbTestVO>(DbTestVO.class).create();
+        sc.addAnd("id", SearchCriteria.Op.EQ, 5L);
+        sc.addAnd("fieldInt", SearchCriteria.Op.EQ, 1);
+        Assert.assertEquals(5L, sc.getSingleId());
+
+        sc = new SearchBuilder<DbTestVO>(DbTestVO.class).create();
+        sc.addAnd("fieldInt", SearchCriteria.Op.EQ, 1);
+        Assert.assertNull(sc.getSingleId());
+
+        sc = new SearchBuilder<DbTestVO>(DbTestVO.class).create();
+        sc.addAnd("id", SearchCriteria.Op.EQ, 5L);
+        sc.addOr("fieldInt", SearchCriteria.Op.EQ, 1);
+        Assert.assertNull(sc.getSingleId());
+
+        sc = new SearchBuilder<DbTestVO>(DbTestVO.class).create();
+        sc.addAnd("id", SearchCriteria.Op.IN, 5L, 6L);
+        Assert.assertNull(sc.getSingleId());
+    }
+}
@@ -0,0 +1,137 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.cloud.utils.exception.CloudRuntimeException;
+
+public class GenericDaoBaseBatchTest {
+    private DbTestDao dao;
+    private Connection conn;
+    private PreparedStatement pstmt;
+    private TransactionLegacy txn;
+
+    @Before
+    public void setUp() throws Exception {
+        dao = new DbTestDao();
+        conn = Mockito.mock(Connection.class);
+        pstmt = Mockito.mock(PreparedStatement.class);
+        Mockito.when(conn.prepareStatement(Mockito.anyString(), Mockito.anyInt())).thenReturn(pstmt);
+        Mockito.when(conn.prepareStatement(Mockito.anyString())).thenReturn(pstmt);
+
+        txn = TransactionLegacy.open("GenericDaoBaseBatchTest");
+        txn.transitToUserManagedConnection(conn);
+    }
+
+    @After
+    public void tearDown() {
+        txn.close();
+    }
+
+    @Test
+    public void testPersistBatchSetsGeneratedIds() throws Exception {
+        final ResultSet keys = Mockito.mock(ResultSet.class);
+        Mockito.when(keys.next()).thenReturn(true, true, true, false);
+        Mockito.when(keys.getObject(1)).thenReturn(11L, 12L, 13L);
+        Mockito.when(pstmt.getGeneratedKeys()).thenReturn(keys);
+        Mockito.when(pstmt.executeBatch()).thenReturn(new int[] {1, 1, 1});
+
+        final List<DbTestVO> entities = new ArrayList<DbTestVO>();
+        for (int i = 0; i < 3; i++) {
+            entities.add(new DbTestVO());
+        }
+        dao.persistBatch(entities);
+
+        // One round trip for the whole batch instead of one per entity
+        Mockito.verify(conn, Mockito.times(1)).prepareStatement(Mockito.startsWith("INSERT INTO test"), Mockito.eq(Statement.RETURN_GENERATED_KEYS));
+        Mockito.verify(pstmt, Mockito.times(3)).addBatch();
+        Mockito.verify(pstmt, Mockito.times(1)).executeBatch();
+        Mockito.verify(pstmt, Mockito.never()).executeUpdate();
+        Assert.assertEquals(11L, entities.get(0).id);
+        Assert.assertEquals(13L, entities.get(2).id);
+    }
+
+    @Test(expected = CloudRuntimeException.class)
+    public void testPersistBatchFailsOnMissingGeneratedIds() throws Exception {
+        final ResultSet keys = Mockito.mock(ResultSet.class);
+        Mockito.when(keys.next()).thenReturn(true, false);
+        Mockito.when(keys.getObject(1)).thenReturn(11L);
+        Mockito.when(pstmt.getGeneratedKeys()).thenReturn(keys);
+        Mockito.when(pstmt.executeBatch()).thenReturn(new int[] {Statement.SUCCESS_NO_INFO, Statement.SUCCESS_NO_INFO});
+
+        final List<DbTestVO> entities = new ArrayList<DbTestVO>();
+        for (int i = 0; i < 2; i++) {
+            entities.add(new DbTestVO());
+        }
+        dao.persistBatch(entities);
+    }
+
+    @Test
+    public void testPersistBatchSplitsLargeLists() throws Exception {
+        final ResultSet keys = Mockito.mock(ResultSet.class);
+        Mockito.when(keys.next()).thenReturn(true);
+        Mockito.when(keys.getObject(1)).thenReturn(1L);
+        Mockito.when(pstmt.getGeneratedKeys()).thenReturn(keys);
+        Mockito.when(pstmt.executeBatch()).thenReturn(new int[0]);
+
+        final List<DbTestVO> entities = new ArrayList<DbTestVO>();
+        for (int i = 0; i < GenericDaoBase.BATCH_SIZE + 1; i++) {
+            entities.add(new DbTestVO());
+        }
+        dao.persistBatch(entities);
+
+        Mockito.verify(pstmt, Mockito.times(GenericDaoBase.BATCH_SIZE + 1)).addBatch();
+        Mockito.verify(pstmt, Mockito.times(2)).executeBatch();
+    }
+
+    @Test
+    public void testUpdateBatchGroupsByChangedColumns() throws Exception {
+        Mockito.when(pstmt.executeBatch()).thenReturn(new int[] {1, 1}, new int[] {1});
+
+        final List<DbTestVO> entities = new ArrayList<DbTestVO>();
+        for (long id = 1; id <= 3; id++) {
+            final DbTestVO vo = dao.createForUpdate(id);
+            if (id < 3) {
+                dao.getUpdateBuilder(vo).set(vo, "fieldInt", (int)id);
+            } else {
+                dao.getUpdateBuilder(vo).set(vo, "fieldString", "three");
+            }
+            entities.add(vo);
+        }
+        // No changes, so nothing to send
+        entities.add(dao.createForUpdate(4L));
+
+        Assert.assertEquals(3, dao.updateBatch(entities));
+        Mockito.verify(conn, Mockito.times(2)).prepareStatement(Mockito.startsWith("UPDATE test"));
+        Mockito.verify(pstmt, Mockito.times(3)).addBatch();
+        Mockito.verify(pstmt, Mockito.times(2)).executeBatch();
+        Mockito.verify(pstmt, Mockito.never()).executeUpdate();
+        Assert.assertFalse(dao.getUpdateBuilder(entities.get(0)).hasChanges());
+    }
+}
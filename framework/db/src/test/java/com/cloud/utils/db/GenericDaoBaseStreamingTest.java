@@ -0,0 +1,156 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+import javax.persistence.CollectionTable;
+import javax.persistence.Column;
+import javax.persistence.ElementCollection;
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.Table;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class GenericDaoBaseStreamingTest {
+    private DbTestDao dao;
+    private Connection conn;
+    private PreparedStatement pstmt;
+    private ResultSet rs;
+    private TransactionLegacy txn;
+
+    @Before
+    public void setUp() throws Exception {
+        dao = new DbTestDao();
+        conn = Mockito.mock(Connection.class);
+        pstmt = Mockito.mock(PreparedStatement.class);
+        rs = Mockito.mock(ResultSet.class);
+        final ResultSetMetaData meta = Mockito.mock(ResultSetMetaData.class);
+        Mockito.when(conn.prepareStatement(Mockito.anyString(), Mockito.eq(ResultSet.TYPE_FORWARD_ONLY), Mockito.eq(ResultSet.CONCUR_READ_ONLY))).thenReturn(pstmt);
+        Mockito.when(pstmt.executeQuery()).thenReturn(rs);
+        Mockito.when(rs.getMetaData()).thenReturn(meta);
+        Mockito.when(meta.getColumnCount()).thenReturn(1);
+        Mockito.when(meta.getTableName(1)).thenReturn("test");
+        Mockito.when(meta.getColumnName(1)).thenReturn("id");
+        Mockito.when(rs.getLong(1)).thenReturn(1L, 2L, 3L);
+        Mockito.when(rs.next()).thenReturn(true, true, true, false);
+
+        txn = TransactionLegacy.open("GenericDaoBaseStreamingTest");
+        txn.transitToUserManagedConnection(conn);
+    }
+
+    @After
+    public void tearDown() {
+        txn.close();
+    }
+
+    @Test
+    public void testForEachStreamsRows() throws Exception {
+        final SearchCriteria<DbTestVO> sc = dao.createSearchCriteria();
+        sc.addAnd("fieldInt", SearchCriteria.Op.EQ, 5);
+
+        final List<Long> ids = new ArrayList<Long>();
+        dao.forEach(sc, null, new Consumer<DbTestVO>() {
+            @Override
+            public void accept(DbTestVO vo) {
+                ids.add(vo.id);
+            }
+        });
+
+        Assert.assertEquals(3, ids.size());
+        Assert.assertEquals(Long.valueOf(3L), ids.get(2));
+        Mockito.verify(pstmt).setFetchSize(Integer.MIN_VALUE);
+        Mockito.verify(conn, Mockito.never()).prepareStatement(Mockito.anyString());
+        // The statement has to be released before the connection can be used again
+        Mockito.verify(rs).close();
+        Mockito.verify(pstmt).close();
+    }
+
+    @Test
+    public void testForEachReadsElementCollectionsOutsideTheStream() throws Exception {
+        final PreparedStatement searchPstmt = Mockito.mock(PreparedStatement.class);
+        final ResultSet searchRs = Mockito.mock(ResultSet.class);
+        final ResultSetMetaData meta = Mockito.mock(ResultSetMetaData.class);
+        Mockito.when(searchPstmt.executeQuery()).thenReturn(searchRs);
+        Mockito.when(searchRs.getMetaData()).thenReturn(meta);
+        Mockito.when(meta.getColumnCount()).thenReturn(1);
+        Mockito.when(meta.getTableName(1)).thenReturn("tagged");
+        Mockito.when(meta.getColumnName(1)).thenReturn("id");
+        Mockito.when(searchRs.getLong(1)).thenReturn(1L, 2L);
+        Mockito.when(searchRs.next()).thenReturn(true, true, false);
+
+        final PreparedStatement tagPstmt = Mockito.mock(PreparedStatement.class);
+        final ResultSet tagRs = Mockito.mock(ResultSet.class);
+        Mockito.when(tagPstmt.executeQuery()).thenReturn(tagRs);
+        Mockito.when(tagRs.next()).thenReturn(true, false, true, true, false);
+        Mockito.when(tagRs.getString(1)).thenReturn("a", "b", "c");
+
+        Mockito.when(conn.prepareStatement(Mockito.anyString())).thenAnswer(new Answer<PreparedStatement>() {
+            @Override
+            public PreparedStatement answer(InvocationOnMock invocation) {
+                return ((String)invocation.getArguments()[0]).contains("tagged_tags") ? tagPstmt : searchPstmt;
+            }
+        });
+
+        final List<List<String>> tags = new ArrayList<List<String>>();
+        new TaggedDao().forEachIncludingRemoved(null, null, new Consumer<TaggedVO>() {
+            @Override
+            public void accept(TaggedVO vo) {
+                tags.add(vo.tags);
+            }
+        });
+
+        Assert.assertEquals(Arrays.asList(Arrays.asList("a"), Arrays.asList("b", "c")), tags);
+        Mockito.verify(conn, Mockito.never()).prepareStatement(Mockito.anyString(), Mockito.anyInt(), Mockito.anyInt());
+        Mockito.verify(pstmt, Mockito.never()).setFetchSize(Mockito.anyInt());
+    }
+
+    @Entity
+    @Table(name = "tagged")
+    public static class TaggedVO {
+        @Id
+        @Column(name = "id")
+        long id;
+
+        @ElementCollection(targetClass = String.class, fetch = FetchType.EAGER)
+        @Column(name = "tag")
+        @CollectionTable(name = "tagged_tags", joinColumns = @JoinColumn(name = "tagged_id"))
+        List<String> tags;
+
+        public TaggedVO() {
+        }
+    }
+
+    public static class TaggedDao extends GenericDaoBase<TaggedVO, Long> {
+    }
+}
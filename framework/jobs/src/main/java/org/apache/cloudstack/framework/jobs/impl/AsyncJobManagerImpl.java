@@ -24,6 +24,8 @@ import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
@@ -107,6 +109,9 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
             Integer.class, "vm.job.lock.timeout", "1800",
             "Time in seconds to wait in acquiring lock to submit a vm worker job", false);
     private static final ConfigKey<Boolean> HidePassword = new ConfigKey<Boolean>("Advanced", Boolean.class, "log.hide.password", "true", "If set to true, the password is hidden", true, ConfigKey.Scope.Global);
+    private static final ConfigKey<Integer> SyncQueueScanInterval = new ConfigKey<Integer>("Advanced", Integer.class, "job.sync.queue.scan.interval", "2",
+            "Time (in seconds) between scans of the sync queues for items that were not dispatched when they were queued, e.g. after a management server failover",
+            true);
 
     private static final Logger s_logger = Logger.getLogger(AsyncJobManagerImpl.class);
 
@@ -152,6 +157,11 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
     private volatile long _executionRunNumber = 1;
 
     private final ScheduledExecutorService _heartbeatScheduler = Executors.newScheduledThreadPool(1, new NamedThreadFactory("AsyncJobMgr-Heartbeat"));
+    private final ExecutorService _queueDispatcher = Executors.newSingleThreadExecutor(new NamedThreadFactory("AsyncJobMgr-Dispatcher"));
+    // queues with a pending dispatch, so a burst of signals for a queue results in one check
+    private final Set<Long> _readyQueues = ConcurrentHashMap.newKeySet();
+    private final JobDispatchLatencyMBeanImpl _dispatchLatency = new JobDispatchLatencyMBeanImpl();
+    private volatile long _lastQueueScan;
     private ExecutorService _apiJobExecutor;
     private ExecutorService _workerJobExecutor;
 
@@ -162,7 +172,7 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
 
     @Override
     public ConfigKey<?>[] getConfigKeys() {
-        return new ConfigKey<?>[] {JobExpireMinutes, JobCancelThresholdMinutes, VmJobLockTimeout, HidePassword};
+        return new ConfigKey<?>[] {JobExpireMinutes, JobCancelThresholdMinutes, VmJobLockTimeout, HidePassword, SyncQueueScanInterval};
     }
 
     @Override
@@ -257,6 +267,7 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
     @Override
     @DB
     public void completeAsyncJob(final long jobId, final Status jobStatus, final int resultCode, final String resultObject) {
+        _dispatchLatency.jobDone(jobId);
         String resultObj = null;
         if (s_logger.isDebugEnabled()) {
             resultObj = convertHumanReadableJson(obfuscatePassword(resultObject, HidePassword.value()));
@@ -458,10 +469,13 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
             s_logger.debug("Sync job-" + job.getId() + " execution on object " + syncObjType + "." + syncObjId);
         }
 
+        _dispatchLatency.jobQueued(job.getId());
         SyncQueueVO queue = null;
         queue = _queueMgr.queue(syncObjType, syncObjId, SyncQueueItem.AsyncJobContentType, job.getId(), queueSizeLimit);
-        if (queue == null)
+        if (queue == null) {
+            _dispatchLatency.jobDone(job.getId());
             throw new CloudRuntimeException("Unable to insert queue item into database, DB is full?");
+        }
     }
 
     @Override
@@ -574,6 +588,7 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
             @Override
             protected void runInContext() {
                 long runNumber = getJobRunNumber();
+                _dispatchLatency.jobStarted(job.getId());
 
                 try {
                     //
@@ -806,6 +821,34 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
         }
     }
 
+    private void wakeupQueue(final long queueId) {
+        if (!_readyQueues.add(queueId)) {
+            return;
+        }
+        try {
+            _queueDispatcher.submit(new ManagedContextRunnable() {
+                @Override
+                protected void runInContext() {
+                    // signals arriving from here on need another check
+                    _readyQueues.remove(queueId);
+                    checkQueue(queueId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            _readyQueues.remove(queueId);
+            s_logger.debug("Dispatcher is shut down, sync queue-" + queueId + " is left to the next scan");
+        }
+    }
+
+    private boolean isQueueScanDue() {
+        long now = System.currentTimeMillis();
+        if (now - _lastQueueScan < SyncQueueScanInterval.value() * 1000L) {
+            return false;
+        }
+        _lastQueueScan = now;
+        return true;
+    }
+
     private Runnable getHeartbeatTask() {
         return new ManagedContextRunnable() {
 
@@ -827,13 +870,17 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
 
             protected void reallyRun() {
                 try {
-                    List<SyncQueueItemVO> l = _queueMgr.dequeueFromAny(getMsid(), MAX_ONETIME_SCHEDULE_SIZE);
-                    if (l != null && l.size() > 0) {
-                        for (SyncQueueItemVO item : l) {
-                            if (s_logger.isDebugEnabled()) {
-                                s_logger.debug("Execute sync-queue item: " + item.toString());
+                    // queue items are normally dispatched as soon as they are queued or a queue slot frees up,
+                    // the scan only picks up what was left behind by a failed over management server
+                    if (isQueueScanDue()) {
+                        List<SyncQueueItemVO> l = _queueMgr.dequeueFromAny(getMsid(), MAX_ONETIME_SCHEDULE_SIZE);
+                        if (l != null && l.size() > 0) {
+                            for (SyncQueueItemVO item : l) {
+                                if (s_logger.isDebugEnabled()) {
+                                    s_logger.debug("Execute sync-queue item: " + item.toString());
+                                }
+                                executeQueueItem(item, false);
                             }
-                            executeQueueItem(item, false);
                         }
                     }
 
@@ -1056,6 +1103,19 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
         AsyncJobExecutionContext.init(this, _joinMapDao);
         OutcomeImpl.init(this);
 
+        _queueMgr.registerListener(new SyncQueueListener() {
+            @Override
+            public void onQueueReady(long queueId) {
+                wakeupQueue(queueId);
+            }
+        });
+
+        try {
+            JmxUtil.registerMBean("AsyncJobManager", "Dispatch Latency", _dispatchLatency);
+        } catch (Exception e) {
+            s_logger.warn("Unable to register job dispatch latency to JMX monitoring due to exception " + ExceptionUtil.toString(e));
+        }
+
         return true;
     }
 
@@ -1139,6 +1199,7 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
     @Override
     public boolean stop() {
         _heartbeatScheduler.shutdown();
+        _queueDispatcher.shutdown();
         _apiJobExecutor.shutdown();
         _workerJobExecutor.shutdown();
         return true;
@@ -0,0 +1,163 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.framework.jobs.impl;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.StandardMBean;
+
+import org.apache.cloudstack.framework.jobs.JobDispatchLatencyMBean;
+
+/**
+ * Keeps a histogram of the time between a job being put on a sync queue
+ * and the job starting to execute on this management server.
+ *
+ * Jobs that never start here, because they are cancelled, cleaned up after
+ * a restart or picked up by another management server, are forgotten once
+ * they have been pending for {@link #MAX_PENDING_MILLIS}, and at most
+ * {@link #MAX_PENDING} jobs are followed at a time.
+ */
+public class JobDispatchLatencyMBeanImpl extends StandardMBean implements JobDispatchLatencyMBean {
+    // upper bounds of the buckets in milliseconds, the last bucket takes the rest
+    static final long[] BUCKET_BOUNDS = new long[] {1, 5, 10, 50, 100, 500, 1000, 2000, 5000, 10000};
+    static final int MAX_PENDING = 10000;
+    static final long MAX_PENDING_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final long EXPIRE_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final Map<Long, Long> _enqueueTimes = new ConcurrentHashMap<Long, Long>();
+    private final AtomicLongArray _buckets = new AtomicLongArray(BUCKET_BOUNDS.length + 1);
+    private final AtomicLong _count = new AtomicLong();
+    private final AtomicLong _totalMillis = new AtomicLong();
+    private final AtomicLong _maxMillis = new AtomicLong();
+    private final AtomicLong _lastExpire = new AtomicLong(System.nanoTime());
+
+    public JobDispatchLatencyMBeanImpl() {
+        super(JobDispatchLatencyMBean.class, false);
+    }
+
+    public void jobQueued(long jobId) {
+        jobQueued(jobId, System.nanoTime());
+    }
+
+    void jobQueued(long jobId, long now) {
+        long last = _lastExpire.get();
+        if ((now - last >= EXPIRE_INTERVAL_NANOS || _enqueueTimes.size() >= MAX_PENDING) && _lastExpire.compareAndSet(last, now)) {
+            expire(now - TimeUnit.MILLISECONDS.toNanos(MAX_PENDING_MILLIS));
+        }
+        if (_enqueueTimes.size() < MAX_PENDING) {
+            _enqueueTimes.put(jobId, now);
+        }
+    }
+
+    private void expire(long queuedBefore) {
+        Iterator<Long> it = _enqueueTimes.values().iterator();
+        while (it.hasNext()) {
+            if (it.next() - queuedBefore < 0) {
+                it.remove();
+            }
+        }
+    }
+
+    public void jobStarted(long jobId) {
+        Long queued = _enqueueTimes.remove(jobId);
+        if (queued != null) {
+            record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - queued));
+        }
+    }
+
+    public void jobDone(long jobId) {
+        _enqueueTimes.remove(jobId);
+    }
+
+    void record(long millis) {
+        int bucket = 0;
+        while (bucket < BUCKET_BOUNDS.length && millis > BUCKET_BOUNDS[bucket]) {
+            bucket++;
+        }
+        _buckets.incrementAndGet(bucket);
+        _count.incrementAndGet();
+        _totalMillis.addAndGet(millis);
+
+        long max = _maxMillis.get();
+        while (millis > max && !_maxMillis.compareAndSet(max, millis)) {
+            max = _maxMillis.get();
+        }
+    }
+
+    @Override
+    public long getDispatchedJobs() {
+        return _count.get();
+    }
+
+    @Override
+    public long getPendingJobs() {
+        return _enqueueTimes.size();
+    }
+
+    @Override
+    public double getAverageMillis() {
+        long count = _count.get();
+        return count == 0 ? 0 : (double)_totalMillis.get() / count;
+    }
+
+    @Override
+    public long getMaxMillis() {
+        return _maxMillis.get();
+    }
+
+    @Override
+    public long getPercentile95Millis() {
+        long count = _count.get();
+        if (count == 0) {
+            return 0;
+        }
+        long threshold = (long)Math.ceil(count * 0.95);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+            seen += _buckets.get(i);
+            if (seen >= threshold) {
+                return BUCKET_BOUNDS[i];
+            }
+        }
+        return _maxMillis.get();
+    }
+
+    @Override
+    public String getHistogram() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+            sb.append("<=").append(BUCKET_BOUNDS[i]).append("ms: ").append(_buckets.get(i)).append(", ");
+        }
+        sb.append(">").append(BUCKET_BOUNDS[BUCKET_BOUNDS.length - 1]).append("ms: ").append(_buckets.get(BUCKET_BOUNDS.length));
+        return sb.toString();
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < _buckets.length(); i++) {
+            _buckets.set(i, 0);
+        }
+        _count.set(0);
+        _totalMillis.set(0);
+        _maxMillis.set(0);
+    }
+}
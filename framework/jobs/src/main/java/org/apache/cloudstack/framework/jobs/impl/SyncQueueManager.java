@@ -38,4 +38,6 @@ public interface SyncQueueManager extends Manager {
     void purgeAsyncJobQueueItemId(long asyncJobId);
 
     public void cleanupActiveQueueItems(Long msid, boolean exclusive);
+
+    void registerListener(SyncQueueListener listener);
 }
@@ -19,6 +19,7 @@ package org.apache.cloudstack.framework.jobs.impl;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import javax.inject.Inject;
 
@@ -32,6 +33,7 @@ import com.cloud.utils.db.DB;
 import com.cloud.utils.db.Transaction;
 import com.cloud.utils.db.TransactionCallback;
 import com.cloud.utils.db.TransactionCallbackNoReturn;
+import com.cloud.utils.db.TransactionLegacy;
 import com.cloud.utils.db.TransactionStatus;
 import com.cloud.utils.exception.CloudRuntimeException;
 
@@ -43,6 +45,8 @@ public class SyncQueueManagerImpl extends ManagerBase implements SyncQueueManage
     @Inject
     private SyncQueueItemDao _syncQueueItemDao;
 
+    private final List<SyncQueueListener> _listeners = new CopyOnWriteArrayList<SyncQueueListener>();
+
     @Override
     @DB
     public SyncQueueVO queue(final String syncObjType, final long syncObjId, final String itemType, final long itemId, final long queueSizeLimit) {
@@ -66,6 +70,7 @@ public class SyncQueueManagerImpl extends ManagerBase implements SyncQueueManage
                     item.setCreated(dt);
 
                     _syncQueueItemDao.persist(item);
+                    notifyQueueReady(queueVO.getId());
                     return queueVO;
                 }
             });
@@ -195,6 +200,7 @@ public class SyncQueueManagerImpl extends ManagerBase implements SyncQueueManage
                             assert (queueVO.getQueueSize() > 0) : "Count reduce happens when it's already <= 0!";
                             queueVO.setQueueSize(queueVO.getQueueSize() - 1);
                             _syncQueueDao.update(queueVO.getId(), queueVO);
+                            notifyQueueReady(queueVO.getId());
                         }
                     }
                 }
@@ -224,6 +230,7 @@ public class SyncQueueManagerImpl extends ManagerBase implements SyncQueueManage
                         queueVO.setQueueSize(queueVO.getQueueSize() - 1);
                         queueVO.setLastUpdated(DateUtil.currentGMTTime());
                         _syncQueueDao.update(queueVO.getId(), queueVO);
+                        notifyQueueReady(queueVO.getId());
                     }
                 }
             });
@@ -242,6 +249,26 @@ public class SyncQueueManagerImpl extends ManagerBase implements SyncQueueManage
         return _syncQueueItemDao.getBlockedQueueItems(thresholdMs, exclusive);
     }
 
+    @Override
+    public void registerListener(SyncQueueListener listener) {
+        _listeners.add(listener);
+    }
+
+    private void notifyQueueReady(final long queueId) {
+        if (_listeners.isEmpty()) {
+            return;
+        }
+        // listeners dequeue in their own transaction, so they have to see the change
+        TransactionLegacy.currentTxn().afterCommit(new Runnable() {
+            @Override
+            public void run() {
+                for (SyncQueueListener listener : _listeners) {
+                    listener.onQueueReady(queueId);
+                }
+            }
+        });
+    }
+
     private boolean queueReadyToProcess(SyncQueueVO queueVO) {
         int nActiveItems = _syncQueueItemDao.getActiveQueueItemCount(queueVO.getId());
         if (nActiveItems < queueVO.getQueueSizeLimit())
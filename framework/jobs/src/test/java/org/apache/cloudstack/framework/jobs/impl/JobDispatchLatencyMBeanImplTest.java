@@ -0,0 +1,97 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.framework.jobs.impl;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class JobDispatchLatencyMBeanImplTest {
+
+    @Test
+    public void testStartedJobIsRecorded() {
+        JobDispatchLatencyMBeanImpl latency = new JobDispatchLatencyMBeanImpl();
+        latency.jobQueued(1L);
+        Assert.assertEquals(1, latency.getPendingJobs());
+
+        latency.jobStarted(1L);
+        Assert.assertEquals(0, latency.getPendingJobs());
+        Assert.assertEquals(1, latency.getDispatchedJobs());
+        Assert.assertTrue(latency.getHistogram().startsWith("<=1ms: 1,"));
+
+        // a job started without being queued here, e.g. after a failover, is not counted
+        latency.jobStarted(2L);
+        Assert.assertEquals(1, latency.getDispatchedJobs());
+    }
+
+    @Test
+    public void testCompletedJobIsForgotten() {
+        JobDispatchLatencyMBeanImpl latency = new JobDispatchLatencyMBeanImpl();
+        latency.jobQueued(1L);
+        latency.jobDone(1L);
+        latency.jobStarted(1L);
+        Assert.assertEquals(0, latency.getPendingJobs());
+        Assert.assertEquals(0, latency.getDispatchedJobs());
+    }
+
+    @Test
+    public void testJobsThatNeverStartAreExpired() {
+        JobDispatchLatencyMBeanImpl latency = new JobDispatchLatencyMBeanImpl();
+        long now = System.nanoTime();
+        latency.jobQueued(1L, now);
+        latency.jobQueued(2L, now + TimeUnit.MINUTES.toNanos(30));
+        Assert.assertEquals(2, latency.getPendingJobs());
+
+        latency.jobQueued(3L, now + TimeUnit.MILLISECONDS.toNanos(JobDispatchLatencyMBeanImpl.MAX_PENDING_MILLIS) + TimeUnit.MINUTES.toNanos(1));
+        Assert.assertEquals(2, latency.getPendingJobs());
+        latency.jobStarted(1L);
+        Assert.assertEquals(0, latency.getDispatchedJobs());
+    }
+
+    @Test
+    public void testPendingJobsAreBounded() {
+        JobDispatchLatencyMBeanImpl latency = new JobDispatchLatencyMBeanImpl();
+        long now = System.nanoTime();
+        for (long jobId = 0; jobId < JobDispatchLatencyMBeanImpl.MAX_PENDING + 10; jobId++) {
+            latency.jobQueued(jobId, now);
+        }
+        Assert.assertEquals(JobDispatchLatencyMBeanImpl.MAX_PENDING, latency.getPendingJobs());
+    }
+
+    @Test
+    public void testStatistics() {
+        JobDispatchLatencyMBeanImpl latency = new JobDispatchLatencyMBeanImpl();
+        for (int i = 0; i < 19; i++) {
+            latency.record(3);
+        }
+        latency.record(1500);
+
+        Assert.assertEquals(20, latency.getDispatchedJobs());
+        Assert.assertEquals(1500, latency.getMaxMillis());
+        Assert.assertEquals((19 * 3 + 1500) / 20.0, latency.getAverageMillis(), 0.001);
+        Assert.assertEquals(5, latency.getPercentile95Millis());
+
+        latency.record(20000);
+        Assert.assertTrue(latency.getHistogram().endsWith(">10000ms: 1"));
+        Assert.assertEquals(2000, latency.getPercentile95Millis());
+
+        latency.reset();
+        Assert.assertEquals(0, latency.getDispatchedJobs());
+        Assert.assertEquals(0, latency.getPercentile95Millis());
+    }
+}
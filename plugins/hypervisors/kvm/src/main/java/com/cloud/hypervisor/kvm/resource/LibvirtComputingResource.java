@@ -89,6 +89,7 @@ import com.cloud.agent.api.HostVmStateReportEntry;
 import com.cloud.agent.api.PingCommand;
 import com.cloud.agent.api.PingRoutingCommand;
 import com.cloud.agent.api.PingRoutingWithNwGroupsCommand;
+import com.cloud.agent.api.SecurityGroupMembersCmd;
 import com.cloud.agent.api.SecurityGroupRulesCmd;
 import com.cloud.agent.api.SetupGuestNetworkCommand;
 import com.cloud.agent.api.StartupCommand;
@@ -3996,6 +3997,14 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
 
     public boolean addNetworkRules(final String vmName, final String vmId, final String guestIP, final String guestIP6, final String sig, final String seq, final String mac, final String rules, final String vif, final String brname,
                                    final String secIps) {
+        return addNetworkRules(vmName, vmId, guestIP, guestIP6, sig, seq, mac, rules, vif, brname, secIps, null);
+    }
+
+    /**
+     * @param groupMembers members of the security groups referenced by the rules, see {@link SecurityGroupRulesCmd#stringifyGroupMembers()}
+     */
+    public boolean addNetworkRules(final String vmName, final String vmId, final String guestIP, final String guestIP6, final String sig, final String seq, final String mac, final String rules, final String vif, final String brname,
+                                   final String secIps, final String groupMembers) {
         if (!_canBridgeFirewall) {
             return false;
         }
@@ -4018,6 +4027,29 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
         if (newRules != null && !newRules.isEmpty()) {
             cmd.add("--rules", newRules);
         }
+        if (StringUtils.isNotBlank(groupMembers)) {
+            cmd.add("--groupmembers", groupMembers);
+        }
+        final String result = cmd.execute();
+        if (result != null) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Adds and removes addresses of the security group sets on this host.
+     *
+     * @param members see {@link SecurityGroupMembersCmd#stringifyMembers()}
+     */
+    public boolean updateSecurityGroupMembers(final String members) {
+        if (!_canBridgeFirewall) {
+            return false;
+        }
+
+        final Script cmd = new Script(_securityGroupPath, _timeout, s_logger);
+        cmd.add("update_group_members");
+        cmd.add("--groupmembers", members);
         final String result = cmd.execute();
         if (result != null) {
             return false;
@@ -0,0 +1,48 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+
+package com.cloud.hypervisor.kvm.resource.wrapper;
+
+import org.apache.log4j.Logger;
+
+import com.cloud.agent.api.Answer;
+import com.cloud.agent.api.SecurityGroupMembersCmd;
+import com.cloud.hypervisor.kvm.resource.LibvirtComputingResource;
+import com.cloud.resource.CommandWrapper;
+import com.cloud.resource.ResourceWrapper;
+
+@ResourceWrapper(handles =  SecurityGroupMembersCmd.class)
+public final class LibvirtSecurityGroupMembersCommandWrapper extends CommandWrapper<SecurityGroupMembersCmd, Answer, LibvirtComputingResource> {
+
+    private static final Logger s_logger = Logger.getLogger(LibvirtSecurityGroupMembersCommandWrapper.class);
+
+    @Override
+    public Answer execute(final SecurityGroupMembersCmd command, final LibvirtComputingResource libvirtComputingResource) {
+        final String members = command.stringifyMembers();
+        if (!libvirtComputingResource.updateSecurityGroupMembers(members)) {
+            s_logger.warn("Failed to update the members of security groups " + members);
+            return new Answer(command, false, "updating security group members failed");
+        }
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Updated the members of " + command.getGroups().size() + " security groups");
+        }
+        return new Answer(command);
+    }
+}
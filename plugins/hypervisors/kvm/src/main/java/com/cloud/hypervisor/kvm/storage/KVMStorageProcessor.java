@@ -26,6 +26,8 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.text.DateFormat;
 import java.text.MessageFormat;
 import java.text.SimpleDateFormat;
@@ -133,6 +135,7 @@ public class KVMStorageProcessor implements StorageProcessor {
     private String _createTmplPath;
     private String _manageSnapshotPath;
     private int _cmdsTimeout;
+    private int _directDownloadSegments = 1;
 
     private static final String MANAGE_SNAPSTHOT_CREATE_OPTION = "-c";
     private static final String MANAGE_SNAPSTHOT_DESTROY_OPTION = "-d";
@@ -172,6 +175,8 @@ public class KVMStorageProcessor implements StorageProcessor {
 
         final String value = (String)params.get("cmds.timeout");
         _cmdsTimeout = NumbersUtil.parseInt(value, 7200) * 1000;
+
+        _directDownloadSegments = NumbersUtil.parseInt((String)params.get("direct.download.segments"), 1);
         return true;
     }
 
@@ -1006,6 +1011,16 @@ public class KVMStorageProcessor implements StorageProcessor {
             }
 
             final SnapshotObjectTO newSnapshot = new SnapshotObjectTO();
+            final String parentBackupName = getParentBackupName(cmd, destSnapshot, snapshotDestPath);
+            if (parentBackupName != null) {
+                try {
+                    size = convertToDeltaBackup(new QemuImg(cmd.getWaitInMillSeconds()), snapshotDestPath, descName, parentBackupName);
+                    newSnapshot.setParentSnapshotPath(destSnapshot.getParentSnapshotPath());
+                    s_logger.debug("Stored the backup of snapshot " + descName + " as a delta of " + parentBackupName + ", size: " + toHumanReadableSize(size));
+                } catch (final QemuImgException | IOException e) {
+                    s_logger.warn("Failed to turn the backup of snapshot " + descName + " into a delta of " + parentBackupName + ", keeping the full backup: " + e.getMessage());
+                }
+            }
             newSnapshot.setPath(snapshotRelPath + File.separator + descName);
             newSnapshot.setPhysicalSize(size);
             return new CopyCmdAnswer(newSnapshot);
@@ -1074,6 +1089,54 @@ public class KVMStorageProcessor implements StorageProcessor {
         }
     }
 
+    /**
+     * @return the file name of the backup of the parent snapshot, when the management server asked for an
+     *         incremental backup and that backup sits next to the new one, null for a full backup
+     */
+    protected String getParentBackupName(final CopyCommand cmd, final SnapshotObjectTO destSnapshot, final String snapshotDestPath) {
+        final Map<String, String> options = cmd.getOptions();
+        if (options == null || !"false".equalsIgnoreCase(options.get("fullSnapshot"))) {
+            return null;
+        }
+        final String parentPath = destSnapshot.getParentSnapshotPath();
+        if (parentPath == null) {
+            return null;
+        }
+
+        final int index = parentPath.lastIndexOf("/");
+        final String parentBackupName = parentPath.substring(index + 1);
+        // the delta refers to its parent by a relative name, see convertToDeltaBackup
+        if (index == -1 || !parentPath.substring(0, index).equals(destSnapshot.getPath()) || !new File(snapshotDestPath, parentBackupName).exists()) {
+            s_logger.debug("Backup " + parentPath + " of the parent snapshot isn't next to the new backup, taking a full backup");
+            return null;
+        }
+        return parentBackupName;
+    }
+
+    /**
+     * Replaces the full qcow2 backup of a snapshot by an image holding only the clusters which differ from
+     * the backup of its parent, which becomes its backing file. A temporary overlay of the full backup is
+     * rebased onto the parent: 'qemu-img rebase' compares both and copies in every cluster that changed.
+     *
+     * @return the size of the delta
+     */
+    protected long convertToDeltaBackup(final QemuImg qemu, final String snapshotDestPath, final String backupName, final String parentBackupName)
+            throws QemuImgException, IOException {
+        final File fullBackup = new File(snapshotDestPath, backupName);
+        final File deltaBackup = new File(snapshotDestPath, backupName + ".delta");
+        try {
+            final QemuImgFile delta = new QemuImgFile(deltaBackup.getAbsolutePath(), PhysicalDiskFormat.QCOW2);
+            qemu.create(delta, new QemuImgFile(fullBackup.getAbsolutePath(), PhysicalDiskFormat.QCOW2));
+            qemu.rebase(delta, new QemuImgFile(new File(snapshotDestPath, parentBackupName).getAbsolutePath(), PhysicalDiskFormat.QCOW2), null, true);
+            // store the backing file relative to the delta, the hosts mount the secondary storage at different places
+            qemu.rebase(delta, new QemuImgFile(parentBackupName, PhysicalDiskFormat.QCOW2), null, false);
+            Files.move(deltaBackup.toPath(), fullBackup.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(deltaBackup.toPath());
+        }
+        return fullBackup.length();
+    }
+
     private void deleteSnapshotViaManageSnapshotScript(final String snapshotName, KVMPhysicalDisk snapshotDisk) {
         final Script command = new Script(_manageSnapshotPath, _cmdsTimeout, s_logger);
         command.add(MANAGE_SNAPSTHOT_DESTROY_OPTION, snapshotDisk.getPath());
@@ -1752,8 +1815,10 @@ public class KVMStorageProcessor implements StorageProcessor {
                                                                             KVMStoragePool destPool,
                                                                             String temporaryDownloadPath) {
         if (cmd instanceof HttpDirectDownloadCommand) {
-            return new HttpDirectTemplateDownloader(cmd.getUrl(), cmd.getTemplateId(), destPool.getLocalPath(), cmd.getChecksum(), cmd.getHeaders(),
-                    cmd.getConnectTimeout(), cmd.getSoTimeout(), temporaryDownloadPath);
+            HttpDirectTemplateDownloader downloader = new HttpDirectTemplateDownloader(cmd.getUrl(), cmd.getTemplateId(), destPool.getLocalPath(), cmd.getChecksum(),
+                    cmd.getHeaders(), cmd.getConnectTimeout(), cmd.getSoTimeout(), temporaryDownloadPath);
+            downloader.setDownloadSegments(_directDownloadSegments);
+            return downloader;
         } else if (cmd instanceof HttpsDirectDownloadCommand) {
             return new HttpsDirectTemplateDownloader(cmd.getUrl(), cmd.getTemplateId(), destPool.getLocalPath(), cmd.getChecksum(), cmd.getHeaders(),
                     cmd.getConnectTimeout(), cmd.getSoTimeout(), cmd.getConnectionRequestTimeout(), temporaryDownloadPath);
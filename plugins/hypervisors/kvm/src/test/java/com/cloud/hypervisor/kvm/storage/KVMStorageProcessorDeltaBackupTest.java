@@ -0,0 +1,156 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.hypervisor.kvm.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.cloudstack.storage.command.CopyCommand;
+import org.apache.cloudstack.storage.to.SnapshotObjectTO;
+import org.apache.cloudstack.utils.qemu.QemuImg;
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+
+import com.cloud.hypervisor.kvm.resource.LibvirtComputingResource;
+import com.cloud.storage.template.QCOW2Processor;
+import com.cloud.utils.script.Script;
+
+public class KVMStorageProcessorDeltaBackupTest {
+    private static final Logger s_logger = Logger.getLogger(KVMStorageProcessorDeltaBackupTest.class);
+
+    private static final String SNAPSHOT_DIR = "snapshots/2/15";
+    private static final int DISK_SIZE = 16 * 1024 * 1024;
+    private static final int CHANGED_SIZE = 256 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private KVMStorageProcessor storageProcessor;
+    private File snapshotDir;
+
+    @Before
+    public void setUp() throws IOException {
+        storageProcessor = new KVMStorageProcessor(Mockito.mock(KVMStoragePoolManager.class), Mockito.mock(LibvirtComputingResource.class));
+        snapshotDir = folder.newFolder("snapshots", "2", "15");
+    }
+
+    private CopyCommand createCommand(String fullSnapshot) {
+        CopyCommand cmd = Mockito.mock(CopyCommand.class);
+        if (fullSnapshot != null) {
+            Map<String, String> options = new HashMap<String, String>();
+            options.put("fullSnapshot", fullSnapshot);
+            Mockito.when(cmd.getOptions()).thenReturn(options);
+        }
+        return cmd;
+    }
+
+    private SnapshotObjectTO createDestSnapshot(String parentPath) {
+        SnapshotObjectTO destSnapshot = new SnapshotObjectTO();
+        destSnapshot.setPath(SNAPSHOT_DIR);
+        destSnapshot.setParentSnapshotPath(parentPath);
+        return destSnapshot;
+    }
+
+    @Test
+    public void getParentBackupNameTestIncremental() throws IOException {
+        new File(snapshotDir, "parent").createNewFile();
+        Assert.assertEquals("parent", storageProcessor.getParentBackupName(createCommand("false"), createDestSnapshot(SNAPSHOT_DIR + "/parent"), snapshotDir.getPath()));
+    }
+
+    @Test
+    public void getParentBackupNameTestFullBackupRequested() throws IOException {
+        new File(snapshotDir, "parent").createNewFile();
+        Assert.assertNull(storageProcessor.getParentBackupName(createCommand("true"), createDestSnapshot(SNAPSHOT_DIR + "/parent"), snapshotDir.getPath()));
+        Assert.assertNull(storageProcessor.getParentBackupName(createCommand(null), createDestSnapshot(SNAPSHOT_DIR + "/parent"), snapshotDir.getPath()));
+    }
+
+    @Test
+    public void getParentBackupNameTestNoParent() {
+        Assert.assertNull(storageProcessor.getParentBackupName(createCommand("false"), createDestSnapshot(null), snapshotDir.getPath()));
+    }
+
+    @Test
+    public void getParentBackupNameTestParentElsewhere() throws IOException {
+        new File(snapshotDir, "parent").createNewFile();
+        Assert.assertNull(storageProcessor.getParentBackupName(createCommand("false"), createDestSnapshot("snapshots/2/16/parent"), snapshotDir.getPath()));
+        Assert.assertNull(storageProcessor.getParentBackupName(createCommand("false"), createDestSnapshot("parent"), snapshotDir.getPath()));
+    }
+
+    @Test
+    public void getParentBackupNameTestParentMissing() {
+        Assert.assertNull(storageProcessor.getParentBackupName(createCommand("false"), createDestSnapshot(SNAPSHOT_DIR + "/parent"), snapshotDir.getPath()));
+    }
+
+    private void convertToQcow2(File raw, File qcow2) {
+        Script script = new Script("qemu-img", 60000, s_logger);
+        script.add("convert", "-f", "raw", "-O", "qcow2", raw.getAbsolutePath(), qcow2.getAbsolutePath());
+        Assert.assertNull(script.execute());
+    }
+
+    /**
+     * Runs against a local qemu-img, as the file based pools do: backs up a disk, changes a
+     * small part of it and checks the next backup only holds that part and still reads as the
+     * whole disk through its parent.
+     */
+    @Test
+    public void convertToDeltaBackupTest() throws Exception {
+        Assume.assumeTrue("qemu-img is required", Script.runSimpleBashScript("command -v qemu-img") != null);
+
+        File disk = folder.newFile("disk.raw");
+        Random random = new Random(42);
+        byte[] data = new byte[DISK_SIZE];
+        random.nextBytes(data);
+        try (RandomAccessFile file = new RandomAccessFile(disk, "rw")) {
+            file.write(data);
+        }
+        File parent = new File(snapshotDir, "parent");
+        convertToQcow2(disk, parent);
+
+        byte[] changed = new byte[CHANGED_SIZE];
+        random.nextBytes(changed);
+        try (RandomAccessFile file = new RandomAccessFile(disk, "rw")) {
+            file.seek(DISK_SIZE / 2);
+            file.write(changed);
+        }
+        File backup = new File(snapshotDir, "backup");
+        convertToQcow2(disk, backup);
+
+        long size = storageProcessor.convertToDeltaBackup(new QemuImg(60000), snapshotDir.getPath(), "backup", "parent");
+        s_logger.info("full backup: " + parent.length() + " bytes, delta backup: " + size + " bytes");
+
+        Assert.assertEquals(backup.length(), size);
+        Assert.assertTrue(size < parent.length() / 4);
+        Assert.assertTrue(QCOW2Processor.hasBackingFile(backup));
+        Assert.assertFalse(QCOW2Processor.hasBackingFile(parent));
+        Assert.assertFalse(new File(snapshotDir, "backup.delta").exists());
+        Assert.assertEquals("parent", Script.runSimpleBashScript("qemu-img info " + backup.getAbsolutePath() + " | sed -n 's/^backing file: \\([^ ]*\\).*/\\1/p'"));
+
+        Script compare = new Script("qemu-img", 60000, s_logger);
+        compare.add("compare", "-f", "qcow2", "-F", "raw", backup.getAbsolutePath(), disk.getAbsolutePath());
+        Assert.assertNull(compare.execute());
+    }
+}
@@ -16,9 +16,11 @@
 // under the License.
 package com.cloud.agent.manager;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -59,6 +61,7 @@ import com.cloud.agent.api.RevertToVMSnapshotCommand;
 import com.cloud.agent.api.ScaleVmAnswer;
 import com.cloud.agent.api.ScaleVmCommand;
 import com.cloud.agent.api.SecurityGroupRuleAnswer;
+import com.cloud.agent.api.SecurityGroupMembersCmd;
 import com.cloud.agent.api.SecurityGroupRulesCmd;
 import com.cloud.agent.api.StartAnswer;
 import com.cloud.agent.api.StartCommand;
@@ -103,6 +106,9 @@ public class MockVmManagerImpl extends ManagerBase implements MockVmManager {
     @Inject
     MockSecurityRulesDao _mockSecurityDao = null;
     private final Map<String, Map<String, Ternary<String, Long, Long>>> _securityRules = new ConcurrentHashMap<String, Map<String, Ternary<String, Long, Long>>>();
+    // members of the security groups per host, the simulated ipsets
+    private final ConcurrentHashMap<String, Map<Long, Set<String>>> _securityGroupMembers = new ConcurrentHashMap<String, Map<Long, Set<String>>>();
+    private final ConcurrentHashMap<String, Map<Long, Long>> _securityGroupMembersVersions = new ConcurrentHashMap<String, Map<Long, Long>>();
 
     public MockVmManagerImpl() {
     }
@@ -571,19 +577,93 @@ public class MockVmManagerImpl extends ManagerBase implements MockVmManager {
 
         Map<String, Ternary<String, Long, Long>> rules = _securityRules.get(info.getHostUuid());
 
+        final boolean accepted;
         if (rules == null) {
-            logSecurityGroupAction(cmd, null);
+            accepted = logSecurityGroupAction(cmd, null);
             rules = new ConcurrentHashMap<String, Ternary<String, Long, Long>>();
             rules.put(cmd.getVmName(), new Ternary<String, Long, Long>(cmd.getSignature(), cmd.getVmId(), cmd.getSeqNum()));
             _securityRules.put(info.getHostUuid(), rules);
         } else {
-            logSecurityGroupAction(cmd, rules.get(cmd.getVmName()));
+            accepted = logSecurityGroupAction(cmd, rules.get(cmd.getVmName()));
             rules.put(cmd.getVmName(), new Ternary<String, Long, Long>(cmd.getSignature(), cmd.getVmId(), cmd.getSeqNum()));
         }
 
+        // the members only come with rules the host takes
+        if (accepted && cmd.getGroupMembers() != null) {
+            final Map<Long, Set<String>> groups = getSecurityGroupMembers(info.getHostUuid());
+            final Map<Long, Long> versions = getSecurityGroupMembersVersions(info.getHostUuid());
+            for (final Map.Entry<Long, List<String>> group : cmd.getGroupMembers().entrySet()) {
+                final Long version = cmd.getGroupMembersVersions() != null ? cmd.getGroupMembersVersions().get(group.getKey()) : null;
+                final Long known = versions.get(group.getKey());
+                if (known != null && groups.containsKey(group.getKey()) && (version == null || version < known)) {
+                    // older than the members kept for the group
+                    continue;
+                }
+                final Set<String> members = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+                members.addAll(group.getValue());
+                groups.put(group.getKey(), members);
+                versions.put(group.getKey(), version != null ? version : 0L);
+            }
+        }
+
         return new SecurityGroupRuleAnswer(cmd);
     }
 
+    private Map<Long, Set<String>> getSecurityGroupMembers(final String hostUuid) {
+        Map<Long, Set<String>> groups = _securityGroupMembers.get(hostUuid);
+        if (groups == null) {
+            groups = new ConcurrentHashMap<Long, Set<String>>();
+            final Map<Long, Set<String>> existing = _securityGroupMembers.putIfAbsent(hostUuid, groups);
+            if (existing != null) {
+                groups = existing;
+            }
+        }
+        return groups;
+    }
+
+    private Map<Long, Long> getSecurityGroupMembersVersions(final String hostUuid) {
+        Map<Long, Long> versions = _securityGroupMembersVersions.get(hostUuid);
+        if (versions == null) {
+            versions = new ConcurrentHashMap<Long, Long>();
+            final Map<Long, Long> existing = _securityGroupMembersVersions.putIfAbsent(hostUuid, versions);
+            if (existing != null) {
+                versions = existing;
+            }
+        }
+        return versions;
+    }
+
+    @Override
+    public Answer updateSecurityGroupMembers(final SecurityGroupMembersCmd cmd, final SimulatorInfo info) {
+        if (!info.isEnabled()) {
+            return new Answer(cmd, false, "Disabled");
+        }
+
+        final Map<Long, Set<String>> groups = getSecurityGroupMembers(info.getHostUuid());
+        final Map<Long, Long> versions = getSecurityGroupMembersVersions(info.getHostUuid());
+        for (final SecurityGroupMembersCmd.GroupMembers update : cmd.getGroups()) {
+            final Long known = versions.get(update.getGroupId());
+            if (!groups.containsKey(update.getGroupId()) || known == null) {
+                // same as the KVM agent, the full rules have to create the set first
+                return new Answer(cmd, false, "No members known for security group " + update.getGroupId());
+            }
+            if (update.getVersion() > known + 1) {
+                return new Answer(cmd, false, "Missing changes of the members of security group " + update.getGroupId() + " before version " + update.getVersion());
+            }
+        }
+        for (final SecurityGroupMembersCmd.GroupMembers update : cmd.getGroups()) {
+            if (update.getVersion() <= versions.get(update.getGroupId())) {
+                continue;
+            }
+            final Set<String> members = groups.get(update.getGroupId());
+            members.addAll(update.getAdded());
+            members.removeAll(update.getRemoved());
+            versions.put(update.getGroupId(), update.getVersion());
+        }
+        s_logger.debug("Updated the members of " + cmd.getGroups().size() + " security groups on host " + info.getHostUuid());
+        return new Answer(cmd);
+    }
+
     private boolean logSecurityGroupAction(final SecurityGroupRulesCmd cmd, final Ternary<String, Long, Long> rule) {
         String action = ", do nothing";
         String reason = ", reason=";
@@ -84,6 +84,7 @@ import com.cloud.agent.api.ScaleVmCommand;
 import com.cloud.agent.api.SecStorageFirewallCfgCommand;
 import com.cloud.agent.api.SecStorageSetupCommand;
 import com.cloud.agent.api.SecStorageVMSetupCommand;
+import com.cloud.agent.api.SecurityGroupMembersCmd;
 import com.cloud.agent.api.SecurityGroupRulesCmd;
 import com.cloud.agent.api.SetupGuestNetworkCommand;
 import com.cloud.agent.api.StartCommand;
@@ -341,6 +342,8 @@ public class SimulatorManagerImpl extends ManagerBase implements SimulatorManage
                     answer = _mockVmMgr.watchConsoleProxyLoad((WatchConsoleProxyLoadCommand)cmd);
                 } else if (cmd instanceof SecurityGroupRulesCmd) {
                     answer = _mockVmMgr.addSecurityGroupRules((SecurityGroupRulesCmd)cmd, info);
+                } else if (cmd instanceof SecurityGroupMembersCmd) {
+                    answer = _mockVmMgr.updateSecurityGroupMembers((SecurityGroupMembersCmd)cmd, info);
                 } else if (cmd instanceof SavePasswordCommand) {
                     answer = _mockVmMgr.savePassword((SavePasswordCommand)cmd);
                 } else if (cmd instanceof PrimaryStorageDownloadCommand) {
@@ -0,0 +1,82 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.cloudstack.api;
+
+import java.util.Date;
+import java.util.List;
+
+import javax.inject.Inject;
+
+import org.apache.cloudstack.acl.RoleType;
+import org.apache.cloudstack.api.response.ListResponse;
+import org.apache.cloudstack.api.response.UserVmResponse;
+import org.apache.cloudstack.context.CallContext;
+import org.apache.cloudstack.metrics.MetricsService;
+import org.apache.cloudstack.response.VmStatsHistoryResponse;
+
+@APICommand(name = ListVMsStatsHistoryCmd.APINAME, description = "Lists the statistics history of a VM kept by the management server", responseObject = VmStatsHistoryResponse.class,
+        requestHasSensitiveInfo = false, responseHasSensitiveInfo = false, since = "4.16.0",
+        authorized = {RoleType.Admin,  RoleType.ResourceAdmin, RoleType.DomainAdmin, RoleType.User})
+public class ListVMsStatsHistoryCmd extends BaseCmd {
+    public static final String APINAME = "listVirtualMachineStatsHistory";
+
+    @Inject
+    private MetricsService metricsService;
+
+    @Parameter(name = ApiConstants.ID, type = CommandType.UUID, entityType = UserVmResponse.class, required = true, description = "the ID of the virtual machine")
+    private Long id;
+
+    @Parameter(name = ApiConstants.START_DATE, type = CommandType.DATE,
+            description = "only lists the statistics collected after this date (use format \"yyyy-MM-dd\" or \"yyyy-MM-dd HH:mm:ss\")")
+    private Date startDate;
+
+    @Parameter(name = ApiConstants.INTERVAL, type = CommandType.INTEGER,
+            description = "length (in seconds) of the listed samples, the statistics within the same interval are averaged. Defaults to the resolution of the history")
+    private Integer interval;
+
+    public Long getId() {
+        return id;
+    }
+
+    public Date getStartDate() {
+        return startDate;
+    }
+
+    public Integer getInterval() {
+        return interval;
+    }
+
+    @Override
+    public String getCommandName() {
+        return APINAME.toLowerCase() + BaseCmd.RESPONSE_SUFFIX;
+    }
+
+    @Override
+    public long getEntityOwnerId() {
+        return CallContext.current().getCallingAccountId();
+    }
+
+    @Override
+    public void execute() {
+        final List<VmStatsHistoryResponse> samples = metricsService.listVmStatsHistory(this);
+        final ListResponse<VmStatsHistoryResponse> response = new ListResponse<>();
+        response.setResponses(samples, samples.size());
+        response.setResponseName(getCommandName());
+        setResponseObject(response);
+    }
+}
@@ -19,6 +19,7 @@ package org.apache.cloudstack.metrics;
 
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 
 import javax.inject.Inject;
@@ -29,6 +30,7 @@ import org.apache.cloudstack.api.ListHostsMetricsCmd;
 import org.apache.cloudstack.api.ListInfrastructureCmd;
 import org.apache.cloudstack.api.ListStoragePoolsMetricsCmd;
 import org.apache.cloudstack.api.ListVMsMetricsCmd;
+import org.apache.cloudstack.api.ListVMsStatsHistoryCmd;
 import org.apache.cloudstack.api.ListVolumesMetricsCmd;
 import org.apache.cloudstack.api.ListZonesMetricsCmd;
 import org.apache.cloudstack.api.ServerApiException;
@@ -44,6 +46,7 @@ import org.apache.cloudstack.response.HostMetricsResponse;
 import org.apache.cloudstack.response.InfrastructureResponse;
 import org.apache.cloudstack.response.StoragePoolMetricsResponse;
 import org.apache.cloudstack.response.VmMetricsResponse;
+import org.apache.cloudstack.response.VmStatsHistoryResponse;
 import org.apache.cloudstack.response.VolumeMetricsResponse;
 import org.apache.cloudstack.response.ZoneMetricsResponse;
 import org.apache.cloudstack.storage.datastore.db.ImageStoreDao;
@@ -64,6 +67,7 @@ import com.cloud.dc.DataCenter;
 import com.cloud.dc.dao.ClusterDao;
 import com.cloud.dc.dao.DataCenterDao;
 import com.cloud.dc.dao.HostPodDao;
+import com.cloud.exception.InvalidParameterValueException;
 import com.cloud.deploy.DeploymentClusterPlanner;
 import com.cloud.host.Host;
 import com.cloud.host.HostStats;
@@ -73,6 +77,8 @@ import com.cloud.network.router.VirtualRouter;
 import com.cloud.org.Cluster;
 import com.cloud.org.Grouping;
 import com.cloud.org.Managed;
+import com.cloud.server.StatsCollector.VmStatsHistoryMetric;
+import com.cloud.server.StatsRingBuffer;
 import com.cloud.user.Account;
 import com.cloud.user.AccountManager;
 import com.cloud.utils.Pair;
@@ -207,6 +213,34 @@ public class MetricsServiceImpl extends ComponentLifecycleBase implements Metric
         return metricsResponses;
     }
 
+    @Override
+    public List<VmStatsHistoryResponse> listVmStatsHistory(ListVMsStatsHistoryCmd cmd) {
+        final VMInstanceVO vm = vmInstanceDao.findById(cmd.getId());
+        if (vm == null) {
+            throw new InvalidParameterValueException("Unable to find virtual machine with the specified id");
+        }
+        accountMgr.checkAccess(CallContext.current().getCallingAccount(), null, true, vm);
+
+        final long from = cmd.getStartDate() != null ? cmd.getStartDate().getTime() : 0L;
+        final long interval = cmd.getInterval() != null ? cmd.getInterval() * 1000L : 0L;
+        final List<VmStatsHistoryResponse> responses = new ArrayList<>();
+        for (final StatsRingBuffer.Sample sample : ApiDBUtils.getVmStatisticsHistory(vm.getId(), from, interval)) {
+            final VmStatsHistoryResponse response = new VmStatsHistoryResponse();
+            response.setTimestamp(new Date(sample.getTimestamp()));
+            response.setCpuUsed(sample.getValue(VmStatsHistoryMetric.CPU_UTILIZATION.ordinal()));
+            response.setMemoryKBs((long)sample.getValue(VmStatsHistoryMetric.MEMORY_KBS.ordinal()));
+            response.setMemoryIntFreeKBs((long)sample.getValue(VmStatsHistoryMetric.MEMORY_INT_FREE_KBS.ordinal()));
+            response.setNetworkKbsRead((long)sample.getValue(VmStatsHistoryMetric.NETWORK_READ_KBS.ordinal()));
+            response.setNetworkKbsWrite((long)sample.getValue(VmStatsHistoryMetric.NETWORK_WRITE_KBS.ordinal()));
+            response.setDiskKbsRead((long)sample.getValue(VmStatsHistoryMetric.DISK_READ_KBS.ordinal()));
+            response.setDiskKbsWrite((long)sample.getValue(VmStatsHistoryMetric.DISK_WRITE_KBS.ordinal()));
+            response.setDiskIORead((long)sample.getValue(VmStatsHistoryMetric.DISK_READ_IOS.ordinal()));
+            response.setDiskIOWrite((long)sample.getValue(VmStatsHistoryMetric.DISK_WRITE_IOS.ordinal()));
+            responses.add(response);
+        }
+        return responses;
+    }
+
     @Override
     public List<StoragePoolMetricsResponse> listStoragePoolMetrics(List<StoragePoolResponse> poolResponses) {
         final List<StoragePoolMetricsResponse> metricsResponses = new ArrayList<>();
@@ -469,6 +503,7 @@ public class MetricsServiceImpl extends ComponentLifecycleBase implements Metric
         cmdList.add(ListInfrastructureCmd.class);
         cmdList.add(ListVolumesMetricsCmd.class);
         cmdList.add(ListVMsMetricsCmd.class);
+        cmdList.add(ListVMsStatsHistoryCmd.class);
         cmdList.add(ListStoragePoolsMetricsCmd.class);
         cmdList.add(ListHostsMetricsCmd.class);
         cmdList.add(ListClustersMetricsCmd.class);
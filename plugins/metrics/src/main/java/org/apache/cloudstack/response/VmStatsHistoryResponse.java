@@ -0,0 +1,112 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.cloudstack.response;
+
+import java.util.Date;
+
+import org.apache.cloudstack.api.ApiConstants;
+import org.apache.cloudstack.api.BaseResponse;
+
+import com.cloud.serializer.Param;
+import com.google.gson.annotations.SerializedName;
+
+public class VmStatsHistoryResponse extends BaseResponse {
+    @SerializedName("timestamp")
+    @Param(description = "the start of the period of the sample")
+    private Date timestamp;
+
+    @SerializedName("cpuused")
+    @Param(description = "the average CPU used by the VM during the period, in percent")
+    private Double cpuUsed;
+
+    @SerializedName("memorykbs")
+    @Param(description = "the average memory used by the VM during the period")
+    private Long memoryKBs;
+
+    @SerializedName("memoryintfreekbs")
+    @Param(description = "the average internal memory that's free in the VM during the period, or zero if it can not be calculated")
+    private Long memoryIntFreeKBs;
+
+    @SerializedName("networkkbsread")
+    @Param(description = "the average incoming network traffic of the VM per collection during the period")
+    private Long networkKbsRead;
+
+    @SerializedName("networkkbswrite")
+    @Param(description = "the average outgoing network traffic of the VM per collection during the period")
+    private Long networkKbsWrite;
+
+    @SerializedName(ApiConstants.DISK_KBS_READ)
+    @Param(description = "the average disk read (kilobytes) of the VM per collection during the period")
+    private Long diskKbsRead;
+
+    @SerializedName(ApiConstants.DISK_KBS_WRITE)
+    @Param(description = "the average disk write (kilobytes) of the VM per collection during the period")
+    private Long diskKbsWrite;
+
+    @SerializedName(ApiConstants.DISK_IO_READ)
+    @Param(description = "the average disk read (io) of the VM per collection during the period")
+    private Long diskIORead;
+
+    @SerializedName(ApiConstants.DISK_IO_WRITE)
+    @Param(description = "the average disk write (io) of the VM per collection during the period")
+    private Long diskIOWrite;
+
+    public VmStatsHistoryResponse() {
+        setObjectName("vmstats");
+    }
+
+    public void setTimestamp(final Date timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    public void setCpuUsed(final Double cpuUsed) {
+        this.cpuUsed = cpuUsed;
+    }
+
+    public void setMemoryKBs(final Long memoryKBs) {
+        this.memoryKBs = memoryKBs;
+    }
+
+    public void setMemoryIntFreeKBs(final Long memoryIntFreeKBs) {
+        this.memoryIntFreeKBs = memoryIntFreeKBs;
+    }
+
+    public void setNetworkKbsRead(final Long networkKbsRead) {
+        this.networkKbsRead = networkKbsRead;
+    }
+
+    public void setNetworkKbsWrite(final Long networkKbsWrite) {
+        this.networkKbsWrite = networkKbsWrite;
+    }
+
+    public void setDiskKbsRead(final Long diskKbsRead) {
+        this.diskKbsRead = diskKbsRead;
+    }
+
+    public void setDiskKbsWrite(final Long diskKbsWrite) {
+        this.diskKbsWrite = diskKbsWrite;
+    }
+
+    public void setDiskIORead(final Long diskIORead) {
+        this.diskIORead = diskIORead;
+    }
+
+    public void setDiskIOWrite(final Long diskIOWrite) {
+        this.diskIOWrite = diskIOWrite;
+    }
+}
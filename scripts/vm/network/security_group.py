@@ -451,6 +451,15 @@ def create_ipset_forvm(ipsetname, type='iphash', family='inet'):
     return result
 
 
+def ipset_restore(lines):
+    logging.debug("ipset restore of %d lines", len(lines))
+    try:
+        return check_output(['ipset', 'restore', '-exist'], input='\n'.join(lines + ['COMMIT', '']).encode()).decode()
+    except CalledProcessError as e:
+        logging.exception('ipset restore exited non-zero')
+        raise
+
+
 def add_to_ipset(ipsetname, ips, action):
     result = True
     for ip in ips:
@@ -968,6 +977,8 @@ def cleanup_rules():
         for vmname in cleanup:
             destroy_network_rules_for_vm(vmname)
 
+        cleanup_group_ipsets()
+
         logging.debug("Cleaned up rules for " + str(len(cleanup)) + " chains")
     except:
         logging.debug("Failed to cleanup rules !")
@@ -1039,6 +1050,124 @@ def ebtables_chain_name(vm_name):
     return vm_name
 
 
+#ipset of the running members of a security group, shared by the rules of
+#all the vms of the host allowing the group
+def group_ipset_name(group_id):
+    return "cs_sg_" + str(group_id)
+
+
+def group_version_file(group_id):
+    return logpath + group_ipset_name(group_id) + ".version"
+
+
+#version of the members held in the ipset of the group, None if unknown
+def read_group_version(group_id):
+    try:
+        execute("ipset -n list " + group_ipset_name(group_id))
+    except:
+        return None
+    try:
+        with open(group_version_file(group_id)) as f:
+            return int(f.read().strip())
+    except:
+        return None
+
+
+def write_group_version(group_id, version):
+    with open(group_version_file(group_id), 'w') as f:
+        f.write(str(version) + '\n')
+
+
+def parse_group_members(group_members):
+    ret = {}
+
+    if group_members is None or len(group_members) == 0:
+        return ret
+
+    for group in group_members.split(';'):
+        if not group:
+            continue
+        parts = group.split(':', 2)
+        if len(parts) == 3:
+            group_id, version, members = parts[0], int(parts[1]), parts[2]
+        else:
+            group_id, version, members = parts[0], None, parts[1]
+        ret[group_id] = (version, [member for member in members.split(',') if member])
+
+    return ret
+
+
+def sync_group_ipsets(group_members):
+    for group_id, (version, members) in list(parse_group_members(group_members).items()):
+        current = read_group_version(group_id)
+        if version is not None and current is not None and version < current:
+            # the changes sent since then are already in the set
+            logging.debug("Keeping version %d of the members of security group %s, got version %d", current, group_id, version)
+            continue
+        ipsetname = group_ipset_name(group_id)
+        tmpname = ipsetname + "-tmp"
+        lines = ['create ' + tmpname + ' hash:net family inet', 'flush ' + tmpname]
+        lines += ['add ' + tmpname + ' ' + member for member in members if ':' not in member]
+        lines += ['create ' + ipsetname + ' hash:net family inet', 'swap ' + tmpname + ' ' + ipsetname, 'destroy ' + tmpname]
+        ipset_restore(lines)
+        if version is not None:
+            write_group_version(group_id, version)
+        elif os.path.exists(group_version_file(group_id)):
+            os.remove(group_version_file(group_id))
+        logging.debug("Synced %d members of security group %s, version %s", len(members), group_id, version)
+
+
+def update_group_members(group_members):
+    try:
+        groups = parse_group_members(group_members)
+        currents = {}
+        for group_id, (version, members) in list(groups.items()):
+            current = read_group_version(group_id)
+            currents[group_id] = current
+            if current is None or version is None:
+                # the full rules referencing the group will create it
+                logging.debug("No ipset of a known version for security group " + group_id + " on this host")
+                return False
+            if version > current + 1:
+                logging.debug("Missing the changes of the members of security group %s between version %d and %d", group_id, current, version)
+                return False
+
+        lines = []
+        updated = []
+        for group_id, (version, members) in list(groups.items()):
+            if version <= currents[group_id]:
+                logging.debug("Ignoring version %d of the members of security group %s, already applied", version, group_id)
+                continue
+            ipsetname = group_ipset_name(group_id)
+            for member in members:
+                if member.startswith('+'):
+                    lines.append('add ' + ipsetname + ' ' + member[1:])
+                elif member.startswith('-'):
+                    lines.append('del ' + ipsetname + ' ' + member[1:])
+            updated.append((group_id, version))
+
+        if lines:
+            ipset_restore(lines)
+        for group_id, version in updated:
+            write_group_version(group_id, version)
+        return True
+    except:
+        logging.exception("Failed to update security group members")
+        return False
+
+
+def cleanup_group_ipsets():
+    referenced = execute("iptables-save | grep -o -E 'match-set cs_sg_[0-9]+ ' | awk '{print $2}' | sort | uniq").split('\n')
+    for ipsetname in execute("ipset -n list | grep -E '^cs_sg_[0-9]+$' || true").split('\n'):
+        if ipsetname and ipsetname not in referenced:
+            logging.debug("Destroying unreferenced ipset " + ipsetname)
+            try:
+                execute("ipset destroy " + ipsetname)
+                os.remove(logpath + ipsetname + ".version")
+            except:
+                pass
+
+
 #ipset chain max len 31 char
 def ipset_chain_name(vm_name):
     if len(vm_name) > 30:
@@ -1077,7 +1206,11 @@ def parse_network_rules(rules):
 
         ipv4 = []
         ipv6 = []
+        groups = []
         for ip in cidrs.split(","):
+            if ip.startswith('sg:'):
+                groups.append(ip[3:])
+                continue
             try:
                 network = ipaddress.ip_network(ip, False)
                 if network.version == 4:
@@ -1087,13 +1220,13 @@ def parse_network_rules(rules):
             except:
                 pass
 
-        ret.append({'ipv4': ipv4, 'ipv6': ipv6, 'ruletype': ruletype,
+        ret.append({'ipv4': ipv4, 'ipv6': ipv6, 'groups': groups, 'ruletype': ruletype,
                     'start': start, 'end': end, 'protocol': protocol})
 
     return ret
 
 
-def add_network_rules(vm_name, vm_id, vm_ip, vm_ip6, signature, seqno, vmMac, rules, vif, brname, sec_ips):
+def add_network_rules(vm_name, vm_id, vm_ip, vm_ip6, signature, seqno, vmMac, rules, vif, brname, sec_ips, group_members=None):
     try:
         vmName = vm_name
         domId = get_vm_id(vmName)
@@ -1104,6 +1237,9 @@ def add_network_rules(vm_name, vm_id, vm_ip, vm_ip6, signature, seqno, vmMac, ru
             logging.debug("Rules already programmed for vm " + vm_name)
             return True
 
+        # the members may have changed even if the rules did not
+        sync_group_ipsets(group_members)
+
         if rules == "" or rules == None:
             lines = []
         else:
@@ -1135,7 +1271,7 @@ def add_network_rules(vm_name, vm_id, vm_ip, vm_ip6, signature, seqno, vmMac, ru
                 vmchain = egress_vmchain
                 direction = "-d"
                 action = "RETURN"
-                if rule['ipv4']:
+                if rule['ipv4'] or rule['groups']:
                     egressrule_v4 =+ 1
 
                 if rule['ipv6']:
@@ -1171,6 +1307,15 @@ def add_network_rules(vm_name, vm_id, vm_ip, vm_ip6, signature, seqno, vmMac, ru
                 else:
                     execute("iptables -I " + vmchain + protocol_all + dport + protocol_state + direction + " " + ip + " -j "+ action)
 
+            for group in rule['groups']:
+                match = " -m set --match-set " + group_ipset_name(group) + (" src" if direction == "-s" else " dst")
+                if protocol == 'all':
+                    execute('iptables -I ' + vmchain + ' -m state --state NEW' + match + ' -j ' + action)
+                elif protocol == 'icmp':
+                    execute("iptables -I " + vmchain + " -p icmp --icmp-type " + range + match + " -j " + action)
+                else:
+                    execute("iptables -I " + vmchain + protocol_all + dport + protocol_state + match + " -j " + action)
+
             for ip in rule['ipv6']:
                 if protocol == 'all':
                     execute('ip6tables -I ' + vmchain + ' -m state --state NEW ' + direction + ' ' + ip + ' -j ' + action)
@@ -1612,6 +1757,7 @@ if __name__ == '__main__':
     parser.add_argument("--privnic", dest="privnic")
     parser.add_argument("--isFirstNic", action="store_true", dest="isFirstNic")
     parser.add_argument("--check", action="store_true", dest="check")
+    parser.add_argument("--groupmembers", dest="groupMembers")
     args = parser.parse_args()
     cmd = args.command
     logging.debug("Executing command: %s", cmd)
@@ -1639,7 +1785,10 @@ if __name__ == '__main__':
     elif cmd == "get_rule_logs_for_vms":
         get_rule_logs_for_vms()
     elif cmd == "add_network_rules":
-        add_network_rules(args.vmName, args.vmID, args.vmIP, args.vmIP6, args.sig, args.seq, args.vmMAC, args.rules, args.vif, args.brname, args.nicSecIps)
+        add_network_rules(args.vmName, args.vmID, args.vmIP, args.vmIP6, args.sig, args.seq, args.vmMAC, args.rules, args.vif, args.brname, args.nicSecIps, args.groupMembers)
+    elif cmd == "update_group_members":
+        if not update_group_members(args.groupMembers):
+            sys.exit(1)
     elif cmd == "network_rules_vmSecondaryIp":
         network_rules_vmSecondaryIp(args.vmName, args.vmMAC, args.nicSecIps, args.action)
     elif cmd == "cleanup_rules":
@@ -257,6 +257,7 @@ import com.cloud.server.ResourceMetaDataService;
 import com.cloud.server.ResourceTag;
 import com.cloud.server.ResourceTag.ResourceObjectType;
 import com.cloud.server.StatsCollector;
+import com.cloud.server.StatsRingBuffer;
 import com.cloud.server.TaggedResourceService;
 import com.cloud.service.ServiceOfferingDetailsVO;
 import com.cloud.service.ServiceOfferingVO;
@@ -982,6 +983,10 @@ public class ApiDBUtils {
         return s_statsCollector.getVmStats(hostId);
     }
 
+    public static List<StatsRingBuffer.Sample> getVmStatisticsHistory(long vmId, long from, long interval) {
+        return s_statsCollector.getVmStatsHistory(vmId, from, interval);
+    }
+
     public static VolumeStats getVolumeStatistics(String volumeUuid) {
         return s_statsCollector.getVolumeStats(volumeUuid);
     }
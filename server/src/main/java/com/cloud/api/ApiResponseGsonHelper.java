@@ -16,6 +16,10 @@
 // under the License.
 package com.cloud.api;
 
+import java.lang.reflect.Modifier;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import org.apache.cloudstack.acl.RoleType;
 import org.apache.cloudstack.api.ResponseObject;
 import org.apache.cloudstack.context.CallContext;
@@ -24,27 +28,34 @@ import com.cloud.serializer.Param;
 import com.cloud.user.Account;
 import com.google.gson.ExclusionStrategy;
 import com.google.gson.FieldAttributes;
+import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 
 /**
  * The ApiResonseGsonHelper is different from ApiGsonHelper - it registers one more adapter for String type required for api response encoding
+ *
+ * Gson decides which fields of a class are serialized the first time it meets the class, so the Gson instances
+ * returned by {@link #getGson()} and {@link #getLogGson()} are cached per account type of the caller, the
+ * authorized fields of the responses depending on it.
  */
 public class ApiResponseGsonHelper {
     private static final GsonBuilder s_gBuilder;
     private static final GsonBuilder s_gLogBuilder;
+    private static final ConcurrentMap<Short, Gson> s_gsons = new ConcurrentHashMap<Short, Gson>();
+    private static final ConcurrentMap<Short, Gson> s_logGsons = new ConcurrentHashMap<Short, Gson>();
 
     static {
-        s_gBuilder = new GsonBuilder().setDateFormat("yyyy-MM-dd'T'HH:mm:ssZ");
-        s_gBuilder.setVersion(1.3);
-        s_gBuilder.registerTypeAdapter(ResponseObject.class, new ResponseObjectTypeAdapter());
-        s_gBuilder.registerTypeAdapter(String.class, new EncodedStringTypeAdapter());
-        s_gBuilder.setExclusionStrategies(new ApiResponseExclusionStrategy());
-
-        s_gLogBuilder = new GsonBuilder().setDateFormat("yyyy-MM-dd'T'HH:mm:ssZ");
-        s_gLogBuilder.setVersion(1.3);
-        s_gLogBuilder.registerTypeAdapter(ResponseObject.class, new ResponseObjectTypeAdapter());
-        s_gLogBuilder.registerTypeAdapter(String.class, new EncodedStringTypeAdapter());
-        s_gLogBuilder.setExclusionStrategies(new LogExclusionStrategy());
+        s_gBuilder = createBuilder(new ApiResponseExclusionStrategy(null));
+        s_gLogBuilder = createBuilder(new LogExclusionStrategy(null));
+    }
+
+    private static GsonBuilder createBuilder(ExclusionStrategy exclusionStrategy) {
+        GsonBuilder builder = new GsonBuilder().setDateFormat("yyyy-MM-dd'T'HH:mm:ssZ");
+        builder.setVersion(1.3);
+        builder.registerTypeAdapter(ResponseObject.class, new ResponseObjectTypeAdapter());
+        builder.registerTypeAdapter(String.class, new EncodedStringTypeAdapter());
+        builder.setExclusionStrategies(exclusionStrategy);
+        return builder;
     }
 
     public static GsonBuilder getBuilder() {
@@ -55,7 +66,60 @@ public class ApiResponseGsonHelper {
         return s_gLogBuilder;
     }
 
+    /**
+     * @return the Gson serializing the api responses for the current caller
+     */
+    public static Gson getGson() {
+        Short accountType = getCallerAccountType();
+        if (accountType == null) {
+            return createBuilder(new ApiResponseExclusionStrategy(null)).excludeFieldsWithModifiers(Modifier.TRANSIENT).create();
+        }
+        Gson gson = s_gsons.get(accountType);
+        if (gson == null) {
+            gson = createBuilder(new ApiResponseExclusionStrategy(accountType)).excludeFieldsWithModifiers(Modifier.TRANSIENT).create();
+            Gson existing = s_gsons.putIfAbsent(accountType, gson);
+            if (existing != null) {
+                gson = existing;
+            }
+        }
+        return gson;
+    }
+
+    /**
+     * @return the Gson serializing the api responses for the current caller, without the sensitive fields
+     */
+    public static Gson getLogGson() {
+        Short accountType = getCallerAccountType();
+        if (accountType == null) {
+            return createBuilder(new LogExclusionStrategy(null)).excludeFieldsWithModifiers(Modifier.TRANSIENT).create();
+        }
+        Gson gson = s_logGsons.get(accountType);
+        if (gson == null) {
+            gson = createBuilder(new LogExclusionStrategy(accountType)).excludeFieldsWithModifiers(Modifier.TRANSIENT).create();
+            Gson existing = s_logGsons.putIfAbsent(accountType, gson);
+            if (existing != null) {
+                gson = existing;
+            }
+        }
+        return gson;
+    }
+
+    private static Short getCallerAccountType() {
+        CallContext context = CallContext.current();
+        if (context == null || context.getCallingAccount() == null) {
+            return null;
+        }
+        return context.getCallingAccount().getType();
+    }
+
     private static class ApiResponseExclusionStrategy implements ExclusionStrategy {
+        // null to look the caller up when a class is first serialized
+        private final Short _accountType;
+
+        ApiResponseExclusionStrategy(Short accountType) {
+            _accountType = accountType;
+        }
+
         public boolean shouldSkipClass(Class<?> arg0) {
             return false;
         }
@@ -66,9 +130,15 @@ public class ApiResponseGsonHelper {
                 RoleType[] allowedRoles = param.authorized();
                 if (allowedRoles.length > 0) {
                     boolean permittedParameter = false;
-                    Account caller = CallContext.current().getCallingAccount();
+                    short accountType;
+                    if (_accountType != null) {
+                        accountType = _accountType;
+                    } else {
+                        Account caller = CallContext.current().getCallingAccount();
+                        accountType = caller.getType();
+                    }
                     for (RoleType allowedRole : allowedRoles) {
-                        if (allowedRole.getAccountType() == caller.getType()) {
+                        if (allowedRole.getAccountType() == accountType) {
                             permittedParameter = true;
                             break;
                         }
@@ -83,6 +153,10 @@ public class ApiResponseGsonHelper {
     }
 
     private static class LogExclusionStrategy extends ApiResponseExclusionStrategy implements ExclusionStrategy {
+        LogExclusionStrategy(Short accountType) {
+            super(accountType);
+        }
+
         public boolean shouldSkipClass(Class<?> arg0) {
             return false;
         }
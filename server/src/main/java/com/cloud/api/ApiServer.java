@@ -91,6 +91,7 @@ import org.apache.cloudstack.api.response.CreateCmdResponse;
 import org.apache.cloudstack.api.response.ExceptionResponse;
 import org.apache.cloudstack.api.response.ListResponse;
 import org.apache.cloudstack.api.response.LoginCmdResponse;
+import org.apache.cloudstack.api.response.StreamingListResponse;
 import org.apache.cloudstack.config.ApiServiceConfiguration;
 import org.apache.cloudstack.context.CallContext;
 import org.apache.cloudstack.framework.config.ConfigKey;
@@ -139,6 +140,7 @@ import org.springframework.stereotype.Component;
 
 import com.cloud.api.dispatch.DispatchChainFactory;
 import com.cloud.api.dispatch.DispatchTask;
+import com.cloud.api.dispatch.ParamBindingPlan;
 import com.cloud.api.response.ApiResponseSerializer;
 import com.cloud.domain.Domain;
 import com.cloud.domain.DomainVO;
@@ -408,6 +410,10 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
             }
             apiCmdList.add(cmdClass);
 
+            // resolve how the parameters are bound before the first request
+            if (BaseCmd.class.isAssignableFrom(cmdClass)) {
+                ParamBindingPlan.get(cmdClass.asSubclass(BaseCmd.class));
+            }
         }
 
         setEncodeApiResponse(EncodeApiResponse.value());
@@ -533,6 +539,12 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
     @Override
     @SuppressWarnings("rawtypes")
     public String handleRequest(final Map params, final String responseType, final StringBuilder auditTrailSb) throws ServerApiException {
+        return handleRequest(params, responseType, auditTrailSb, null);
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public String handleRequest(final Map params, final String responseType, final StringBuilder auditTrailSb, final HttpServletResponse resp) throws ServerApiException {
         checkCharacterInkParams(params);
 
         String response = null;
@@ -585,7 +597,7 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
 
                     // This is where the command is either serialized, or directly dispatched
                     StringBuilder log = new StringBuilder();
-                    response = queueCommand(cmdObj, paramMap, log);
+                    response = queueCommand(cmdObj, paramMap, log, resp);
                     buildAuditTrail(auditTrailSb, command[0], log.toString());
                 } else {
                     final String errorString = "Unknown API command: " + command[0];
@@ -671,7 +683,7 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
         return ApiResponseSerializer.toSerializedString(response, cmd.getResponseType());
     }
 
-    private String queueCommand(final BaseCmd cmdObj, final Map<String, String> params, StringBuilder log) throws Exception {
+    private String queueCommand(final BaseCmd cmdObj, final Map<String, String> params, StringBuilder log, final HttpServletResponse resp) throws Exception {
         final CallContext ctx = CallContext.current();
         final Long callerUserId = ctx.getCallingUserId();
         final Account caller = ctx.getCallingAccount();
@@ -777,7 +789,13 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
             }
 
             SerializationContext.current().setUuidTranslation(true);
-            return ApiResponseSerializer.toSerializedStringWithSecureLogs((ResponseObject)cmdObj.getResponseObject(), cmdObj.getResponseType(), log);
+            final ResponseObject responseObject = (ResponseObject)cmdObj.getResponseObject();
+            if (resp != null && responseObject instanceof StreamingListResponse) {
+                HttpUtils.setHttpResponseHeaders(resp, HttpServletResponse.SC_OK, cmdObj.getResponseType(), JSONcontentType.value());
+                ApiResponseSerializer.writeSerializedStringWithSecureLogs(responseObject, cmdObj.getResponseType(), resp.getWriter(), log);
+                return null;
+            }
+            return ApiResponseSerializer.toSerializedStringWithSecureLogs(responseObject, cmdObj.getResponseType(), log);
         }
     }
 
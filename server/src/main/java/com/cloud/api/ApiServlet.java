@@ -318,8 +318,11 @@ public class ApiServlet extends HttpServlet {
                 // Add the HTTP method (GET/POST/PUT/DELETE) as well into the params map.
                 params.put("httpmethod", new String[]{req.getMethod()});
                 setProjectContext(params);
-                final String response = apiServer.handleRequest(params, responseType, auditTrailSb);
-                HttpUtils.writeHttpResponse(resp, response != null ? response : "", HttpServletResponse.SC_OK, responseType, ApiServer.JSONcontentType.value());
+                final String response = apiServer.handleRequest(params, responseType, auditTrailSb, resp);
+                // null when the response was streamed
+                if (response != null) {
+                    HttpUtils.writeHttpResponse(resp, response, HttpServletResponse.SC_OK, responseType, ApiServer.JSONcontentType.value());
+                }
             } else {
                 if (session != null) {
                     try {
@@ -336,9 +339,15 @@ public class ApiServlet extends HttpServlet {
 
             }
         } catch (final ServerApiException se) {
-            final String serializedResponseText = apiServer.getSerializedApiError(se, params, responseType);
-            resp.setHeader("X-Description", se.getDescription());
-            HttpUtils.writeHttpResponse(resp, serializedResponseText, se.getErrorCode().getHttpCode(), responseType, ApiServer.JSONcontentType.value());
+            if (resp.isCommitted()) {
+                // failed while streaming the response, part of it already reached the client
+                s_logger.warn("Failed to stream api response: " + se.getDescription());
+            } else {
+                resp.resetBuffer();
+                final String serializedResponseText = apiServer.getSerializedApiError(se, params, responseType);
+                resp.setHeader("X-Description", se.getDescription());
+                HttpUtils.writeHttpResponse(resp, serializedResponseText, se.getErrorCode().getHttpCode(), responseType, ApiServer.JSONcontentType.value());
+            }
             auditTrailSb.append(" " + se.getErrorCode() + " " + se.getDescription());
         } catch (final Exception ex) {
             s_logger.error("unknown exception writing api response", ex);
@@ -0,0 +1,182 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api.dispatch;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.cloudstack.acl.RoleType;
+import org.apache.cloudstack.api.ACL;
+import org.apache.cloudstack.api.BaseCmd;
+import org.apache.cloudstack.api.BaseCmd.CommandType;
+import org.apache.cloudstack.api.EntityReference;
+import org.apache.cloudstack.api.Parameter;
+import org.apache.cloudstack.api.command.admin.resource.ArchiveAlertsCmd;
+import org.apache.cloudstack.api.command.admin.resource.DeleteAlertsCmd;
+import org.apache.cloudstack.api.command.admin.usage.ListUsageRecordsCmd;
+import org.apache.cloudstack.api.command.user.event.ArchiveEventsCmd;
+import org.apache.cloudstack.api.command.user.event.DeleteEventsCmd;
+import org.apache.cloudstack.api.command.user.event.ListEventsCmd;
+
+import com.cloud.utils.ReflectUtil;
+
+/**
+ * How the request parameters are bound to the fields of a command class.
+ * The fields and their annotations are resolved once per class, instead of
+ * reflecting over the command and reading the annotations for every request.
+ */
+public class ParamBindingPlan {
+    private static final Map<Class<?>, ParamBindingPlan> s_plans = new ConcurrentHashMap<Class<?>, ParamBindingPlan>();
+
+    private static final Class<?>[] s_legacyDateFormatCmds = new Class<?>[] {ListEventsCmd.class, DeleteEventsCmd.class, ArchiveEventsCmd.class,
+            ArchiveAlertsCmd.class, DeleteAlertsCmd.class, ListUsageRecordsCmd.class};
+
+    private final List<ParamBinding> _bindings;
+    private final boolean _legacyDateFormat;
+
+    public static ParamBindingPlan get(final Class<? extends BaseCmd> cmdClass) {
+        ParamBindingPlan plan = s_plans.get(cmdClass);
+        if (plan == null) {
+            plan = new ParamBindingPlan(cmdClass);
+            s_plans.put(cmdClass, plan);
+        }
+        return plan;
+    }
+
+    private ParamBindingPlan(final Class<? extends BaseCmd> cmdClass) {
+        final List<ParamBinding> bindings = new ArrayList<ParamBinding>();
+        for (final Field field : ReflectUtil.getAllFieldsForClass(cmdClass, BaseCmd.class)) {
+            final Parameter annotation = field.getAnnotation(Parameter.class);
+            if (annotation != null && annotation.expose()) {
+                bindings.add(new ParamBinding(field, annotation));
+            }
+        }
+        _bindings = Collections.unmodifiableList(bindings);
+
+        boolean legacyDateFormat = false;
+        for (final Class<?> legacyCmd : s_legacyDateFormatCmds) {
+            legacyDateFormat |= legacyCmd.isAssignableFrom(cmdClass);
+        }
+        _legacyDateFormat = legacyDateFormat;
+    }
+
+    /**
+     * @return the exposed parameters of the command, including the ones the caller may not be authorized to pass
+     */
+    public List<ParamBinding> getBindings() {
+        return _bindings;
+    }
+
+    /**
+     * @return true if the dates of the command can also be passed as yyyy-MM-dd HH:mm:ss (Bug 9724)
+     */
+    public boolean acceptsLegacyDateFormat() {
+        return _legacyDateFormat;
+    }
+
+    public static class ParamBinding {
+        private final Field _field;
+        private final Parameter _annotation;
+        private final String _name;
+        private final CommandType _type;
+        private final CommandType _collectionType;
+        private final boolean _required;
+        private final boolean _pre3x;
+        private final short[] _authorizedAccountTypes;
+        private final ACL _acl;
+        private final Class<?>[] _entities;
+
+        ParamBinding(final Field field, final Parameter annotation) {
+            _field = field;
+            _field.setAccessible(true);
+            _annotation = annotation;
+            _name = annotation.name();
+            _type = annotation.type();
+            _collectionType = annotation.collectionType();
+            _required = annotation.required();
+            // If annotation's empty, the cmd existed before 3.x and also accepts internal ids
+            _pre3x = annotation.since().isEmpty();
+
+            final RoleType[] roles = annotation.authorized();
+            _authorizedAccountTypes = new short[roles.length];
+            for (int i = 0; i < roles.length; i++) {
+                _authorizedAccountTypes[i] = roles[i].getAccountType();
+            }
+
+            _acl = field.getAnnotation(ACL.class);
+            // There may be multiple entities defined on the @EntityReference of a Response.class
+            final Class<?>[] entityTypes = annotation.entityType();
+            final EntityReference reference = entityTypes.length > 0 ? entityTypes[0].getAnnotation(EntityReference.class) : null;
+            _entities = reference != null ? reference.value() : null;
+        }
+
+        public Field getField() {
+            return _field;
+        }
+
+        public Parameter getAnnotation() {
+            return _annotation;
+        }
+
+        public String getName() {
+            return _name;
+        }
+
+        public CommandType getType() {
+            return _type;
+        }
+
+        public CommandType getCollectionType() {
+            return _collectionType;
+        }
+
+        public boolean isRequired() {
+            return _required;
+        }
+
+        public boolean isPre3x() {
+            return _pre3x;
+        }
+
+        public boolean isAuthorized(final short accountType) {
+            if (_authorizedAccountTypes.length == 0) {
+                return true;
+            }
+            for (final short authorized : _authorizedAccountTypes) {
+                if (authorized == accountType) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public ACL getAcl() {
+            return _acl;
+        }
+
+        /**
+         * @return the entity classes the ids of this parameter are looked up in, or null if it doesn't reference an entity
+         */
+        public Class<?>[] getEntities() {
+            return _entities;
+        }
+    }
+}
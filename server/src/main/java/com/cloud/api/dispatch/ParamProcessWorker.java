@@ -27,10 +27,13 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import javax.inject.Inject;
 
@@ -44,19 +47,14 @@ import org.apache.cloudstack.api.ApiErrorCode;
 import org.apache.cloudstack.api.BaseAsyncCreateCmd;
 import org.apache.cloudstack.api.BaseCmd;
 import org.apache.cloudstack.api.BaseCmd.CommandType;
-import org.apache.cloudstack.api.EntityReference;
+import org.apache.cloudstack.api.Identity;
 import org.apache.cloudstack.api.InternalIdentity;
 import org.apache.cloudstack.api.Parameter;
 import org.apache.cloudstack.api.ServerApiException;
-import org.apache.cloudstack.api.command.admin.resource.ArchiveAlertsCmd;
-import org.apache.cloudstack.api.command.admin.resource.DeleteAlertsCmd;
-import org.apache.cloudstack.api.command.admin.usage.ListUsageRecordsCmd;
-import org.apache.cloudstack.api.command.user.event.ArchiveEventsCmd;
-import org.apache.cloudstack.api.command.user.event.DeleteEventsCmd;
-import org.apache.cloudstack.api.command.user.event.ListEventsCmd;
 import org.apache.cloudstack.context.CallContext;
 import org.apache.log4j.Logger;
 
+import com.cloud.api.dispatch.ParamBindingPlan.ParamBinding;
 import com.cloud.exception.InvalidParameterValueException;
 import com.cloud.user.Account;
 import com.cloud.user.AccountManager;
@@ -70,6 +68,7 @@ public class ParamProcessWorker implements DispatchWorker {
     private static final Logger s_logger = Logger.getLogger(ParamProcessWorker.class.getName());
     public final DateFormat inputFormat = new SimpleDateFormat("yyyy-MM-dd");
     public final DateFormat newInputFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    private static final Pattern s_uuidPattern = Pattern.compile("^[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}$");
 
     @Inject
     protected AccountManager _accountMgr;
@@ -146,16 +145,24 @@ public class ParamProcessWorker implements DispatchWorker {
     public void processParameters(final BaseCmd cmd, final Map params) {
         final Map<Object, AccessType> entitiesToAccess = new HashMap<Object, AccessType>();
 
-        final List<Field> cmdFields = cmd.getParamFields();
+        final ParamBindingPlan plan = ParamBindingPlan.get(cmd.getClass());
+        final short callerType = CallContext.current().getCallingAccount().getType();
 
-        for (final Field field : cmdFields) {
-            final Parameter parameterAnnotation = field.getAnnotation(Parameter.class);
-            final Object paramObj = params.get(parameterAnnotation.name());
+        for (final ParamBinding binding : plan.getBindings()) {
+            if (!binding.isAuthorized(callerType)) {
+                if (s_logger.isDebugEnabled()) {
+                    s_logger.debug("Ignoring paremeter " + binding.getName() + " as the caller is not authorized to pass it in");
+                }
+                continue;
+            }
+            final Field field = binding.getField();
+            final Parameter parameterAnnotation = binding.getAnnotation();
+            final Object paramObj = params.get(binding.getName());
             if (paramObj == null) {
-                if (parameterAnnotation.required()) {
+                if (binding.isRequired()) {
                     throw new ServerApiException(ApiErrorCode.PARAM_ERROR, "Unable to execute API command " +
                             cmd.getCommandName().substring(0, cmd.getCommandName().length() - 8) +
-                            " due to missing parameter " + parameterAnnotation.name());
+                            " due to missing parameter " + binding.getName());
                 }
                 continue;
             }
@@ -163,7 +170,7 @@ public class ParamProcessWorker implements DispatchWorker {
             // marshall the parameter into the correct type and set the field value
             try {
                 validateField(paramObj, parameterAnnotation);
-                setFieldValue(field, cmd, paramObj, parameterAnnotation);
+                setFieldValue(binding, plan, cmd, paramObj);
             } catch (final IllegalArgumentException argEx) {
                 if (s_logger.isDebugEnabled()) {
                     s_logger.debug("Unable to execute API command " + cmd.getCommandName() + " due to invalid value " + paramObj + " for parameter " +
@@ -193,8 +200,8 @@ public class ParamProcessWorker implements DispatchWorker {
 
             //check access on the resource this field points to
             try {
-                final ACL checkAccess = field.getAnnotation(ACL.class);
-                final CommandType fieldType = parameterAnnotation.type();
+                final ACL checkAccess = binding.getAcl();
+                final CommandType fieldType = binding.getType();
 
                 if (checkAccess != null) {
                     // Verify that caller can perform actions in behalf of vm
@@ -205,27 +212,20 @@ public class ParamProcessWorker implements DispatchWorker {
                     // for maps, specify access to be checkd on key or value.
                     // Find the controlled entity DBid by uuid
 
-                    if (parameterAnnotation.entityType() != null && parameterAnnotation.entityType().length > 0
-                            && parameterAnnotation.entityType()[0].getAnnotation(EntityReference.class) != null) {
-                        final Class<?>[] entityList = parameterAnnotation.entityType()[0].getAnnotation(EntityReference.class).value();
+                    if (binding.getEntities() != null) {
+                        final Class<?>[] entityList = binding.getEntities();
 
                         // Check if the parameter type is a single
                         // Id or list of id's/name's
                         switch (fieldType) {
                         case LIST:
-                            final CommandType listType = parameterAnnotation.collectionType();
+                            final CommandType listType = binding.getCollectionType();
                             switch (listType) {
                             case LONG:
                             case UUID:
                                 final List<Long> listParam = (List<Long>) field.get(cmd);
-                                for (final Long entityId : listParam) {
-                                    for (final Class entity : entityList) {
-                                        final Object entityObj = _entityMgr.findById(entity, entityId);
-                                        if(entityObj != null){
-                                            entitiesToAccess.put(entityObj, checkAccess.accessType());
-                                            break;
-                                        }
-                                    }
+                                for (final Object entityObj : findEntities(entityList, listParam)) {
+                                    entitiesToAccess.put(entityObj, checkAccess.accessType());
                                 }
                                 break;
                                 /*
@@ -269,6 +269,33 @@ public class ParamProcessWorker implements DispatchWorker {
         doAccessChecks(cmd, entitiesToAccess);
     }
 
+    /**
+     * Looks the ids up in the entity classes, in one query per class. An id
+     * matches the first class it is found in, as when looking them up one by one.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private List<Object> findEntities(final Class<?>[] entityList, final List<Long> ids) {
+        final List<Object> entities = new ArrayList<Object>();
+        final Set<Long> remaining = new HashSet<Long>();
+        for (final Long id : ids) {
+            if (id != null) {
+                remaining.add(id);
+            }
+        }
+        for (final Class entity : entityList) {
+            if (remaining.isEmpty()) {
+                break;
+            }
+            for (final Object entityObj : _entityMgr.listByIds(entity, new ArrayList<Long>(remaining))) {
+                if (entityObj instanceof InternalIdentity && !remaining.remove(((InternalIdentity)entityObj).getId())) {
+                    continue;
+                }
+                entities.add(entityObj);
+            }
+        }
+        return entities;
+    }
+
     private void doAccessChecks(BaseCmd cmd, Map<Object, AccessType> entitiesToAccess) {
         Account caller = CallContext.current().getCallingAccount();
         List<Long> entityOwners = cmd.getEntityOwnerIds();
@@ -300,19 +327,18 @@ public class ParamProcessWorker implements DispatchWorker {
     }
 
     @SuppressWarnings({"unchecked", "rawtypes"})
-    private void setFieldValue(final Field field, final BaseCmd cmdObj, final Object paramObj, final Parameter annotation) throws IllegalArgumentException, ParseException {
+    private void setFieldValue(final ParamBinding binding, final ParamBindingPlan plan, final BaseCmd cmdObj, final Object paramObj) throws IllegalArgumentException,
+            ParseException {
+        final Field field = binding.getField();
         try {
-            field.setAccessible(true);
-            final CommandType fieldType = annotation.type();
-            switch (fieldType) {
+            switch (binding.getType()) {
             case BOOLEAN:
                 field.set(cmdObj, Boolean.valueOf(paramObj.toString()));
                 break;
             case DATE:
                 // This piece of code is for maintaining backward compatibility
                 // and support both the date formats(Bug 9724)
-                if (cmdObj instanceof ListEventsCmd || cmdObj instanceof DeleteEventsCmd || cmdObj instanceof ArchiveEventsCmd ||
-                        cmdObj instanceof ArchiveAlertsCmd || cmdObj instanceof DeleteAlertsCmd || cmdObj instanceof ListUsageRecordsCmd) {
+                if (plan.acceptsLegacyDateFormat()) {
                     final boolean isObjInNewDateFormat = isObjInNewDateFormat(paramObj.toString());
                     if (isObjInNewDateFormat) {
                         final DateFormat newFormat = newInputFormat;
@@ -365,20 +391,27 @@ public class ParamProcessWorker implements DispatchWorker {
                 break;
             case LIST:
                 final List listParam = new ArrayList();
+                final CommandType listType = binding.getCollectionType();
+                if (listType == CommandType.UUID) {
+                    final List<String> uuids = new ArrayList<String>();
+                    final StringTokenizer st = new StringTokenizer(paramObj.toString(), ",");
+                    while (st.hasMoreTokens()) {
+                        final String token = st.nextToken();
+                        if (!token.isEmpty()) {
+                            uuids.add(token);
+                        }
+                    }
+                    listParam.addAll(translateUuidsToInternalIds(uuids, binding));
+                    field.set(cmdObj, listParam);
+                    break;
+                }
                 final StringTokenizer st = new StringTokenizer(paramObj.toString(), ",");
                 while (st.hasMoreTokens()) {
                     final String token = st.nextToken();
-                    final CommandType listType = annotation.collectionType();
                     switch (listType) {
                     case INTEGER:
                         listParam.add(Integer.valueOf(token));
                         break;
-                    case UUID:
-                        if (token.isEmpty())
-                            break;
-                        final Long internalId = translateUuidToInternalId(token, annotation);
-                        listParam.add(internalId);
-                        break;
                     case LONG: {
                         listParam.add(Long.valueOf(token));
                     }
@@ -394,7 +427,7 @@ public class ParamProcessWorker implements DispatchWorker {
                 field.set(cmdObj, listParam);
                 break;
             case UUID:
-                final Long internalId = translateUuidToInternalId(paramObj.toString(), annotation);
+                final Long internalId = translateUuidToInternalId(paramObj.toString(), binding);
                 field.set(cmdObj, internalId);
                 break;
             case LONG:
@@ -405,9 +438,10 @@ public class ParamProcessWorker implements DispatchWorker {
                 break;
             case STRING:
                 if ((paramObj != null)) {
-                    if (paramObj.toString().length() > annotation.length()) {
-                        s_logger.error("Value greater than max allowed length " + annotation.length() + " for param: " + field.getName());
-                        throw new InvalidParameterValueException("Value greater than max allowed length " + annotation.length() + " for param: " + field.getName());
+                    final int maxLength = binding.getAnnotation().length();
+                    if (paramObj.toString().length() > maxLength) {
+                        s_logger.error("Value greater than max allowed length " + maxLength + " for param: " + field.getName());
+                        throw new InvalidParameterValueException("Value greater than max allowed length " + maxLength + " for param: " + field.getName());
                     } else {
                         field.set(cmdObj, paramObj.toString());
                     }
@@ -442,24 +476,34 @@ public class ParamProcessWorker implements DispatchWorker {
         return cal.getTime();
     }
 
-    private Long translateUuidToInternalId(final String uuid, final Parameter annotation) {
+    private static boolean isUuid(final String uuid) {
+        // Match against Java's UUID regex to check if input is uuid string
+        return s_uuidPattern.matcher(uuid).matches();
+    }
+
+    private static Class<?>[] getEntities(final ParamBinding binding) {
+        // UUID CommandType would expect only one entityType, so use the first entityType
+        final Class<?>[] entities = binding.getEntities();
+        if (entities == null) {
+            throw new CloudRuntimeException("Parameter " + binding.getName() + " does not reference an entity with an @EntityReference");
+        }
+        return entities;
+    }
+
+    private Long translateUuidToInternalId(final String uuid, final ParamBinding binding) {
         if (uuid.equals("-1")) {
             // FIXME: This is to handle a lot of hardcoded special cases where -1 is sent
             // APITODO: Find and get rid of all hardcoded params in API Cmds and service layer
             return -1L;
         }
         Long internalId = null;
-        // If annotation's empty, the cmd existed before 3.x try conversion to long
-        final boolean isPre3x = annotation.since().isEmpty();
-        // Match against Java's UUID regex to check if input is uuid string
-        final boolean isUuid = uuid.matches("^[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}$");
+        final boolean isPre3x = binding.isPre3x();
+        final boolean isUuid = isUuid(uuid);
         // Enforce that it's uuid for newly added apis from version 3.x
         if (!isPre3x && !isUuid)
             return null;
 
-        // There may be multiple entities defined on the @EntityReference of a Response.class
-        // UUID CommandType would expect only one entityType, so use the first entityType
-        final Class<?>[] entities = annotation.entityType()[0].getAnnotation(EntityReference.class).value();
+        final Class<?>[] entities = getEntities(binding);
 
         // Allow both uuid and internal id for pre3x apis
         if (isPre3x && !isUuid) {
@@ -473,7 +517,7 @@ public class ParamProcessWorker implements DispatchWorker {
                 for (final Class<?> entity : entities) {
                     CallContext.current().putContextParameter(entity, internalId);
                 }
-                validateNaturalNumber(internalId, annotation.name());
+                validateNaturalNumber(internalId, binding.getName());
                 return internalId;
             }
         }
@@ -503,10 +547,60 @@ public class ParamProcessWorker implements DispatchWorker {
         if (internalId == null) {
             if (s_logger.isDebugEnabled())
                 s_logger.debug("Object entity uuid = " + uuid + " does not exist in the database.");
-            throw new InvalidParameterValueException("Invalid parameter " + annotation.name() + " value=" + uuid +
+            throw new InvalidParameterValueException("Invalid parameter " + binding.getName() + " value=" + uuid +
                     " due to incorrect long value format, or entity does not exist or due to incorrect parameter annotation for the field in api cmd class.");
         }
-        validateNaturalNumber(internalId, annotation.name());
+        validateNaturalNumber(internalId, binding.getName());
         return internalId;
     }
+
+    /**
+     * Translates the uuids of a list parameter, looking them up in one query
+     * per entity class instead of one query per uuid. Internal ids, -1 and
+     * invalid values are translated as single values are.
+     */
+    private List<Long> translateUuidsToInternalIds(final List<String> uuids, final ParamBinding binding) {
+        final Set<String> toLookUp = new HashSet<String>();
+        for (final String uuid : uuids) {
+            if (isUuid(uuid)) {
+                toLookUp.add(uuid);
+            }
+        }
+
+        final Map<String, Long> internalIds = new HashMap<String, Long>();
+        final Map<String, Class<?>> uuidEntities = new HashMap<String, Class<?>>();
+        if (toLookUp.size() > 1) {
+            for (final Class<?> entity : getEntities(binding)) {
+                if (toLookUp.isEmpty()) {
+                    break;
+                }
+                // For backward compatibility, we search within removed entities and let service layer deal
+                // with removed ones, return empty response or error
+                for (final Object objVO : _entityMgr.listByUuidsIncludingRemoved(entity, new ArrayList<String>(toLookUp))) {
+                    if (!(objVO instanceof Identity) || !(objVO instanceof InternalIdentity)) {
+                        continue;
+                    }
+                    final String uuid = ((Identity)objVO).getUuid();
+                    if (toLookUp.remove(uuid)) {
+                        internalIds.put(uuid, ((InternalIdentity)objVO).getId());
+                        uuidEntities.put(uuid, entity);
+                    }
+                }
+            }
+        }
+
+        final List<Long> ids = new ArrayList<Long>(uuids.size());
+        for (final String uuid : uuids) {
+            final Long internalId = internalIds.get(uuid);
+            if (internalId == null) {
+                // not looked up in bulk, or not found: the single lookup reports it the usual way
+                ids.add(translateUuidToInternalId(uuid, binding));
+                continue;
+            }
+            CallContext.current().putContextParameter(uuidEntities.get(uuid), uuid);
+            validateNaturalNumber(internalId, binding.getName());
+            ids.add(internalId);
+        }
+        return ids;
+    }
 }
@@ -39,6 +39,7 @@ import org.apache.cloudstack.affinity.AffinityGroupResponse;
 import org.apache.cloudstack.affinity.AffinityGroupVMMapVO;
 import org.apache.cloudstack.affinity.dao.AffinityGroupDomainMapDao;
 import org.apache.cloudstack.affinity.dao.AffinityGroupVMMapDao;
+import org.apache.cloudstack.api.BaseListCmd;
 import org.apache.cloudstack.api.BaseListProjectAndAccountResourcesCmd;
 import org.apache.cloudstack.api.ResourceDetail;
 import org.apache.cloudstack.api.ResponseGenerator;
@@ -102,6 +103,7 @@ import org.apache.cloudstack.api.response.SecurityGroupResponse;
 import org.apache.cloudstack.api.response.ServiceOfferingResponse;
 import org.apache.cloudstack.api.response.StoragePoolResponse;
 import org.apache.cloudstack.api.response.StorageTagResponse;
+import org.apache.cloudstack.api.response.StreamingListResponse;
 import org.apache.cloudstack.api.response.TemplateResponse;
 import org.apache.cloudstack.api.response.UserResponse;
 import org.apache.cloudstack.api.response.UserVmResponse;
@@ -591,7 +593,17 @@ public class QueryManagerImpl extends MutualExclusiveIdsManagerBase implements Q
     }
 
     @Override
-    public ListResponse<EventResponse> searchForEvents(ListEventsCmd cmd) {
+    public ListResponse<EventResponse> searchForEvents(final ListEventsCmd cmd) {
+        if (isStreamed(cmd) && (cmd.getEntryTime() == null || cmd.getDuration() == null)) {
+            return new StreamingListResponse<EventResponse>(new StreamingListResponse.PageLoader<EventResponse>() {
+                @Override
+                public Pair<List<EventResponse>, Integer> loadPage(long offset, long limit, boolean count) {
+                    Pair<List<EventJoinVO>, Integer> result = searchForEventsInternal(cmd, offset, limit, count);
+                    List<EventResponse> eventResponses = ViewResponseHelper.createEventResponse(result.first().toArray(new EventJoinVO[result.first().size()]));
+                    return new Pair<List<EventResponse>, Integer>(eventResponses, result.second());
+                }
+            }, cmd.getStartIndex(), cmd.getPageSizeVal(), ApiResponseStreamingPageSize.value());
+        }
         Pair<List<EventJoinVO>, Integer> result = searchForEventsInternal(cmd);
         ListResponse<EventResponse> response = new ListResponse<EventResponse>();
         List<EventResponse> eventResponses = ViewResponseHelper.createEventResponse(result.first().toArray(new EventJoinVO[result.first().size()]));
@@ -600,6 +612,48 @@ public class QueryManagerImpl extends MutualExclusiveIdsManagerBase implements Q
     }
 
     private Pair<List<EventJoinVO>, Integer> searchForEventsInternal(ListEventsCmd cmd) {
+        return searchForEventsInternal(cmd, cmd.getStartIndex(), cmd.getPageSizeVal(), true);
+    }
+
+    protected Pair<List<EventJoinVO>, Integer> searchForEventsInternal(ListEventsCmd cmd, Long startIndex, Long pageSize, boolean count) {
+        Integer entryTime = cmd.getEntryTime();
+        Integer duration = cmd.getDuration();
+        Filter searchFilter = new Filter(EventJoinVO.class, "createDate", false, startIndex, pageSize);
+        SearchCriteria<EventJoinVO> sc = createEventSearchCriteria(cmd);
+
+        Pair<List<EventJoinVO>, Integer> eventPair = null;
+        // event_view will not have duplicate rows for each event, so
+        // searchAndCount should be good enough.
+        if ((entryTime != null) && (duration != null)) {
+            // TODO: waiting for response from dev list, logic is mystery to
+            // me!!
+            /*
+             * if (entryTime <= duration) { throw new
+             * InvalidParameterValueException
+             * ("Entry time must be greater than duration"); } Calendar calMin =
+             * Calendar.getInstance(); Calendar calMax = Calendar.getInstance();
+             * calMin.add(Calendar.SECOND, -entryTime);
+             * calMax.add(Calendar.SECOND, -duration); Date minTime =
+             * calMin.getTime(); Date maxTime = calMax.getTime();
+             *
+             * sc.setParameters("state", com.cloud.event.Event.State.Completed);
+             * sc.setParameters("startId", 0); sc.setParameters("createDate",
+             * minTime, maxTime); List<EventJoinVO> startedEvents =
+             * _eventJoinDao.searchAllEvents(sc, searchFilter);
+             * List<EventJoinVO> pendingEvents = new ArrayList<EventJoinVO>();
+             * for (EventVO event : startedEvents) { EventVO completedEvent =
+             * _eventDao.findCompletedEvent(event.getId()); if (completedEvent
+             * == null) { pendingEvents.add(event); } } return pendingEvents;
+             */
+        } else if (count) {
+            eventPair = _eventJoinDao.searchAndCount(sc, searchFilter);
+        } else {
+            eventPair = new Pair<List<EventJoinVO>, Integer>(_eventJoinDao.search(sc, searchFilter), null);
+        }
+        return eventPair;
+    }
+
+    protected SearchCriteria<EventJoinVO> createEventSearchCriteria(ListEventsCmd cmd) {
         Account caller = CallContext.current().getCallingAccount();
         List<Long> permittedAccounts = new ArrayList<Long>();
 
@@ -609,8 +663,6 @@ public class QueryManagerImpl extends MutualExclusiveIdsManagerBase implements Q
         Date startDate = cmd.getStartDate();
         Date endDate = cmd.getEndDate();
         String keyword = cmd.getKeyword();
-        Integer entryTime = cmd.getEntryTime();
-        Integer duration = cmd.getDuration();
         Long startId = cmd.getStartId();
 
         Ternary<Long, Boolean, ListProjectResourcesCriteria> domainIdRecursiveListProject = new Ternary<Long, Boolean, ListProjectResourcesCriteria>(cmd.getDomainId(), cmd.isRecursive(), null);
@@ -619,7 +671,6 @@ public class QueryManagerImpl extends MutualExclusiveIdsManagerBase implements Q
         Boolean isRecursive = domainIdRecursiveListProject.second();
         ListProjectResourcesCriteria listProjectResourcesCriteria = domainIdRecursiveListProject.third();
 
-        Filter searchFilter = new Filter(EventJoinVO.class, "createDate", false, cmd.getStartIndex(), cmd.getPageSizeVal());
         SearchBuilder<EventJoinVO> sb = _eventJoinDao.createSearchBuilder();
         _accountMgr.buildACLViewSearchBuilder(sb, domainId, isRecursive, permittedAccounts, listProjectResourcesCriteria);
 
@@ -681,36 +732,7 @@ public class QueryManagerImpl extends MutualExclusiveIdsManagerBase implements Q
         }
 
         sc.setParameters("archived", false);
-
-        Pair<List<EventJoinVO>, Integer> eventPair = null;
-        // event_view will not have duplicate rows for each event, so
-        // searchAndCount should be good enough.
-        if ((entryTime != null) && (duration != null)) {
-            // TODO: waiting for response from dev list, logic is mystery to
-            // me!!
-            /*
-             * if (entryTime <= duration) { throw new
-             * InvalidParameterValueException
-             * ("Entry time must be greater than duration"); } Calendar calMin =
-             * Calendar.getInstance(); Calendar calMax = Calendar.getInstance();
-             * calMin.add(Calendar.SECOND, -entryTime);
-             * calMax.add(Calendar.SECOND, -duration); Date minTime =
-             * calMin.getTime(); Date maxTime = calMax.getTime();
-             *
-             * sc.setParameters("state", com.cloud.event.Event.State.Completed);
-             * sc.setParameters("startId", 0); sc.setParameters("createDate",
-             * minTime, maxTime); List<EventJoinVO> startedEvents =
-             * _eventJoinDao.searchAllEvents(sc, searchFilter);
-             * List<EventJoinVO> pendingEvents = new ArrayList<EventJoinVO>();
-             * for (EventVO event : startedEvents) { EventVO completedEvent =
-             * _eventDao.findCompletedEvent(event.getId()); if (completedEvent
-             * == null) { pendingEvents.add(event); } } return pendingEvents;
-             */
-        } else {
-            eventPair = _eventJoinDao.searchAndCount(sc, searchFilter);
-        }
-        return eventPair;
-
+        return sc;
     }
 
     @Override
@@ -852,14 +874,23 @@ public class QueryManagerImpl extends MutualExclusiveIdsManagerBase implements Q
     }
 
     @Override
-    public ListResponse<UserVmResponse> searchForUserVMs(ListVMsCmd cmd) {
-        Pair<List<UserVmJoinVO>, Integer> result = searchForUserVMsInternal(cmd);
-        ListResponse<UserVmResponse> response = new ListResponse<UserVmResponse>();
-        ResponseView respView = ResponseView.Restricted;
+    public ListResponse<UserVmResponse> searchForUserVMs(final ListVMsCmd cmd) {
         Account caller = CallContext.current().getCallingAccount();
-        if (_accountMgr.isRootAdmin(caller.getId())) {
-            respView = ResponseView.Full;
+        final ResponseView respView = _accountMgr.isRootAdmin(caller.getId()) ? ResponseView.Full : ResponseView.Restricted;
+        if (isStreamed(cmd)) {
+            return new StreamingListResponse<UserVmResponse>(new StreamingListResponse.PageLoader<UserVmResponse>() {
+                @Override
+                public Pair<List<UserVmResponse>, Integer> loadPage(long offset, long limit, boolean count) {
+                    Pair<List<UserVmJoinVO>, Integer> result = searchForUserVMsInternal(cmd, offset, limit, count);
+                    List<UserVmResponse> vmResponses = ViewResponseHelper.createUserVmResponse(respView, "virtualmachine", cmd.getDetails(),
+                            result.first().toArray(new UserVmJoinVO[result.first().size()]));
+                    return new Pair<List<UserVmResponse>, Integer>(vmResponses, result.second());
+                }
+            }, cmd.getStartIndex(), cmd.getPageSizeVal(), ApiResponseStreamingPageSize.value());
         }
+
+        Pair<List<UserVmJoinVO>, Integer> result = searchForUserVMsInternal(cmd);
+        ListResponse<UserVmResponse> response = new ListResponse<UserVmResponse>();
         List<UserVmResponse> vmResponses = ViewResponseHelper.createUserVmResponse(respView, "virtualmachine", cmd.getDetails(), result.first().toArray(new UserVmJoinVO[result.first().size()]));
 
         response.setResponses(vmResponses, result.second());
@@ -867,6 +898,35 @@ public class QueryManagerImpl extends MutualExclusiveIdsManagerBase implements Q
     }
 
     private Pair<List<UserVmJoinVO>, Integer> searchForUserVMsInternal(ListVMsCmd cmd) {
+        return searchForUserVMsInternal(cmd, cmd.getStartIndex(), cmd.getPageSizeVal(), true);
+    }
+
+    protected Pair<List<UserVmJoinVO>, Integer> searchForUserVMsInternal(ListVMsCmd cmd, Long startIndex, Long pageSize, boolean count) {
+        Filter searchFilter = new Filter(UserVmJoinVO.class, "id", true, startIndex, pageSize);
+        SearchCriteria<UserVmJoinVO> sc = createUserVmSearchCriteria(cmd);
+
+        // search vm details by ids
+        Pair<List<UserVmJoinVO>, Integer> uniqueVmPair;
+        if (count) {
+            uniqueVmPair = _userVmJoinDao.searchAndDistinctCount(sc, searchFilter);
+        } else {
+            uniqueVmPair = new Pair<List<UserVmJoinVO>, Integer>(_userVmJoinDao.search(sc, searchFilter), null);
+        }
+        if (uniqueVmPair.first().isEmpty()) {
+            // handle empty result cases
+            return uniqueVmPair;
+        }
+        List<UserVmJoinVO> uniqueVms = uniqueVmPair.first();
+        Long[] vmIds = new Long[uniqueVms.size()];
+        int i = 0;
+        for (UserVmJoinVO v : uniqueVms) {
+            vmIds[i++] = v.getId();
+        }
+        List<UserVmJoinVO> vms = _userVmJoinDao.searchByIds(vmIds);
+        return new Pair<List<UserVmJoinVO>, Integer>(vms, uniqueVmPair.second());
+    }
+
+    protected SearchCriteria<UserVmJoinVO> createUserVmSearchCriteria(ListVMsCmd cmd) {
         Account caller = CallContext.current().getCallingAccount();
         List<Long> permittedAccounts = new ArrayList<Long>();
 
@@ -881,8 +941,6 @@ public class QueryManagerImpl extends MutualExclusiveIdsManagerBase implements Q
         Boolean isRecursive = domainIdRecursiveListProject.second();
         ListProjectResourcesCriteria listProjectResourcesCriteria = domainIdRecursiveListProject.third();
 
-        Filter searchFilter = new Filter(UserVmJoinVO.class, "id", true, cmd.getStartIndex(), cmd.getPageSizeVal());
-
         List<Long> ids = null;
         if (cmd.getId() != null) {
             if (cmd.getIds() != null && !cmd.getIds().isEmpty()) {
@@ -1137,21 +1195,7 @@ public class QueryManagerImpl extends MutualExclusiveIdsManagerBase implements Q
         if (!isRootAdmin) {
             sc.setParameters("displayVm", 1);
         }
-        // search vm details by ids
-        Pair<List<UserVmJoinVO>, Integer> uniqueVmPair = _userVmJoinDao.searchAndDistinctCount(sc, searchFilter);
-        Integer count = uniqueVmPair.second();
-        if (count.intValue() == 0) {
-            // handle empty result cases
-            return uniqueVmPair;
-        }
-        List<UserVmJoinVO> uniqueVms = uniqueVmPair.first();
-        Long[] vmIds = new Long[uniqueVms.size()];
-        int i = 0;
-        for (UserVmJoinVO v : uniqueVms) {
-            vmIds[i++] = v.getId();
-        }
-        List<UserVmJoinVO> vms = _userVmJoinDao.searchByIds(vmIds);
-        return new Pair<List<UserVmJoinVO>, Integer>(vms, count);
+        return sc;
     }
 
     @Override
@@ -1900,18 +1944,31 @@ public class QueryManagerImpl extends MutualExclusiveIdsManagerBase implements Q
     }
 
     @Override
-    public ListResponse<VolumeResponse> searchForVolumes(ListVolumesCmd cmd) {
-        Pair<List<VolumeJoinVO>, Integer> result = searchForVolumesInternal(cmd);
-        ListResponse<VolumeResponse> response = new ListResponse<VolumeResponse>();
-
-        ResponseView respView = cmd.getResponseView();
+    public ListResponse<VolumeResponse> searchForVolumes(final ListVolumesCmd cmd) {
         Account account = CallContext.current().getCallingAccount();
-        if (_accountMgr.isRootAdmin(account.getAccountId())) {
-            respView = ResponseView.Full;
+        final ResponseView respView = _accountMgr.isRootAdmin(account.getAccountId()) ? ResponseView.Full : cmd.getResponseView();
+        if (isStreamed(cmd)) {
+            return new StreamingListResponse<VolumeResponse>(new StreamingListResponse.PageLoader<VolumeResponse>() {
+                @Override
+                public Pair<List<VolumeResponse>, Integer> loadPage(long offset, long limit, boolean count) {
+                    Pair<List<VolumeJoinVO>, Integer> result = searchForVolumesInternal(cmd, offset, limit, count);
+                    List<VolumeResponse> volumeResponses = ViewResponseHelper.createVolumeResponse(respView, result.first().toArray(new VolumeJoinVO[result.first().size()]));
+                    setVolumeStorageCapabilities(volumeResponses);
+                    return new Pair<List<VolumeResponse>, Integer>(volumeResponses, result.second());
+                }
+            }, cmd.getStartIndex(), cmd.getPageSizeVal(), ApiResponseStreamingPageSize.value());
         }
 
+        Pair<List<VolumeJoinVO>, Integer> result = searchForVolumesInternal(cmd);
+        ListResponse<VolumeResponse> response = new ListResponse<VolumeResponse>();
+
         List<VolumeResponse> volumeResponses = ViewResponseHelper.createVolumeResponse(respView, result.first().toArray(new VolumeJoinVO[result.first().size()]));
+        setVolumeStorageCapabilities(volumeResponses);
+        response.setResponses(volumeResponses, result.second());
+        return response;
+    }
 
+    private void setVolumeStorageCapabilities(List<VolumeResponse> volumeResponses) {
         for (VolumeResponse vr : volumeResponses) {
             String poolId = vr.getStoragePoolId();
             if (poolId == null) {
@@ -1937,11 +1994,38 @@ public class QueryManagerImpl extends MutualExclusiveIdsManagerBase implements Q
                 vr.setSupportsStorageSnapshot(supportsStorageSnapshot);
             }
         }
-        response.setResponses(volumeResponses, result.second());
-        return response;
     }
 
     private Pair<List<VolumeJoinVO>, Integer> searchForVolumesInternal(ListVolumesCmd cmd) {
+        return searchForVolumesInternal(cmd, cmd.getStartIndex(), cmd.getPageSizeVal(), true);
+    }
+
+    protected Pair<List<VolumeJoinVO>, Integer> searchForVolumesInternal(ListVolumesCmd cmd, Long startIndex, Long pageSize, boolean count) {
+        Filter searchFilter = new Filter(VolumeJoinVO.class, "created", false, startIndex, pageSize);
+        SearchCriteria<VolumeJoinVO> sc = createVolumeSearchCriteria(cmd);
+
+        // search Volume details by ids
+        Pair<List<VolumeJoinVO>, Integer> uniqueVolPair;
+        if (count) {
+            uniqueVolPair = _volumeJoinDao.searchAndCount(sc, searchFilter);
+        } else {
+            uniqueVolPair = new Pair<List<VolumeJoinVO>, Integer>(_volumeJoinDao.search(sc, searchFilter), null);
+        }
+        if (uniqueVolPair.first().isEmpty()) {
+            // empty result
+            return uniqueVolPair;
+        }
+        List<VolumeJoinVO> uniqueVols = uniqueVolPair.first();
+        Long[] vrIds = new Long[uniqueVols.size()];
+        int i = 0;
+        for (VolumeJoinVO v : uniqueVols) {
+            vrIds[i++] = v.getId();
+        }
+        List<VolumeJoinVO> vrs = _volumeJoinDao.searchByIds(vrIds);
+        return new Pair<List<VolumeJoinVO>, Integer>(vrs, uniqueVolPair.second());
+    }
+
+    protected SearchCriteria<VolumeJoinVO> createVolumeSearchCriteria(ListVolumesCmd cmd) {
 
         Account caller = CallContext.current().getCallingAccount();
         List<Long> permittedAccounts = new ArrayList<Long>();
@@ -1968,7 +2052,6 @@ public class QueryManagerImpl extends MutualExclusiveIdsManagerBase implements Q
         Long domainId = domainIdRecursiveListProject.first();
         Boolean isRecursive = domainIdRecursiveListProject.second();
         ListProjectResourcesCriteria listProjectResourcesCriteria = domainIdRecursiveListProject.third();
-        Filter searchFilter = new Filter(VolumeJoinVO.class, "created", false, cmd.getStartIndex(), cmd.getPageSizeVal());
 
         // hack for now, this should be done better but due to needing a join I
         // opted to
@@ -2087,21 +2170,7 @@ public class QueryManagerImpl extends MutualExclusiveIdsManagerBase implements Q
             sc.setParameters("stateNEQ", Volume.State.Expunged);
         }
 
-        // search Volume details by ids
-        Pair<List<VolumeJoinVO>, Integer> uniqueVolPair = _volumeJoinDao.searchAndCount(sc, searchFilter);
-        Integer count = uniqueVolPair.second();
-        if (count.intValue() == 0) {
-            // empty result
-            return uniqueVolPair;
-        }
-        List<VolumeJoinVO> uniqueVols = uniqueVolPair.first();
-        Long[] vrIds = new Long[uniqueVols.size()];
-        int i = 0;
-        for (VolumeJoinVO v : uniqueVols) {
-            vrIds[i++] = v.getId();
-        }
-        List<VolumeJoinVO> vrs = _volumeJoinDao.searchByIds(vrIds);
-        return new Pair<List<VolumeJoinVO>, Integer>(vrs, count);
+        return sc;
     }
 
     @Override
@@ -4170,6 +4239,21 @@ public class QueryManagerImpl extends MutualExclusiveIdsManagerBase implements Q
         return responseGenerator.createHealthCheckResponse(_routerDao.findById(routerId), result);
     }
 
+    /**
+     * @return whether the response to cmd has to be loaded and serialized by pages of api.response.streaming.page.size objects
+     */
+    private boolean isStreamed(BaseListCmd cmd) {
+        return isStreamed(cmd, ApiResponseStreamingPageSize.value());
+    }
+
+    protected boolean isStreamed(BaseListCmd cmd, Integer streamingPageSize) {
+        if (streamingPageSize == null || streamingPageSize <= 0) {
+            return false;
+        }
+        Long pageSize = cmd.getPageSizeVal();
+        return pageSize == null || pageSize > streamingPageSize;
+    }
+
     @Override
     public String getConfigComponentName() {
         return QueryService.class.getSimpleName();
@@ -4177,6 +4261,7 @@ public class QueryManagerImpl extends MutualExclusiveIdsManagerBase implements Q
 
     @Override
     public ConfigKey<?>[] getConfigKeys() {
-        return new ConfigKey<?>[] {AllowUserViewDestroyedVM, UserVMDeniedDetails, UserVMReadOnlyDetails, SortKeyAscending, AllowUserViewAllDomainAccounts};
+        return new ConfigKey<?>[] {AllowUserViewDestroyedVM, UserVMDeniedDetails, UserVMReadOnlyDetails, SortKeyAscending, AllowUserViewAllDomainAccounts,
+                ApiResponseStreamingPageSize};
     }
 }
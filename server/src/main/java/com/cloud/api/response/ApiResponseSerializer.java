@@ -19,16 +19,13 @@ package com.cloud.api.response;
 import com.cloud.api.ApiDBUtils;
 import com.cloud.api.ApiResponseGsonHelper;
 import com.cloud.api.ApiServer;
-import com.cloud.serializer.Param;
+import com.cloud.api.response.ResponseFields.ResponseField;
 import com.cloud.user.Account;
 import com.cloud.utils.HttpUtils;
 import com.cloud.utils.encoding.URLEncoder;
-import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.utils.exception.ExceptionProxyObject;
 import com.google.gson.Gson;
-import com.google.gson.annotations.SerializedName;
 
-import org.apache.cloudstack.acl.RoleType;
 import org.apache.cloudstack.api.ApiConstants;
 import org.apache.cloudstack.api.BaseCmd;
 import org.apache.cloudstack.api.ResponseObject;
@@ -37,14 +34,13 @@ import org.apache.cloudstack.api.response.AuthenticationCmdResponse;
 import org.apache.cloudstack.api.response.CreateCmdResponse;
 import org.apache.cloudstack.api.response.ExceptionResponse;
 import org.apache.cloudstack.api.response.ListResponse;
+import org.apache.cloudstack.api.response.StreamingListResponse;
 import org.apache.cloudstack.api.response.SuccessResponse;
 import org.apache.cloudstack.context.CallContext;
 import org.apache.log4j.Logger;
 
-import java.lang.reflect.Field;
-import java.lang.reflect.Modifier;
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.io.IOException;
+import java.io.Writer;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
@@ -72,21 +68,105 @@ public class ApiResponseSerializer {
         }
     }
 
+    /**
+     * Writes the serialized response to out. The pages of a {@link StreamingListResponse} are serialized and
+     * written one after another, and only their number of objects is logged.
+     */
+    public static void writeSerializedStringWithSecureLogs(ResponseObject result, String responseType, Writer out, StringBuilder log) throws IOException {
+        if (!(result instanceof StreamingListResponse)) {
+            String response = toSerializedStringWithSecureLogs(result, responseType, log);
+            if (response != null) {
+                out.write(response);
+            }
+            return;
+        }
+        s_logger.trace("===Streaming Response===");
+        int streamed;
+        if (HttpUtils.RESPONSE_TYPE_JSON.equalsIgnoreCase(responseType)) {
+            streamed = writeJSONStreamingListResponse((StreamingListResponse<?>)result, out);
+        } else {
+            streamed = writeXMLStreamingListResponse((StreamingListResponse<?>)result, out);
+        }
+        log.append(result.getResponseName()).append(": ").append(streamed).append(" of ").append(((StreamingListResponse<?>)result).getCount())
+                .append(" objects streamed");
+    }
+
+    private static int writeJSONStreamingListResponse(StreamingListResponse<?> result, Writer out) throws IOException {
+        Gson responseBuilder = ApiResponseGsonHelper.getGson();
+        Integer count = result.getCount();
+        boolean nonZeroCount = (count != null && count.longValue() != 0);
+
+        out.write("{\"" + result.getResponseName() + "\":");
+        if (nonZeroCount) {
+            out.write("{\"" + ApiConstants.COUNT + "\":" + count);
+        }
+        int streamed = 0;
+        for (List<? extends ResponseObject> page : result.pages()) {
+            for (ResponseObject response : page) {
+                String jsonStr = unescape(responseBuilder.toJson(response));
+                if (streamed > 0) {
+                    out.write(",");
+                    out.write(jsonStr);
+                } else if (nonZeroCount) {
+                    out.write(",\"" + response.getObjectName() + "\":[");
+                    out.write(jsonStr);
+                }
+                streamed++;
+            }
+        }
+        if (streamed > 0) {
+            out.write("]}");
+        } else {
+            out.write(nonZeroCount ? "}" : "{}");
+        }
+        out.write("}");
+        return streamed;
+    }
+
+    private static int writeXMLStreamingListResponse(StreamingListResponse<?> result, Writer out) throws IOException {
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        out.write("<" + result.getResponseName() + " cloud-stack-version=\"" + ApiDBUtils.getVersion() + "\">");
+        Integer count = result.getCount();
+        if (count != null && count != 0) {
+            out.write("<" + ApiConstants.COUNT + ">" + count + "</" + ApiConstants.COUNT + ">");
+        }
+        int streamed = 0;
+        StringBuilder sb = new StringBuilder();
+        StringBuilder log = new StringBuilder();
+        for (List<? extends ResponseObject> page : result.pages()) {
+            for (ResponseObject response : page) {
+                serializeResponseObjXML(sb, log, response);
+                out.append(sb);
+                sb.setLength(0);
+                log.setLength(0);
+                streamed++;
+            }
+        }
+        out.write("</" + result.getResponseName() + ">");
+        return streamed;
+    }
+
     private static final Pattern s_unicodeEscapePattern = Pattern.compile("\\\\u([0-9A-Fa-f]{4})");
 
+    private static final Pattern s_plusPattern = Pattern.compile("\\+");
+
     public static String unescape(String escaped) {
-        String str = escaped;
-        Matcher matcher = s_unicodeEscapePattern.matcher(str);
+        if (escaped.indexOf("\\u") < 0) {
+            return escaped;
+        }
+        Matcher matcher = s_unicodeEscapePattern.matcher(escaped);
+        StringBuffer sb = new StringBuffer(escaped.length());
         while (matcher.find()) {
-            str = str.replaceAll("\\" + matcher.group(0), Character.toString((char)Integer.parseInt(matcher.group(1), 16)));
+            matcher.appendReplacement(sb, Matcher.quoteReplacement(Character.toString((char)Integer.parseInt(matcher.group(1), 16))));
         }
-        return str;
+        matcher.appendTail(sb);
+        return sb.toString();
     }
 
     public static String toJSONSerializedString(ResponseObject result, StringBuilder log) {
         if (result != null && log != null) {
-            Gson responseBuilder = ApiResponseGsonHelper.getBuilder().excludeFieldsWithModifiers(Modifier.TRANSIENT).create();
-            Gson logBuilder = ApiResponseGsonHelper.getLogBuilder().excludeFieldsWithModifiers(Modifier.TRANSIENT).create();
+            Gson responseBuilder = ApiResponseGsonHelper.getGson();
+            Gson logBuilder = ApiResponseGsonHelper.getLogGson();
 
             StringBuilder sb = new StringBuilder();
 
@@ -214,63 +294,26 @@ public class ApiResponseSerializer {
         }
     }
 
-    private static Field[] getFlattenFields(Class<?> clz) {
-        List<Field> fields = new ArrayList<Field>();
-        fields.addAll(Arrays.asList(clz.getDeclaredFields()));
-        if (clz.getSuperclass() != null) {
-            fields.addAll(Arrays.asList(getFlattenFields(clz.getSuperclass())));
-        }
-        return fields.toArray(new Field[] {});
-    }
-
     private static void serializeResponseObjFieldsXML(StringBuilder sb, StringBuilder log, ResponseObject obj) {
         boolean isAsync = false;
         if (obj instanceof AsyncJobResponse)
             isAsync = true;
 
-        Field[] fields = getFlattenFields(obj.getClass());
-        for (Field field : fields) {
-            if ((field.getModifiers() & Modifier.TRANSIENT) != 0) {
-                continue; // skip transient fields
-            }
-
-            SerializedName serializedName = field.getAnnotation(SerializedName.class);
-            if (serializedName == null) {
-                continue; // skip fields w/o serialized name
-            }
-
-            boolean logField = true;
-            Param param = field.getAnnotation(Param.class);
-            if (param != null) {
-                RoleType[] allowedRoles = param.authorized();
-                if (allowedRoles.length > 0) {
-                    boolean permittedParameter = false;
-                    Account caller = CallContext.current().getCallingAccount();
-                    for (RoleType allowedRole : allowedRoles) {
-                        if (allowedRole.getAccountType() == caller.getType()) {
-                            permittedParameter = true;
-                            break;
-                        }
-                    }
-                    if (!permittedParameter) {
-                        s_logger.trace("Ignoring parameter " + param.name() + " as the caller is not authorized to see it");
-                        continue;
-                    }
+        Account caller = null;
+        for (ResponseField field : ResponseFields.get(obj.getClass())) {
+            if (field.isRestricted()) {
+                if (caller == null) {
+                    caller = CallContext.current().getCallingAccount();
                 }
-                if (param.isSensitive()) {
-                    logField = false;
+                if (!field.isAuthorized(caller.getType())) {
+                    s_logger.trace("Ignoring parameter " + field.getParamName() + " as the caller is not authorized to see it");
+                    continue;
                 }
             }
+            boolean logField = !field.isSensitive();
+            String serializedName = field.getName();
 
-            field.setAccessible(true);
-            Object fieldValue = null;
-            try {
-                fieldValue = field.get(obj);
-            } catch (IllegalArgumentException e) {
-                throw new CloudRuntimeException("how illegal is it?", e);
-            } catch (IllegalAccessException e) {
-                throw new CloudRuntimeException("come on...we set accessible already", e);
-            }
+            Object fieldValue = field.getValue(obj);
             if (fieldValue != null) {
                 if (fieldValue instanceof ResponseObject) {
                     ResponseObject subObj = (ResponseObject)fieldValue;
@@ -289,9 +332,7 @@ public class ApiResponseSerializer {
                     for (Object value : subResponseList) {
                         if (value instanceof ResponseObject) {
                             ResponseObject subObj = (ResponseObject)value;
-                            if (serializedName != null) {
-                                subObj.setObjectName(serializedName.value());
-                            }
+                            subObj.setObjectName(serializedName);
                             serializeResponseObjXML(sb, log, subObj);
                         } else if (value instanceof ExceptionProxyObject) {
                             // Only exception reponses carry a list of
@@ -300,8 +341,8 @@ public class ApiResponseSerializer {
                             // If this is the first IdentityProxy field
                             // encountered, put in a uuidList tag.
                             if (!usedUuidList) {
-                                sb.append("<" + serializedName.value() + ">");
-                                log.append("<" + serializedName.value() + ">");
+                                sb.append("<" + serializedName + ">");
+                                log.append("<" + serializedName + ">");
                                 usedUuidList = true;
                             }
                             sb.append("<" + "uuid" + ">" + idProxy.getUuid() + "</" + "uuid" + ">");
@@ -313,29 +354,29 @@ public class ApiResponseSerializer {
                                 log.append("<" + "uuidProperty" + ">" + idFieldName + "</" + "uuidProperty" + ">");
                             }
                         } else if (value instanceof String) {
-                            sb.append("<").append(serializedName.value()).append(">").append(value).append("</").append(serializedName.value()).append(">");
+                            sb.append("<").append(serializedName).append(">").append(value).append("</").append(serializedName).append(">");
                             if (logField) {
-                                log.append("<").append(serializedName.value()).append(">").append(value).append("</").append(serializedName.value()).append(">");
+                                log.append("<").append(serializedName).append(">").append(value).append("</").append(serializedName).append(">");
                             }
                         }
                     }
                     if (usedUuidList) {
                         // close the uuidList.
-                        sb.append("</").append(serializedName.value()).append(">");
-                        log.append("</").append(serializedName.value()).append(">");
+                        sb.append("</").append(serializedName).append(">");
+                        log.append("</").append(serializedName).append(">");
                     }
                 } else if (fieldValue instanceof Date) {
-                    sb.append("<").append(serializedName.value()).append(">").append(BaseCmd.getDateString((Date)fieldValue)).append("</").append(serializedName.value()).append(">");
-                    log.append("<").append(serializedName.value()).append(">").append(BaseCmd.getDateString((Date)fieldValue)).append("</").append(serializedName.value()).append(">");
+                    sb.append("<").append(serializedName).append(">").append(BaseCmd.getDateString((Date)fieldValue)).append("</").append(serializedName).append(">");
+                    log.append("<").append(serializedName).append(">").append(BaseCmd.getDateString((Date)fieldValue)).append("</").append(serializedName).append(">");
                 } else {
                     String resultString = escapeSpecialXmlChars(fieldValue.toString());
                     if (!(obj instanceof ExceptionResponse)) {
                         resultString = encodeParam(resultString);
                     }
 
-                    sb.append("<").append(serializedName.value()).append(">").append(resultString).append("</").append(serializedName.value()).append(">");
+                    sb.append("<").append(serializedName).append(">").append(resultString).append("</").append(serializedName).append(">");
                     if (logField) {
-                        log.append("<").append(serializedName.value()).append(">").append(resultString).append("</").append(serializedName.value()).append(">");
+                        log.append("<").append(serializedName).append(">").append(resultString).append("</").append(serializedName).append(">");
                     }
                 }
             }
@@ -370,7 +411,7 @@ public class ApiResponseSerializer {
             return value;
         }
         try {
-            return new URLEncoder().encode(value).replaceAll("\\+", "%20");
+            return s_plusPattern.matcher(new URLEncoder().encode(value)).replaceAll("%20");
         } catch (Exception e) {
             s_logger.warn("Unable to encode: " + value, e);
         }
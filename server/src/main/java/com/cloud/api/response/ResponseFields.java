@@ -0,0 +1,126 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api.response;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.cloudstack.acl.RoleType;
+
+import com.cloud.serializer.Param;
+import com.cloud.utils.exception.CloudRuntimeException;
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * Serialized fields of a response class, resolved once per class: the
+ * non-transient fields with a {@link SerializedName}, from the class itself
+ * up to its super classes, along with their {@link Param} metadata.
+ */
+public class ResponseFields {
+    private static final ConcurrentMap<Class<?>, List<ResponseField>> s_fields = new ConcurrentHashMap<Class<?>, List<ResponseField>>();
+
+    public static List<ResponseField> get(Class<?> clz) {
+        List<ResponseField> fields = s_fields.get(clz);
+        if (fields == null) {
+            fields = resolve(clz);
+            List<ResponseField> existing = s_fields.putIfAbsent(clz, fields);
+            if (existing != null) {
+                fields = existing;
+            }
+        }
+        return fields;
+    }
+
+    private static List<ResponseField> resolve(Class<?> clz) {
+        List<ResponseField> fields = new ArrayList<ResponseField>();
+        for (Class<?> c = clz; c != null; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                if ((field.getModifiers() & Modifier.TRANSIENT) != 0) {
+                    continue; // skip transient fields
+                }
+                SerializedName serializedName = field.getAnnotation(SerializedName.class);
+                if (serializedName == null) {
+                    continue; // skip fields w/o serialized name
+                }
+                field.setAccessible(true);
+                fields.add(new ResponseField(field, serializedName.value(), field.getAnnotation(Param.class)));
+            }
+        }
+        return Collections.unmodifiableList(fields);
+    }
+
+    public static class ResponseField {
+        private static final RoleType[] NO_ROLES = new RoleType[0];
+
+        private final Field _field;
+        private final String _name;
+        private final String _paramName;
+        private final RoleType[] _authorized;
+        private final boolean _sensitive;
+
+        ResponseField(Field field, String name, Param param) {
+            _field = field;
+            _name = name;
+            _paramName = param != null ? param.name() : null;
+            _authorized = param != null ? param.authorized() : NO_ROLES;
+            _sensitive = param != null && param.isSensitive();
+        }
+
+        public String getName() {
+            return _name;
+        }
+
+        public String getParamName() {
+            return _paramName;
+        }
+
+        public boolean isRestricted() {
+            return _authorized.length > 0;
+        }
+
+        public boolean isAuthorized(short accountType) {
+            if (_authorized.length == 0) {
+                return true;
+            }
+            for (RoleType allowedRole : _authorized) {
+                if (allowedRole.getAccountType() == accountType) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public boolean isSensitive() {
+            return _sensitive;
+        }
+
+        public Object getValue(Object obj) {
+            try {
+                return _field.get(obj);
+            } catch (IllegalArgumentException e) {
+                throw new CloudRuntimeException("how illegal is it?", e);
+            } catch (IllegalAccessException e) {
+                throw new CloudRuntimeException("come on...we set accessible already", e);
+            }
+        }
+    }
+}
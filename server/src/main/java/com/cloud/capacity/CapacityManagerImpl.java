@@ -17,6 +17,7 @@
 package com.cloud.capacity;
 
 import java.net.URI;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -876,8 +877,7 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
             }
 
             try {
-                _capacityDao.update(cpuCap.getId(), cpuCap);
-                _capacityDao.update(memCap.getId(), memCap);
+                _capacityDao.updateBatch(Arrays.asList(cpuCap, memCap));
             } catch (Exception e) {
                 s_logger.error("Caught exception while updating cpu/memory capacity for the host " + host.getId(), e);
             }
@@ -889,19 +889,18 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
             Transaction.execute(new TransactionCallbackNoReturn() {
                 @Override
                 public void doInTransactionWithoutResult(TransactionStatus status) {
-                    CapacityVO capacity =
+                    CapacityVO memCapacity =
                         new CapacityVO(host.getId(), host.getDataCenterId(), host.getPodId(), host.getClusterId(), usedMemoryFinal, host.getTotalMemory(),
                             Capacity.CAPACITY_TYPE_MEMORY);
-                    capacity.setReservedCapacity(reservedMemoryFinal);
-                    capacity.setCapacityState(capacityState);
-                    _capacityDao.persist(capacity);
+                    memCapacity.setReservedCapacity(reservedMemoryFinal);
+                    memCapacity.setCapacityState(capacityState);
 
-                    capacity =
+                    CapacityVO cpuCapacity =
                         new CapacityVO(host.getId(), host.getDataCenterId(), host.getPodId(), host.getClusterId(), usedCpuFinal, host.getCpus().longValue() *
                             host.getSpeed().longValue(), Capacity.CAPACITY_TYPE_CPU);
-                    capacity.setReservedCapacity(reservedCpuFinal);
-                    capacity.setCapacityState(capacityState);
-                    _capacityDao.persist(capacity);
+                    cpuCapacity.setReservedCapacity(reservedCpuFinal);
+                    cpuCapacity.setCapacityState(capacityState);
+                    _capacityDao.persistBatch(Arrays.asList(memCapacity, cpuCapacity));
                 }
             });
 
@@ -337,6 +337,22 @@ public enum Config {
             "100",
             "The number of outstanding security group work items that can be queued to a host. If exceeded, work items will get dropped to conserve memory. Security Group Sync will take care of ensuring that the host gets updated eventually",
             null),
+    SecurityGroupIncrementalUpdates(
+            "Network",
+            ManagementServer.class,
+            Boolean.class,
+            "network.securitygroups.incremental.updates",
+            "false",
+            "If true, KVM hosts keep the members of the security groups in ipsets and only get the members added or removed when a vm starts or stops, instead of the full rules of every vm allowing its groups. Requires the security_group.py of this release on the hosts, and only applies to the rules programmed after the management server restart",
+            null),
+    SecurityGroupWorkPerAgentBatchSize(
+            "Network",
+            ManagementServer.class,
+            Integer.class,
+            "network.securitygroups.work.per.agent.batch.size",
+            "20",
+            "The maximum number of security group work items a worker takes from the queue at once. The rulesets of the vms running on the same host are sent to it in a single request",
+            null),
 
     SecurityGroupDefaultAdding(
             "Network",
@@ -1221,6 +1237,14 @@ public enum Config {
             null,
             "Interval (in days) to check sanity of usage data. To disable set it to 0 or negative.",
             null),
+    UsageParseWorkers(
+            "Usage",
+            ManagementServer.class,
+            Integer.class,
+            "usage.parse.workers",
+            "1",
+            "Number of workers parsing the usage of the accounts in parallel, 1 to parse them one after another.",
+            null),
     UsageAggregationTimezone("Usage", ManagementServer.class, String.class, "usage.aggregation.timezone", "GMT", "The timezone to use for usage stats aggregation", null),
     TrafficSentinelIncludeZones(
             "Usage",
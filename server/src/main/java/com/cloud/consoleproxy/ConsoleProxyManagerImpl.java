@@ -277,10 +277,7 @@ public class ConsoleProxyManagerImpl extends ManagerBase implements ConsoleProxy
             }
 
             if (status != null) {
-                int count = 0;
-                if (status.getConnections() != null) {
-                    count = status.getConnections().length;
-                }
+                int count = getProxyLoad(status);
 
                 byte[] details = null;
                 if (cmd.getLoadInfo() != null) {
@@ -806,6 +803,24 @@ public class ConsoleProxyManagerImpl extends ManagerBase implements ConsoleProxy
         return null;
     }
 
+    /**
+     * The number of sessions of the proxy. An overloaded proxy counts as full,
+     * so the new sessions are assigned to the other proxies.
+     */
+    protected int getProxyLoad(ConsoleProxyStatus status) {
+        int count = 0;
+        if (status.getConnections() != null) {
+            count = status.getConnections().length;
+        }
+        if (status.isOverloaded()) {
+            if (s_logger.isDebugEnabled()) {
+                s_logger.debug("Console proxy reports " + status.getRequestQueueDepth() + " queued and " + status.getRejectedRequests() + " rejected requests, considering it full");
+            }
+            count = Math.max(count, _capacityPerProxy);
+        }
+        return count;
+    }
+
     public void onLoadAnswer(ConsoleProxyLoadAnswer answer) {
         if (answer.getDetails() == null) {
             return;
@@ -822,10 +837,7 @@ public class ConsoleProxyManagerImpl extends ManagerBase implements ConsoleProxy
         }
 
         if (status != null) {
-            int count = 0;
-            if (status.getConnections() != null) {
-                count = status.getConnections().length;
-            }
+            int count = getProxyLoad(status);
 
             byte[] details = null;
             if (answer.getDetails() != null) {
@@ -19,6 +19,7 @@ package com.cloud.network;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.Collections;
 import java.util.List;
 
 import javax.inject.Inject;
@@ -44,6 +45,7 @@ import com.cloud.network.dao.NetworkDao;
 import com.cloud.network.dao.NetworkVO;
 import com.cloud.utils.component.ManagerBase;
 import com.cloud.utils.db.DB;
+import com.cloud.utils.db.EntityCache;
 import com.cloud.utils.db.QueryBuilder;
 import com.cloud.utils.db.SearchCriteria.Op;
 import com.cloud.utils.db.Transaction;
@@ -126,6 +128,8 @@ public class StorageNetworkManagerImpl extends ManagerBase implements StorageNet
                 stmt_update.executeUpdate();
             }
         }
+        // The zone is cached and its mac_address was bumped behind the back of its DAO.
+        EntityCache.invalidateOnWrite(Collections.singleton("data_center"), zoneId);
     }
 
     @Override
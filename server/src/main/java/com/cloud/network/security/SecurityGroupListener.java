@@ -81,9 +81,11 @@ public class SecurityGroupListener implements Listener {
     @Override
     public boolean processAnswers(long agentId, long seq, Answer[] answers) {
         List<Long> affectedVms = new ArrayList<Long>();
+        boolean ruleAnswers = false;
 
         for (Answer ans : answers) {
             if (ans instanceof SecurityGroupRuleAnswer) {
+                ruleAnswers = true;
                 SecurityGroupRuleAnswer ruleAnswer = (SecurityGroupRuleAnswer)ans;
                 if (ans.getResult()) {
                     s_logger.debug("Successfully programmed rule " + ruleAnswer.toString() + " into host " + agentId);
@@ -106,12 +108,14 @@ public class SecurityGroupListener implements Listener {
                         }
                     }
                 }
-
-                if (_workTracker != null)
-                    _workTracker.processAnswers(agentId, seq, answers);
             }
         }
 
+        // the rulesets of a host are sent in a single request, acknowledged once
+        if (ruleAnswers && _workTracker != null) {
+            _workTracker.processAnswers(agentId, seq, answers);
+        }
+
         if (affectedVms.size() > 0) {
             _securityGroupManager.scheduleRulesetUpdateToHosts(affectedVms, false, new Long(10 * 1000l));
         }
@@ -30,6 +30,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -55,8 +56,10 @@ import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 
 import com.cloud.agent.AgentManager;
+import com.cloud.agent.api.Answer;
 import com.cloud.agent.api.NetworkRulesSystemVmCommand;
 import com.cloud.agent.api.NetworkRulesVmSecondaryIpCommand;
+import com.cloud.agent.api.SecurityGroupMembersCmd;
 import com.cloud.agent.api.SecurityGroupRulesCmd;
 import com.cloud.agent.api.SecurityGroupRulesCmd.IpPortAndProto;
 import com.cloud.agent.api.to.VirtualMachineTO;
@@ -174,12 +177,14 @@ public class SecurityGroupManagerImpl extends ManagerBase implements SecurityGro
 
     ScheduledExecutorService _executorPool;
     ScheduledExecutorService _cleanupExecutor;
+    ExecutorService _memberUpdateExecutor;
 
     protected long _serverId;
 
     private int _timeBetweenCleanups = TIME_BETWEEN_CLEANUPS; // seconds
     protected int _numWorkerThreads = WORKER_THREAD_COUNT;
     private int _globalWorkLockTimeout = 300; // 5 minutes
+    protected boolean _incrementalUpdates = false;
 
     private final GlobalLock _workLock = GlobalLock.getInternLock("SecurityGroupWork");
 
@@ -316,6 +321,15 @@ public class SecurityGroupManagerImpl extends ManagerBase implements SecurityGro
 
         @Override
         public int compare(String cidr1, String cidr2) {
+            // groups first, they aren't cidrs
+            boolean group1 = cidr1.startsWith(SecurityGroupRulesCmd.GROUP_PREFIX);
+            boolean group2 = cidr2.startsWith(SecurityGroupRulesCmd.GROUP_PREFIX);
+            if (group1 || group2) {
+                if (group1 && group2) {
+                    return cidr1.compareTo(cidr2);
+                }
+                return group1 ? -1 : 1;
+            }
             // parse both to find significance first (low number of bits is high)
             // if equal then just do a string compare
             if (significance(cidr1) == significance(cidr2)) {
@@ -366,6 +380,89 @@ public class SecurityGroupManagerImpl extends ManagerBase implements SecurityGro
         return allowed;
     }
 
+    /**
+     * Same as {@link #generateRulesForVM(Long, SecurityRuleType)} unless
+     * groupMembers is given, then the groups allowed by the rules are
+     * referenced by id and their running members added to groupMembers,
+     * with the version of these members in groupMembersVersions.
+     */
+    protected Map<PortAndProto, Set<String>> generateRulesForVM(Long userVmId, SecurityRuleType type, Map<Long, List<String>> groupMembers,
+            Map<Long, Long> groupMembersVersions) {
+        if (groupMembers == null) {
+            return generateRulesForVM(userVmId, type);
+        }
+
+        Map<PortAndProto, Set<String>> allowed = new TreeMap<PortAndProto, Set<String>>();
+
+        List<SecurityGroupVMMapVO> groupsForVm = _securityGroupVMMapDao.listByInstanceId(userVmId);
+        for (SecurityGroupVMMapVO mapVO : groupsForVm) {
+            List<SecurityGroupRuleVO> rules = _securityGroupRuleDao.listBySecurityGroupId(mapVO.getSecurityGroupId(), type);
+            for (SecurityGroupRuleVO rule : rules) {
+                PortAndProto portAndProto = new PortAndProto(rule.getProtocol(), rule.getStartPort(), rule.getEndPort());
+                Set<String> cidrs = allowed.get(portAndProto);
+                if (cidrs == null) {
+                    cidrs = new TreeSet<String>(new CidrComparator());
+                }
+                if (rule.getAllowedNetworkId() != null) {
+                    Long groupId = rule.getAllowedNetworkId();
+                    cidrs.add(SecurityGroupRulesCmd.GROUP_PREFIX + groupId);
+                    if (!groupMembers.containsKey(groupId)) {
+                        // The version is read first, the members are at least as recent
+                        SecurityGroupVO group = _securityGroupDao.findById(groupId);
+                        groupMembersVersions.put(groupId, group != null ? group.getMembersVersion() : 0L);
+                        groupMembers.put(groupId, listRunningMemberCidrs(groupId));
+                    }
+                } else if (rule.getAllowedSourceIpCidr() != null) {
+                    cidrs.add(rule.getAllowedSourceIpCidr());
+                }
+                if (cidrs.size() > 0) {
+                    allowed.put(portAndProto, cidrs);
+                }
+            }
+        }
+
+        return allowed;
+    }
+
+    /**
+     * @return the addresses of the default nics of the running members, the
+     *         only ones the rules listing the members admit.
+     */
+    protected List<String> listRunningMemberCidrs(long groupId) {
+        Set<Long> memberIds = new HashSet<Long>();
+        Set<String> cidrs = new TreeSet<String>(new CidrComparator());
+        for (SecurityGroupVMMapVO member : _securityGroupVMMapDao.listBySecurityGroup(groupId, State.Running)) {
+            // One row per nic of the member
+            if (memberIds.add(member.getInstanceId())) {
+                String cidr = getDefaultNicCidr(member.getInstanceId());
+                if (cidr != null) {
+                    cidrs.add(cidr);
+                }
+            }
+        }
+        return new ArrayList<String>(cidrs);
+    }
+
+    protected String getDefaultNicCidr(long vmId) {
+        Nic defaultNic = _networkModel.getDefaultNic(vmId);
+        if (defaultNic == null || defaultNic.getIPv4Address() == null) {
+            return null;
+        }
+        return defaultNic.getIPv4Address() + "/32";
+    }
+
+    /**
+     * @return true if the rules of the vm reference the groups it allows
+     *         rather than list their members.
+     */
+    protected static boolean supportsGroupMembers(HypervisorType hypervisorType) {
+        return hypervisorType == HypervisorType.KVM || hypervisorType == HypervisorType.Simulator;
+    }
+
+    protected boolean isIncremental(VirtualMachine vm) {
+        return _incrementalUpdates && supportsGroupMembers(vm.getHypervisorType());
+    }
+
     protected String generateRulesetSignature(Map<PortAndProto, Set<String>> ingress, Map<PortAndProto, Set<String>> egress) {
         String ruleset = ingress.toString();
         ruleset = ruleset.concat(egress.toString());
@@ -376,10 +473,120 @@ public class SecurityGroupManagerImpl extends ManagerBase implements SecurityGro
         if (vm.getType() != VirtualMachine.Type.User || !isVmSecurityGroupEnabled(vm.getId())) {
             return;
         }
+        if (_incrementalUpdates) {
+            handleMembershipChange(vm, true);
+            return;
+        }
         List<Long> affectedVms = getAffectedVmsForVmStart(vm);
         scheduleRulesetUpdateToHosts(affectedVms, true, null);
     }
 
+    /**
+     * Incremental counterpart of {@link #getAffectedVmsForVmStart} and
+     * {@link #getAffectedVmsForVmStop}: the KVM hosts running vms that allow
+     * one of the groups of the vm get its addresses added to or removed from
+     * the sets of these groups, one command per host. The other affected vms,
+     * and the vm itself when it starts, get their full rules.
+     */
+    protected void handleMembershipChange(VMInstanceVO vm, boolean started) {
+        Set<Long> fullUpdates = new TreeSet<Long>();
+        if (started) {
+            fullUpdates.add(vm.getId());
+        }
+        Map<Long, SecurityGroupMembersCmd> memberUpdates = new HashMap<Long, SecurityGroupMembersCmd>();
+        Map<Long, Set<Long>> vmsByHost = new HashMap<Long, Set<Long>>();
+        List<String> cidrs = new ArrayList<String>();
+        String cidr = getDefaultNicCidr(vm.getId());
+        if (cidr != null) {
+            cidrs.add(cidr);
+        }
+
+        List<SecurityGroupVMMapVO> groupsForVm = _securityGroupVMMapDao.listByInstanceId(vm.getId());
+        for (SecurityGroupVMMapVO mapVO : groupsForVm) {
+            publishMembershipUsageEvent(vm, mapVO.getSecurityGroupId(), started);
+            // Every change gets a new version, hosts holding the previous one apply it, the others get full rules
+            long version = _securityGroupDao.incrementMembersVersion(mapVO.getSecurityGroupId());
+
+            Set<Long> allowingGroups = new HashSet<Long>();
+            for (SecurityGroupRuleVO allowingRule : _securityGroupRuleDao.listByAllowedSecurityGroupId(mapVO.getSecurityGroupId())) {
+                allowingGroups.add(allowingRule.getSecurityGroupId());
+            }
+            for (Long allowingGroup : allowingGroups) {
+                for (SecurityGroupVMMapVO member : _securityGroupVMMapDao.listBySecurityGroup(allowingGroup, State.Running)) {
+                    if (member.getInstanceId() == vm.getId()) {
+                        continue;
+                    }
+                    Long hostId = member.getHostId();
+                    if (hostId == null || !supportsGroupMembers(member.getHypervisorType())) {
+                        fullUpdates.add(member.getInstanceId());
+                        continue;
+                    }
+                    SecurityGroupMembersCmd cmd = memberUpdates.get(hostId);
+                    if (cmd == null) {
+                        cmd = new SecurityGroupMembersCmd();
+                        cmd.setMsId(_serverId);
+                        memberUpdates.put(hostId, cmd);
+                        vmsByHost.put(hostId, new TreeSet<Long>());
+                    }
+                    SecurityGroupMembersCmd.GroupMembers members = cmd.getGroup(mapVO.getSecurityGroupId());
+                    members.setVersion(version);
+                    List<String> changed = started ? members.getAdded() : members.getRemoved();
+                    if (changed.isEmpty()) {
+                        changed.addAll(cidrs);
+                    }
+                    vmsByHost.get(hostId).add(member.getInstanceId());
+                }
+            }
+        }
+
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Security Group Mgr: " + (started ? "start" : "stop") + " of vm " + vm.getId() + " updates the members on " + memberUpdates.size() +
+                    " hosts for " + (vmsByHost.isEmpty() ? 0 : countVms(vmsByHost)) + " vms, full rules for " + fullUpdates.size() + " vms");
+        }
+        scheduleRulesetUpdateToHosts(new ArrayList<Long>(fullUpdates), true, null);
+        for (Map.Entry<Long, SecurityGroupMembersCmd> update : memberUpdates.entrySet()) {
+            sendMemberUpdates(update.getKey(), update.getValue(), vmsByHost.get(update.getKey()));
+        }
+    }
+
+    protected void publishMembershipUsageEvent(VMInstanceVO vm, long groupId, boolean assigned) {
+        UsageEventUtils.publishUsageEvent(assigned ? EventTypes.EVENT_SECURITY_GROUP_ASSIGN : EventTypes.EVENT_SECURITY_GROUP_REMOVE, vm.getAccountId(),
+                vm.getDataCenterId(), vm.getId(), groupId, vm.getClass().getName(), vm.getUuid());
+    }
+
+    private static int countVms(Map<Long, Set<Long>> vmsByHost) {
+        int count = 0;
+        for (Set<Long> vms : vmsByHost.values()) {
+            count += vms.size();
+        }
+        return count;
+    }
+
+    /**
+     * Sends the member changes to the host, falling back to the full rules
+     * of its affected vms if the host can't apply them.
+     */
+    protected void sendMemberUpdates(final long hostId, final SecurityGroupMembersCmd cmd, final Set<Long> vmIds) {
+        _memberUpdateExecutor.submit(new ManagedContextRunnable() {
+            @Override
+            protected void runInContext() {
+                Answer answer = null;
+                try {
+                    answer = _agentMgr.send(hostId, cmd);
+                } catch (AgentUnavailableException e) {
+                    s_logger.debug("Unable to send the security group member updates to host " + hostId + ": " + e.toString());
+                } catch (OperationTimedoutException e) {
+                    s_logger.debug("Unable to send the security group member updates to host " + hostId + ": " + e.toString());
+                }
+                if (answer == null || !answer.getResult()) {
+                    s_logger.info("Security group member updates failed on host " + hostId + (answer != null ? ": " + answer.getDetails() : "") +
+                            ", scheduling the full rules of its " + vmIds.size() + " vms");
+                    scheduleRulesetUpdateToHosts(new ArrayList<Long>(vmIds), true, null);
+                }
+            }
+        });
+    }
+
     @DB
     @Override
     public void scheduleRulesetUpdateToHosts(final List<Long> affectedVms, final boolean updateSeqno, Long delayMs) {
@@ -458,8 +665,7 @@ public class SecurityGroupManagerImpl extends ManagerBase implements SecurityGro
         // For each group, find the security rules that allow the group
         for (SecurityGroupVMMapVO mapVO : groupsForVm) {// FIXME: use custom sql in the dao
             //Add usage events for security group assign
-            UsageEventUtils.publishUsageEvent(EventTypes.EVENT_SECURITY_GROUP_ASSIGN, vm.getAccountId(), vm.getDataCenterId(), vm.getId(), mapVO.getSecurityGroupId(), vm
-                    .getClass().getName(), vm.getUuid());
+            publishMembershipUsageEvent(vm, mapVO.getSecurityGroupId(), true);
 
             List<SecurityGroupRuleVO> allowingRules = _securityGroupRuleDao.listByAllowedSecurityGroupId(mapVO.getSecurityGroupId());
             // For each security rule that allows a group that the vm belongs to, find the group it belongs to
@@ -474,8 +680,7 @@ public class SecurityGroupManagerImpl extends ManagerBase implements SecurityGro
         // For each group, find the security rules rules that allow the group
         for (SecurityGroupVMMapVO mapVO : groupsForVm) {// FIXME: use custom sql in the dao
             //Add usage events for security group remove
-            UsageEventUtils.publishUsageEvent(EventTypes.EVENT_SECURITY_GROUP_REMOVE, vm.getAccountId(), vm.getDataCenterId(), vm.getId(), mapVO.getSecurityGroupId(), vm
-                    .getClass().getName(), vm.getUuid());
+            publishMembershipUsageEvent(vm, mapVO.getSecurityGroupId(), false);
 
             List<SecurityGroupRuleVO> allowingRules = _securityGroupRuleDao.listByAllowedSecurityGroupId(mapVO.getSecurityGroupId());
             // For each security rule that allows a group that the vm belongs to, find the group it belongs to
@@ -553,6 +758,10 @@ public class SecurityGroupManagerImpl extends ManagerBase implements SecurityGro
         if (vm.getType() != VirtualMachine.Type.User || !isVmSecurityGroupEnabled(vm.getId())) {
             return;
         }
+        if (_incrementalUpdates) {
+            handleMembershipChange(vm, false);
+            return;
+        }
         List<Long> affectedVms = getAffectedVmsForVmStop(vm);
         scheduleRulesetUpdateToHosts(affectedVms, true, null);
     }
@@ -943,6 +1152,7 @@ public class SecurityGroupManagerImpl extends ManagerBase implements SecurityGro
         _numWorkerThreads = NumbersUtil.parseInt(configs.get(Config.SecurityGroupWorkerThreads.key()), WORKER_THREAD_COUNT);
         _timeBetweenCleanups = NumbersUtil.parseInt(configs.get(Config.SecurityGroupWorkCleanupInterval.key()), TIME_BETWEEN_CLEANUPS);
         _globalWorkLockTimeout = NumbersUtil.parseInt(configs.get(Config.SecurityGroupWorkGlobalLockTimeout.key()), 300);
+        _incrementalUpdates = Boolean.parseBoolean(configs.get(Config.SecurityGroupIncrementalUpdates.key()));
         /* register state listener, no matter security group is enabled or not */
         VirtualMachine.State.getStateMachine().registerListener(this);
 
@@ -952,8 +1162,11 @@ public class SecurityGroupManagerImpl extends ManagerBase implements SecurityGro
         _serverId = ManagementServerNode.getManagementServerId();
 
         s_logger.info("SecurityGroupManager: num worker threads=" + _numWorkerThreads + ", time between cleanups=" + _timeBetweenCleanups + " global lock timeout="
-                + _globalWorkLockTimeout);
+                + _globalWorkLockTimeout + " incremental updates=" + _incrementalUpdates);
         createThreadPools();
+        if (_incrementalUpdates) {
+            _memberUpdateExecutor = Executors.newFixedThreadPool(_numWorkerThreads, new NamedThreadFactory("NWGRP-Members"));
+        }
 
         return true;
     }
@@ -1045,8 +1258,10 @@ public class SecurityGroupManagerImpl extends ManagerBase implements SecurityGro
                     seqnum = log.getLogsequence();
 
                     if (vm != null && vm.getState() == State.Running) {
-                        Map<PortAndProto, Set<String>> ingressRules = generateRulesForVM(userVmId, SecurityRuleType.IngressRule);
-                        Map<PortAndProto, Set<String>> egressRules = generateRulesForVM(userVmId, SecurityRuleType.EgressRule);
+                        Map<Long, List<String>> groupMembers = isIncremental(vm) ? new TreeMap<Long, List<String>>() : null;
+                        Map<Long, Long> groupMembersVersions = groupMembers != null ? new HashMap<Long, Long>() : null;
+                        Map<PortAndProto, Set<String>> ingressRules = generateRulesForVM(userVmId, SecurityRuleType.IngressRule, groupMembers, groupMembersVersions);
+                        Map<PortAndProto, Set<String>> egressRules = generateRulesForVM(userVmId, SecurityRuleType.EgressRule, groupMembers, groupMembersVersions);
                         agentId = vm.getHostId();
                         if (agentId != null) {
                             // get nic secondary ip address
@@ -1062,6 +1277,8 @@ public class SecurityGroupManagerImpl extends ManagerBase implements SecurityGro
                             }
                             SecurityGroupRulesCmd cmd = generateRulesetCmd(vm.getInstanceName(), nic.getIPv4Address(), nic.getIPv6Address(), vm.getPrivateMacAddress(), vm.getId(),
                                     generateRulesetSignature(ingressRules, egressRules), seqnum, ingressRules, egressRules, nicSecIps);
+                            cmd.setGroupMembers(groupMembers);
+                            cmd.setGroupMembersVersions(groupMembersVersions);
                             Commands cmds = new Commands(cmd);
                             try {
                                 _agentMgr.send(agentId, cmds, _answerListener);
@@ -16,7 +16,9 @@
 // under the License.
 package com.cloud.network.security;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -29,6 +31,7 @@ import javax.naming.ConfigurationException;
 
 import org.apache.cloudstack.managed.context.ManagedContext;
 
+import com.cloud.agent.api.Command.OnError;
 import com.cloud.agent.api.SecurityGroupRulesCmd;
 import com.cloud.agent.manager.Commands;
 import com.cloud.configuration.Config;
@@ -37,6 +40,7 @@ import com.cloud.network.security.SecurityGroupWork.Step;
 import com.cloud.network.security.SecurityRule.SecurityRuleType;
 import com.cloud.uservm.UserVm;
 import com.cloud.utils.NumbersUtil;
+import com.cloud.utils.Pair;
 import com.cloud.utils.Profiler;
 import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.utils.mgmt.JmxUtil;
@@ -58,6 +62,7 @@ public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl {
     WorkerThread[] _workers;
     private Set<Long> _disabledVms = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
     private boolean _schedulerDisabled = false;
+    int _workBatchSize = 20;
 
     protected class WorkerThread extends Thread {
         public WorkerThread(String name) {
@@ -135,37 +140,87 @@ public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl {
         return true;
     }
 
+    /**
+     * Takes up to {@link #_workBatchSize} work items from the queue and sends
+     * the rulesets of the vms running on the same host in a single request.
+     */
     @Override
     public void work() {
         s_logger.trace("Checking the work queue");
         List<SecurityGroupWork> workItems;
         try {
-            workItems = _workQueue.getWork(1);
-            for (SecurityGroupWork work : workItems) {
-                if (s_logger.isTraceEnabled()) {
-                    s_logger.trace("Processing " + work.getInstanceId());
-                }
+            workItems = _workQueue.getWork(_workBatchSize);
+        } catch (InterruptedException e1) {
+            s_logger.warn("SG work: caught InterruptException", e1);
+            return;
+        }
 
-                try {
-                    VmRulesetLogVO rulesetLog = _rulesetLogDao.findByVmId(work.getInstanceId());
-                    if (rulesetLog == null) {
-                        s_logger.warn("Could not find ruleset log for vm " + work.getInstanceId());
-                        continue;
+        Map<Long, List<SecurityGroupRulesCmd>> cmdsByHost = new HashMap<Long, List<SecurityGroupRulesCmd>>();
+        for (SecurityGroupWork work : workItems) {
+            if (s_logger.isTraceEnabled()) {
+                s_logger.trace("Processing " + work.getInstanceId());
+            }
+
+            try {
+                VmRulesetLogVO rulesetLog = _rulesetLogDao.findByVmId(work.getInstanceId());
+                if (rulesetLog == null) {
+                    s_logger.warn("Could not find ruleset log for vm " + work.getInstanceId());
+                    continue;
+                }
+                work.setLogsequenceNumber(rulesetLog.getLogsequence());
+                Pair<Long, SecurityGroupRulesCmd> update = generateRulesetUpdate(work);
+                if (update != null) {
+                    List<SecurityGroupRulesCmd> cmds = cmdsByHost.get(update.first());
+                    if (cmds == null) {
+                        cmds = new ArrayList<SecurityGroupRulesCmd>();
+                        cmdsByHost.put(update.first(), cmds);
                     }
-                    work.setLogsequenceNumber(rulesetLog.getLogsequence());
-                    sendRulesetUpdates(work);
-                    _mBean.logUpdateDetails(work.getInstanceId(), work.getLogsequenceNumber());
-                } catch (Exception e) {
-                    s_logger.error("Problem during SG work " + work, e);
-                    work.setStep(Step.Error);
+                    cmds.add(update.second());
                 }
+                _mBean.logUpdateDetails(work.getInstanceId(), work.getLogsequenceNumber());
+            } catch (Exception e) {
+                s_logger.error("Problem during SG work " + work, e);
+                work.setStep(Step.Error);
             }
-        } catch (InterruptedException e1) {
-            s_logger.warn("SG work: caught InterruptException", e1);
+        }
+
+        for (Map.Entry<Long, List<SecurityGroupRulesCmd>> hostCmds : cmdsByHost.entrySet()) {
+            sendRulesetUpdates(hostCmds.getKey(), hostCmds.getValue());
         }
     }
 
     public void sendRulesetUpdates(SecurityGroupWork work) {
+        Pair<Long, SecurityGroupRulesCmd> update = generateRulesetUpdate(work);
+        if (update != null) {
+            sendRulesetUpdates(update.first(), Collections.singletonList(update.second()));
+        }
+    }
+
+    /**
+     * Sends the rulesets to the host in one request, the answers of the vms
+     * are handled independently.
+     */
+    protected void sendRulesetUpdates(long agentId, List<SecurityGroupRulesCmd> rulesetCmds) {
+        Commands cmds = new Commands(OnError.Continue);
+        for (SecurityGroupRulesCmd cmd : rulesetCmds) {
+            cmds.addCommand(cmd);
+        }
+        try {
+            long sent = System.nanoTime();
+            long seq = _agentMgr.send(agentId, cmds, _answerListener);
+            _workTracker.processSent(agentId, seq, rulesetCmds.size(), sent);
+            if (s_logger.isTraceEnabled()) {
+                s_logger.trace("SecurityGroupManager v2: sent " + rulesetCmds.size() + " ruleset updates to host " + agentId + " curr queue size=" + _workQueue.size());
+            }
+        } catch (AgentUnavailableException e) {
+            s_logger.debug("Unable to send updates for " + rulesetCmds.size() + " vms (agentid=" + agentId + ")");
+        }
+    }
+
+    /**
+     * @return the host of the vm and its ruleset, null if the vm isn't running
+     */
+    protected Pair<Long, SecurityGroupRulesCmd> generateRulesetUpdate(SecurityGroupWork work) {
         Long userVmId = work.getInstanceId();
         UserVm vm = _userVMDao.findById(userVmId);
 
@@ -173,8 +228,10 @@ public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl {
             if (s_logger.isTraceEnabled()) {
                 s_logger.trace("SecurityGroupManager v2: found vm, " + userVmId + " state=" + vm.getState());
             }
-            Map<PortAndProto, Set<String>> ingressRules = generateRulesForVM(userVmId, SecurityRuleType.IngressRule);
-            Map<PortAndProto, Set<String>> egressRules = generateRulesForVM(userVmId, SecurityRuleType.EgressRule);
+            Map<Long, List<String>> groupMembers = isIncremental(vm) ? new TreeMap<Long, List<String>>() : null;
+            Map<Long, Long> groupMembersVersions = groupMembers != null ? new HashMap<Long, Long>() : null;
+            Map<PortAndProto, Set<String>> ingressRules = generateRulesForVM(userVmId, SecurityRuleType.IngressRule, groupMembers, groupMembersVersions);
+            Map<PortAndProto, Set<String>> egressRules = generateRulesForVM(userVmId, SecurityRuleType.EgressRule, groupMembers, groupMembersVersions);
             Long agentId = vm.getHostId();
             if (agentId != null) {
                 NicVO nic = _nicDao.findFirstNicForVM(vm.getId());
@@ -184,27 +241,20 @@ public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl {
                         nicSecIps = _nicSecIpDao.getSecondaryIpAddressesForNic(nic.getId());
                     }
                 } else {
-                    return;
+                    return null;
                 }
                 SecurityGroupRulesCmd cmd =
                     generateRulesetCmd(vm.getInstanceName(), nic.getIPv4Address(), nic.getIPv6Address(), vm.getPrivateMacAddress(), vm.getId(), null, work.getLogsequenceNumber(),
                         ingressRules, egressRules, nicSecIps);
+                cmd.setGroupMembers(groupMembers);
+                cmd.setGroupMembersVersions(groupMembersVersions);
                 cmd.setMsId(_serverId);
                 if (s_logger.isDebugEnabled()) {
                     s_logger.debug("SecurityGroupManager v2: sending ruleset update for vm " + vm.getInstanceName() + ":ingress num rules=" +
                         cmd.getIngressRuleSet().size() + ":egress num rules=" + cmd.getEgressRuleSet().size() + " num cidrs=" + cmd.getTotalNumCidrs() + " sig=" +
                         cmd.getSignature());
                 }
-                Commands cmds = new Commands(cmd);
-                try {
-                    _agentMgr.send(agentId, cmds, _answerListener);
-                    if (s_logger.isTraceEnabled()) {
-                        s_logger.trace("SecurityGroupManager v2: sent ruleset updates for " + vm.getInstanceName() + " curr queue size=" + _workQueue.size());
-                    }
-                } catch (AgentUnavailableException e) {
-                    s_logger.debug("Unable to send updates for vm: " + userVmId + "(agentid=" + agentId + ")");
-                    _workTracker.handleException(agentId);
-                }
+                return new Pair<Long, SecurityGroupRulesCmd>(agentId, cmd);
             }
         } else {
             if (s_logger.isDebugEnabled()) {
@@ -214,6 +264,7 @@ public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl {
                     s_logger.debug("Could not find vm: No rules sent to vm " + userVmId);
             }
         }
+        return null;
     }
 
     @Override
@@ -270,6 +321,10 @@ public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl {
         return _workQueue;
     }
 
+    public SecurityGroupWorkTracker getWorkTracker() {
+        return _workTracker;
+    }
+
     @Override
     public boolean configure(String name, Map<String, Object> params) throws ConfigurationException {
         _mBean = new SecurityManagerMBeanImpl(this);
@@ -281,6 +336,7 @@ public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl {
         boolean result = super.configure(name, params);
         Map<String, String> configs = _configDao.getConfiguration("Network", params);
         int bufferLength = NumbersUtil.parseInt(configs.get(Config.SecurityGroupWorkPerAgentMaxQueueSize.key()), 100);
+        _workBatchSize = Math.max(1, NumbersUtil.parseInt(configs.get(Config.SecurityGroupWorkPerAgentBatchSize.key()), 20));
         _workTracker = new SecurityGroupWorkTracker(_agentMgr, _answerListener, bufferLength);
         _answerListener.setWorkDispatcher(_workTracker);
         return result;
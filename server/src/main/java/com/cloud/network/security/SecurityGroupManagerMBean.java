@@ -43,6 +43,22 @@ public interface SecurityGroupManagerMBean {
 
     List<Long> getVmsInQueue();
 
+    /**
+     * @return the number of ruleset requests sent to each host and not answered yet
+     */
+    Map<Long, Integer> getOutstandingRequestsPerHost();
+
+    Map<Long, Double> getLastRequestLatencyMillisPerHost();
+
+    Map<Long, Double> getAverageRequestLatencyMillisPerHost();
+
+    long getRequestCount();
+
+    /**
+     * @return the average number of vm rulesets per request sent to a host
+     */
+    double getAverageRequestBatchSize();
+
     void scheduleRulesetUpdateForVm(Long vmId);
 
     void tryRulesetUpdateForVmBypassSchedulerVeryDangerous(Long vmId, Long seqno);
@@ -16,8 +16,11 @@
 // under the License.
 package com.cloud.network.security;
 
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
@@ -25,6 +28,7 @@ import org.apache.log4j.Logger;
 import com.cloud.agent.AgentManager;
 import com.cloud.agent.Listener;
 import com.cloud.agent.api.Answer;
+import com.cloud.utils.Pair;
 
 public class SecurityGroupWorkTracker {
     protected static final Logger s_logger = Logger.getLogger(SecurityGroupWorkTracker.class);
@@ -34,6 +38,40 @@ public class SecurityGroupWorkTracker {
     int _bufferLength;
 
     Map<Long, Integer> _unackedMessages = new ConcurrentHashMap<Long, Integer>();
+    // host and send time of the requests waiting for their answers, by sequence number
+    Map<Long, Pair<Long, Long>> _pendingRequests = new ConcurrentHashMap<Long, Pair<Long, Long>>();
+    // host and receive time of the answers that came before their request was recorded as sent, by sequence number
+    Map<Long, Pair<Long, Long>> _earlyAnswers = new HashMap<Long, Pair<Long, Long>>();
+    private static final long EARLY_ANSWER_TIMEOUT_NANOS = TimeUnit.MINUTES.toNanos(1);
+    Map<Long, HostLatency> _hostLatencies = new ConcurrentHashMap<Long, HostLatency>();
+    protected AtomicLong _requestCount = new AtomicLong(0);
+    protected AtomicLong _workCount = new AtomicLong(0);
+
+    /**
+     * Round trip times of the ruleset requests sent to a host.
+     */
+    public static class HostLatency {
+        private long _count;
+        private long _totalNanos;
+        private long _lastNanos;
+
+        synchronized void record(long nanos) {
+            _lastNanos = nanos;
+            _totalNanos += nanos;
+            _count++;
+        }
+
+        public synchronized double getLastMillis() {
+            return (double)_lastNanos / TimeUnit.MILLISECONDS.toNanos(1);
+        }
+
+        public synchronized double getAverageMillis() {
+            if (_count == 0) {
+                return 0;
+            }
+            return (double)_totalNanos / _count / TimeUnit.MILLISECONDS.toNanos(1);
+        }
+    }
 
     public SecurityGroupWorkTracker(AgentManager agentMgr, Listener answerListener, int bufferLength) {
         super();
@@ -63,6 +101,30 @@ public class SecurityGroupWorkTracker {
         return true;
     }
 
+    /**
+     * Records a request carrying the rulesets of numWork vms sent to the host.
+     * Its answer may have been processed already, the agent answers as soon as
+     * the request is sent.
+     *
+     * @param sentNanos {@link System#nanoTime()} before the request was sent
+     */
+    public void processSent(long agentId, long seq, int numWork, long sentNanos) {
+        Pair<Long, Long> answer;
+        synchronized (this) {
+            answer = _earlyAnswers.remove(seq);
+            if (answer == null) {
+                Integer outstanding = _unackedMessages.get(agentId);
+                _unackedMessages.put(agentId, outstanding == null ? 1 : outstanding + 1);
+                _pendingRequests.put(seq, new Pair<Long, Long>(agentId, sentNanos));
+            }
+        }
+        if (answer != null) {
+            recordLatency(agentId, answer.second() - sentNanos);
+        }
+        _requestCount.incrementAndGet();
+        _workCount.addAndGet(numWork);
+    }
+
     public void handleException(long agentId) {
         synchronized (this) {
             Integer outstanding = _unackedMessages.get(agentId);
@@ -73,19 +135,24 @@ public class SecurityGroupWorkTracker {
     }
 
     public void processAnswers(long agentId, long seq, Answer[] answers) {
+        long answered = System.nanoTime();
+        Pair<Long, Long> pending;
         synchronized (this) {
-            Integer outstanding = _unackedMessages.get(agentId);
-            if (outstanding != null && outstanding != 0) {
-                _unackedMessages.put(agentId, --outstanding);
+            pending = _pendingRequests.remove(seq);
+            if (pending == null) {
+                // left for processSent to settle
+                addEarlyAnswer(agentId, seq, answered);
+                return;
             }
+            decrementUnacked(agentId);
         }
+        recordLatency(agentId, answered - pending.second());
     }
 
     public void processTimeout(long agentId, long seq) {
         synchronized (this) {
-            Integer outstanding = _unackedMessages.get(agentId);
-            if (outstanding != null && outstanding != 0) {
-                _unackedMessages.put(agentId, --outstanding);
+            if (_pendingRequests.remove(seq) != null) {
+                decrementUnacked(agentId);
             }
         }
     }
@@ -93,7 +160,46 @@ public class SecurityGroupWorkTracker {
     public void processDisconnect(long agentId) {
         synchronized (this) {
             _unackedMessages.put(agentId, 0);
+            for (Iterator<Pair<Long, Long>> it = _pendingRequests.values().iterator(); it.hasNext();) {
+                if (it.next().first() == agentId) {
+                    it.remove();
+                }
+            }
+            for (Iterator<Pair<Long, Long>> it = _earlyAnswers.values().iterator(); it.hasNext();) {
+                if (it.next().first() == agentId) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    private void addEarlyAnswer(long agentId, long seq, long answered) {
+        // answers to requests never recorded, sent by other means, are not kept for long
+        for (Iterator<Pair<Long, Long>> it = _earlyAnswers.values().iterator(); it.hasNext();) {
+            if (answered - it.next().second() > EARLY_ANSWER_TIMEOUT_NANOS) {
+                it.remove();
+            }
         }
+        _earlyAnswers.put(seq, new Pair<Long, Long>(agentId, answered));
+    }
+
+    private void decrementUnacked(long agentId) {
+        Integer outstanding = _unackedMessages.get(agentId);
+        if (outstanding != null && outstanding != 0) {
+            _unackedMessages.put(agentId, --outstanding);
+        }
+    }
+
+    private void recordLatency(long agentId, long nanos) {
+        HostLatency latency = _hostLatencies.get(agentId);
+        if (latency == null) {
+            latency = new HostLatency();
+            HostLatency existing = _hostLatencies.putIfAbsent(agentId, latency);
+            if (existing != null) {
+                latency = existing;
+            }
+        }
+        latency.record(nanos);
     }
 
     public void processConnect(long agentId) {
@@ -106,6 +212,22 @@ public class SecurityGroupWorkTracker {
         return _discardCount.get();
     }
 
+    public long getRequestCount() {
+        return _requestCount.get();
+    }
+
+    public long getWorkCount() {
+        return _workCount.get();
+    }
+
+    public Map<Long, Integer> getUnackedCounts() {
+        return new HashMap<Long, Integer>(_unackedMessages);
+    }
+
+    public Map<Long, HostLatency> getHostLatencies() {
+        return _hostLatencies;
+    }
+
     public int getUnackedCount(long agentId) {
         Integer outstanding = _unackedMessages.get(agentId);
         if (outstanding == null) {
@@ -18,6 +18,7 @@ package com.cloud.network.security;
 
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -89,6 +90,43 @@ public class SecurityManagerMBeanImpl extends StandardMBean implements SecurityG
         return _sgMgr.getWorkQueue().getVmsInQueue();
     }
 
+    @Override
+    public Map<Long, Integer> getOutstandingRequestsPerHost() {
+        return _sgMgr.getWorkTracker().getUnackedCounts();
+    }
+
+    @Override
+    public Map<Long, Double> getLastRequestLatencyMillisPerHost() {
+        Map<Long, Double> latencies = new HashMap<Long, Double>();
+        for (Map.Entry<Long, SecurityGroupWorkTracker.HostLatency> entry : _sgMgr.getWorkTracker().getHostLatencies().entrySet()) {
+            latencies.put(entry.getKey(), entry.getValue().getLastMillis());
+        }
+        return latencies;
+    }
+
+    @Override
+    public Map<Long, Double> getAverageRequestLatencyMillisPerHost() {
+        Map<Long, Double> latencies = new HashMap<Long, Double>();
+        for (Map.Entry<Long, SecurityGroupWorkTracker.HostLatency> entry : _sgMgr.getWorkTracker().getHostLatencies().entrySet()) {
+            latencies.put(entry.getKey(), entry.getValue().getAverageMillis());
+        }
+        return latencies;
+    }
+
+    @Override
+    public long getRequestCount() {
+        return _sgMgr.getWorkTracker().getRequestCount();
+    }
+
+    @Override
+    public double getAverageRequestBatchSize() {
+        long requests = _sgMgr.getWorkTracker().getRequestCount();
+        if (requests == 0) {
+            return 0;
+        }
+        return (double)_sgMgr.getWorkTracker().getWorkCount() / requests;
+    }
+
     @Override
     public void disableSchedulerForVm(Long vmId) {
         _sgMgr.disableSchedulerForVm(vmId, true);
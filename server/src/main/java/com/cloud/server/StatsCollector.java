@@ -23,6 +23,7 @@ import java.util.Calendar;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -220,6 +221,20 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
             "URI to send StatsCollector statistics to. The collector is defined on the URI scheme. Example: graphite://graphite-hostaddress:port or influxdb://influxdb-hostaddress/dbname. Note that the port is optional, if not added the default port for the respective collector (graphite or influxdb) will be used. Additionally, the database name '/dbname' is  also optional; default db name is 'cloudstack'. You must create and configure the database if using influxdb.",
             true);
 
+    private static final ConfigKey<Integer> vmStatsHistoryRetention = new ConfigKey<Integer>("Advanced", Integer.class, "vm.stats.history.retention", "24",
+            "Number of hours of VM statistics history kept in memory and listed by listVirtualMachineStatsHistory. The history is disabled if this is set to 0 or less than 0.",
+            false);
+    private static final ConfigKey<Integer> vmStatsHistoryResolution = new ConfigKey<Integer>("Advanced", Integer.class, "vm.stats.history.resolution", "900",
+            "Resolution (in seconds) of the VM statistics history, the statistics collected within the same period are averaged. Each VM takes about 45 bytes of memory per period of history.",
+            false);
+
+    /**
+     * Metrics kept in the history of the VM statistics, the ordinal is the index of the metric in the samples.
+     */
+    public enum VmStatsHistoryMetric {
+        CPU_UTILIZATION, MEMORY_KBS, MEMORY_INT_FREE_KBS, NETWORK_READ_KBS, NETWORK_WRITE_KBS, DISK_READ_KBS, DISK_WRITE_KBS, DISK_READ_IOS, DISK_WRITE_IOS
+    }
+
     private static StatsCollector s_instance = null;
 
     private ScheduledExecutorService _executor = null;
@@ -286,6 +301,7 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
 
     private ConcurrentHashMap<Long, HostStats> _hostStats = new ConcurrentHashMap<Long, HostStats>();
     private final ConcurrentHashMap<Long, VmStats> _VmStats = new ConcurrentHashMap<Long, VmStats>();
+    private final ConcurrentHashMap<Long, StatsRingBuffer> _vmStatsHistory = new ConcurrentHashMap<Long, StatsRingBuffer>();
     private final Map<String, VolumeStats> _volumeStats = new ConcurrentHashMap<String, VolumeStats>();
     private ConcurrentHashMap<Long, StorageStats> _storageStats = new ConcurrentHashMap<Long, StorageStats>();
     private ConcurrentHashMap<Long, StorageStats> _storagePoolStats = new ConcurrentHashMap<Long, StorageStats>();
@@ -295,6 +311,8 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
     private long storageStatsInterval = -1L;
     private long volumeStatsInterval = -1L;
     private long autoScaleStatsInterval = -1L;
+    private int vmStatsHistoryCapacity = 0;
+    private long vmStatsHistoryResolutionMs = 0L;
 
     private double _imageStoreCapacityThreshold = 0.90;
 
@@ -342,6 +360,11 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
         volumeStatsInterval = NumbersUtil.parseLong(configs.get("volume.stats.interval"), ONE_MINUTE_IN_MILLISCONDS);
         autoScaleStatsInterval = NumbersUtil.parseLong(configs.get("autoscale.stats.interval"), ONE_MINUTE_IN_MILLISCONDS);
 
+        if (vmStatsHistoryRetention.value() > 0 && vmStatsHistoryResolution.value() > 0) {
+            vmStatsHistoryResolutionMs = vmStatsHistoryResolution.value() * 1000L;
+            vmStatsHistoryCapacity = (int)Math.max(1, TimeUnit.HOURS.toMillis(vmStatsHistoryRetention.value()) / vmStatsHistoryResolutionMs);
+        }
+
         String statsUri = statsOutputUri.value();
         if (StringUtils.isNotBlank(statsUri)) {
             try {
@@ -570,6 +593,7 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
                 List<HostVO> hosts = _hostDao.search(sc, null);
 
                 Map<Object, Object> metrics = new HashMap<>();
+                long now = System.currentTimeMillis();
 
                 for (HostVO host : hosts) {
                     List<UserVmVO> vms = _userVmDao.listRunningByHostId(host.getId());
@@ -591,6 +615,7 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
                                 statsForCurrentIteration.setUserVmVO(userVmVo);
 
                                 storeVirtualMachineStatsInMemory(statsForCurrentIteration);
+                                storeVirtualMachineStatsHistory(statsForCurrentIteration, now);
 
                                 if (externalStatsType == ExternalStatsProtocol.GRAPHITE) {
                                     prepareVmMetricsForGraphite(metrics, statsForCurrentIteration);
@@ -615,6 +640,8 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
                     }
                 }
 
+                removeExpiredVirtualMachineStatsHistory(now);
+
             } catch (Throwable t) {
                 s_logger.error("Error trying to retrieve VM stats", t);
             }
@@ -630,6 +657,18 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
         return _VmStats.get(id);
     }
 
+    /**
+     * Lists the statistics history of a virtual machine, see {@link StatsRingBuffer#getSamples(long, long)}.
+     * The values of the samples are indexed by {@link VmStatsHistoryMetric}.
+     */
+    public List<StatsRingBuffer.Sample> getVmStatsHistory(long id, long from, long interval) {
+        StatsRingBuffer history = _vmStatsHistory.get(id);
+        if (history == null) {
+            return new ArrayList<StatsRingBuffer.Sample>();
+        }
+        return history.getSamples(from, interval);
+    }
+
     class VmDiskStatsUpdaterTask extends ManagedContextRunnable {
         @Override
         protected void runInContext() {
@@ -657,9 +696,11 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
                                         stat.setAggBytesWrite(stat.getCurrentBytesWrite() + stat.getNetBytesWrite());
                                         stat.setAggIORead(stat.getCurrentIORead() + stat.getNetIORead());
                                         stat.setAggIOWrite(stat.getCurrentIOWrite() + stat.getNetIOWrite());
-                                        _vmDiskStatsDao.update(stat.getId(), stat);
                                     }
                                 }
+                                if (_dailyOrHourly) {
+                                    _vmDiskStatsDao.updateBatch(updatedVmNetStats);
+                                }
                                 s_logger.debug("Successfully updated aggregate vm disk stats");
                             }
                         });
@@ -712,6 +753,8 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
                                 return;
 
                             Set<Long> vmIdSet = vmDiskStatsById.keySet();
+                            // the rows stay locked until commit, so the updates can go out as one batch
+                            List<VmDiskStatisticsVO> updatedStats = new ArrayList<VmDiskStatisticsVO>();
                             for (Long vmId : vmIdSet) {
                                 List<VmDiskStatsEntry> vmDiskStats = vmDiskStatsById.get(vmId);
                                 if (vmDiskStats == null)
@@ -792,9 +835,10 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
                                         vmDiskStat_lock.setAggIORead(vmDiskStat_lock.getNetIORead() + vmDiskStat_lock.getCurrentIORead());
                                     }
 
-                                    _vmDiskStatsDao.update(vmDiskStat_lock.getId(), vmDiskStat_lock);
+                                    updatedStats.add(vmDiskStat_lock);
                                 }
                             }
+                            _vmDiskStatsDao.updateBatch(updatedStats);
                         }
                     });
                 } catch (Exception e) {
@@ -838,6 +882,8 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
                                 return;
 
                             Set<Long> vmIdSet = vmNetworkStatsById.keySet();
+                            // the rows stay locked until commit, so the updates can go out as one batch
+                            List<UserStatisticsVO> updatedStats = new ArrayList<UserStatisticsVO>();
                             for (Long vmId : vmIdSet) {
                                 List<VmNetworkStatsEntry> vmNetworkStats = vmNetworkStatsById.get(vmId);
                                 if (vmNetworkStats == null)
@@ -911,9 +957,10 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
                                         vmNetworkStat_lock.setAggBytesSent(vmNetworkStat_lock.getNetBytesSent() + vmNetworkStat_lock.getCurrentBytesSent());
                                     }
 
-                                    _userStatsDao.update(vmNetworkStat_lock.getId(), vmNetworkStat_lock);
+                                    updatedStats.add(vmNetworkStat_lock);
                                 }
                             }
+                            _userStatsDao.updateBatch(updatedStats);
                         }
                     });
                 } catch (Exception e) {
@@ -1463,6 +1510,46 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
         }
     }
 
+    /**
+     * Adds the virtual machine stats of the current iteration to the history of the virtual machine.
+     */
+    protected void storeVirtualMachineStatsHistory(VmStatsEntry statsForCurrentIteration, long timestamp) {
+        if (vmStatsHistoryCapacity <= 0) {
+            return;
+        }
+
+        StatsRingBuffer history = _vmStatsHistory.get(statsForCurrentIteration.getVmId());
+        if (history == null) {
+            history = new StatsRingBuffer(vmStatsHistoryCapacity, VmStatsHistoryMetric.values().length, vmStatsHistoryResolutionMs);
+            StatsRingBuffer existing = _vmStatsHistory.putIfAbsent(statsForCurrentIteration.getVmId(), history);
+            if (existing != null) {
+                history = existing;
+            }
+        }
+
+        history.add(timestamp, new double[] {statsForCurrentIteration.getCPUUtilization(), statsForCurrentIteration.getMemoryKBs(),
+                statsForCurrentIteration.getIntFreeMemoryKBs(), statsForCurrentIteration.getNetworkReadKBs(), statsForCurrentIteration.getNetworkWriteKBs(),
+                statsForCurrentIteration.getDiskReadKBs(), statsForCurrentIteration.getDiskWriteKBs(), statsForCurrentIteration.getDiskReadIOs(),
+                statsForCurrentIteration.getDiskWriteIOs()});
+    }
+
+    /**
+     * Drops the history of the virtual machines that did not report stats during the whole retention period.
+     */
+    protected void removeExpiredVirtualMachineStatsHistory(long now) {
+        if (vmStatsHistoryCapacity <= 0) {
+            return;
+        }
+
+        long expiration = now - vmStatsHistoryCapacity * vmStatsHistoryResolutionMs;
+        Iterator<Map.Entry<Long, StatsRingBuffer>> it = _vmStatsHistory.entrySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().getValue().getLastTimestamp() < expiration) {
+                it.remove();
+            }
+        }
+    }
+
     /**
      * Sends host metrics to a configured InfluxDB host. The metrics respects the following specification.</br>
      * <b>Tags:</b>vm_id, uuid, instance_name, data_center_id, host_id</br>
@@ -1607,7 +1694,8 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
 
     @Override
     public ConfigKey<?>[] getConfigKeys() {
-        return new ConfigKey<?>[] {vmDiskStatsInterval, vmDiskStatsIntervalMin, vmNetworkStatsInterval, vmNetworkStatsIntervalMin, StatsTimeout, statsOutputUri};
+        return new ConfigKey<?>[] {vmDiskStatsInterval, vmDiskStatsIntervalMin, vmNetworkStatsInterval, vmNetworkStatsIntervalMin, StatsTimeout, statsOutputUri,
+                vmStatsHistoryRetention, vmStatsHistoryResolution};
     }
 
     public double getImageStoreCapacityThreshold() {
@@ -0,0 +1,171 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Fixed size history of the stats of one entity, kept in primitive arrays.
+ * The time is split in slots of {@code resolution} milliseconds and the
+ * samples falling in the same slot are averaged, so a buffer covers
+ * {@code capacity * resolution} milliseconds whatever the collector interval.
+ * Once full, the oldest slot is overwritten.
+ */
+public class StatsRingBuffer {
+    private static final int EMPTY = -1;
+
+    private final long _resolution;
+    private final int _metrics;
+    // slot of each position, relative to _baseSlot
+    private final int[] _slots;
+    private final short[] _counts;
+    // _metrics values per position
+    private final float[] _values;
+    private long _baseSlot = -1;
+    private int _head = -1;
+
+    public StatsRingBuffer(final int capacity, final int metrics, final long resolution) {
+        _resolution = resolution;
+        _metrics = metrics;
+        _slots = new int[capacity];
+        _counts = new short[capacity];
+        _values = new float[capacity * metrics];
+        Arrays.fill(_slots, EMPTY);
+    }
+
+    /**
+     * @return false if the sample is older than the latest slot and was dropped
+     */
+    public synchronized boolean add(final long timestamp, final double[] sample) {
+        final long slot = timestamp / _resolution;
+        if (_baseSlot < 0) {
+            _baseSlot = slot;
+        }
+
+        if (_head >= 0) {
+            final long headSlot = _baseSlot + _slots[_head];
+            if (slot < headSlot) {
+                return false;
+            }
+            if (slot == headSlot) {
+                final int count = _counts[_head];
+                final int offset = _head * _metrics;
+                for (int i = 0; i < _metrics; i++) {
+                    _values[offset + i] += (sample[i] - _values[offset + i]) / (count + 1);
+                }
+                if (count < Short.MAX_VALUE) {
+                    _counts[_head]++;
+                }
+                return true;
+            }
+        }
+
+        _head = (_head + 1) % _slots.length;
+        _slots[_head] = (int)(slot - _baseSlot);
+        _counts[_head] = 1;
+        final int offset = _head * _metrics;
+        for (int i = 0; i < _metrics; i++) {
+            _values[offset + i] = (float)sample[i];
+        }
+        return true;
+    }
+
+    /**
+     * @return the start of the latest slot, or -1 when the buffer is empty
+     */
+    public synchronized long getLastTimestamp() {
+        if (_head < 0) {
+            return -1;
+        }
+        return (_baseSlot + _slots[_head]) * _resolution;
+    }
+
+    /**
+     * Lists the samples from the oldest to the latest one.
+     *
+     * @param from start of the first sample to return, in milliseconds
+     * @param interval length of the returned samples, in milliseconds. Slots
+     *        falling in the same interval are averaged, weighted by their
+     *        number of samples. Intervals smaller than the resolution
+     *        return the slots as they are.
+     */
+    public synchronized List<Sample> getSamples(final long from, final long interval) {
+        final List<Sample> samples = new ArrayList<Sample>();
+        if (_head < 0) {
+            return samples;
+        }
+
+        final long bucketLength = Math.max(interval, _resolution);
+        Sample current = null;
+        int currentCount = 0;
+        for (int i = 1; i <= _slots.length; i++) {
+            final int position = (_head + i) % _slots.length;
+            if (_slots[position] == EMPTY) {
+                continue;
+            }
+            final long timestamp = (_baseSlot + _slots[position]) * _resolution;
+            if (timestamp < from) {
+                continue;
+            }
+
+            final long bucket = timestamp - timestamp % bucketLength;
+            if (current == null || current.getTimestamp() != bucket) {
+                current = new Sample(bucket, new float[_metrics]);
+                currentCount = 0;
+                samples.add(current);
+            }
+
+            final int count = _counts[position];
+            final int offset = position * _metrics;
+            for (int m = 0; m < _metrics; m++) {
+                current._values[m] += (_values[offset + m] - current._values[m]) * count / (currentCount + count);
+            }
+            currentCount += count;
+        }
+        return samples;
+    }
+
+    /**
+     * @return the approximate heap size, in bytes, of a buffer of the given dimensions
+     */
+    public static long estimateSize(final int capacity, final int metrics) {
+        final long header = 16;
+        final long fields = header + 8 + 4 + 3 * 4 + 8 + 4;
+        final long arrays = 3 * header + capacity * 4L + capacity * 2L + (long)capacity * metrics * 4L;
+        return fields + arrays;
+    }
+
+    public static class Sample {
+        private final long _timestamp;
+        private final float[] _values;
+
+        Sample(final long timestamp, final float[] values) {
+            _timestamp = timestamp;
+            _values = values;
+        }
+
+        public long getTimestamp() {
+            return _timestamp;
+        }
+
+        public double getValue(final int metric) {
+            return _values[metric];
+        }
+    }
+}
@@ -58,6 +58,9 @@ public interface SnapshotManager extends Configurable {
     public static final ConfigKey<Boolean> BackupSnapshotAfterTakingSnapshot = new ConfigKey<Boolean>(Boolean.class, "snapshot.backup.to.secondary",  "Snapshots", "true",
             "Indicates whether to always backup primary storage snapshot to secondary storage. Keeping snapshots only on Primary storage is applicable for KVM + Ceph only.", false, ConfigKey.Scope.Global, null);
 
+    public static final ConfigKey<Boolean> KvmIncrementalSnapshot = new ConfigKey<Boolean>(Boolean.class, "kvm.incremental.snapshot", "Snapshots", "false",
+            "Indicates whether KVM snapshots are backed up to secondary storage as qcow2 deltas of the previous backup of the volume instead of full copies. A full backup is taken every snapshot.delta.max snapshots. Creating templates from such snapshots requires qemu-img in the secondary storage VM.", true, ConfigKey.Scope.Zone, null);
+
     void deletePoliciesForVolume(Long volumeId);
 
     /**
@@ -182,7 +182,7 @@ public class ApiServletTest {
         Mockito.verify(response).setStatus(HttpServletResponse.SC_UNAUTHORIZED);
         Mockito.verify(apiServer, Mockito.never()).handleRequest(
                 Mockito.anyMap(), Mockito.anyString(),
-                Mockito.any(StringBuilder.class));
+                Mockito.any(StringBuilder.class), Mockito.any(HttpServletResponse.class));
     }
 
     @SuppressWarnings("unchecked")
@@ -192,11 +192,14 @@ public class ApiServletTest {
         Mockito.when(
                 apiServer.verifyRequest(nullable(Map.class), nullable(Long.class), nullable(InetAddress.class)))
         .thenReturn(true);
+        Mockito.when(
+                apiServer.handleRequest(Mockito.anyMap(), Mockito.anyString(), Mockito.any(StringBuilder.class), Mockito.any(HttpServletResponse.class)))
+        .thenReturn("{}");
         servlet.processRequestInContext(request, response);
         Mockito.verify(response).setStatus(HttpServletResponse.SC_OK);
         Mockito.verify(apiServer, Mockito.times(1)).handleRequest(
                 Mockito.anyMap(), Mockito.anyString(),
-                Mockito.any(StringBuilder.class));
+                Mockito.any(StringBuilder.class), Mockito.any(HttpServletResponse.class));
     }
 
     @SuppressWarnings("unchecked")
@@ -18,7 +18,11 @@
  */
 package com.cloud.api.dispatch;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 
 import org.junit.After;
 import org.junit.Assert;
@@ -29,10 +33,16 @@ import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.runners.MockitoJUnitRunner;
 
+import org.apache.cloudstack.acl.RoleType;
+import org.apache.cloudstack.acl.SecurityChecker.AccessType;
+import org.apache.cloudstack.api.ACL;
 import org.apache.cloudstack.api.BaseCmd;
 import org.apache.cloudstack.api.Parameter;
 import org.apache.cloudstack.api.ServerApiException;
+import org.apache.cloudstack.api.response.UserVmResponse;
 import org.apache.cloudstack.context.CallContext;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import com.cloud.exception.ConcurrentOperationException;
 import com.cloud.exception.InsufficientCapacityException;
@@ -42,6 +52,8 @@ import com.cloud.exception.ResourceUnavailableException;
 import com.cloud.user.Account;
 import com.cloud.user.AccountManager;
 import com.cloud.user.User;
+import com.cloud.utils.db.EntityManager;
+import com.cloud.vm.VirtualMachine;
 
 @RunWith(MockitoJUnitRunner.class)
 public class ParamProcessWorkerTest {
@@ -49,6 +61,9 @@ public class ParamProcessWorkerTest {
     @Mock
     protected AccountManager accountManager;
 
+    @Mock
+    protected EntityManager entityManager;
+
     protected ParamProcessWorker paramProcessWorker;
 
     public static class TestCmd extends BaseCmd {
@@ -83,11 +98,43 @@ public class ParamProcessWorkerTest {
 
     }
 
+    public static class TestVmsCmd extends BaseCmd {
+
+        @ACL(accessType = AccessType.OperateEntry)
+        @Parameter(name = "ids", type = CommandType.LIST, collectionType = CommandType.UUID, entityType = UserVmResponse.class, since = "4.16.0")
+        List<Long> ids;
+
+        @Parameter(name = "hostname", authorized = {RoleType.Admin})
+        String hostName;
+
+        @Override
+        public void execute() {
+        }
+
+        @Override
+        public String getCommandName() {
+            return "testvmsresponse";
+        }
+
+        @Override
+        public long getEntityOwnerId() {
+            return 0;
+        }
+    }
+
+    private static VirtualMachine createVm(long id) {
+        VirtualMachine vm = Mockito.mock(VirtualMachine.class);
+        Mockito.when(vm.getId()).thenReturn(id);
+        Mockito.when(vm.getUuid()).thenReturn(String.format("00000000-0000-0000-0000-%012d", id));
+        return vm;
+    }
+
     @Before
     public void setup() {
         CallContext.register(Mockito.mock(User.class), Mockito.mock(Account.class));
         paramProcessWorker = new ParamProcessWorker();
         paramProcessWorker._accountMgr = accountManager;
+        paramProcessWorker._entityMgr = entityManager;
     }
 
     @After
@@ -109,4 +156,81 @@ public class ParamProcessWorkerTest {
         Assert.assertTrue(Double.compare(cmd.doubleparam1, 11.89) == 0);
     }
 
+    @Test
+    public void processParametersResolvesUuidListsInBulk() {
+        final List<VirtualMachine> vms = new ArrayList<VirtualMachine>();
+        final StringBuilder uuids = new StringBuilder();
+        for (long id = 100; id > 0; id--) {
+            vms.add(createVm(id));
+            uuids.append(id == 100 ? "" : ",").append(String.format("00000000-0000-0000-0000-%012d", id));
+        }
+        Mockito.when(entityManager.listByUuidsIncludingRemoved(Mockito.eq(VirtualMachine.class), Mockito.<Collection<String>>any())).thenAnswer(new Answer<List<VirtualMachine>>() {
+            @Override
+            public List<VirtualMachine> answer(InvocationOnMock invocation) {
+                return vms;
+            }
+        });
+        Mockito.when(entityManager.listByIds(Mockito.eq(VirtualMachine.class), Mockito.<Collection<Long>>any())).thenAnswer(new Answer<List<VirtualMachine>>() {
+            @Override
+            public List<VirtualMachine> answer(InvocationOnMock invocation) {
+                return vms;
+            }
+        });
+
+        final HashMap<String, String> params = new HashMap<String, String>();
+        params.put("ids", uuids.toString());
+        final TestVmsCmd cmd = new TestVmsCmd();
+        paramProcessWorker.processParameters(cmd, params);
+
+        Assert.assertEquals(100, cmd.ids.size());
+        // the ids keep the order of the uuids
+        Assert.assertEquals(Arrays.asList(100L, 99L, 98L), cmd.ids.subList(0, 3));
+        Mockito.verify(entityManager, Mockito.times(1)).listByUuidsIncludingRemoved(Mockito.eq(VirtualMachine.class), Mockito.<Collection<String>>any());
+        Mockito.verify(entityManager, Mockito.never()).findByUuidIncludingRemoved(Mockito.any(Class.class), Mockito.anyString());
+        Mockito.verify(entityManager, Mockito.times(1)).listByIds(Mockito.eq(VirtualMachine.class), Mockito.<Collection<Long>>any());
+        Mockito.verify(accountManager, Mockito.times(100)).checkAccess(Mockito.any(Account.class), Mockito.eq(AccessType.OperateEntry), Mockito.eq(true), Mockito.any(VirtualMachine.class));
+    }
+
+    @Test(expected = ServerApiException.class)
+    public void processParametersFailsOnUnknownUuidInList() {
+        final VirtualMachine vm = createVm(1);
+        Mockito.when(entityManager.listByUuidsIncludingRemoved(Mockito.eq(VirtualMachine.class), Mockito.<Collection<String>>any())).thenAnswer(new Answer<List<VirtualMachine>>() {
+            @Override
+            public List<VirtualMachine> answer(InvocationOnMock invocation) {
+                return Arrays.asList(vm);
+            }
+        });
+
+        final HashMap<String, String> params = new HashMap<String, String>();
+        params.put("ids", vm.getUuid() + ",00000000-0000-0000-0000-000000000002");
+        paramProcessWorker.processParameters(new TestVmsCmd(), params);
+    }
+
+    @Test
+    public void processParametersIgnoresUnauthorizedParameters() {
+        final HashMap<String, String> params = new HashMap<String, String>();
+        params.put("hostname", "host-1");
+        final TestVmsCmd cmd = new TestVmsCmd();
+        paramProcessWorker.processParameters(cmd, params);
+        Assert.assertNull(cmd.hostName);
+        Assert.assertNull(cmd.ids);
+    }
+
+    @Test
+    public void bindingPlanIsResolvedOnce() {
+        final ParamBindingPlan plan = ParamBindingPlan.get(TestVmsCmd.class);
+        Assert.assertSame(plan, ParamBindingPlan.get(TestVmsCmd.class));
+        Assert.assertFalse(plan.acceptsLegacyDateFormat());
+
+        final ParamBindingPlan.ParamBinding ids = plan.getBindings().get(0);
+        Assert.assertEquals("ids", ids.getName());
+        Assert.assertFalse(ids.isPre3x());
+        Assert.assertNotNull(ids.getAcl());
+        Assert.assertEquals(VirtualMachine.class, ids.getEntities()[0]);
+
+        final ParamBindingPlan.ParamBinding hostName = plan.getBindings().get(1);
+        Assert.assertNull(hostName.getEntities());
+        Assert.assertTrue(hostName.isAuthorized(Account.ACCOUNT_TYPE_ADMIN));
+        Assert.assertFalse(hostName.isAuthorized(Account.ACCOUNT_TYPE_NORMAL));
+    }
 }
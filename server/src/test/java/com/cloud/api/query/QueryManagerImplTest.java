@@ -0,0 +1,201 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api.query;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.cloudstack.api.command.user.event.ListEventsCmd;
+import org.apache.cloudstack.api.command.user.vm.ListVMsCmd;
+import org.apache.cloudstack.api.command.user.volume.ListVolumesCmd;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.Spy;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import com.cloud.api.query.dao.UserVmJoinDao;
+import com.cloud.api.query.dao.VolumeJoinDao;
+import com.cloud.api.query.vo.EventJoinVO;
+import com.cloud.api.query.vo.UserVmJoinVO;
+import com.cloud.api.query.vo.VolumeJoinVO;
+import com.cloud.event.dao.EventJoinDao;
+import com.cloud.utils.Pair;
+import com.cloud.utils.db.Filter;
+import com.cloud.utils.db.SearchCriteria;
+
+@RunWith(MockitoJUnitRunner.class)
+public class QueryManagerImplTest {
+
+    @Spy
+    @InjectMocks
+    private QueryManagerImpl queryManagerImpl;
+
+    @Mock
+    private UserVmJoinDao userVmJoinDaoMock;
+
+    @Mock
+    private VolumeJoinDao volumeJoinDaoMock;
+
+    @Mock
+    private EventJoinDao eventJoinDaoMock;
+
+    @Mock
+    private SearchCriteria<UserVmJoinVO> userVmSearchCriteriaMock;
+
+    @Mock
+    private SearchCriteria<VolumeJoinVO> volumeSearchCriteriaMock;
+
+    @Mock
+    private SearchCriteria<EventJoinVO> eventSearchCriteriaMock;
+
+    private static UserVmJoinVO userVm(long id) {
+        UserVmJoinVO vm = Mockito.mock(UserVmJoinVO.class);
+        Mockito.when(vm.getId()).thenReturn(id);
+        return vm;
+    }
+
+    private static VolumeJoinVO volume(long id) {
+        VolumeJoinVO volume = Mockito.mock(VolumeJoinVO.class);
+        Mockito.when(volume.getId()).thenReturn(id);
+        return volume;
+    }
+
+    private static void assertFilter(Filter filter, long offset, long limit) {
+        Assert.assertEquals(Long.valueOf(offset), filter.getOffset());
+        Assert.assertEquals(Long.valueOf(limit), filter.getLimit());
+    }
+
+    @Test
+    public void searchForUserVMsInternalFirstPageCountsTheVms() {
+        ListVMsCmd cmd = Mockito.mock(ListVMsCmd.class);
+        Mockito.doReturn(userVmSearchCriteriaMock).when(queryManagerImpl).createUserVmSearchCriteria(cmd);
+        List<UserVmJoinVO> page = Arrays.asList(userVm(1), userVm(2));
+        Mockito.doReturn(new Pair<List<UserVmJoinVO>, Integer>(page, 1200)).when(userVmJoinDaoMock).searchAndDistinctCount(Mockito.eq(userVmSearchCriteriaMock),
+                Mockito.any(Filter.class));
+        List<UserVmJoinVO> details = Arrays.asList(userVm(1), userVm(1), userVm(2));
+        Mockito.doReturn(details).when(userVmJoinDaoMock).searchByIds(1L, 2L);
+
+        Pair<List<UserVmJoinVO>, Integer> result = queryManagerImpl.searchForUserVMsInternal(cmd, 0L, 500L, true);
+
+        Assert.assertSame(details, result.first());
+        Assert.assertEquals(Integer.valueOf(1200), result.second());
+        ArgumentCaptor<Filter> filter = ArgumentCaptor.forClass(Filter.class);
+        Mockito.verify(userVmJoinDaoMock).searchAndDistinctCount(Mockito.eq(userVmSearchCriteriaMock), filter.capture());
+        assertFilter(filter.getValue(), 0, 500);
+    }
+
+    @Test
+    public void searchForUserVMsInternalNextPageDoesNotCount() {
+        ListVMsCmd cmd = Mockito.mock(ListVMsCmd.class);
+        Mockito.doReturn(userVmSearchCriteriaMock).when(queryManagerImpl).createUserVmSearchCriteria(cmd);
+        Mockito.doReturn(Arrays.asList(userVm(501))).when(userVmJoinDaoMock).search(Mockito.eq(userVmSearchCriteriaMock), Mockito.any(Filter.class));
+        List<UserVmJoinVO> details = Arrays.asList(userVm(501));
+        Mockito.doReturn(details).when(userVmJoinDaoMock).searchByIds(501L);
+
+        Pair<List<UserVmJoinVO>, Integer> result = queryManagerImpl.searchForUserVMsInternal(cmd, 500L, 500L, false);
+
+        Assert.assertSame(details, result.first());
+        Assert.assertNull(result.second());
+        ArgumentCaptor<Filter> filter = ArgumentCaptor.forClass(Filter.class);
+        Mockito.verify(userVmJoinDaoMock).search(Mockito.eq(userVmSearchCriteriaMock), filter.capture());
+        assertFilter(filter.getValue(), 500, 500);
+        Mockito.verify(userVmJoinDaoMock, Mockito.never()).searchAndDistinctCount(Mockito.any(), Mockito.any());
+    }
+
+    @Test
+    public void searchForUserVMsInternalEmptyPageLoadsNoDetails() {
+        ListVMsCmd cmd = Mockito.mock(ListVMsCmd.class);
+        Mockito.doReturn(userVmSearchCriteriaMock).when(queryManagerImpl).createUserVmSearchCriteria(cmd);
+        Mockito.doReturn(Collections.emptyList()).when(userVmJoinDaoMock).search(Mockito.eq(userVmSearchCriteriaMock), Mockito.any(Filter.class));
+
+        Pair<List<UserVmJoinVO>, Integer> result = queryManagerImpl.searchForUserVMsInternal(cmd, 1000L, 500L, false);
+
+        Assert.assertTrue(result.first().isEmpty());
+        Mockito.verify(userVmJoinDaoMock, Mockito.never()).searchByIds(Mockito.any());
+    }
+
+    @Test
+    public void searchForVolumesInternalPages() {
+        ListVolumesCmd cmd = Mockito.mock(ListVolumesCmd.class);
+        Mockito.doReturn(volumeSearchCriteriaMock).when(queryManagerImpl).createVolumeSearchCriteria(cmd);
+        Mockito.doReturn(new Pair<List<VolumeJoinVO>, Integer>(Arrays.asList(volume(7)), 2)).when(volumeJoinDaoMock).searchAndCount(Mockito.eq(volumeSearchCriteriaMock),
+                Mockito.any(Filter.class));
+        Mockito.doReturn(Arrays.asList(volume(8))).when(volumeJoinDaoMock).search(Mockito.eq(volumeSearchCriteriaMock), Mockito.any(Filter.class));
+        List<VolumeJoinVO> firstDetails = Arrays.asList(volume(7));
+        List<VolumeJoinVO> nextDetails = Arrays.asList(volume(8));
+        Mockito.doReturn(firstDetails).when(volumeJoinDaoMock).searchByIds(7L);
+        Mockito.doReturn(nextDetails).when(volumeJoinDaoMock).searchByIds(8L);
+
+        Pair<List<VolumeJoinVO>, Integer> first = queryManagerImpl.searchForVolumesInternal(cmd, 0L, 1L, true);
+        Pair<List<VolumeJoinVO>, Integer> next = queryManagerImpl.searchForVolumesInternal(cmd, 1L, 1L, false);
+
+        Assert.assertSame(firstDetails, first.first());
+        Assert.assertEquals(Integer.valueOf(2), first.second());
+        Assert.assertSame(nextDetails, next.first());
+        Assert.assertNull(next.second());
+        ArgumentCaptor<Filter> filter = ArgumentCaptor.forClass(Filter.class);
+        Mockito.verify(volumeJoinDaoMock).search(Mockito.eq(volumeSearchCriteriaMock), filter.capture());
+        assertFilter(filter.getValue(), 1, 1);
+    }
+
+    @Test
+    public void searchForEventsInternalPages() {
+        ListEventsCmd cmd = Mockito.mock(ListEventsCmd.class);
+        Mockito.when(cmd.getEntryTime()).thenReturn(null);
+        Mockito.when(cmd.getDuration()).thenReturn(null);
+        Mockito.doReturn(eventSearchCriteriaMock).when(queryManagerImpl).createEventSearchCriteria(cmd);
+        List<EventJoinVO> firstPage = Arrays.asList(Mockito.mock(EventJoinVO.class));
+        List<EventJoinVO> nextPage = Arrays.asList(Mockito.mock(EventJoinVO.class));
+        Mockito.doReturn(new Pair<List<EventJoinVO>, Integer>(firstPage, 2)).when(eventJoinDaoMock).searchAndCount(Mockito.eq(eventSearchCriteriaMock), Mockito.any(Filter.class));
+        Mockito.doReturn(nextPage).when(eventJoinDaoMock).search(Mockito.eq(eventSearchCriteriaMock), Mockito.any(Filter.class));
+
+        Assert.assertSame(firstPage, queryManagerImpl.searchForEventsInternal(cmd, 0L, 1L, true).first());
+        Pair<List<EventJoinVO>, Integer> next = queryManagerImpl.searchForEventsInternal(cmd, 1L, 1L, false);
+
+        Assert.assertSame(nextPage, next.first());
+        Assert.assertNull(next.second());
+        ArgumentCaptor<Filter> filter = ArgumentCaptor.forClass(Filter.class);
+        Mockito.verify(eventJoinDaoMock).search(Mockito.eq(eventSearchCriteriaMock), filter.capture());
+        assertFilter(filter.getValue(), 1, 1);
+    }
+
+    @Test
+    public void isStreamedTest() {
+        ListVMsCmd cmd = Mockito.mock(ListVMsCmd.class);
+        Mockito.when(cmd.getPageSizeVal()).thenReturn(null, 1000L, 500L, 100L);
+
+        // the whole list, then pages larger than, equal to and smaller than the streaming page size
+        Assert.assertTrue(queryManagerImpl.isStreamed(cmd, 500));
+        Assert.assertTrue(queryManagerImpl.isStreamed(cmd, 500));
+        Assert.assertFalse(queryManagerImpl.isStreamed(cmd, 500));
+        Assert.assertFalse(queryManagerImpl.isStreamed(cmd, 500));
+    }
+
+    @Test
+    public void isStreamedDisabledTest() {
+        ListVMsCmd cmd = Mockito.mock(ListVMsCmd.class);
+        Assert.assertFalse(queryManagerImpl.isStreamed(cmd, 0));
+        Assert.assertFalse(queryManagerImpl.isStreamed(cmd, null));
+        Mockito.verify(cmd, Mockito.never()).getPageSizeVal();
+    }
+}
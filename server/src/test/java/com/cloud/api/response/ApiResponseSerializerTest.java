@@ -0,0 +1,352 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api.response;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.cloudstack.acl.RoleType;
+import org.apache.cloudstack.api.BaseResponse;
+import org.apache.cloudstack.api.response.ListResponse;
+import org.apache.cloudstack.api.response.StreamingListResponse;
+import org.apache.cloudstack.context.CallContext;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.cloud.api.ApiDBUtils;
+import com.cloud.api.ApiResponseGsonHelper;
+import com.cloud.serializer.Param;
+import com.cloud.server.ManagementServer;
+import com.cloud.user.Account;
+import com.cloud.user.User;
+import com.cloud.utils.HttpUtils;
+import com.cloud.utils.Pair;
+import com.google.gson.Gson;
+import com.google.gson.annotations.SerializedName;
+
+public class ApiResponseSerializerTest {
+    public static class NicTestResponse extends BaseResponse {
+        @SerializedName("ipaddress")
+        @Param(description = "the ip address")
+        private String ipAddress;
+
+        public NicTestResponse(String ipAddress) {
+            this.ipAddress = ipAddress;
+        }
+    }
+
+    public static class VmTestResponse extends BaseResponse {
+        @SerializedName("id")
+        @Param(description = "the id")
+        private String id;
+
+        @SerializedName("displayname")
+        @Param(description = "the display name")
+        private String displayName;
+
+        @SerializedName("hostname")
+        @Param(description = "the host", authorized = {RoleType.Admin})
+        private String hostName;
+
+        @SerializedName("password")
+        @Param(description = "the password", isSensitive = true)
+        private String password;
+
+        @SerializedName("created")
+        @Param(description = "the creation date")
+        private Date created;
+
+        @SerializedName("nic")
+        @Param(description = "the nics")
+        private List<NicTestResponse> nics;
+
+        private transient String internal = "internal";
+
+        public VmTestResponse(int i) {
+            super("virtualmachine");
+            id = "vm-" + i;
+            displayName = "vm <" + i + "> & co";
+            hostName = "host-" + (i % 10);
+            password = "secret-" + i;
+            created = new Date(1500000000000L + i);
+            nics = new ArrayList<NicTestResponse>();
+            nics.add(new NicTestResponse("10.0.0." + (i % 250)));
+            nics.add(new NicTestResponse("10.1.0." + (i % 250)));
+        }
+    }
+
+    private ManagementServer _originalMs;
+
+    @Before
+    public void setUp() throws Exception {
+        ManagementServer ms = Mockito.mock(ManagementServer.class);
+        Mockito.when(ms.getVersion()).thenReturn("4.16.0.0");
+        _originalMs = (ManagementServer)getManagementServerField().get(null);
+        getManagementServerField().set(null, ms);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        CallContext.unregister();
+        getManagementServerField().set(null, _originalMs);
+    }
+
+    private static Field getManagementServerField() throws Exception {
+        Field field = ApiDBUtils.class.getDeclaredField("s_ms");
+        field.setAccessible(true);
+        return field;
+    }
+
+    private static void registerCaller(short accountType) {
+        Account account = Mockito.mock(Account.class);
+        Mockito.when(account.getType()).thenReturn(accountType);
+        CallContext.unregister();
+        CallContext.register(Mockito.mock(User.class), account);
+    }
+
+    private static ListResponse<VmTestResponse> createListResponse(int count) {
+        List<VmTestResponse> vms = new ArrayList<VmTestResponse>();
+        for (int i = 0; i < count; i++) {
+            vms.add(new VmTestResponse(i));
+        }
+        ListResponse<VmTestResponse> response = new ListResponse<VmTestResponse>();
+        response.setResponses(vms, count);
+        response.setResponseName("listvirtualmachinesresponse");
+        return response;
+    }
+
+    /**
+     * Serves count synthetic responses, creating them on demand.
+     */
+    private static class VmPageLoader implements StreamingListResponse.PageLoader<VmTestResponse> {
+        private final int count;
+
+        VmPageLoader(int count) {
+            this.count = count;
+        }
+
+        @Override
+        public Pair<List<VmTestResponse>, Integer> loadPage(long offset, long limit, boolean withCount) {
+            List<VmTestResponse> vms = new ArrayList<VmTestResponse>();
+            for (long i = offset; i < Math.min(count, offset + limit); i++) {
+                vms.add(new VmTestResponse((int)i));
+            }
+            return new Pair<List<VmTestResponse>, Integer>(vms, withCount ? count : null);
+        }
+    }
+
+    private static StreamingListResponse<VmTestResponse> createStreamingListResponse(StreamingListResponse.PageLoader<VmTestResponse> loader, long pageSize) {
+        StreamingListResponse<VmTestResponse> response = new StreamingListResponse<VmTestResponse>(loader, null, null, pageSize);
+        response.setResponseName("listvirtualmachinesresponse");
+        return response;
+    }
+
+    private static String write(ListResponse<VmTestResponse> response, String responseType, StringBuilder log) throws IOException {
+        StringWriter out = new StringWriter();
+        ApiResponseSerializer.writeSerializedStringWithSecureLogs(response, responseType, out, log);
+        return out.toString();
+    }
+
+    /**
+     * The serialization as done before the Gson instances were cached.
+     */
+    private static String toLegacyJson(ListResponse<VmTestResponse> response) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"").append(response.getResponseName()).append("\":{\"count\":").append(response.getCount());
+        for (int i = 0; i < response.getResponses().size(); i++) {
+            Gson gson = ApiResponseGsonHelper.getBuilder().excludeFieldsWithModifiers(Modifier.TRANSIENT).create();
+            sb.append(i == 0 ? ",\"virtualmachine\":[" : ",").append(ApiResponseSerializer.unescape(gson.toJson(response.getResponses().get(i))));
+        }
+        return sb.append("]}}").toString();
+    }
+
+    @Test
+    public void testJsonMatchesLegacySerialization() {
+        ListResponse<VmTestResponse> response = createListResponse(20);
+        for (short accountType : new short[] {Account.ACCOUNT_TYPE_ADMIN, Account.ACCOUNT_TYPE_NORMAL, Account.ACCOUNT_TYPE_ADMIN}) {
+            registerCaller(accountType);
+            Assert.assertEquals(toLegacyJson(response), ApiResponseSerializer.toSerializedString(response, HttpUtils.RESPONSE_TYPE_JSON));
+        }
+    }
+
+    @Test
+    public void testJsonAuthorizedAndSensitiveFields() {
+        ListResponse<VmTestResponse> response = createListResponse(2);
+
+        registerCaller(Account.ACCOUNT_TYPE_ADMIN);
+        StringBuilder log = new StringBuilder();
+        String json = ApiResponseSerializer.toSerializedStringWithSecureLogs(response, HttpUtils.RESPONSE_TYPE_JSON, log);
+        Assert.assertTrue(json.contains("\"hostname\":\"host-1\""));
+        Assert.assertTrue(json.contains("\"password\":\"secret-1\""));
+        Assert.assertTrue(json.contains("\"displayname\":\"vm <1> & co\""));
+        Assert.assertFalse(json.contains("internal"));
+        Assert.assertTrue(log.toString().contains("\"hostname\":\"host-1\""));
+        Assert.assertFalse(log.toString().contains("secret"));
+
+        registerCaller(Account.ACCOUNT_TYPE_NORMAL);
+        json = ApiResponseSerializer.toSerializedString(response, HttpUtils.RESPONSE_TYPE_JSON);
+        Assert.assertFalse(json.contains("hostname"));
+        Assert.assertTrue(json.contains("\"password\":\"secret-1\""));
+    }
+
+    @Test
+    public void testXmlAuthorizedAndSensitiveFields() {
+        ListResponse<VmTestResponse> response = createListResponse(2);
+
+        registerCaller(Account.ACCOUNT_TYPE_ADMIN);
+        StringBuilder log = new StringBuilder();
+        String xml = ApiResponseSerializer.toSerializedStringWithSecureLogs(response, HttpUtils.RESPONSE_TYPE_XML, log);
+        Assert.assertTrue(xml.startsWith("<?xml version=\"1.0\" encoding=\"UTF-8\"?><listvirtualmachinesresponse cloud-stack-version=\"4.16.0.0\"><count>2</count>"));
+        Assert.assertTrue(xml.contains("<virtualmachine><id>vm-1</id><displayname>vm &lt;1&gt; &amp; co</displayname><hostname>host-1</hostname><password>secret-1</password>"));
+        Assert.assertTrue(xml.contains("<nic><ipaddress>10.1.0.1</ipaddress></nic></virtualmachine>"));
+        Assert.assertFalse(xml.contains("internal"));
+        Assert.assertFalse(log.toString().contains("secret"));
+
+        registerCaller(Account.ACCOUNT_TYPE_NORMAL);
+        xml = ApiResponseSerializer.toSerializedString(response, HttpUtils.RESPONSE_TYPE_XML);
+        Assert.assertFalse(xml.contains("hostname"));
+    }
+
+    @Test
+    public void testResponseFieldsAreResolvedOnce() {
+        List<ResponseFields.ResponseField> fields = ResponseFields.get(VmTestResponse.class);
+        Assert.assertSame(fields, ResponseFields.get(VmTestResponse.class));
+
+        List<String> names = new ArrayList<String>();
+        for (ResponseFields.ResponseField field : fields) {
+            names.add(field.getName());
+        }
+        // the fields of the class first, then the ones of BaseResponse
+        Assert.assertEquals(Arrays.asList("id", "displayname", "hostname", "password", "created", "nic", "jobid", "jobstatus"), names);
+        Assert.assertTrue(fields.get(2).isRestricted());
+        Assert.assertFalse(fields.get(2).isAuthorized(Account.ACCOUNT_TYPE_NORMAL));
+        Assert.assertTrue(fields.get(3).isSensitive());
+    }
+
+    @Test
+    public void testUnescape() {
+        Assert.assertEquals("no escapes", ApiResponseSerializer.unescape("no escapes"));
+        Assert.assertEquals("<a href='x'>&</a>", ApiResponseSerializer.unescape("\\u003ca href\\u003d\\u0027x\\u0027\\u003e\\u0026\\u003c/a\\u003e"));
+    }
+
+    @Test
+    public void testGsonIsCachedPerCallerType() {
+        registerCaller(Account.ACCOUNT_TYPE_ADMIN);
+        Gson adminGson = ApiResponseGsonHelper.getGson();
+        Assert.assertSame(adminGson, ApiResponseGsonHelper.getGson());
+        Assert.assertSame(ApiResponseGsonHelper.getLogGson(), ApiResponseGsonHelper.getLogGson());
+
+        registerCaller(Account.ACCOUNT_TYPE_NORMAL);
+        Gson userGson = ApiResponseGsonHelper.getGson();
+        Assert.assertNotSame(adminGson, userGson);
+        Assert.assertSame(userGson, ApiResponseGsonHelper.getGson());
+    }
+
+    @Test
+    public void testLargeListResponse() {
+        registerCaller(Account.ACCOUNT_TYPE_ADMIN);
+        ListResponse<VmTestResponse> response = createListResponse(5000);
+        Assert.assertEquals(toLegacyJson(response), ApiResponseSerializer.toSerializedString(response, HttpUtils.RESPONSE_TYPE_JSON));
+        String xml = ApiResponseSerializer.toSerializedString(response, HttpUtils.RESPONSE_TYPE_XML);
+        Assert.assertTrue(xml.endsWith("</virtualmachine></listvirtualmachinesresponse>"));
+    }
+
+    @Test
+    public void testStreamedMatchesSerializedResponse() throws IOException {
+        registerCaller(Account.ACCOUNT_TYPE_ADMIN);
+        for (int count : new int[] {0, 1, 1000, 2500}) {
+            ListResponse<VmTestResponse> response = createListResponse(count);
+            for (String responseType : new String[] {HttpUtils.RESPONSE_TYPE_JSON, HttpUtils.RESPONSE_TYPE_XML}) {
+                String expected = ApiResponseSerializer.toSerializedString(response, responseType);
+                Assert.assertEquals(expected, write(response, responseType, new StringBuilder()));
+                Assert.assertEquals(expected, write(createStreamingListResponse(new VmPageLoader(count), 1000), responseType, new StringBuilder()));
+            }
+        }
+    }
+
+    @Test
+    public void testStreamedResponseLog() throws IOException {
+        registerCaller(Account.ACCOUNT_TYPE_ADMIN);
+        StringBuilder log = new StringBuilder();
+        String json = write(createStreamingListResponse(new VmPageLoader(25), 10), HttpUtils.RESPONSE_TYPE_JSON, log);
+        Assert.assertTrue(json.contains("secret-24"));
+        Assert.assertEquals("listvirtualmachinesresponse: 25 of 25 objects streamed", log.toString());
+    }
+
+    /**
+     * Streams a large number of responses to a writer counting the objects
+     * written, checking that the objects of a page are all written before
+     * the next page is loaded, so that at most one page is held at a time.
+     */
+    private static void assertOnePageHeldAtATime(String responseType, final String objectMarker) throws IOException {
+        final int count = 20000;
+        final int pageSize = 500;
+        final int[] loaded = new int[1];
+        final int[] written = new int[1];
+        final int[] maxHeld = new int[1];
+        StreamingListResponse.PageLoader<VmTestResponse> loader = new VmPageLoader(count) {
+            @Override
+            public Pair<List<VmTestResponse>, Integer> loadPage(long offset, long limit, boolean withCount) {
+                Pair<List<VmTestResponse>, Integer> page = super.loadPage(offset, limit, withCount);
+                loaded[0] += page.first().size();
+                maxHeld[0] = Math.max(maxHeld[0], loaded[0] - written[0]);
+                return page;
+            }
+        };
+
+        Writer out = new Writer() {
+            @Override
+            public void write(char[] cbuf, int off, int len) {
+                String chunk = new String(cbuf, off, len);
+                for (int i = chunk.indexOf(objectMarker); i >= 0; i = chunk.indexOf(objectMarker, i + 1)) {
+                    written[0]++;
+                }
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        ApiResponseSerializer.writeSerializedStringWithSecureLogs(createStreamingListResponse(loader, pageSize), responseType, out, new StringBuilder());
+
+        Assert.assertEquals(count, loaded[0]);
+        Assert.assertEquals(count, written[0]);
+        Assert.assertEquals(pageSize, maxHeld[0]);
+    }
+
+    @Test
+    public void testStreamingHoldsOnePageAtATime() throws IOException {
+        registerCaller(Account.ACCOUNT_TYPE_ADMIN);
+        assertOnePageHeldAtATime(HttpUtils.RESPONSE_TYPE_JSON, "\"displayname\":");
+        assertOnePageHeldAtATime(HttpUtils.RESPONSE_TYPE_XML, "<displayname>");
+    }
+}
@@ -39,12 +39,14 @@ import com.cloud.dc.DataCenterVO;
 import com.cloud.dc.DataCenter;
 import com.cloud.dc.DataCenter.NetworkType;
 import com.cloud.dc.dao.DataCenterDao;
+import com.cloud.info.ConsoleProxyStatus;
 import com.cloud.network.Networks.TrafficType;
 import com.cloud.network.dao.NetworkDao;
 import com.cloud.network.dao.NetworkVO;
 import com.cloud.utils.db.GlobalLock;
 import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.vm.ConsoleProxyVO;
+import com.google.gson.Gson;
 
 public class ConsoleProxyManagerTest {
 
@@ -246,4 +248,16 @@ public class ConsoleProxyManagerTest {
 
         cpvmManager.getDefaultNetworkForAdvancedZone(dc);
     }
+
+    @Test
+    public void getProxyLoadOfOverloadedProxy() {
+        ReflectionTestUtils.setField(cpvmManager, "_capacityPerProxy", 50);
+        Mockito.doCallRealMethod().when(cpvmManager).getProxyLoad(Mockito.any(ConsoleProxyStatus.class));
+
+        ConsoleProxyStatus status = new Gson().fromJson("{\"connections\":[{\"id\":1},{\"id\":2}],\"requestQueueDepth\":10}", ConsoleProxyStatus.class);
+        Assert.assertEquals(2, cpvmManager.getProxyLoad(status));
+
+        status = new Gson().fromJson("{\"connections\":[{\"id\":1},{\"id\":2}],\"requestQueueDepth\":600,\"overloaded\":true}", ConsoleProxyStatus.class);
+        Assert.assertEquals(50, cpvmManager.getProxyLoad(status));
+    }
 }
@@ -0,0 +1,215 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.network.security;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.cloud.agent.AgentManager;
+import com.cloud.agent.Listener;
+import com.cloud.agent.api.Command;
+import com.cloud.agent.api.SecurityGroupRuleAnswer;
+import com.cloud.agent.api.SecurityGroupRulesCmd;
+import com.cloud.agent.api.to.VirtualMachineTO;
+import com.cloud.agent.manager.Commands;
+import com.cloud.network.security.dao.SecurityGroupRuleDao;
+import com.cloud.network.security.dao.SecurityGroupVMMapDao;
+import com.cloud.network.security.dao.VmRulesetLogDao;
+import com.cloud.utils.Profiler;
+import com.cloud.vm.NicVO;
+import com.cloud.vm.UserVmVO;
+import com.cloud.vm.VirtualMachine.State;
+import com.cloud.vm.dao.NicDao;
+import com.cloud.vm.dao.UserVmDao;
+
+public class SecurityGroupHostBatchingTest {
+    private static final Logger s_logger = Logger.getLogger(SecurityGroupHostBatchingTest.class);
+
+    private static final int HOSTS = 3;
+
+    private final AtomicLong _seq = new AtomicLong();
+    private final Map<Long, Commands> _sent = new HashMap<Long, Commands>();
+    private final Map<Long, Long> _sentHosts = new HashMap<Long, Long>();
+    private SecurityGroupManagerImpl2 _sgMgr;
+
+    @Before
+    public void setUp() throws Exception {
+        _sgMgr = new SecurityGroupManagerImpl2() {
+            @Override
+            protected VirtualMachineTO getVmTO(Long vmId) {
+                return null;
+            }
+        };
+        _sgMgr._mBean = mock(SecurityManagerMBeanImpl.class);
+        _sgMgr._securityGroupVMMapDao = mock(SecurityGroupVMMapDao.class);
+        _sgMgr._securityGroupRuleDao = mock(SecurityGroupRuleDao.class);
+        _sgMgr._rulesetLogDao = mock(VmRulesetLogDao.class);
+        _sgMgr._userVMDao = mock(UserVmDao.class);
+        _sgMgr._nicDao = mock(NicDao.class);
+        _sgMgr._agentMgr = mock(AgentManager.class);
+        _sgMgr._answerListener = mock(SecurityGroupListener.class);
+        _sgMgr._workTracker = new SecurityGroupWorkTracker(_sgMgr._agentMgr, _sgMgr._answerListener, 100);
+
+        when(_sgMgr._rulesetLogDao.findByVmId(anyLong())).thenAnswer(new Answer<VmRulesetLogVO>() {
+            @Override
+            public VmRulesetLogVO answer(InvocationOnMock invocation) throws Throwable {
+                return new VmRulesetLogVO((Long)invocation.getArguments()[0]);
+            }
+        });
+        when(_sgMgr._userVMDao.findById(anyLong())).thenAnswer(new Answer<UserVmVO>() {
+            @Override
+            public UserVmVO answer(InvocationOnMock invocation) throws Throwable {
+                final long vmId = (Long)invocation.getArguments()[0];
+                final UserVmVO vm = mock(UserVmVO.class);
+                when(vm.getId()).thenReturn(vmId);
+                when(vm.getInstanceName()).thenReturn("i-2-" + vmId + "-VM");
+                when(vm.getState()).thenReturn(State.Running);
+                when(vm.getHostId()).thenReturn(vmId % HOSTS);
+                return vm;
+            }
+        });
+        when(_sgMgr._nicDao.findFirstNicForVM(anyLong())).thenReturn(mock(NicVO.class));
+        when(_sgMgr._agentMgr.send(anyLong(), any(Commands.class), any(Listener.class))).thenAnswer(new Answer<Long>() {
+            @Override
+            public Long answer(InvocationOnMock invocation) throws Throwable {
+                final long seq = _seq.incrementAndGet();
+                _sent.put(seq, (Commands)invocation.getArguments()[1]);
+                _sentHosts.put(seq, (Long)invocation.getArguments()[0]);
+                return seq;
+            }
+        });
+    }
+
+    private void scheduleWork(final int vms) {
+        final TreeSet<Long> vmIds = new TreeSet<Long>();
+        for (long i = 1; i <= vms; i++) {
+            vmIds.add(i);
+        }
+        _sgMgr.getWorkQueue().submitWorkForVms(vmIds);
+    }
+
+    private void answerAll() {
+        for (final Map.Entry<Long, Commands> request : _sent.entrySet()) {
+            final List<com.cloud.agent.api.Answer> answers = new ArrayList<com.cloud.agent.api.Answer>();
+            for (final Command cmd : request.getValue()) {
+                answers.add(new SecurityGroupRuleAnswer((SecurityGroupRulesCmd)cmd));
+            }
+            _sgMgr._workTracker.processAnswers(_sentHosts.get(request.getKey()), request.getKey(),
+                    answers.toArray(new com.cloud.agent.api.Answer[answers.size()]));
+        }
+    }
+
+    @Test
+    public void testWorkIsGroupedByHost() throws Exception {
+        _sgMgr._workBatchSize = 20;
+        scheduleWork(10);
+        _sgMgr.work();
+
+        Assert.assertEquals(HOSTS, _sent.size());
+        int rulesets = 0;
+        for (final Map.Entry<Long, Commands> request : _sent.entrySet()) {
+            Assert.assertFalse(request.getValue().stopOnError());
+            for (final Command cmd : request.getValue()) {
+                Assert.assertEquals(_sentHosts.get(request.getKey()).longValue(), ((SecurityGroupRulesCmd)cmd).getVmId() % HOSTS);
+                rulesets++;
+            }
+        }
+        Assert.assertEquals(10, rulesets);
+        Assert.assertEquals(0, _sgMgr.getQueueSize());
+        Assert.assertEquals(Integer.valueOf(1), _sgMgr._workTracker.getUnackedCounts().get(0L));
+        Assert.assertEquals(10.0 / HOSTS, (double)_sgMgr._workTracker.getWorkCount() / _sgMgr._workTracker.getRequestCount(), 0.001);
+
+        answerAll();
+        Assert.assertEquals(Integer.valueOf(0), _sgMgr._workTracker.getUnackedCounts().get(0L));
+        Assert.assertEquals(HOSTS, _sgMgr._workTracker.getHostLatencies().size());
+    }
+
+    @Test
+    public void testAnswerBeforeSentIsSettled() throws Exception {
+        when(_sgMgr._agentMgr.send(anyLong(), any(Commands.class), any(Listener.class))).thenAnswer(new Answer<Long>() {
+            @Override
+            public Long answer(InvocationOnMock invocation) throws Throwable {
+                final long seq = _seq.incrementAndGet();
+                // the host answers before send returns
+                _sgMgr._workTracker.processAnswers((Long)invocation.getArguments()[0], seq, new com.cloud.agent.api.Answer[0]);
+                return seq;
+            }
+        });
+        _sgMgr._workBatchSize = 20;
+        scheduleWork(10);
+        _sgMgr.work();
+
+        for (long host = 0; host < HOSTS; host++) {
+            Assert.assertEquals(0, _sgMgr._workTracker.getUnackedCount(host));
+        }
+        Assert.assertTrue(_sgMgr._workTracker._pendingRequests.isEmpty());
+        Assert.assertTrue(_sgMgr._workTracker._earlyAnswers.isEmpty());
+        Assert.assertEquals(HOSTS, _sgMgr._workTracker.getHostLatencies().size());
+    }
+
+    @Test
+    public void testBatchSizeLimitsWorkTaken() throws Exception {
+        _sgMgr._workBatchSize = 4;
+        scheduleWork(10);
+        _sgMgr.work();
+
+        Assert.assertEquals(6, _sgMgr.getQueueSize());
+        int rulesets = 0;
+        for (final Commands request : _sent.values()) {
+            rulesets += request.size();
+        }
+        Assert.assertEquals(4, rulesets);
+    }
+
+    /**
+     * Not a proper benchmark, compares the number of requests needed to
+     * drain the queue one vm at a time and per host.
+     */
+    @Test
+    public void testRequestsPerBatchSize() throws Exception {
+        for (final int batchSize : new int[] {1, 20, 100}) {
+            _sent.clear();
+            _sgMgr._workBatchSize = batchSize;
+            scheduleWork(300);
+            final Profiler profiler = new Profiler();
+            profiler.start();
+            while (_sgMgr.getQueueSize() > 0) {
+                _sgMgr.work();
+            }
+            profiler.stop();
+            s_logger.info("Batch size " + batchSize + ": 300 rulesets in " + _sent.size() + " requests, " + profiler.getDurationInMillis() + " ms");
+            // one request per host and batch at most
+            Assert.assertTrue(_sent.size() <= (300 + batchSize - 1) / batchSize * Math.min(batchSize, HOSTS));
+        }
+    }
+}
@@ -0,0 +1,274 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.network.security;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.cloud.agent.AgentManager;
+import com.cloud.agent.api.Command;
+import com.cloud.agent.api.SecurityGroupMembersCmd;
+import com.cloud.agent.api.SecurityGroupRulesCmd;
+import com.cloud.hypervisor.Hypervisor.HypervisorType;
+import com.cloud.network.NetworkModel;
+import com.cloud.network.security.SecurityGroupManagerImpl.PortAndProto;
+import com.cloud.network.security.SecurityRule.SecurityRuleType;
+import com.cloud.network.security.dao.SecurityGroupDao;
+import com.cloud.network.security.dao.SecurityGroupRuleDao;
+import com.cloud.network.security.dao.SecurityGroupVMMapDao;
+import com.cloud.utils.Profiler;
+import com.cloud.vm.NicVO;
+import com.cloud.vm.VMInstanceVO;
+import com.cloud.vm.VirtualMachine.State;
+import com.cloud.vm.dao.NicDao;
+
+/**
+ * Fan-out of a vm start when a group of {@link #MEMBERS} running vms spread
+ * over {@link #HOSTS} hosts allows the group of the vm: every member gets its
+ * full rules without incremental updates, one member update per host with.
+ */
+public class SecurityGroupMemberUpdatesTest {
+    private static final Logger s_logger = Logger.getLogger(SecurityGroupMemberUpdatesTest.class);
+
+    private static final int MEMBERS = 1000;
+    private static final int HOSTS = 20;
+    private static final long WEB_GROUP = 1L;
+    private static final long APP_GROUP = 2L;
+    private static final long STARTED_VM = 5000L;
+
+    private final List<Long> _fullUpdates = Collections.synchronizedList(new ArrayList<Long>());
+    private final Map<Long, SecurityGroupMembersCmd> _memberUpdates = new ConcurrentHashMap<Long, SecurityGroupMembersCmd>();
+    private final AtomicBoolean _agentFailure = new AtomicBoolean();
+    private final List<SecurityGroupVMMapVO> _webMembers = new ArrayList<SecurityGroupVMMapVO>();
+    private SecurityGroupManagerImpl _sgMgr;
+    private VMInstanceVO _vm;
+
+    @Before
+    public void setUp() throws Exception {
+        _sgMgr = new SecurityGroupManagerImpl() {
+            @Override
+            public void scheduleRulesetUpdateToHosts(List<Long> affectedVms, boolean updateSeqno, Long delayMs) {
+                _fullUpdates.addAll(affectedVms);
+            }
+
+            @Override
+            protected void publishMembershipUsageEvent(VMInstanceVO vm, long groupId, boolean assigned) {
+            }
+        };
+        _sgMgr._securityGroupDao = mock(SecurityGroupDao.class);
+        _sgMgr._securityGroupVMMapDao = mock(SecurityGroupVMMapDao.class);
+        _sgMgr._securityGroupRuleDao = mock(SecurityGroupRuleDao.class);
+        _sgMgr._nicDao = mock(NicDao.class);
+        _sgMgr._networkModel = mock(NetworkModel.class);
+        _sgMgr._agentMgr = mock(AgentManager.class);
+
+        final List<Long> webVmIds = new ArrayList<Long>();
+        for (int i = 0; i < MEMBERS; i++) {
+            final SecurityGroupVMMapVO member = mock(SecurityGroupVMMapVO.class);
+            when(member.getInstanceId()).thenReturn((long)i);
+            when(member.getHostId()).thenReturn((long)(i % HOSTS));
+            when(member.getHypervisorType()).thenReturn(HypervisorType.KVM);
+            when(member.getGuestIpAddress()).thenReturn("10.1." + i / 250 + "." + i % 250);
+            mockDefaultNic(i, "10.1." + i / 250 + "." + i % 250);
+            _webMembers.add(member);
+            webVmIds.add((long)i);
+        }
+        when(_sgMgr._securityGroupVMMapDao.listBySecurityGroup(WEB_GROUP, State.Running)).thenReturn(_webMembers);
+        when(_sgMgr._securityGroupVMMapDao.listVmIdsBySecurityGroup(WEB_GROUP)).thenReturn(webVmIds);
+
+        final SecurityGroupVMMapVO appMapping = mock(SecurityGroupVMMapVO.class);
+        when(appMapping.getSecurityGroupId()).thenReturn(APP_GROUP);
+        when(_sgMgr._securityGroupVMMapDao.listByInstanceId(STARTED_VM)).thenReturn(Arrays.asList(appMapping));
+
+        // web allows app
+        final SecurityGroupRuleVO allowApp = mock(SecurityGroupRuleVO.class);
+        when(allowApp.getSecurityGroupId()).thenReturn(WEB_GROUP);
+        when(_sgMgr._securityGroupRuleDao.listByAllowedSecurityGroupId(APP_GROUP)).thenReturn(Arrays.asList(allowApp));
+
+        when(_sgMgr._securityGroupDao.incrementMembersVersion(APP_GROUP)).thenReturn(4L);
+        final SecurityGroupVO webGroup = mock(SecurityGroupVO.class);
+        when(webGroup.getMembersVersion()).thenReturn(9L);
+        when(_sgMgr._securityGroupDao.findById(WEB_GROUP)).thenReturn(webGroup);
+
+        mockDefaultNic(STARTED_VM, "10.2.0.1");
+        final NicVO otherNic = mock(NicVO.class);
+        when(otherNic.getIPv4Address()).thenReturn("10.3.0.1");
+        when(_sgMgr._nicDao.listByVmId(STARTED_VM)).thenReturn(Arrays.asList(otherNic));
+
+        when(_sgMgr._agentMgr.send(anyLong(), any(Command.class))).thenAnswer(new Answer<com.cloud.agent.api.Answer>() {
+            @Override
+            public com.cloud.agent.api.Answer answer(InvocationOnMock invocation) throws Throwable {
+                final SecurityGroupMembersCmd cmd = (SecurityGroupMembersCmd)invocation.getArguments()[1];
+                _memberUpdates.put((Long)invocation.getArguments()[0], cmd);
+                return new com.cloud.agent.api.Answer(cmd, !_agentFailure.get(), null);
+            }
+        });
+
+        _vm = mock(VMInstanceVO.class);
+        when(_vm.getId()).thenReturn(STARTED_VM);
+        when(_vm.getHypervisorType()).thenReturn(HypervisorType.KVM);
+    }
+
+    private void mockDefaultNic(final long vmId, final String ip) {
+        final NicVO nic = mock(NicVO.class);
+        when(nic.getIPv4Address()).thenReturn(ip);
+        when(_sgMgr._networkModel.getDefaultNic(vmId)).thenReturn(nic);
+    }
+
+    private void handleMembershipChange(final boolean started) throws InterruptedException {
+        _sgMgr._memberUpdateExecutor = Executors.newFixedThreadPool(4);
+        _sgMgr.handleMembershipChange(_vm, started);
+        _sgMgr._memberUpdateExecutor.shutdown();
+        Assert.assertTrue(_sgMgr._memberUpdateExecutor.awaitTermination(30, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testStartSendsMemberUpdatesPerHost() throws Exception {
+        handleMembershipChange(true);
+
+        Assert.assertEquals(Arrays.asList(STARTED_VM), _fullUpdates);
+        Assert.assertEquals(HOSTS, _memberUpdates.size());
+        final SecurityGroupMembersCmd cmd = _memberUpdates.get(3L);
+        Assert.assertEquals(1, cmd.getGroups().size());
+        Assert.assertEquals(APP_GROUP, cmd.getGroups().get(0).getGroupId());
+        Assert.assertEquals(Arrays.asList("10.2.0.1/32"), cmd.getGroups().get(0).getAdded());
+        Assert.assertEquals(4L, cmd.getGroups().get(0).getVersion());
+        Assert.assertEquals("2:4:+10.2.0.1/32,;", cmd.stringifyMembers());
+    }
+
+    @Test
+    public void testStopRemovesMembers() throws Exception {
+        handleMembershipChange(false);
+
+        Assert.assertTrue(_fullUpdates.isEmpty());
+        Assert.assertEquals(HOSTS, _memberUpdates.size());
+        Assert.assertEquals(Arrays.asList("10.2.0.1/32"), _memberUpdates.get(0L).getGroups().get(0).getRemoved());
+    }
+
+    @Test
+    public void testFailedHostFallsBackToFullRules() throws Exception {
+        _agentFailure.set(true);
+        handleMembershipChange(false);
+
+        Assert.assertEquals(MEMBERS, new TreeSet<Long>(_fullUpdates).size());
+    }
+
+    @Test
+    public void testHypervisorsWithoutSetsGetFullRules() throws Exception {
+        when(_webMembers.get(7).getHypervisorType()).thenReturn(HypervisorType.XenServer);
+        handleMembershipChange(true);
+
+        Assert.assertEquals(new TreeSet<Long>(Arrays.asList(7L, STARTED_VM)), new TreeSet<Long>(_fullUpdates));
+        Assert.assertEquals(HOSTS, _memberUpdates.size());
+    }
+
+    @Test
+    public void testRulesReferenceGroups() {
+        final SecurityGroupRuleVO rule = mock(SecurityGroupRuleVO.class);
+        when(rule.getProtocol()).thenReturn("tcp");
+        when(rule.getStartPort()).thenReturn(80);
+        when(rule.getEndPort()).thenReturn(80);
+        when(rule.getAllowedNetworkId()).thenReturn(WEB_GROUP);
+        when(_sgMgr._securityGroupRuleDao.listBySecurityGroupId(APP_GROUP, SecurityRuleType.IngressRule)).thenReturn(Arrays.asList(rule));
+
+        final Map<Long, List<String>> groupMembers = new TreeMap<Long, List<String>>();
+        final Map<Long, Long> groupMembersVersions = new HashMap<Long, Long>();
+        final Map<PortAndProto, Set<String>> rules = _sgMgr.generateRulesForVM(STARTED_VM, SecurityRuleType.IngressRule, groupMembers, groupMembersVersions);
+
+        Assert.assertEquals(Collections.singleton(SecurityGroupRulesCmd.GROUP_PREFIX + WEB_GROUP), rules.values().iterator().next());
+        Assert.assertEquals(MEMBERS, groupMembers.get(WEB_GROUP).size());
+        Assert.assertEquals(Long.valueOf(9L), groupMembersVersions.get(WEB_GROUP));
+    }
+
+    @Test
+    public void testOnlyDefaultNicsAreMembers() {
+        // A second nic of member 0
+        final SecurityGroupVMMapVO otherNic = mock(SecurityGroupVMMapVO.class);
+        when(otherNic.getInstanceId()).thenReturn(0L);
+        when(otherNic.getGuestIpAddress()).thenReturn("10.9.0.1");
+        final List<SecurityGroupVMMapVO> members = new ArrayList<SecurityGroupVMMapVO>(_webMembers);
+        members.add(otherNic);
+        when(_sgMgr._securityGroupVMMapDao.listBySecurityGroup(WEB_GROUP, State.Running)).thenReturn(members);
+
+        final List<String> cidrs = _sgMgr.listRunningMemberCidrs(WEB_GROUP);
+
+        Assert.assertEquals(MEMBERS, cidrs.size());
+        Assert.assertTrue(cidrs.contains("10.1.0.0/32"));
+        Assert.assertFalse(cidrs.contains("10.9.0.1/32"));
+    }
+
+    /**
+     * Not a proper benchmark, compares the commands sent for a vm start.
+     */
+    @Test
+    public void testFanOut() throws Exception {
+        final Profiler profiler = new Profiler();
+        profiler.start();
+        final List<Long> affectedVms = _sgMgr.getAffectedVmsForVmStart(_vm);
+        // every affected vm gets a ruleset listing all the members of the groups it allows
+        final String[] cidrs = new String[MEMBERS + 1];
+        for (int i = 0; i < MEMBERS; i++) {
+            cidrs[i] = _webMembers.get(i).getGuestIpAddress() + "/32";
+        }
+        cidrs[MEMBERS] = "10.2.0.1/32";
+        long fullBytes = 0;
+        for (int i = 0; i < affectedVms.size(); i++) {
+            final SecurityGroupRulesCmd cmd = new SecurityGroupRulesCmd("10.1.0.1", null, "02:00:00:00:00:01", "i-2-" + i + "-VM", (long)i, null, 1L,
+                    new SecurityGroupRulesCmd.IpPortAndProto[] {new SecurityGroupRulesCmd.IpPortAndProto("tcp", 80, 80, cidrs)},
+                    new SecurityGroupRulesCmd.IpPortAndProto[0], null);
+            fullBytes += cmd.stringifyRules().length();
+        }
+        profiler.stop();
+        s_logger.info("Full updates: " + affectedVms.size() + " commands, " + fullBytes + " bytes of rules in " + profiler.getDurationInMillis() + " ms");
+
+        profiler.start();
+        handleMembershipChange(true);
+        long memberBytes = 0;
+        for (final SecurityGroupMembersCmd cmd : _memberUpdates.values()) {
+            memberBytes += cmd.stringifyMembers().length();
+        }
+        profiler.stop();
+        s_logger.info("Incremental updates: " + _memberUpdates.size() + " member commands, " + memberBytes + " bytes, " + _fullUpdates.size() + " full update in "
+                + profiler.getDurationInMillis() + " ms");
+
+        Assert.assertEquals(MEMBERS + 1, affectedVms.size());
+        Assert.assertTrue(_memberUpdates.size() + _fullUpdates.size() < affectedVms.size());
+    }
+}
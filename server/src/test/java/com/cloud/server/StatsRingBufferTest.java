@@ -0,0 +1,118 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.server;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StatsRingBufferTest {
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+    private static final long START = TimeUnit.DAYS.toMillis(18000);
+
+    @Test
+    public void testSamplesInSameSlotAreAveraged() {
+        StatsRingBuffer buffer = new StatsRingBuffer(10, 2, 5 * MINUTE);
+        Assert.assertTrue(buffer.add(START, new double[] {10, 100}));
+        Assert.assertTrue(buffer.add(START + MINUTE, new double[] {20, 200}));
+        Assert.assertTrue(buffer.add(START + 2 * MINUTE, new double[] {60, 0}));
+
+        List<StatsRingBuffer.Sample> samples = buffer.getSamples(0, 0);
+        Assert.assertEquals(1, samples.size());
+        Assert.assertEquals(START, samples.get(0).getTimestamp());
+        Assert.assertEquals(30, samples.get(0).getValue(0), 0.001);
+        Assert.assertEquals(100, samples.get(0).getValue(1), 0.001);
+    }
+
+    @Test
+    public void testOldestSlotsAreOverwritten() {
+        StatsRingBuffer buffer = new StatsRingBuffer(3, 1, MINUTE);
+        for (int i = 0; i < 5; i++) {
+            buffer.add(START + i * MINUTE, new double[] {i});
+        }
+
+        List<StatsRingBuffer.Sample> samples = buffer.getSamples(0, 0);
+        Assert.assertEquals(3, samples.size());
+        Assert.assertEquals(START + 2 * MINUTE, samples.get(0).getTimestamp());
+        Assert.assertEquals(2, samples.get(0).getValue(0), 0);
+        Assert.assertEquals(4, samples.get(2).getValue(0), 0);
+        Assert.assertEquals(START + 4 * MINUTE, buffer.getLastTimestamp());
+    }
+
+    @Test
+    public void testOutOfOrderSampleIsDropped() {
+        StatsRingBuffer buffer = new StatsRingBuffer(3, 1, MINUTE);
+        Assert.assertTrue(buffer.add(START + 2 * MINUTE, new double[] {1}));
+        Assert.assertFalse(buffer.add(START, new double[] {2}));
+        Assert.assertEquals(1, buffer.getSamples(0, 0).size());
+    }
+
+    @Test
+    public void testDownsampling() {
+        StatsRingBuffer buffer = new StatsRingBuffer(10, 1, MINUTE);
+        // two samples in the first minute, one in each of the next ones
+        buffer.add(START, new double[] {10});
+        buffer.add(START + 1000, new double[] {10});
+        buffer.add(START + MINUTE, new double[] {40});
+        buffer.add(START + 2 * MINUTE, new double[] {0});
+        buffer.add(START + 3 * MINUTE, new double[] {8});
+
+        List<StatsRingBuffer.Sample> samples = buffer.getSamples(0, 2 * MINUTE);
+        Assert.assertEquals(2, samples.size());
+        // weighted by the number of samples of each slot
+        Assert.assertEquals(20, samples.get(0).getValue(0), 0.001);
+        Assert.assertEquals(4, samples.get(1).getValue(0), 0.001);
+
+        samples = buffer.getSamples(START + 2 * MINUTE, 0);
+        Assert.assertEquals(2, samples.size());
+        Assert.assertEquals(START + 2 * MINUTE, samples.get(0).getTimestamp());
+    }
+
+    @Test
+    public void testEmptyBuffer() {
+        StatsRingBuffer buffer = new StatsRingBuffer(3, 1, MINUTE);
+        Assert.assertEquals(-1, buffer.getLastTimestamp());
+        Assert.assertTrue(buffer.getSamples(0, 0).isEmpty());
+    }
+
+    @Test
+    public void testDefaultHistoryFootprint() {
+        final int capacity = 96;
+        final int metrics = StatsCollector.VmStatsHistoryMetric.values().length;
+
+        // a day of one minute samples at a 15 minutes resolution fills the buffer exactly
+        final StatsRingBuffer buffer = new StatsRingBuffer(capacity, metrics, 15 * MINUTE);
+        final double[] sample = new double[metrics];
+        for (int minute = 0; minute < 24 * 60; minute++) {
+            sample[0] = minute;
+            buffer.add(START + minute * MINUTE, sample);
+        }
+        final List<StatsRingBuffer.Sample> samples = buffer.getSamples(0, 0);
+        Assert.assertEquals(capacity, samples.size());
+        Assert.assertEquals(7, samples.get(0).getValue(0), 0.001);
+
+        // the slots, counts and values arrays, without any object overhead
+        final long payload = capacity * (Integer.BYTES + Short.BYTES) + (long)capacity * metrics * Float.BYTES;
+        final long size = StatsRingBuffer.estimateSize(capacity, metrics);
+        Assert.assertTrue(size >= payload);
+        Assert.assertTrue(size <= payload + 256);
+        // 50k VMs stay well below the heap of a management server
+        Assert.assertTrue(50000L * size < 256L * 1024 * 1024);
+    }
+}
@@ -29,7 +29,6 @@ import java.net.URL;
 import java.util.Hashtable;
 import java.util.Map;
 import java.util.Properties;
-import java.util.concurrent.Executor;
 
 import com.cloud.utils.StringUtils;
 import org.apache.log4j.xml.DOMConfigurator;
@@ -69,12 +68,19 @@ public class ConsoleProxy {
     static int httpCmdListenPort = 8001;
     static int reconnectMaxRetry = 5;
     static int readTimeoutSeconds = 90;
+    static int httpMaxThreads = 100;
+    static int httpQueueSize = 1000;
+    static int httpCmdMaxThreads = 4;
+    static int httpCmdQueueSize = 100;
     static int keyboardType = KEYBOARD_RAW;
     static String factoryClzName;
     static boolean standaloneStart = false;
 
     static String encryptorPassword = "Dummy";
 
+    static ConsoleProxyRequestExecutor viewerExecutor;
+    static ConsoleProxyRequestExecutor cmdExecutor;
+
     private static void configLog4j() {
         final ClassLoader loader = Thread.currentThread().getContextClassLoader();
         URL configUrl = loader.getResource("/conf/log4j-cloud.xml");
@@ -143,6 +149,18 @@ public class ConsoleProxy {
             readTimeoutSeconds = Integer.parseInt(s);
             s_logger.info("Setting readTimeoutSeconds=" + readTimeoutSeconds);
         }
+
+        s = conf.getProperty("consoleproxy.httpMaxThreads");
+        if (s != null) {
+            httpMaxThreads = Integer.parseInt(s);
+            s_logger.info("Setting httpMaxThreads=" + httpMaxThreads);
+        }
+
+        s = conf.getProperty("consoleproxy.httpQueueSize");
+        if (s != null) {
+            httpQueueSize = Integer.parseInt(s);
+            s_logger.info("Setting httpQueueSize=" + httpQueueSize);
+        }
     }
 
     public static ConsoleProxyServerFactory getHttpServerFactory() {
@@ -347,11 +365,12 @@ public class ConsoleProxy {
             }
 
             HttpServer server = factory.createHttpServerInstance(httpListenPort);
-            server.createContext("/getscreen", new ConsoleProxyThumbnailHandler());
-            server.createContext("/resource/", new ConsoleProxyResourceHandler());
-            server.createContext("/ajax", new ConsoleProxyAjaxHandler());
-            server.createContext("/ajaximg", new ConsoleProxyAjaxImageHandler());
-            server.setExecutor(new ThreadExecutor()); // creates a default executor
+            viewerExecutor = new ConsoleProxyRequestExecutor("ConsoleProxyHttp", httpMaxThreads, httpQueueSize);
+            server.createContext("/getscreen", viewerExecutor.wrap(new ConsoleProxyThumbnailHandler()));
+            server.createContext("/resource/", viewerExecutor.wrap(new ConsoleProxyResourceHandler()));
+            server.createContext("/ajax", viewerExecutor.wrap(new ConsoleProxyAjaxHandler()));
+            server.createContext("/ajaximg", viewerExecutor.wrap(new ConsoleProxyAjaxImageHandler()));
+            server.setExecutor(viewerExecutor);
             server.start();
 
             ConsoleProxyNoVNCServer noVNCServer = getNoVNCServer();
@@ -373,8 +392,9 @@ public class ConsoleProxy {
         try {
             s_logger.info("Listening for HTTP CMDs on port " + httpCmdListenPort);
             HttpServer cmdServer = HttpServer.create(new InetSocketAddress(httpCmdListenPort), 2);
-            cmdServer.createContext("/cmd", new ConsoleProxyCmdHandler());
-            cmdServer.setExecutor(new ThreadExecutor()); // creates a default executor
+            cmdExecutor = new ConsoleProxyRequestExecutor("ConsoleProxyHttpCmd", httpCmdMaxThreads, httpCmdQueueSize);
+            cmdServer.createContext("/cmd", cmdExecutor.wrap(new ConsoleProxyCmdHandler()));
+            cmdServer.setExecutor(cmdExecutor);
             cmdServer.start();
         } catch (Exception e) {
             s_logger.error(e.getMessage(), e);
@@ -415,6 +435,7 @@ public class ConsoleProxy {
         synchronized (connectionMap) {
             viewer = connectionMap.get(clientKey);
             if (viewer == null || viewer.getClass() == ConsoleProxyNoVncClient.class) {
+                checkAdmission(param);
                 viewer = getClient(param);
                 viewer.initClient(param);
                 connectionMap.put(clientKey, viewer);
@@ -449,6 +470,7 @@ public class ConsoleProxy {
         synchronized (connectionMap) {
             ConsoleProxyClient viewer = connectionMap.get(clientKey);
             if (viewer == null || viewer.getClass() == ConsoleProxyNoVncClient.class) {
+                checkAdmission(param);
                 authenticationExternally(param);
                 viewer = getClient(param);
                 viewer.initClient(param);
@@ -538,10 +560,21 @@ public class ConsoleProxy {
         isSourceIpCheckEnabled = isEnabled;
     }
 
-    static class ThreadExecutor implements Executor {
-        @Override
-        public void execute(Runnable r) {
-            new Thread(r).start();
+    /**
+     * @return the executor of the viewer requests, null until the HTTP server is started
+     */
+    public static ConsoleProxyRequestExecutor getViewerExecutor() {
+        return viewerExecutor;
+    }
+
+    /**
+     * New viewer sessions are declined while the viewer requests queue up,
+     * the load report lets the management server send them to another proxy.
+     */
+    private static void checkAdmission(ConsoleProxyClientParam param) throws ConsoleProxyOverloadedException {
+        if (viewerExecutor != null && viewerExecutor.isOverloaded()) {
+            s_logger.warn("Declining new console session for vm " + param.getClientTag() + ", " + viewerExecutor.getQueueDepth() + " requests are queued");
+            throw new ConsoleProxyOverloadedException("Console proxy is overloaded, unable to open a new session for vm " + param.getClientTag());
         }
     }
 
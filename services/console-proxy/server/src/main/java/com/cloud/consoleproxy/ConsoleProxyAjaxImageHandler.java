@@ -19,7 +19,6 @@ package com.cloud.consoleproxy;
 import java.awt.Graphics2D;
 import java.awt.Image;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Map;
@@ -28,6 +27,7 @@ import com.sun.net.httpserver.Headers;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 
+import com.cloud.consoleproxy.util.ImageHelper;
 import com.cloud.consoleproxy.util.Logger;
 
 public class ConsoleProxyAjaxImageHandler implements HttpHandler {
@@ -124,9 +124,7 @@ public class ConsoleProxyAjaxImageHandler implements HttpHandler {
             BufferedImage bufferedImage = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
             Graphics2D bufImageGraphics = bufferedImage.createGraphics();
             bufImageGraphics.drawImage(scaledImage, 0, 0, null);
-            ByteArrayOutputStream bos = new ByteArrayOutputStream(8196);
-            javax.imageio.ImageIO.write(bufferedImage, "jpg", bos);
-            byte[] bs = bos.toByteArray();
+            byte[] bs = ImageHelper.jpegFromImage(bufferedImage);
             Headers hds = t.getResponseHeaders();
             hds.set("Content-Type", "image/jpeg");
             hds.set("Cache-Control", "no-cache");
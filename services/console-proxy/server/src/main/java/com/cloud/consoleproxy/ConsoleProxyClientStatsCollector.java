@@ -31,12 +31,18 @@ import com.google.gson.GsonBuilder;
 public class ConsoleProxyClientStatsCollector {
 
     ArrayList<ConsoleProxyConnection> connections;
+    int activeSessions;
+    int activeRequests;
+    int requestQueueDepth;
+    long rejectedRequests;
+    boolean overloaded;
 
     public ConsoleProxyClientStatsCollector() {
     }
 
     public ConsoleProxyClientStatsCollector(Hashtable<String, ConsoleProxyClient> connMap) {
         setConnections(connMap);
+        setRequestStats(ConsoleProxy.getViewerExecutor());
     }
 
     public String getStatsReport() {
@@ -71,6 +77,17 @@ public class ConsoleProxyClientStatsCollector {
             }
         }
         connections = conns;
+        activeSessions = conns.size();
+    }
+
+    private void setRequestStats(ConsoleProxyRequestExecutor executor) {
+        if (executor == null) {
+            return;
+        }
+        activeRequests = executor.getActiveRequests();
+        requestQueueDepth = executor.getQueueDepth();
+        rejectedRequests = executor.getRejectedRequests();
+        overloaded = executor.isOverloaded();
     }
 
     public static class ConsoleProxyConnection {
@@ -0,0 +1,132 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.consoleproxy;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.cloud.consoleproxy.util.Logger;
+import com.cloud.utils.concurrency.NamedThreadFactory;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+/**
+ * Executor of the HTTP requests of the console proxy, with a bounded number
+ * of threads and a bounded queue, instead of a thread per request.
+ *
+ * When the queue is full the request is read on the thread of the HTTP
+ * server dispatcher, and the handlers wrapped by {@link #wrap(HttpHandler)}
+ * answer it with a 503 instead of handling it, as they may block for a
+ * while waiting for the console.
+ */
+public class ConsoleProxyRequestExecutor implements Executor {
+    private static final Logger s_logger = Logger.getLogger(ConsoleProxyRequestExecutor.class);
+
+    private final String _name;
+    private final int _queueSize;
+    private final ThreadPoolExecutor _executor;
+    private final AtomicInteger _activeRequests = new AtomicInteger();
+    private final AtomicLong _rejectedRequests = new AtomicLong();
+    // set while a rejected request runs on the dispatcher thread
+    private final ThreadLocal<Boolean> _rejecting = new ThreadLocal<Boolean>();
+
+    public ConsoleProxyRequestExecutor(String name, int maxThreads, int queueSize) {
+        _name = name;
+        _queueSize = queueSize;
+        _executor = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueSize), new NamedThreadFactory(name));
+        _executor.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public void execute(final Runnable r) {
+        Runnable request = new Runnable() {
+            @Override
+            public void run() {
+                _activeRequests.incrementAndGet();
+                try {
+                    r.run();
+                } finally {
+                    _activeRequests.decrementAndGet();
+                }
+            }
+        };
+
+        try {
+            _executor.execute(request);
+        } catch (RejectedExecutionException e) {
+            long rejected = _rejectedRequests.incrementAndGet();
+            if (rejected % 100 == 1) {
+                s_logger.warn(_name + " request queue is full, " + rejected + " requests were rejected so far");
+            }
+            _rejecting.set(Boolean.TRUE);
+            try {
+                r.run();
+            } finally {
+                _rejecting.remove();
+            }
+        }
+    }
+
+    /**
+     * @return a handler answering the requests rejected by this executor with a 503, and passing the others to handler
+     */
+    public HttpHandler wrap(final HttpHandler handler) {
+        return new HttpHandler() {
+            @Override
+            public void handle(HttpExchange t) throws IOException {
+                if (_rejecting.get() != null) {
+                    try {
+                        t.sendResponseHeaders(503, -1);
+                    } finally {
+                        t.close();
+                    }
+                    return;
+                }
+                handler.handle(t);
+            }
+        };
+    }
+
+    public int getQueueDepth() {
+        return _executor.getQueue().size();
+    }
+
+    public int getActiveRequests() {
+        return _activeRequests.get();
+    }
+
+    public long getRejectedRequests() {
+        return _rejectedRequests.get();
+    }
+
+    /**
+     * @return true if the queue is more than half full, new sessions should go to another proxy
+     */
+    public boolean isOverloaded() {
+        return getQueueDepth() * 2 > _queueSize;
+    }
+
+    public void shutdown() {
+        _executor.shutdown();
+    }
+}
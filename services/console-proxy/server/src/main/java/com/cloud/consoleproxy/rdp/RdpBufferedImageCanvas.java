@@ -16,16 +16,13 @@
 // under the License.
 package com.cloud.consoleproxy.rdp;
 
-import java.awt.Graphics2D;
 import java.awt.Image;
-import java.awt.Rectangle;
-import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.util.List;
 
 import com.cloud.consoleproxy.ConsoleProxyRdpClient;
-import com.cloud.consoleproxy.util.ImageHelper;
 import com.cloud.consoleproxy.util.Logger;
+import com.cloud.consoleproxy.util.TileEncoder;
 import com.cloud.consoleproxy.util.TileInfo;
 import com.cloud.consoleproxy.vnc.FrameBufferCanvas;
 
@@ -40,6 +37,9 @@ public class RdpBufferedImageCanvas extends BufferedImageCanvas implements Frame
 
     private final ConsoleProxyRdpClient _rdpClient;
 
+    // Encodes the updates sent to the AJAX viewer of this session
+    private final TileEncoder tileEncoder = new TileEncoder();
+
     public RdpBufferedImageCanvas(ConsoleProxyRdpClient client, int width, int height) {
         super(width, height);
         _rdpClient = client;
@@ -54,45 +54,20 @@ public class RdpBufferedImageCanvas extends BufferedImageCanvas implements Frame
 
     @Override
     public byte[] getFrameBufferJpeg() {
-        int width = offlineImage.getWidth();
-        int height = offlineImage.getHeight();
-
-        BufferedImage bufferedImage = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
-        Graphics2D g = bufferedImage.createGraphics();
-        synchronized (offlineImage) {
-            g.drawImage(offlineImage, 0, 0, width, height, 0, 0, width, height, null);
-            g.dispose();
-        }
-
         byte[] imgBits = null;
         try {
-            imgBits = ImageHelper.jpegFromImage(bufferedImage);
+            imgBits = tileEncoder.encodeFrame(offlineImage);
         } catch (IOException e) {
             s_logger.info("[ignored] read error on image", e);
         }
-
         return imgBits;
     }
 
     @Override
     public byte[] getTilesMergedJpeg(List<TileInfo> tileList, int tileWidth, int tileHeight) {
-        int width = Math.max(tileWidth, tileWidth * tileList.size());
-
-        BufferedImage bufferedImage = new BufferedImage(width, tileHeight, BufferedImage.TYPE_3BYTE_BGR);
-        Graphics2D g = bufferedImage.createGraphics();
-
-        synchronized (offlineImage) {
-            int i = 0;
-            for (TileInfo tile : tileList) {
-                Rectangle rc = tile.getTileRect();
-                g.drawImage(offlineImage, i * tileWidth, 0, i * tileWidth + rc.width, rc.height, rc.x, rc.y, rc.x + rc.width, rc.y + rc.height, null);
-                i++;
-            }
-        }
-
         byte[] imgBits = null;
         try {
-            imgBits = ImageHelper.jpegFromImage(bufferedImage);
+            imgBits = tileEncoder.encodeTiles(offlineImage, tileList, tileWidth, tileHeight);
         } catch (IOException e) {
             s_logger.info("[ignored] read error on image tiles", e);
         }
@@ -17,16 +17,18 @@
 package com.cloud.consoleproxy.util;
 
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 
 public class ImageHelper {
-    public static byte[] jpegFromImage(BufferedImage image) throws IOException {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream(128000);
-        javax.imageio.ImageIO.write(image, "jpg", bos);
+    // The request threads are pooled, so each of them keeps its encoder
+    private static final ThreadLocal<JpegEncoder> s_encoder = new ThreadLocal<JpegEncoder>() {
+        @Override
+        protected JpegEncoder initialValue() {
+            return new JpegEncoder(8196);
+        }
+    };
 
-        byte[] jpegBits = bos.toByteArray();
-        bos.close();
-        return jpegBits;
+    public static byte[] jpegFromImage(BufferedImage image) throws IOException {
+        return s_encoder.get().encode(image);
     }
 }
@@ -0,0 +1,77 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.consoleproxy.util;
+
+import java.awt.Rectangle;
+import java.awt.image.RenderedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+/**
+ * JPEG encoder keeping its image writer and output buffer from one image to
+ * the next, instead of looking up a writer and growing a new buffer on each
+ * ImageIO.write() call. The output is the same as ImageIO.write(image, "jpg", ...).
+ *
+ * Not thread safe, each session or thread has its own.
+ */
+public class JpegEncoder {
+    private final ImageWriter writer;
+    private final ImageWriteParam param;
+    private final ByteArrayOutputStream bos;
+
+    public JpegEncoder() {
+        this(128000);
+    }
+
+    public JpegEncoder(int initialBufferSize) {
+        writer = ImageIO.getImageWritersByFormatName("jpg").next();
+        param = writer.getDefaultWriteParam();
+        bos = new ByteArrayOutputStream(initialBufferSize);
+    }
+
+    public byte[] encode(RenderedImage image) throws IOException {
+        return encode(image, null);
+    }
+
+    /**
+     * @param region part of the image to encode, or null for the whole image
+     */
+    public byte[] encode(RenderedImage image, Rectangle region) throws IOException {
+        bos.reset();
+        param.setSourceRegion(region);
+        ImageOutputStream ios = new MemoryCacheImageOutputStream(bos);
+        try {
+            writer.setOutput(ios);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.setOutput(null);
+            ios.close();
+        }
+        return bos.toByteArray();
+    }
+
+    public void dispose() {
+        writer.dispose();
+    }
+}
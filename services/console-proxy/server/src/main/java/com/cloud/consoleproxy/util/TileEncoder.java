@@ -0,0 +1,247 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.consoleproxy.util;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per session encoder of the frame buffer updates sent to the AJAX viewer.
+ *
+ * The tile tracker flags a tile as soon as the guest repaints it, even when
+ * the pixels end up the same. The encoder remembers a content hash of the
+ * tiles last sent to the viewer and leaves out the tiles that did not
+ * change, then looks up the merged image of the remaining tiles in a small
+ * cache keyed by their hashes, so content going back and forth (a blinking
+ * cursor, a spinner) is encoded only once. The JPEG writer and the image the
+ * tiles are merged in are kept from one update to the next.
+ */
+public class TileEncoder {
+    private static final Logger s_logger = Logger.getLogger(TileEncoder.class);
+
+    public static final int DEFAULT_CACHE_SIZE = 512 * 1024;
+    // larger merged images are not kept between updates
+    private static final int MAX_RETAINED_STRIP_TILES = 16;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final JpegEncoder encoder = new JpegEncoder();
+    private final int cacheSize;
+    private final LinkedHashMap<Long, byte[]> cache = new LinkedHashMap<Long, byte[]>(16, 0.75f, true);
+    private int cachedBytes = 0;
+
+    // content hash of the tiles the viewer has, by row and column
+    private final Map<Integer, Long> sentTiles = new HashMap<Integer, Long>();
+    private int sourceWidth = 0;
+    private int sourceHeight = 0;
+
+    private BufferedImage strip;
+    private int[] pixels;
+    private long[] hashes;
+
+    private long encodedImages = 0;
+    private long cacheHits = 0;
+    private long skippedTiles = 0;
+
+    public TileEncoder() {
+        this(DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param cacheSize maximum size, in bytes, of the encoded images kept
+     */
+    public TileEncoder(int cacheSize) {
+        this.cacheSize = cacheSize;
+    }
+
+    /**
+     * Encodes the whole frame buffer, after which the viewer is expected to
+     * have all the tiles again.
+     */
+    public synchronized byte[] encodeFrame(BufferedImage source) throws IOException {
+        int width = source.getWidth();
+        int height = source.getHeight();
+
+        BufferedImage frame = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        Graphics2D g = frame.createGraphics();
+        synchronized (source) {
+            g.drawImage(source, 0, 0, width, height, 0, 0, width, height, null);
+        }
+        g.dispose();
+
+        resetSentTiles(width, height);
+        encodedImages++;
+        return encoder.encode(frame);
+    }
+
+    /**
+     * Merges the given tiles side by side and encodes them. The tiles the
+     * viewer already has are removed from the list, which then matches the
+     * content of the returned image.
+     */
+    public synchronized byte[] encodeTiles(BufferedImage source, List<TileInfo> tiles, int tileWidth, int tileHeight) throws IOException {
+        synchronized (source) {
+            if (source.getWidth() != sourceWidth || source.getHeight() != sourceHeight) {
+                resetSentTiles(source.getWidth(), source.getHeight());
+            }
+
+            if (pixels == null || pixels.length < tileWidth * tileHeight) {
+                pixels = new int[tileWidth * tileHeight];
+            }
+            if (hashes == null || hashes.length < tiles.size()) {
+                hashes = new long[tiles.size()];
+            }
+
+            long key = hash(FNV_OFFSET, tileWidth);
+            key = hash(key, tileHeight);
+            int count = 0;
+            for (Iterator<TileInfo> it = tiles.iterator(); it.hasNext();) {
+                TileInfo tile = it.next();
+                long hash = hashTile(source, tile.getTileRect());
+                Long sent = sentTiles.get(getTileKey(tile));
+                if (sent != null && sent.longValue() == hash) {
+                    it.remove();
+                    skippedTiles++;
+                    continue;
+                }
+                hashes[count++] = hash;
+                key = hash(key, (int)(hash >>> 32));
+                key = hash(key, (int)hash);
+            }
+            key = hash(key, count);
+
+            byte[] imgBits = cache.get(key);
+            if (imgBits != null) {
+                cacheHits++;
+                markSent(tiles);
+                return imgBits;
+            }
+
+            int width = Math.max(tileWidth, tileWidth * tiles.size());
+            BufferedImage image = getStrip(width, tileHeight, tiles.size());
+            Graphics2D g = image.createGraphics();
+            if (tiles.isEmpty()) {
+                g.setColor(Color.BLACK);
+                g.fillRect(0, 0, tileWidth, tileHeight);
+            }
+            int i = 0;
+            for (TileInfo tile : tiles) {
+                Rectangle rc = tile.getTileRect();
+                if (rc.width < tileWidth || rc.height < tileHeight) {
+                    g.setColor(Color.BLACK);
+                    g.fillRect(i * tileWidth, 0, tileWidth, tileHeight);
+                }
+                g.drawImage(source, i * tileWidth, 0, i * tileWidth + rc.width, rc.height, rc.x, rc.y, rc.x + rc.width, rc.y + rc.height, null);
+                i++;
+            }
+            g.dispose();
+
+            imgBits = encoder.encode(image, new Rectangle(0, 0, width, tileHeight));
+            encodedImages++;
+            putImage(key, imgBits);
+            markSent(tiles);
+            return imgBits;
+        }
+    }
+
+    public synchronized void clear() {
+        sentTiles.clear();
+        cache.clear();
+        cachedBytes = 0;
+        strip = null;
+    }
+
+    public synchronized long getEncodedImages() {
+        return encodedImages;
+    }
+
+    public synchronized long getCacheHits() {
+        return cacheHits;
+    }
+
+    public synchronized long getSkippedTiles() {
+        return skippedTiles;
+    }
+
+    private void resetSentTiles(int width, int height) {
+        sentTiles.clear();
+        sourceWidth = width;
+        sourceHeight = height;
+    }
+
+    private void markSent(List<TileInfo> tiles) {
+        int i = 0;
+        for (TileInfo tile : tiles) {
+            sentTiles.put(getTileKey(tile), hashes[i++]);
+        }
+    }
+
+    private BufferedImage getStrip(int width, int height, int tiles) {
+        if (strip != null && strip.getWidth() >= width && strip.getHeight() == height) {
+            return strip;
+        }
+
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        if (tiles <= MAX_RETAINED_STRIP_TILES) {
+            strip = image;
+        }
+        return image;
+    }
+
+    private void putImage(long key, byte[] imgBits) {
+        cache.put(key, imgBits);
+        cachedBytes += imgBits.length;
+
+        Iterator<byte[]> it = cache.values().iterator();
+        while (cachedBytes > cacheSize && cache.size() > 1) {
+            cachedBytes -= it.next().length;
+            it.remove();
+        }
+
+        if (s_logger.isTraceEnabled())
+            s_logger.trace("Cached encoded tiles: " + cache.size() + " images, " + cachedBytes + " bytes");
+    }
+
+    private long hashTile(BufferedImage source, Rectangle rc) {
+        source.getRGB(rc.x, rc.y, rc.width, rc.height, pixels, 0, rc.width);
+
+        long hash = hash(FNV_OFFSET, rc.width);
+        hash = hash(hash, rc.height);
+        int size = rc.width * rc.height;
+        for (int i = 0; i < size; i++) {
+            hash = hash(hash, pixels[i]);
+        }
+        return hash;
+    }
+
+    private static long hash(long hash, int value) {
+        return (hash ^ value) * FNV_PRIME;
+    }
+
+    private static int getTileKey(TileInfo tile) {
+        return (tile.getRow() << 16) | tile.getCol();
+    }
+}
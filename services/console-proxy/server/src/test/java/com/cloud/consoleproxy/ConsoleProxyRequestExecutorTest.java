@@ -0,0 +1,148 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.consoleproxy;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+public class ConsoleProxyRequestExecutorTest {
+
+    private final CountDownLatch _release = new CountDownLatch(1);
+    private ConsoleProxyRequestExecutor _executor;
+
+    @After
+    public void tearDown() {
+        _release.countDown();
+        if (_executor != null) {
+            _executor.shutdown();
+        }
+    }
+
+    private Runnable blockingRequest(final CountDownLatch started) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    _release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+    }
+
+    @Test
+    public void testBoundedQueue() throws Exception {
+        _executor = new ConsoleProxyRequestExecutor("test", 2, 4);
+        CountDownLatch started = new CountDownLatch(2);
+        for (int i = 0; i < 5; i++) {
+            _executor.execute(blockingRequest(started));
+        }
+        Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(2, _executor.getActiveRequests());
+        Assert.assertEquals(3, _executor.getQueueDepth());
+        Assert.assertTrue(_executor.isOverloaded());
+        Assert.assertEquals(0, _executor.getRejectedRequests());
+
+        // fills the queue
+        _executor.execute(new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+        // the queue is full, the request runs on the calling thread
+        final Thread[] ranOn = new Thread[1];
+        _executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                ranOn[0] = Thread.currentThread();
+            }
+        });
+        Assert.assertSame(Thread.currentThread(), ranOn[0]);
+        Assert.assertEquals(1, _executor.getRejectedRequests());
+    }
+
+    @Test
+    public void testNotOverloadedWhenIdle() throws Exception {
+        _executor = new ConsoleProxyRequestExecutor("test", 2, 4);
+        final CountDownLatch done = new CountDownLatch(10);
+        for (int i = 0; i < 10; i++) {
+            _executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    done.countDown();
+                }
+            });
+        }
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        Assert.assertFalse(_executor.isOverloaded());
+        Assert.assertEquals(0, _executor.getQueueDepth());
+    }
+
+    @Test
+    public void testRejectedRequestsAreAnsweredWithServiceUnavailable() throws Exception {
+        _executor = new ConsoleProxyRequestExecutor("test", 1, 1);
+        final HttpHandler handler = Mockito.mock(HttpHandler.class);
+        final HttpHandler wrapped = _executor.wrap(handler);
+        final HttpExchange accepted = Mockito.mock(HttpExchange.class);
+        final HttpExchange rejected = Mockito.mock(HttpExchange.class);
+
+        CountDownLatch started = new CountDownLatch(1);
+        _executor.execute(blockingRequest(started));
+        Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+        // queued behind the blocking request
+        _executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    wrapped.handle(accepted);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        // the queue is full, answered on the calling thread without calling the handler
+        _executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    wrapped.handle(rejected);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        Mockito.verify(rejected).sendResponseHeaders(503, -1);
+        Mockito.verify(rejected).close();
+        Mockito.verify(handler, Mockito.never()).handle(rejected);
+        Assert.assertEquals(1, _executor.getRejectedRequests());
+
+        _release.countDown();
+        Mockito.verify(handler, Mockito.timeout(10000)).handle(accepted);
+        Mockito.verify(accepted, Mockito.never()).sendResponseHeaders(503, -1);
+    }
+}
@@ -0,0 +1,217 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.consoleproxy.util;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TileEncoderTest {
+    private static final int TILE_SIZE = 64;
+
+    private BufferedImage frameBuffer;
+    private TileTracker tracker;
+    private TileEncoder encoder;
+
+    @Before
+    public void setUp() {
+        frameBuffer = new BufferedImage(800, 600, BufferedImage.TYPE_INT_RGB);
+        tracker = new TileTracker();
+        tracker.initTracking(TILE_SIZE, TILE_SIZE, 800, 600);
+        encoder = new TileEncoder();
+    }
+
+    private void paint(Rectangle rc, Color color) {
+        synchronized (frameBuffer) {
+            Graphics2D g = frameBuffer.createGraphics();
+            g.setColor(color);
+            g.fillRect(rc.x, rc.y, rc.width, rc.height);
+            g.dispose();
+        }
+        tracker.invalidate(rc);
+    }
+
+    private static byte[] imageIOJpeg(BufferedImage image) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", bos);
+        return bos.toByteArray();
+    }
+
+    /**
+     * Merges the tiles the way the canvases did before the tile encoder.
+     */
+    private byte[] mergeTiles(List<TileInfo> tiles) throws Exception {
+        int width = Math.max(TILE_SIZE, TILE_SIZE * tiles.size());
+        BufferedImage image = new BufferedImage(width, TILE_SIZE, BufferedImage.TYPE_3BYTE_BGR);
+        Graphics2D g = image.createGraphics();
+        int i = 0;
+        for (TileInfo tile : tiles) {
+            Rectangle rc = tile.getTileRect();
+            g.drawImage(frameBuffer, i * TILE_SIZE, 0, i * TILE_SIZE + rc.width, rc.height, rc.x, rc.y, rc.x + rc.width, rc.y + rc.height, null);
+            i++;
+        }
+        return imageIOJpeg(image);
+    }
+
+    @Test
+    public void testSameOutputAsImageIO() throws Exception {
+        paint(new Rectangle(10, 10, 300, 200), Color.BLUE);
+        paint(new Rectangle(700, 550, 100, 50), Color.RED);
+        List<TileInfo> tiles = tracker.scan(false);
+
+        Assert.assertArrayEquals(mergeTiles(tiles), encoder.encodeTiles(frameBuffer, tiles, TILE_SIZE, TILE_SIZE));
+
+        BufferedImage frame = new BufferedImage(800, 600, BufferedImage.TYPE_3BYTE_BGR);
+        frame.createGraphics().drawImage(frameBuffer, 0, 0, null);
+        Assert.assertArrayEquals(imageIOJpeg(frame), encoder.encodeFrame(frameBuffer));
+    }
+
+    @Test
+    public void testUnchangedTilesAreLeftOut() throws Exception {
+        encoder.encodeTiles(frameBuffer, tracker.scan(true), TILE_SIZE, TILE_SIZE);
+        Assert.assertEquals(0, encoder.getSkippedTiles());
+
+        // repainted with the same content
+        paint(new Rectangle(0, 0, 200, 100), Color.BLACK);
+        paint(new Rectangle(300, 300, 10, 10), Color.GREEN);
+        List<TileInfo> tiles = tracker.scan(false);
+        Assert.assertEquals(9, tiles.size());
+
+        byte[] imgBits = encoder.encodeTiles(frameBuffer, tiles, TILE_SIZE, TILE_SIZE);
+        Assert.assertEquals(1, tiles.size());
+        Assert.assertEquals(4, tiles.get(0).getRow());
+        Assert.assertEquals(4, tiles.get(0).getCol());
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(imgBits));
+        Assert.assertEquals(TILE_SIZE, image.getWidth());
+        Assert.assertEquals(8, encoder.getSkippedTiles());
+
+        // the viewer has the green tile now
+        paint(new Rectangle(300, 300, 10, 10), Color.GREEN);
+        tiles = tracker.scan(false);
+        encoder.encodeTiles(frameBuffer, tiles, TILE_SIZE, TILE_SIZE);
+        Assert.assertTrue(tiles.isEmpty());
+    }
+
+    @Test
+    public void testResizeSendsAllTiles() throws Exception {
+        encoder.encodeTiles(frameBuffer, tracker.scan(true), TILE_SIZE, TILE_SIZE);
+
+        frameBuffer = new BufferedImage(640, 480, BufferedImage.TYPE_INT_RGB);
+        tracker.resize(640, 480);
+        List<TileInfo> tiles = tracker.scan(true);
+        int count = tiles.size();
+        encoder.encodeTiles(frameBuffer, tiles, TILE_SIZE, TILE_SIZE);
+        Assert.assertEquals(count, tiles.size());
+    }
+
+    @Test
+    public void testToggledContentComesFromTheCache() throws Exception {
+        encoder.encodeFrame(frameBuffer);
+        Rectangle cursor = new Rectangle(100, 100, 8, 16);
+
+        byte[] on = null;
+        for (int i = 0; i < 10; i++) {
+            paint(cursor, i % 2 == 0 ? Color.WHITE : Color.BLACK);
+            List<TileInfo> tiles = tracker.scan(false);
+            byte[] imgBits = encoder.encodeTiles(frameBuffer, tiles, TILE_SIZE, TILE_SIZE);
+            Assert.assertEquals(1, tiles.size());
+            if (i == 0) {
+                on = imgBits;
+            } else if (i % 2 == 0) {
+                Assert.assertSame(on, imgBits);
+            }
+        }
+        // full frame, cursor on and cursor off
+        Assert.assertEquals(3, encoder.getEncodedImages());
+        Assert.assertEquals(8, encoder.getCacheHits());
+    }
+
+    /**
+     * Replays a console session: a shell printing lines and scrolling, a
+     * blinking cursor and the parts of the screen the guest repaints without
+     * changing them.
+     */
+    private static List<List<Rectangle>> recordSession(int updates) {
+        List<List<Rectangle>> session = new ArrayList<List<Rectangle>>();
+        for (int i = 0; i < updates; i++) {
+            List<Rectangle> update = new ArrayList<Rectangle>();
+            int line = i % 36;
+            update.add(new Rectangle(0, line * 16, 8 * (1 + i % 80), 16));
+            update.add(new Rectangle(8 * (1 + i % 80), line * 16, 8, 16));
+            if (i % 10 == 0) {
+                update.add(new Rectangle(0, 580, 800, 20));
+            }
+            if (i % 36 == 35) {
+                update.add(new Rectangle(0, 0, 800, 576));
+            }
+            session.add(update);
+        }
+        return session;
+    }
+
+    private long replay(List<List<Rectangle>> session, boolean tileEncoder) throws Exception {
+        Random random = new Random(42);
+        Color[] palette = new Color[] {Color.LIGHT_GRAY, Color.WHITE, Color.BLACK};
+        long bytes = 0;
+        int i = 0;
+        for (List<Rectangle> update : session) {
+            for (Rectangle rc : update) {
+                if (rc.height == 20) {
+                    // status bar, repainted as it is
+                    paint(rc, Color.BLUE);
+                } else if (rc.height == 576) {
+                    paint(rc, palette[random.nextInt(palette.length)]);
+                } else {
+                    paint(rc, i % 2 == 0 ? Color.WHITE : Color.LIGHT_GRAY);
+                }
+            }
+            List<TileInfo> tiles = tracker.scan(false);
+            byte[] imgBits = tileEncoder ? encoder.encodeTiles(frameBuffer, tiles, TILE_SIZE, TILE_SIZE) : mergeTiles(tiles);
+            bytes += imgBits.length;
+            i++;
+        }
+        return bytes;
+    }
+
+    @Test
+    public void testReplaySession() throws Exception {
+        List<List<Rectangle>> session = recordSession(720);
+
+        long mergedBytes = replay(session, false);
+
+        setUp();
+        encoder.encodeFrame(frameBuffer);
+        long encodedBytes = replay(session, true);
+
+        // the repainted status bar is left out and the blinking cursor comes from the cache
+        Assert.assertTrue(encoder.getSkippedTiles() > 0);
+        Assert.assertTrue(encoder.getCacheHits() > 0);
+        Assert.assertTrue(encodedBytes < mergedBytes);
+    }
+}
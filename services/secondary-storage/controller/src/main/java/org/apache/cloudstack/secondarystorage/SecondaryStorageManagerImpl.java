@@ -266,6 +266,10 @@ public class SecondaryStorageManagerImpl extends ManagerBase implements Secondar
     static final ConfigKey<Integer> MaxNumberOfSsvmsForMigration = new ConfigKey<Integer>("Advanced", Integer.class, "max.ssvm.count", "5",
             "Number of additional SSVMs to handle migration of data objects concurrently", true, ConfigKey.Scope.Global);
 
+    static final ConfigKey<Integer> DownloadSegments = new ConfigKey<Integer>("Advanced", Integer.class, "secstorage.download.segments", "1",
+            "Number of HTTP connections the secondary storage VM downloads a large template or ISO over, when the server accepts range requests. " +
+            "Applied when the secondary storage VM starts", false, ConfigKey.Scope.Global);
+
     public SecondaryStorageManagerImpl() {
     }
 
@@ -1095,6 +1099,7 @@ public class SecondaryStorageManagerImpl extends ManagerBase implements Secondar
         buf.append(" sslcopy=").append(Boolean.toString(_useSSlCopy));
         buf.append(" role=").append(vm.getRole().toString());
         buf.append(" mtu=").append(_secStorageVmMtuSize);
+        buf.append(" download.segments=").append(DownloadSegments.value());
 
         boolean externalDhcp = false;
         String externalDhcpStr = _configDao.getValue("direct.attach.network.externalIpAllocator.enabled");
@@ -1420,7 +1425,7 @@ public class SecondaryStorageManagerImpl extends ManagerBase implements Secondar
 
     @Override
     public ConfigKey<?>[] getConfigKeys() {
-        return new ConfigKey<?>[] {NTPServerConfig, MaxNumberOfSsvmsForMigration};
+        return new ConfigKey<?>[] {NTPServerConfig, MaxNumberOfSsvmsForMigration, DownloadSegments};
     }
 
 }
@@ -896,8 +896,25 @@ public class NfsSecondaryStorageResource extends ServerResourceBase implements S
             // add kvm file extension for copied template name
             String fileName = templateName + "." + srcFormat.getFileExtension();
             String destFileFullPath = destFile.getAbsolutePath() + File.separator + fileName;
-            s_logger.debug("copy snapshot " + srcFile.getAbsolutePath() + " to template " + destFileFullPath);
-            Script.runSimpleBashScript("cp " + srcFile.getAbsolutePath() + " " + destFileFullPath);
+            try {
+                if (QCOW2Processor.hasBackingFile(srcFile)) {
+                    // incremental backup, the template needs the whole chain flattened into a single image
+                    s_logger.debug("convert incremental snapshot " + srcFile.getAbsolutePath() + " to template " + destFileFullPath);
+                    Script command = new Script("qemu-img", cmd.getWaitInMillSeconds(), s_logger);
+                    command.add("convert", "-O", srcFormat == ImageFormat.RAW ? "raw" : "qcow2", srcFile.getAbsolutePath(), destFileFullPath);
+                    String result = command.execute();
+                    if (result != null) {
+                        s_logger.debug("Failed to convert incremental snapshot " + srcFile.getAbsolutePath() + ": " + result);
+                        return new CopyCmdAnswer("Failed to convert incremental snapshot to template, qemu-img is required: " + result);
+                    }
+                } else {
+                    s_logger.debug("copy snapshot " + srcFile.getAbsolutePath() + " to template " + destFileFullPath);
+                    Script.runSimpleBashScript("cp " + srcFile.getAbsolutePath() + " " + destFileFullPath);
+                }
+            } catch (IOException e) {
+                s_logger.debug("Failed to read snapshot " + srcFile.getAbsolutePath() + ": " + e.toString());
+                return new CopyCmdAnswer(e.toString());
+            }
             String metaFileName = destFile.getAbsolutePath() + File.separator + _tmpltpp;
             File metaFile = new File(metaFileName);
             try {
@@ -242,6 +242,8 @@ public class DownloadManagerImpl extends ManagerBase implements DownloadManager
     private String listTmpltScr;
     private String listVolScr;
     private int installTimeoutPerGig = 180 * 60 * 1000;
+    // connections used to download large templates over HTTP, when the server accepts range requests
+    private int downloadSegments = 1;
 
     public void setThreadPool(ExecutorService threadPool) {
         this.threadPool = threadPool;
@@ -363,6 +365,10 @@ public class DownloadManagerImpl extends ManagerBase implements DownloadManager
         dnld.setTemplatePhysicalSize(td.getTotalBytes());
         dnld.setTmpltPath(td.getDownloadLocalPath());
 
+        if (result == null) {
+            result = checkOrCreateTheChecksum(dnld, null);
+        }
+
         return result;
     }
 
@@ -480,11 +486,24 @@ public class DownloadManagerImpl extends ManagerBase implements DownloadManager
         _storage.setWorldReadableAndWriteable(templateProperties);
     }
 
+    /**
+     * Verifies the checksum of the download against the given one, or sets it if none was given.
+     * The checksum computed by the downloader while writing the file is used when available,
+     * the file is only read again when there is none.
+     *
+     * @param targetFile the downloaded file, null if it isn't stored locally
+     */
     private String checkOrCreateTheChecksum(DownloadJob dnld, File targetFile) {
         ChecksumValue oldValue = new ChecksumValue(dnld.getChecksum());
-        ChecksumValue newValue = null;
+        ChecksumValue newValue = dnld.getTemplateDownloader().getChecksum();
         try {
-            newValue = computeCheckSum(oldValue.getAlgorithm(), targetFile);
+            if (newValue == null || !oldValue.getAlgorithm().equals(newValue.getAlgorithm())) {
+                if (targetFile == null) {
+                    LOGGER.debug("No checksum computed during the download of " + dnld.getTmpltName() + ", not verifying it");
+                    return null;
+                }
+                newValue = computeCheckSum(oldValue.getAlgorithm(), targetFile);
+            }
             if (LOGGER.isDebugEnabled()) {
                 LOGGER.debug(String.format("computed checksum: %s", newValue));
             }
@@ -570,6 +589,7 @@ public class DownloadManagerImpl extends ManagerBase implements DownloadManager
         } else {
             throw new CloudRuntimeException("Unable to download from URL: " + url);
         }
+        td.setChecksumAlgorithm(new ChecksumValue(cksum).getAlgorithm());
         DownloadJob dj = new DownloadJob(td, jobId, id, name, format, hvm, accountId, descr, cksum, installPathPrefix, resourceType);
         dj.setTmpltPath(installPathPrefix);
         jobs.put(jobId, dj);
@@ -617,7 +637,9 @@ public class DownloadManagerImpl extends ManagerBase implements DownloadManager
                         if (uri.getPath().endsWith(".metalink")) {
                             td = new MetalinkTemplateDownloader(_storage, url, tmpDir, new Completion(jobId), maxTemplateSizeInBytes);
                         } else if (uri.getScheme().equalsIgnoreCase("http") || uri.getScheme().equalsIgnoreCase("https")) {
-                            td = new HttpTemplateDownloader(_storage, url, tmpDir, new Completion(jobId), maxTemplateSizeInBytes, user, password, proxy, resourceType);
+                            HttpTemplateDownloader httpDownloader = new HttpTemplateDownloader(_storage, url, tmpDir, new Completion(jobId), maxTemplateSizeInBytes, user, password, proxy, resourceType);
+                            httpDownloader.setDownloadSegments(downloadSegments);
+                            td = httpDownloader;
                         } else if (uri.getScheme().equalsIgnoreCase("file")) {
                             td = new LocalTemplateDownloader(_storage, url, tmpDir, maxTemplateSizeInBytes, new Completion(jobId));
                         } else if (uri.getScheme().equalsIgnoreCase("scp")) {
@@ -637,6 +659,7 @@ public class DownloadManagerImpl extends ManagerBase implements DownloadManager
                     // including mount directory
                     // on ssvm, while templatePath is the final relative path on
                     // secondary storage.
+                    td.setChecksumAlgorithm(new ChecksumValue(cksum).getAlgorithm());
                     DownloadJob dj = new DownloadJob(td, jobId, id, name, format, hvm, accountId, descr, cksum, installPathPrefix, resourceType);
                     dj.setTmpltPath(templatePath);
                     jobs.put(jobId, dj);
@@ -1012,6 +1035,9 @@ public class DownloadManagerImpl extends ManagerBase implements DownloadManager
         value = (String)params.get("install.numthreads");
         final int numInstallThreads = NumbersUtil.parseInt(value, 10);
 
+        value = (String)params.get("download.segments");
+        downloadSegments = NumbersUtil.parseInt(value, 1);
+
         String scriptsDir = (String)params.get("template.scripts.dir");
         if (scriptsDir == null) {
             scriptsDir = "scripts/storage/secondary";
@@ -15,9 +15,36 @@
 # specific language governing permissions and limitations
 # under the License.
 
+import logging
 from netaddr import *
 
 
 def merge(dbag, data):
-    dbag[data['device']] = data
+    device = data['device']
+    if data.get('base_rules_hash') is not None:
+        data = apply_delta(dbag.get(device), data)
+    dbag[device] = data
     return dbag
+
+
+def apply_delta(current, data):
+    """ Apply the rule changes sent against the rules with the given hash.
+    The changes are refused if this router holds other rules, all the rules
+    are then sent again.
+    """
+    rules_hash = None if current is None else current.get('rules_hash')
+    if rules_hash != data['base_rules_hash']:
+        logging.error("Network ACL changes for %s apply to the rules with hash %s, but the rules with hash %s are configured" %
+                      (data['device'], data['base_rules_hash'], rules_hash))
+        raise ValueError("Stale network ACL rules for %s" % data['device'])
+
+    for direction in ['ingress', 'egress']:
+        rules = list(current.get(direction + '_rules', []))
+        delta = data.pop(direction + '_delta')
+        for index in sorted(delta['removed'], reverse=True):
+            del rules[index]
+        for position, rule in zip(delta['added_positions'], delta['added']):
+            rules.insert(position, rule)
+        data[direction + '_rules'] = rules
+    del data['base_rules_hash']
+    return data
@@ -78,6 +78,9 @@ function install_packages() {
 
   ${apt_get} install links
 
+  # qemu-img flattens the incremental KVM snapshot backups the secondary storage VM turns into templates
+  ${apt_get} install qemu-utils
+
   #32 bit architecture support for vhd-util: not required for 32 bit template
   if [ "${arch}" != "i386" ]; then
     dpkg --add-architecture i386
@@ -0,0 +1,160 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.usage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.cloudstack.managed.context.ManagedContextRunnable;
+import org.apache.log4j.Logger;
+
+import com.cloud.usage.parser.UsageParserWrites;
+import com.cloud.user.AccountVO;
+import com.cloud.utils.Pair;
+import com.cloud.utils.concurrency.NamedThreadFactory;
+import com.cloud.utils.db.TransactionLegacy;
+
+/**
+ * Parses the usage of the accounts over the aggregation periods of a usage
+ * job on a pool of workers.
+ *
+ * The accounts are partitioned on their id, so all the periods of an account
+ * are parsed in order by the same worker. Each worker parses in its own
+ * USAGE_DB transaction, so it reads the writes of the previous periods, and
+ * records those writes, see {@link UsageParserWrites}. The worker transactions
+ * are always rolled back: once all the workers are done and none of them
+ * failed, the recorded writes are applied on the calling thread, in the
+ * transaction of the usage job. A failed job is therefore rolled back as a
+ * whole and can be parsed again, like with the serial path.
+ */
+public class ParallelUsageParser {
+    private static final Logger s_logger = Logger.getLogger(ParallelUsageParser.class);
+
+    public interface AccountParser {
+        /**
+         * @return whether the usage of the account was parsed
+         */
+        boolean parse(AccountVO account, Date startDate, Date endDate);
+    }
+
+    private final int _workers;
+    private final List<List<Pair<AccountVO, AccountParser>>> _partitions;
+
+    public ParallelUsageParser(int workers) {
+        _workers = workers;
+        _partitions = new ArrayList<List<Pair<AccountVO, AccountParser>>>(workers);
+        for (int i = 0; i < workers; i++) {
+            _partitions.add(new ArrayList<Pair<AccountVO, AccountParser>>());
+        }
+    }
+
+    /**
+     * Accounts are parsed in the order they are added, within a period.
+     */
+    public void addAccount(AccountVO account, AccountParser parser) {
+        _partitions.get((int)(account.getId() % _workers)).add(new Pair<AccountVO, AccountParser>(account, parser));
+    }
+
+    /**
+     * Parses the accounts and applies their writes in the transaction of the
+     * calling thread.
+     *
+     * @return true if the usage of at least one account was parsed, all the
+     *         workers succeeded and their writes were applied
+     */
+    public boolean parse(final List<Pair<Date, Date>> periods) {
+        final ExecutorService executor = Executors.newFixedThreadPool(_workers, new NamedThreadFactory("Usage-Parser"));
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        final AtomicBoolean parsed = new AtomicBoolean(false);
+
+        // the writes recorded by each worker, in the order they were applied
+        final List<List<UsageParserWrites.Write>> writes = Collections.synchronizedList(new ArrayList<List<UsageParserWrites.Write>>());
+        final List<Future<?>> futures = new ArrayList<Future<?>>();
+        try {
+            for (final List<Pair<AccountVO, AccountParser>> partition : _partitions) {
+                futures.add(executor.submit(new ManagedContextRunnable() {
+                    @Override
+                    protected void runInContext() {
+                        writes.add(parsePartition(partition, periods, failed, parsed));
+                    }
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (Exception e) {
+            s_logger.error("Failed to wait for the usage parser workers", e);
+            failed.set(true);
+        } finally {
+            executor.shutdown();
+        }
+
+        if (failed.get() || !parsed.get()) {
+            return false;
+        }
+
+        int count = 0;
+        for (List<UsageParserWrites.Write> partitionWrites : writes) {
+            for (UsageParserWrites.Write write : partitionWrites) {
+                write.apply();
+                count++;
+            }
+        }
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Applied " + count + " usage writes of " + _workers + " parser workers");
+        }
+        return true;
+    }
+
+    private List<UsageParserWrites.Write> parsePartition(List<Pair<AccountVO, AccountParser>> partition, List<Pair<Date, Date>> periods, AtomicBoolean failed,
+            AtomicBoolean parsed) {
+        List<UsageParserWrites.Write> recorded = null;
+        TransactionLegacy txn = TransactionLegacy.open(TransactionLegacy.USAGE_DB);
+        UsageParserWrites.startRecording();
+        try {
+            txn.start();
+            periods:
+            for (Pair<Date, Date> period : periods) {
+                for (Pair<AccountVO, AccountParser> entry : partition) {
+                    if (failed.get()) {
+                        // another worker failed, nothing is applied anyway
+                        break periods;
+                    }
+                    if (entry.second().parse(entry.first(), period.first(), period.second())) {
+                        parsed.set(true);
+                    }
+                }
+            }
+        } catch (Throwable t) {
+            s_logger.error("Failed to parse usage records", t);
+            failed.set(true);
+        } finally {
+            recorded = UsageParserWrites.stopRecording();
+            // the recorded writes are applied in the transaction of the job
+            txn.rollback();
+            txn.close();
+        }
+        return recorded;
+    }
+}
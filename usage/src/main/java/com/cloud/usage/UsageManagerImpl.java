@@ -74,6 +74,7 @@ import com.cloud.usage.parser.PortForwardingUsageParser;
 import com.cloud.usage.parser.SecurityGroupUsageParser;
 import com.cloud.usage.parser.StorageUsageParser;
 import com.cloud.usage.parser.BackupUsageParser;
+import com.cloud.usage.parser.UsageParserWrites;
 import com.cloud.usage.parser.VMInstanceUsageParser;
 import com.cloud.usage.parser.VMSanpshotOnPrimaryParser;
 import com.cloud.usage.parser.VMSnapshotUsageParser;
@@ -87,6 +88,8 @@ import com.cloud.user.VmDiskStatisticsVO;
 import com.cloud.user.dao.AccountDao;
 import com.cloud.user.dao.UserStatisticsDao;
 import com.cloud.user.dao.VmDiskStatisticsDao;
+import com.cloud.utils.NumbersUtil;
+import com.cloud.utils.Pair;
 import com.cloud.utils.component.ManagerBase;
 import com.cloud.utils.concurrency.NamedThreadFactory;
 import com.cloud.utils.db.DB;
@@ -182,6 +185,8 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
     private Future _heartbeat = null;
     private Future _sanity = null;
     private boolean  usageSnapshotSelection = false;
+    private int _parseWorkers = 1;
+    private UsageParserTimings _parserTimings = new UsageParserTimings();
 
     public UsageManagerImpl() {
     }
@@ -222,6 +227,7 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
         String quotaEnable = configs.get("quota.enable.service");
         _runQuota = Boolean.valueOf(quotaEnable == null ? "false" : quotaEnable );
         usageSnapshotSelection  = Boolean.valueOf(configs.get("usage.snapshot.virtualsize.select"));
+        _parseWorkers = Math.max(1, NumbersUtil.parseInt(configs.get("usage.parse.workers"), 1));
         if (sanityCheckInterval != null) {
             _sanityCheckInterval = Integer.parseInt(sanityCheckInterval);
         }
@@ -645,9 +651,9 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
                     // - create the usage records using the parse methods below
                     for (UsageEventVO event : events) {
                         event.setProcessed(true);
-                        _usageEventDao.update(event.getId(), event);
                         createHelperRecord(event);
                     }
+                    _usageEventDao.updateBatch(events);
                 }
 
                 // TODO:  Fetch a maximum number of user stats and process them before moving on to the next range of user stats
@@ -758,83 +764,17 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
                 usageTxn.start();
 
                 boolean parsed = false;
-                numAcctsProcessed = 0;
-
-                Date currentStartDate = startDate;
-                Date currentEndDate = endDate;
-                Date tempDate = endDate;
-
-                Calendar aggregateCal = Calendar.getInstance(_usageTimezone);
-
-                while ((tempDate.after(startDate)) && ((tempDate.getTime() - startDate.getTime()) > 60000)) {
-                    currentEndDate = tempDate;
-                    aggregateCal.setTime(tempDate);
-                    aggregateCal.add(Calendar.MINUTE, -_aggregationDuration);
-                    tempDate = aggregateCal.getTime();
-                }
+                _parserTimings = new UsageParserTimings();
 
-                while (!currentEndDate.after(endDate) || (currentEndDate.getTime() - endDate.getTime() < 60000)) {
-                    Long offset = Long.valueOf(0);
-                    Long limit = Long.valueOf(500);
-
-                    do {
-                        Filter filter = new Filter(AccountVO.class, "id", true, offset, limit);
-                        accounts = _accountDao.listAll(filter);
-                        if ((accounts != null) && !accounts.isEmpty()) {
-                            for (AccountVO account : accounts) {
-                                parsed = parseHelperTables(account, currentStartDate, currentEndDate);
-                                numAcctsProcessed++;
-                            }
-                        }
-                        offset = new Long(offset.longValue() + limit.longValue());
-                    } while ((accounts != null) && !accounts.isEmpty());
-
-                    if (s_logger.isDebugEnabled()) {
-                        s_logger.debug("processed VM/Network Usage for " + numAcctsProcessed + " ACTIVE accts");
-                    }
-                    numAcctsProcessed = 0;
-
-                    // reset offset
-                    offset = Long.valueOf(0);
-
-                    do {
-                        Filter filter = new Filter(AccountVO.class, "id", true, offset, limit);
-
-                        accounts = _accountDao.findRecentlyDeletedAccounts(null, recentlyDeletedDate, filter);
-
-                        if ((accounts != null) && !accounts.isEmpty()) {
-                            for (AccountVO account : accounts) {
-                                parsed = parseHelperTables(account, currentStartDate, currentEndDate);
-                                List<Long> publicTemplates = _usageDao.listPublicTemplatesByAccount(account.getId());
-                                for (Long templateId : publicTemplates) {
-                                    //mark public templates owned by deleted accounts as deleted
-                                    List<UsageStorageVO> storageVOs = _usageStorageDao.listById(account.getId(), templateId, StorageTypes.TEMPLATE);
-                                    if (storageVOs.size() > 1) {
-                                        s_logger.warn("More that one usage entry for storage: " + templateId + " assigned to account: " + account.getId() +
-                                                "; marking them all as deleted...");
-                                    }
-                                    for (UsageStorageVO storageVO : storageVOs) {
-                                        if (s_logger.isDebugEnabled()) {
-                                            s_logger.debug("deleting template: " + storageVO.getId() + " from account: " + storageVO.getAccountId());
-                                        }
-                                        storageVO.setDeleted(account.getRemoved());
-                                        _usageStorageDao.update(storageVO);
-                                    }
-                                }
-                                numAcctsProcessed++;
-                            }
-                        }
-                        offset = new Long(offset.longValue() + limit.longValue());
-                    } while ((accounts != null) && !accounts.isEmpty());
-
-                    currentStartDate = new Date(currentEndDate.getTime() + 1);
-                    aggregateCal.setTime(currentEndDate);
-                    aggregateCal.add(Calendar.MINUTE, _aggregationDuration);
-                    currentEndDate = aggregateCal.getTime();
+                List<Pair<Date, Date>> periods = getAggregationPeriods(startDate, endDate);
+                if (_parseWorkers > 1) {
+                    parsed = parseInParallel(_parseWorkers, periods, recentlyDeletedDate);
+                } else {
+                    parsed = parseSerially(periods, recentlyDeletedDate);
                 }
 
-                if (s_logger.isDebugEnabled()) {
-                    s_logger.debug("processed Usage for " + numAcctsProcessed + " RECENTLY DELETED accts");
+                if (s_logger.isInfoEnabled()) {
+                    s_logger.info("Usage parser timings: " + _parserTimings);
                 }
 
                 // FIXME: we don't break the above loop if something fails to parse, so it gets reset every account,
@@ -874,103 +814,289 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
         }
     }
 
-    private boolean parseHelperTables(AccountVO account, Date currentStartDate, Date currentEndDate) {
+    /**
+     * Splits the job range in aggregation periods, the same way the usage records are aggregated.
+     */
+    private List<Pair<Date, Date>> getAggregationPeriods(Date startDate, Date endDate) {
+        List<Pair<Date, Date>> periods = new ArrayList<Pair<Date, Date>>();
+        Date currentStartDate = startDate;
+        Date currentEndDate = endDate;
+        Date tempDate = endDate;
+
+        Calendar aggregateCal = Calendar.getInstance(_usageTimezone);
+
+        while ((tempDate.after(startDate)) && ((tempDate.getTime() - startDate.getTime()) > 60000)) {
+            currentEndDate = tempDate;
+            aggregateCal.setTime(tempDate);
+            aggregateCal.add(Calendar.MINUTE, -_aggregationDuration);
+            tempDate = aggregateCal.getTime();
+        }
+
+        while (!currentEndDate.after(endDate) || (currentEndDate.getTime() - endDate.getTime() < 60000)) {
+            periods.add(new Pair<Date, Date>(currentStartDate, currentEndDate));
+
+            currentStartDate = new Date(currentEndDate.getTime() + 1);
+            aggregateCal.setTime(currentEndDate);
+            aggregateCal.add(Calendar.MINUTE, _aggregationDuration);
+            currentEndDate = aggregateCal.getTime();
+        }
+        return periods;
+    }
+
+    boolean parseSerially(List<Pair<Date, Date>> periods, Date recentlyDeletedDate) {
+        boolean parsed = false;
+        int numAcctsProcessed = 0;
+        List<AccountVO> accounts = null;
+
+        for (Pair<Date, Date> period : periods) {
+            Date currentStartDate = period.first();
+            Date currentEndDate = period.second();
+            Long offset = Long.valueOf(0);
+            Long limit = Long.valueOf(500);
+
+            do {
+                Filter filter = new Filter(AccountVO.class, "id", true, offset, limit);
+                accounts = _accountDao.listAll(filter);
+                if ((accounts != null) && !accounts.isEmpty()) {
+                    for (AccountVO account : accounts) {
+                        parsed = parseHelperTables(account, currentStartDate, currentEndDate);
+                        numAcctsProcessed++;
+                    }
+                }
+                offset = new Long(offset.longValue() + limit.longValue());
+            } while ((accounts != null) && !accounts.isEmpty());
+
+            if (s_logger.isDebugEnabled()) {
+                s_logger.debug("processed VM/Network Usage for " + numAcctsProcessed + " ACTIVE accts");
+            }
+            numAcctsProcessed = 0;
+
+            // reset offset
+            offset = Long.valueOf(0);
+
+            do {
+                Filter filter = new Filter(AccountVO.class, "id", true, offset, limit);
+
+                accounts = _accountDao.findRecentlyDeletedAccounts(null, recentlyDeletedDate, filter);
+
+                if ((accounts != null) && !accounts.isEmpty()) {
+                    for (AccountVO account : accounts) {
+                        parsed = parseHelperTables(account, currentStartDate, currentEndDate);
+                        markPublicTemplatesAsDeleted(account);
+                        numAcctsProcessed++;
+                    }
+                }
+                offset = new Long(offset.longValue() + limit.longValue());
+            } while ((accounts != null) && !accounts.isEmpty());
+        }
+
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("processed Usage for " + numAcctsProcessed + " RECENTLY DELETED accts");
+        }
+        return parsed;
+    }
+
+    /**
+     * Parses the accounts on usage.parse.workers workers, see {@link ParallelUsageParser}. The accounts are
+     * listed once for the whole job instead of once per aggregation period, and the usage records are written
+     * in the transaction of the job once all the workers are done, like with {@link #parseSerially}.
+     */
+    boolean parseInParallel(int workers, List<Pair<Date, Date>> periods, Date recentlyDeletedDate) {
+        ParallelUsageParser parser = new ParallelUsageParser(workers);
+        ParallelUsageParser.AccountParser activeAccountParser = new ParallelUsageParser.AccountParser() {
+            @Override
+            public boolean parse(AccountVO account, Date startDate, Date endDate) {
+                return parseHelperTables(account, startDate, endDate);
+            }
+        };
+        ParallelUsageParser.AccountParser deletedAccountParser = new ParallelUsageParser.AccountParser() {
+            @Override
+            public boolean parse(AccountVO account, Date startDate, Date endDate) {
+                boolean parsed = parseHelperTables(account, startDate, endDate);
+                markPublicTemplatesAsDeleted(account);
+                return parsed;
+            }
+        };
+
+        int numActiveAccts = 0;
+        int numDeletedAccts = 0;
+        Long limit = Long.valueOf(500);
+        List<AccountVO> accounts = null;
+        Long offset = Long.valueOf(0);
+        do {
+            accounts = _accountDao.listAll(new Filter(AccountVO.class, "id", true, offset, limit));
+            for (AccountVO account : accounts) {
+                parser.addAccount(account, activeAccountParser);
+                numActiveAccts++;
+            }
+            offset = new Long(offset.longValue() + limit.longValue());
+        } while (!accounts.isEmpty());
+
+        offset = Long.valueOf(0);
+        do {
+            accounts = _accountDao.findRecentlyDeletedAccounts(null, recentlyDeletedDate, new Filter(AccountVO.class, "id", true, offset, limit));
+            for (AccountVO account : accounts) {
+                parser.addAccount(account, deletedAccountParser);
+                numDeletedAccts++;
+            }
+            offset = new Long(offset.longValue() + limit.longValue());
+        } while (!accounts.isEmpty());
+
+        boolean parsed = parser.parse(periods);
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("processed Usage for " + numActiveAccts + " ACTIVE and " + numDeletedAccts + " RECENTLY DELETED accts over " + periods.size() + " periods on "
+                    + workers + " workers");
+        }
+        return parsed;
+    }
+
+    protected void markPublicTemplatesAsDeleted(AccountVO account) {
+        List<Long> publicTemplates = _usageDao.listPublicTemplatesByAccount(account.getId());
+        for (Long templateId : publicTemplates) {
+            //mark public templates owned by deleted accounts as deleted
+            List<UsageStorageVO> storageVOs = _usageStorageDao.listById(account.getId(), templateId, StorageTypes.TEMPLATE);
+            if (storageVOs.size() > 1) {
+                s_logger.warn("More that one usage entry for storage: " + templateId + " assigned to account: " + account.getId() +
+                        "; marking them all as deleted...");
+            }
+            for (UsageStorageVO storageVO : storageVOs) {
+                if (s_logger.isDebugEnabled()) {
+                    s_logger.debug("deleting template: " + storageVO.getId() + " from account: " + storageVO.getAccountId());
+                }
+                storageVO.setDeleted(account.getRemoved());
+                UsageParserWrites.update(_usageStorageDao, storageVO);
+            }
+        }
+    }
+
+    protected boolean parseHelperTables(AccountVO account, Date currentStartDate, Date currentEndDate) {
         boolean parsed = false;
+        long parserStart;
 
+        parserStart = System.nanoTime();
         parsed = VMInstanceUsageParser.parse(account, currentStartDate, currentEndDate);
+        _parserTimings.add(VMInstanceUsageParser.class, System.nanoTime() - parserStart);
         if (s_logger.isDebugEnabled()) {
             if (!parsed) {
                 s_logger.debug("vm usage instances successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
             }
         }
 
+        parserStart = System.nanoTime();
         parsed = NetworkUsageParser.parse(account, currentStartDate, currentEndDate);
+        _parserTimings.add(NetworkUsageParser.class, System.nanoTime() - parserStart);
         if (s_logger.isDebugEnabled()) {
             if (!parsed) {
                 s_logger.debug("network usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
             }
         }
 
+        parserStart = System.nanoTime();
         parsed = VmDiskUsageParser.parse(account, currentStartDate, currentEndDate);
+        _parserTimings.add(VmDiskUsageParser.class, System.nanoTime() - parserStart);
         if (s_logger.isDebugEnabled()) {
             if (!parsed) {
                 s_logger.debug("vm disk usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
             }
         }
 
+        parserStart = System.nanoTime();
         parsed = VolumeUsageParser.parse(account, currentStartDate, currentEndDate);
+        _parserTimings.add(VolumeUsageParser.class, System.nanoTime() - parserStart);
         if (s_logger.isDebugEnabled()) {
             if (!parsed) {
                 s_logger.debug("volume usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
             }
         }
 
+        parserStart = System.nanoTime();
         parsed = StorageUsageParser.parse(account, currentStartDate, currentEndDate);
+        _parserTimings.add(StorageUsageParser.class, System.nanoTime() - parserStart);
         if (s_logger.isDebugEnabled()) {
             if (!parsed) {
                 s_logger.debug("storage usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
             }
         }
 
+        parserStart = System.nanoTime();
         parsed = SecurityGroupUsageParser.parse(account, currentStartDate, currentEndDate);
+        _parserTimings.add(SecurityGroupUsageParser.class, System.nanoTime() - parserStart);
         if (s_logger.isDebugEnabled()) {
             if (!parsed) {
                 s_logger.debug("Security Group usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
             }
         }
 
+        parserStart = System.nanoTime();
         parsed = LoadBalancerUsageParser.parse(account, currentStartDate, currentEndDate);
+        _parserTimings.add(LoadBalancerUsageParser.class, System.nanoTime() - parserStart);
         if (s_logger.isDebugEnabled()) {
             if (!parsed) {
                 s_logger.debug("load balancer usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
             }
         }
 
+        parserStart = System.nanoTime();
         parsed = PortForwardingUsageParser.parse(account, currentStartDate, currentEndDate);
+        _parserTimings.add(PortForwardingUsageParser.class, System.nanoTime() - parserStart);
         if (s_logger.isDebugEnabled()) {
             if (!parsed) {
                 s_logger.debug("port forwarding usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
             }
         }
 
+        parserStart = System.nanoTime();
         parsed = NetworkOfferingUsageParser.parse(account, currentStartDate, currentEndDate);
+        _parserTimings.add(NetworkOfferingUsageParser.class, System.nanoTime() - parserStart);
         if (s_logger.isDebugEnabled()) {
             if (!parsed) {
                 s_logger.debug("network offering usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
             }
         }
 
+        parserStart = System.nanoTime();
         parsed = IPAddressUsageParser.parse(account, currentStartDate, currentEndDate);
+        _parserTimings.add(IPAddressUsageParser.class, System.nanoTime() - parserStart);
         if (s_logger.isDebugEnabled()) {
             if (!parsed) {
                 s_logger.debug("IPAddress usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
             }
         }
+        parserStart = System.nanoTime();
         parsed = VPNUserUsageParser.parse(account, currentStartDate, currentEndDate);
+        _parserTimings.add(VPNUserUsageParser.class, System.nanoTime() - parserStart);
         if (s_logger.isDebugEnabled()) {
             if (!parsed) {
                 s_logger.debug("VPN user usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
             }
         }
+        parserStart = System.nanoTime();
         parsed = VMSnapshotUsageParser.parse(account, currentStartDate, currentEndDate);
+        _parserTimings.add(VMSnapshotUsageParser.class, System.nanoTime() - parserStart);
         if (s_logger.isDebugEnabled()) {
             if (!parsed) {
                 s_logger.debug("VM Snapshot usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
             }
         }
+        parserStart = System.nanoTime();
         parsed = VMSnapshotUsageParser.parse(account, currentStartDate, currentEndDate);
+        _parserTimings.add(VMSnapshotUsageParser.class, System.nanoTime() - parserStart);
         if (s_logger.isDebugEnabled()) {
             if (!parsed) {
                 s_logger.debug("VM Snapshot usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
             }
         }
+        parserStart = System.nanoTime();
         parsed = VMSanpshotOnPrimaryParser.parse(account, currentStartDate, currentEndDate);
+        _parserTimings.add(VMSanpshotOnPrimaryParser.class, System.nanoTime() - parserStart);
         if (s_logger.isDebugEnabled()) {
             if (!parsed) {
                 s_logger.debug("VM Snapshot on primary usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
             }
         }
+        parserStart = System.nanoTime();
         parsed = BackupUsageParser.parse(account, currentStartDate, currentEndDate);
+        _parserTimings.add(BackupUsageParser.class, System.nanoTime() - parserStart);
         if (s_logger.isDebugEnabled()) {
             if (!parsed) {
                 s_logger.debug("VM Backup usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
@@ -0,0 +1,72 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.usage;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Time spent in each usage parser during a usage job, summed over all the
+ * accounts and workers.
+ */
+public class UsageParserTimings {
+    private final Map<String, AtomicLong> _nanos = new ConcurrentHashMap<String, AtomicLong>();
+    private final Map<String, AtomicLong> _calls = new ConcurrentHashMap<String, AtomicLong>();
+
+    public void add(Class<?> parser, long nanos) {
+        getCounter(_nanos, parser.getSimpleName()).addAndGet(nanos);
+        getCounter(_calls, parser.getSimpleName()).incrementAndGet();
+    }
+
+    public long getMillis(Class<?> parser) {
+        AtomicLong nanos = _nanos.get(parser.getSimpleName());
+        return nanos != null ? TimeUnit.NANOSECONDS.toMillis(nanos.get()) : 0;
+    }
+
+    public long getCalls(Class<?> parser) {
+        AtomicLong calls = _calls.get(parser.getSimpleName());
+        return calls != null ? calls.get() : 0;
+    }
+
+    private static AtomicLong getCounter(Map<String, AtomicLong> counters, String parser) {
+        AtomicLong counter = counters.get(parser);
+        if (counter == null) {
+            counter = new AtomicLong();
+            AtomicLong existing = counters.putIfAbsent(parser, counter);
+            if (existing != null) {
+                counter = existing;
+            }
+        }
+        return counter;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, AtomicLong> entry : new TreeMap<String, AtomicLong>(_nanos).entrySet()) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(entry.getKey()).append(": ").append(TimeUnit.NANOSECONDS.toMillis(entry.getValue().get())).append(" ms/")
+                    .append(_calls.get(entry.getKey()).get()).append(" calls");
+        }
+        return sb.toString();
+    }
+}
@@ -94,7 +94,7 @@ public class BackupUsageParser {
                     new UsageVO(zoneId, account.getAccountId(), account.getDomainId(), description, usageDisplay,
                             UsageTypes.BACKUP, rawUsage, vmId, null, offeringId, null, vmId,
                             backupInfo.getMetric().getBackupSize(), backupInfo.getMetric().getDataSize(), startDate, endDate);
-            s_usageDao.persist(usageRecord);
+            UsageParserWrites.persist(s_usageDao, usageRecord);
         }
 
         return true;
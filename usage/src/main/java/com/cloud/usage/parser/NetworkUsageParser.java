@@ -21,6 +21,7 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 import javax.annotation.PostConstruct;
 import javax.inject.Inject;
@@ -71,29 +72,31 @@ public class NetworkUsageParser {
         SearchCriteria<UsageNetworkVO> sc = s_usageNetworkDao.createSearchCriteria();
         sc.addAnd("accountId", SearchCriteria.Op.EQ, account.getId());
         sc.addAnd("eventTimeMillis", SearchCriteria.Op.BETWEEN, startDate.getTime(), endDate.getTime());
-        List<UsageNetworkVO> usageNetworkVOs = s_usageNetworkDao.search(sc, null);
 
-        Map<String, NetworkInfo> networkUsageByZone = new HashMap<String, NetworkInfo>();
+        final Map<String, NetworkInfo> networkUsageByZone = new HashMap<String, NetworkInfo>();
 
         // Calculate the total bytes since last parsing
-        for (UsageNetworkVO usageNetwork : usageNetworkVOs) {
-            long zoneId = usageNetwork.getZoneId();
-            String key = "" + zoneId;
-            if (usageNetwork.getHostId() != 0) {
-                key += "-Host" + usageNetwork.getHostId();
-            }
-            NetworkInfo networkInfo = networkUsageByZone.get(key);
+        s_usageNetworkDao.forEach(sc, null, new Consumer<UsageNetworkVO>() {
+            @Override
+            public void accept(UsageNetworkVO usageNetwork) {
+                long zoneId = usageNetwork.getZoneId();
+                String key = "" + zoneId;
+                if (usageNetwork.getHostId() != 0) {
+                    key += "-Host" + usageNetwork.getHostId();
+                }
+                NetworkInfo networkInfo = networkUsageByZone.get(key);
 
-            long bytesSent = usageNetwork.getBytesSent();
-            long bytesReceived = usageNetwork.getBytesReceived();
-            if (networkInfo != null) {
-                bytesSent += networkInfo.getBytesSent();
-                bytesReceived += networkInfo.getBytesRcvd();
-            }
+                long bytesSent = usageNetwork.getBytesSent();
+                long bytesReceived = usageNetwork.getBytesReceived();
+                if (networkInfo != null) {
+                    bytesSent += networkInfo.getBytesSent();
+                    bytesReceived += networkInfo.getBytesRcvd();
+                }
 
-            networkUsageByZone.put(key, new NetworkInfo(zoneId, usageNetwork.getHostId(), usageNetwork.getHostType(), usageNetwork.getNetworkId(), bytesSent,
-                bytesReceived));
-        }
+                networkUsageByZone.put(key, new NetworkInfo(zoneId, usageNetwork.getHostId(), usageNetwork.getHostType(), usageNetwork.getNetworkId(), bytesSent,
+                    bytesReceived));
+            }
+        });
 
         List<UsageVO> usageRecords = new ArrayList<UsageVO>();
         for (String key : networkUsageByZone.keySet()) {
@@ -138,7 +141,7 @@ public class NetworkUsageParser {
             }
         }
 
-        s_usageDao.saveUsageRecords(usageRecords);
+        UsageParserWrites.saveUsageRecords(s_usageDao, usageRecords);
 
         return true;
     }
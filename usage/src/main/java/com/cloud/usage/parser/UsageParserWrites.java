@@ -0,0 +1,118 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.usage.parser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.cloud.usage.UsageSnapshotOnPrimaryVO;
+import com.cloud.usage.UsageStorageVO;
+import com.cloud.usage.UsageVMSnapshotVO;
+import com.cloud.usage.UsageVO;
+import com.cloud.usage.dao.UsageDao;
+import com.cloud.usage.dao.UsageStorageDao;
+import com.cloud.usage.dao.UsageVMSnapshotDao;
+import com.cloud.usage.dao.UsageVMSnapshotOnPrimaryDao;
+
+/**
+ * The writes of the usage parsers to the usage database.
+ *
+ * A write is applied right away, so the parser reads its own writes in the
+ * next aggregation periods. When the current thread is recording, the write is
+ * also kept, so it can be applied again in another transaction: the parallel
+ * parser workers parse in transactions they roll back, and the recorded writes
+ * are then applied in the transaction of the usage job.
+ */
+public final class UsageParserWrites {
+
+    public interface Write {
+        void apply();
+    }
+
+    private static final ThreadLocal<List<Write>> s_recorded = new ThreadLocal<List<Write>>();
+
+    private UsageParserWrites() {
+    }
+
+    public static void startRecording() {
+        s_recorded.set(new ArrayList<Write>());
+    }
+
+    /**
+     * @return the writes applied by the current thread since it started recording
+     */
+    public static List<Write> stopRecording() {
+        List<Write> recorded = s_recorded.get();
+        s_recorded.remove();
+        return recorded;
+    }
+
+    private static void apply(Write write) {
+        write.apply();
+        List<Write> recorded = s_recorded.get();
+        if (recorded != null) {
+            recorded.add(write);
+        }
+    }
+
+    public static void persist(final UsageDao dao, final UsageVO usageRecord) {
+        apply(new Write() {
+            @Override
+            public void apply() {
+                // the id is generated again when applied in another transaction
+                usageRecord.setId(null);
+                dao.persist(usageRecord);
+            }
+        });
+    }
+
+    public static void saveUsageRecords(final UsageDao dao, final List<UsageVO> usageRecords) {
+        apply(new Write() {
+            @Override
+            public void apply() {
+                dao.saveUsageRecords(usageRecords);
+            }
+        });
+    }
+
+    public static void update(final UsageVMSnapshotDao dao, final UsageVMSnapshotVO usage) {
+        apply(new Write() {
+            @Override
+            public void apply() {
+                dao.update(usage);
+            }
+        });
+    }
+
+    public static void updateDeleted(final UsageVMSnapshotOnPrimaryDao dao, final UsageSnapshotOnPrimaryVO usage) {
+        apply(new Write() {
+            @Override
+            public void apply() {
+                dao.updateDeleted(usage);
+            }
+        });
+    }
+
+    public static void update(final UsageStorageDao dao, final UsageStorageVO usage) {
+        apply(new Write() {
+            @Override
+            public void apply() {
+                dao.update(usage);
+            }
+        });
+    }
+}
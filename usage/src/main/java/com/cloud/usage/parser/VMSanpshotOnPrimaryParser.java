@@ -77,7 +77,7 @@ public class VMSanpshotOnPrimaryParser {
             String key = usageRec.getName();
             if (usageRec.getPhysicalSize() == 0) {
                 usageRec.setDeleted(new Date());
-                s_usageSnapshotOnPrimaryDao.updateDeleted(usageRec);
+                UsageParserWrites.updateDeleted(s_usageSnapshotOnPrimaryDao, usageRec);
             } else {
                 unprocessedUsage.put(key, usageRec);
             }
@@ -125,7 +125,7 @@ public class VMSanpshotOnPrimaryParser {
 
         UsageVO usageRecord = new UsageVO(zoneId, account.getId(), account.getDomainId(), usageDesc, usageDisplay + " Hrs", usageType, new Double(usage), vmId, name, null, null,
                 vmSnapshotId, physicalSize, virtualSize, startDate, endDate);
-        s_usageDao.persist(usageRecord);
+        UsageParserWrites.persist(s_usageDao, usageRecord);
     }
 
 }
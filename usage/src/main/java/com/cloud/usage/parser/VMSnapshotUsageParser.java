@@ -98,11 +98,11 @@ public class VMSnapshotUsageParser {
             createUsageRecord(UsageTypes.VM_SNAPSHOT, duration, previousCreated, createDate, account, volId, zoneId, previousEvent.getDiskOfferingId(), vmId,
                 previousEvent.getSize(), usageRec.getVmSnapshotId());
             previousEvent.setProcessed(new Date());
-            s_usageVMSnapshotDao.update(previousEvent);
+            UsageParserWrites.update(s_usageVMSnapshotDao, previousEvent);
 
             if (usageRec.getSize() == 0) {
                 usageRec.setProcessed(new Date());
-                s_usageVMSnapshotDao.update(usageRec);
+                UsageParserWrites.update(s_usageVMSnapshotDao, usageRec);
             } else
                 unprocessedUsage.put(key, usageRec);
         }
@@ -150,7 +150,7 @@ public class VMSnapshotUsageParser {
         UsageVO usageRecord =
             new UsageVO(zoneId, account.getId(), account.getDomainId(), usageDesc, usageDisplay + " Hrs", type, new Double(usage), vmId, null, doId, null, vmSnapshotId, size,
                 startDate, endDate);
-        s_usageDao.persist(usageRecord);
+        UsageParserWrites.persist(s_usageDao, usageRecord);
     }
 
 }
@@ -21,6 +21,7 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 import javax.annotation.PostConstruct;
 import javax.inject.Inject;
@@ -71,32 +72,34 @@ public class VmDiskUsageParser {
         SearchCriteria<UsageVmDiskVO> sc = s_usageVmDiskDao.createSearchCriteria();
         sc.addAnd("accountId", SearchCriteria.Op.EQ, account.getId());
         sc.addAnd("eventTimeMillis", SearchCriteria.Op.BETWEEN, startDate.getTime(), endDate.getTime());
-        List<UsageVmDiskVO> usageVmDiskVOs = s_usageVmDiskDao.search(sc, null);
 
-        Map<String, VmDiskInfo> vmDiskUsageByZone = new HashMap<String, VmDiskInfo>();
+        final Map<String, VmDiskInfo> vmDiskUsageByZone = new HashMap<String, VmDiskInfo>();
 
         // Calculate the bytes since last parsing
-        for (UsageVmDiskVO usageVmDisk : usageVmDiskVOs) {
-            long zoneId = usageVmDisk.getZoneId();
-            String key = "" + zoneId;
-            if (usageVmDisk.getVmId() != 0) {
-                key += "-Vm-" + usageVmDisk.getVmId() + "-Disk-" + usageVmDisk.getVolumeId();
-            }
-            VmDiskInfo vmDiskInfo = vmDiskUsageByZone.get(key);
+        s_usageVmDiskDao.forEach(sc, null, new Consumer<UsageVmDiskVO>() {
+            @Override
+            public void accept(UsageVmDiskVO usageVmDisk) {
+                long zoneId = usageVmDisk.getZoneId();
+                String key = "" + zoneId;
+                if (usageVmDisk.getVmId() != 0) {
+                    key += "-Vm-" + usageVmDisk.getVmId() + "-Disk-" + usageVmDisk.getVolumeId();
+                }
+                VmDiskInfo vmDiskInfo = vmDiskUsageByZone.get(key);
+
+                long ioRead = usageVmDisk.getIORead();
+                long ioWrite = usageVmDisk.getIOWrite();
+                long bytesRead = usageVmDisk.getBytesRead();
+                long bytesWrite = usageVmDisk.getBytesWrite();
+                if (vmDiskInfo != null) {
+                    ioRead += vmDiskInfo.getIORead();
+                    ioWrite += vmDiskInfo.getIOWrite();
+                    bytesRead += vmDiskInfo.getBytesRead();
+                    bytesWrite += vmDiskInfo.getBytesWrite();
+                }
 
-            long ioRead = usageVmDisk.getIORead();
-            long ioWrite = usageVmDisk.getIOWrite();
-            long bytesRead = usageVmDisk.getBytesRead();
-            long bytesWrite = usageVmDisk.getBytesWrite();
-            if (vmDiskInfo != null) {
-                ioRead += vmDiskInfo.getIORead();
-                ioWrite += vmDiskInfo.getIOWrite();
-                bytesRead += vmDiskInfo.getBytesRead();
-                bytesWrite += vmDiskInfo.getBytesWrite();
+                vmDiskUsageByZone.put(key, new VmDiskInfo(zoneId, usageVmDisk.getVmId(), usageVmDisk.getVolumeId(), ioRead, ioWrite, bytesRead, bytesWrite));
             }
-
-            vmDiskUsageByZone.put(key, new VmDiskInfo(zoneId, usageVmDisk.getVmId(), usageVmDisk.getVolumeId(), ioRead, ioWrite, bytesRead, bytesWrite));
-        }
+        });
 
         List<UsageVO> usageRecords = new ArrayList<UsageVO>();
         for (String key : vmDiskUsageByZone.keySet()) {
@@ -166,7 +169,7 @@ public class VmDiskUsageParser {
             }
         }
 
-        s_usageDao.saveUsageRecords(usageRecords);
+        UsageParserWrites.saveUsageRecords(s_usageDao, usageRecords);
 
         return true;
     }
@@ -0,0 +1,146 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.usage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.cloud.user.AccountVO;
+import com.cloud.utils.Pair;
+
+public class ParallelUsageParserTest {
+
+    /**
+     * Stands in for the usage parsers: records the periods parsed per account,
+     * along with a value depending on the account and the period only.
+     */
+    private static class RecordingParser implements ParallelUsageParser.AccountParser {
+        private final Map<Long, List<String>> _results = Collections.synchronizedMap(new HashMap<Long, List<String>>());
+
+        @Override
+        public boolean parse(AccountVO account, Date startDate, Date endDate) {
+            List<String> results = _results.get(account.getId());
+            if (results == null) {
+                results = new ArrayList<String>();
+                _results.put(account.getId(), results);
+            }
+            results.add(startDate.getTime() + "-" + endDate.getTime() + ":" + (account.getId() * 31 + startDate.getTime()) % 1000);
+            return true;
+        }
+
+        public Map<Long, List<String>> getResults() {
+            return _results;
+        }
+    }
+
+    private static List<AccountVO> generateAccounts(int count, long seed) {
+        Random random = new Random(seed);
+        List<AccountVO> accounts = new ArrayList<AccountVO>();
+        long id = 1;
+        for (int i = 0; i < count; i++) {
+            // gaps in the ids, as left by removed accounts
+            id += 1 + random.nextInt(3);
+            accounts.add(new AccountVO(id));
+        }
+        return accounts;
+    }
+
+    private static List<Pair<Date, Date>> generatePeriods(int count) {
+        List<Pair<Date, Date>> periods = new ArrayList<Pair<Date, Date>>();
+        long start = 1500000000000L;
+        long length = 60 * 60 * 1000L;
+        for (int i = 0; i < count; i++) {
+            periods.add(new Pair<Date, Date>(new Date(start + i * length), new Date(start + (i + 1) * length - 1)));
+        }
+        return periods;
+    }
+
+    private static Map<Long, List<String>> parse(int workers, List<AccountVO> accounts, List<Pair<Date, Date>> periods) {
+        RecordingParser recorder = new RecordingParser();
+        ParallelUsageParser parser = new ParallelUsageParser(workers);
+        for (AccountVO account : accounts) {
+            parser.addAccount(account, recorder);
+        }
+        Assert.assertTrue(parser.parse(periods));
+        return recorder.getResults();
+    }
+
+    @Test
+    public void testParallelMatchesSerial() {
+        List<AccountVO> accounts = generateAccounts(500, 42);
+        List<Pair<Date, Date>> periods = generatePeriods(24);
+
+        Map<Long, List<String>> serial = parse(1, accounts, periods);
+        Map<Long, List<String>> parallel = parse(4, accounts, periods);
+
+        Assert.assertEquals(accounts.size(), serial.size());
+        Assert.assertEquals(serial, parallel);
+    }
+
+    @Test
+    public void testPeriodsParsedInOrderPerAccount() {
+        List<AccountVO> accounts = generateAccounts(100, 7);
+        List<Pair<Date, Date>> periods = generatePeriods(12);
+
+        Map<Long, List<String>> results = parse(8, accounts, periods);
+        for (AccountVO account : accounts) {
+            List<String> accountResults = results.get(account.getId());
+            Assert.assertEquals(periods.size(), accountResults.size());
+            for (int i = 0; i < periods.size(); i++) {
+                Assert.assertTrue(accountResults.get(i).startsWith(periods.get(i).first().getTime() + "-"));
+            }
+        }
+    }
+
+    @Test
+    public void testFailedAccountFailsTheJob() {
+        ParallelUsageParser parser = new ParallelUsageParser(4);
+        for (AccountVO account : generateAccounts(40, 3)) {
+            parser.addAccount(account, new RecordingParser());
+        }
+        parser.addAccount(new AccountVO(1000), new ParallelUsageParser.AccountParser() {
+            @Override
+            public boolean parse(AccountVO account, Date startDate, Date endDate) {
+                throw new RuntimeException("failed to parse");
+            }
+        });
+        Assert.assertFalse(parser.parse(generatePeriods(3)));
+    }
+
+    @Test
+    public void testNoAccounts() {
+        Assert.assertFalse(new ParallelUsageParser(4).parse(generatePeriods(3)));
+    }
+
+    @Test
+    public void testTimings() {
+        UsageParserTimings timings = new UsageParserTimings();
+        timings.add(RecordingParser.class, 3000000);
+        timings.add(RecordingParser.class, 2000000);
+        Assert.assertEquals(5, timings.getMillis(RecordingParser.class));
+        Assert.assertEquals(2, timings.getCalls(RecordingParser.class));
+        Assert.assertEquals(0, timings.getCalls(ParallelUsageParser.class));
+    }
+}
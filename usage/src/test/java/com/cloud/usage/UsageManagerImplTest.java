@@ -17,10 +17,16 @@
 package com.cloud.usage;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.cloud.event.dao.UsageEventDetailsDao;
 import com.cloud.usage.dao.UsageVMSnapshotDao;
+import org.apache.cloudstack.usage.UsageTypes;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -31,9 +37,15 @@ import org.mockito.Spy;
 
 import com.cloud.event.EventTypes;
 import com.cloud.event.UsageEventVO;
+import com.cloud.usage.dao.UsageDao;
+import com.cloud.usage.dao.UsageStorageDao;
 import com.cloud.usage.dao.UsageVPNUserDao;
+import com.cloud.usage.parser.UsageParserWrites;
 import com.cloud.user.AccountVO;
 import com.cloud.user.dao.AccountDao;
+import com.cloud.utils.Pair;
+import com.cloud.utils.db.Filter;
+import com.cloud.utils.exception.CloudRuntimeException;
 import org.mockito.junit.MockitoJUnitRunner;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -58,6 +70,12 @@ public class UsageManagerImplTest {
     @Mock
     private AccountDao accountDaoMock;
 
+    @Mock
+    private UsageDao usageDaoMock;
+
+    @Mock
+    private UsageStorageDao usageStorageDaoMock;
+
     @Mock
     private UsageVPNUserVO vpnUserMock;
 
@@ -243,4 +261,119 @@ public class UsageManagerImplTest {
         Mockito.verify(usageManagerImpl, Mockito.never()).createUsageVpnUser(usageEventVOMock,accountMock);
         Mockito.verify(usageManagerImpl, Mockito.never()).deleteUsageVpnUser(usageEventVOMock, accountMock);
     }
-}
\ No newline at end of file
+
+    /**
+     * Stands in for the usage database: the rows written on each thread, as
+     * the parser workers each write in their own transaction.
+     */
+    private final Map<Thread, List<String>> writesByThread = new ConcurrentHashMap<Thread, List<String>>();
+
+    private List<String> writesOf(Thread thread) {
+        List<String> writes = writesByThread.get(thread);
+        if (writes == null) {
+            writes = Collections.synchronizedList(new ArrayList<String>());
+            writesByThread.put(thread, writes);
+        }
+        return writes;
+    }
+
+    private static List<AccountVO> page(List<AccountVO> accounts, Filter filter) {
+        int from = (int)Math.min(filter.getOffset(), accounts.size());
+        int to = (int)Math.min(filter.getOffset() + filter.getLimit(), accounts.size());
+        return new ArrayList<AccountVO>(accounts.subList(from, to));
+    }
+
+    private List<String> parseUsage(int workers, final List<AccountVO> accounts, final List<AccountVO> deletedAccounts, List<Pair<Date, Date>> periods) {
+        writesByThread.clear();
+        Mockito.doAnswer(invocation -> page(accounts, invocation.getArgument(0))).when(accountDaoMock).listAll(Mockito.any(Filter.class));
+        Mockito.doAnswer(invocation -> page(deletedAccounts, invocation.getArgument(2))).when(accountDaoMock)
+                .findRecentlyDeletedAccounts(Mockito.isNull(), Mockito.any(Date.class), Mockito.any(Filter.class));
+        Mockito.doAnswer(invocation -> {
+            UsageVO usageRecord = invocation.getArgument(0);
+            writesOf(Thread.currentThread()).add(usageRecord.getAccountId() + ":" + usageRecord.getStartDate().getTime() + ":" + usageRecord.getRawUsage());
+            return usageRecord;
+        }).when(usageDaoMock).persist(Mockito.any(UsageVO.class));
+        Mockito.doAnswer(invocation -> Collections.singletonList(((Long)invocation.getArgument(0)) * 10)).when(usageDaoMock).listPublicTemplatesByAccount(Mockito.anyLong());
+        Mockito.doAnswer(invocation -> Collections.singletonList(new UsageStorageVO(invocation.getArgument(1), 1, invocation.getArgument(0), 1, StorageTypes.TEMPLATE, null, 0,
+                new Date(), null))).when(usageStorageDaoMock).listById(Mockito.anyLong(), Mockito.anyLong(), Mockito.anyInt());
+        Mockito.doAnswer(invocation -> {
+            UsageStorageVO storage = invocation.getArgument(0);
+            writesOf(Thread.currentThread()).add("template " + storage.getId() + " deleted");
+            return null;
+        }).when(usageStorageDaoMock).update(Mockito.any(UsageStorageVO.class));
+        Mockito.doAnswer(invocation -> {
+            AccountVO account = invocation.getArgument(0);
+            Date startDate = invocation.getArgument(1);
+            // like the parsers, reads what was written for the account in the previous periods
+            int previous = 0;
+            for (String write : writesOf(Thread.currentThread())) {
+                if (write.startsWith(account.getId() + ":")) {
+                    previous++;
+                }
+            }
+            UsageParserWrites.persist(usageDaoMock, new UsageVO(1L, account.getId(), 1L, "usage", "1 Hrs", UsageTypes.RUNNING_VM, (double)previous, 1L, "vm", 1L,
+                    1L, 1L, startDate, invocation.getArgument(2), "KVM"));
+            return true;
+        }).when(usageManagerImpl).parseHelperTables(Mockito.any(AccountVO.class), Mockito.any(Date.class), Mockito.any(Date.class));
+
+        Date recentlyDeletedDate = new Date(0);
+        boolean parsed = workers > 1 ? usageManagerImpl.parseInParallel(workers, periods, recentlyDeletedDate) : usageManagerImpl.parseSerially(periods, recentlyDeletedDate);
+        Assert.assertTrue(parsed);
+
+        List<String> committed = new ArrayList<String>(writesOf(Thread.currentThread()));
+        Collections.sort(committed);
+        return committed;
+    }
+
+    @Test
+    public void parseInParallelWritesLikeParseSerially() {
+        List<AccountVO> accounts = new ArrayList<AccountVO>();
+        for (long id = 1; id <= 1203; id++) {
+            accounts.add(new AccountVO(id));
+        }
+        List<AccountVO> deletedAccounts = new ArrayList<AccountVO>();
+        for (long id = 2000; id < 2010; id++) {
+            deletedAccounts.add(new AccountVO(id));
+        }
+        List<Pair<Date, Date>> periods = new ArrayList<Pair<Date, Date>>();
+        for (long hour = 0; hour < 5; hour++) {
+            periods.add(new Pair<Date, Date>(new Date(hour * 3600000L), new Date((hour + 1) * 3600000L - 1)));
+        }
+
+        List<String> serial = parseUsage(1, accounts, deletedAccounts, periods);
+        List<String> parallel = parseUsage(4, accounts, deletedAccounts, periods);
+
+        Assert.assertEquals((accounts.size() + deletedAccounts.size()) * periods.size() * 2 - accounts.size() * periods.size(), serial.size());
+        Assert.assertEquals(serial, parallel);
+        Assert.assertTrue(serial.contains("1:" + 4 * 3600000L + ":4.0"));
+    }
+
+    @Test
+    public void parseInParallelWritesNothingWhenAWorkerFails() {
+        List<AccountVO> accounts = new ArrayList<AccountVO>();
+        for (long id = 1; id <= 100; id++) {
+            accounts.add(new AccountVO(id));
+        }
+        Mockito.doReturn(accounts).doReturn(Collections.emptyList()).when(accountDaoMock).listAll(Mockito.any(Filter.class));
+        Mockito.doReturn(Collections.emptyList()).when(accountDaoMock).findRecentlyDeletedAccounts(Mockito.isNull(), Mockito.any(Date.class), Mockito.any(Filter.class));
+        Mockito.doAnswer(invocation -> {
+            writesOf(Thread.currentThread()).add("usage");
+            return invocation.getArgument(0);
+        }).when(usageDaoMock).persist(Mockito.any(UsageVO.class));
+        Mockito.doAnswer(invocation -> {
+            AccountVO account = invocation.getArgument(0);
+            if (account.getId() == 42) {
+                throw new CloudRuntimeException("failed to parse");
+            }
+            UsageParserWrites.persist(usageDaoMock, new UsageVO(1L, account.getId(), 1L, "usage", "1 Hrs", UsageTypes.RUNNING_VM, 1.0, 1L, "vm", 1L, 1L, 1L,
+                    invocation.getArgument(1), invocation.getArgument(2), "KVM"));
+            return true;
+        }).when(usageManagerImpl).parseHelperTables(Mockito.any(AccountVO.class), Mockito.any(Date.class), Mockito.any(Date.class));
+
+        List<Pair<Date, Date>> periods = Collections.singletonList(new Pair<Date, Date>(new Date(0), new Date(3599999)));
+        Assert.assertFalse(usageManagerImpl.parseInParallel(4, periods, new Date(0)));
+        // the workers wrote in the transactions they rolled back, nothing was written in the job transaction
+        Assert.assertFalse(writesByThread.isEmpty());
+        Assert.assertTrue(writesOf(Thread.currentThread()).isEmpty());
+    }
+}
@@ -20,6 +20,7 @@
 package com.cloud.utils.db;
 
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -55,6 +56,25 @@ public interface EntityManager {
      */
     public <T> T findByUuidIncludingRemoved(Class<T> entityType, String uuid);
 
+    /**
+     * Finds the entities of the uuids in one go, including those removed entries
+     * @param <T> entity class
+     * @param entityType type of entity you're looking for.
+     * @param uuids the unique ids
+     * @return the entities found, in no particular order.
+     */
+    public <T> List<? extends T> listByUuidsIncludingRemoved(Class<T> entityType, Collection<String> uuids);
+
+    /**
+     * Finds the entities of the ids in one go.
+     * @param <T> class of the entity you're trying to find.
+     * @param <K> class of the id that the entity uses.
+     * @param entityType Type of the entity.
+     * @param ids id values
+     * @return the entities found, in no particular order.
+     */
+    public <T, K extends Serializable> List<? extends T> listByIds(Class<T> entityType, Collection<K> ids);
+
     /**
      * Finds an entity by external id which is always String
      * @param <T> entity class
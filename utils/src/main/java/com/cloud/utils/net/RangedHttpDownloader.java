@@ -0,0 +1,313 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.utils.net;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpMethodBase;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.methods.HeadMethod;
+import org.apache.log4j.Logger;
+
+import com.cloud.utils.concurrency.NamedThreadFactory;
+
+import static com.cloud.utils.NumbersUtil.toHumanReadableSize;
+
+/**
+ * Downloads a file over several HTTP connections at once, each of them
+ * fetching a segment of the file with a Range request and writing it at its
+ * offset. A segment interrupted by a network error is resumed from where it
+ * stopped, a few times, before the download fails.
+ *
+ * Only worth it for large files over links where a single connection does
+ * not get the whole bandwidth, {@link #isSupported()} tells whether the file
+ * is large enough and the server accepts range requests.
+ */
+public class RangedHttpDownloader {
+    private static final Logger s_logger = Logger.getLogger(RangedHttpDownloader.class);
+
+    public static final long DEFAULT_MIN_SEGMENT_SIZE = 64L * 1024 * 1024;
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    private static final int MAX_SEGMENT_RETRIES = 3;
+
+    private final HttpClient client;
+    private final MultiThreadedHttpConnectionManager connectionManager;
+    private final String url;
+    private final Map<String, String> headers;
+    private final int segments;
+    private final long minSegmentSize;
+
+    private long contentLength = -1;
+    private final AtomicLong downloadedBytes = new AtomicLong();
+    private volatile boolean aborted = false;
+    private long headSize;
+    private HeadListener headListener;
+
+    /**
+     * Told by the segment at the start of the file once its first bytes are
+     * written, so they can be checked before the rest is downloaded. An
+     * exception it throws fails the download.
+     */
+    public interface HeadListener {
+        void headWritten() throws IOException;
+    }
+
+    /**
+     * @param client client whose credentials and proxy settings are used by
+     *        the segments, which get their own connections
+     * @param headers additional request headers, may be null
+     */
+    public RangedHttpDownloader(HttpClient client, String url, Map<String, String> headers, int segments, long minSegmentSize) {
+        this.url = url;
+        this.headers = headers;
+        this.segments = segments;
+        this.minSegmentSize = minSegmentSize;
+
+        connectionManager = new MultiThreadedHttpConnectionManager();
+        connectionManager.getParams().setDefaultMaxConnectionsPerHost(Math.max(segments, 2));
+        connectionManager.getParams().setMaxTotalConnections(Math.max(segments, 2));
+        connectionManager.getParams().setConnectionTimeout(client.getHttpConnectionManager().getParams().getConnectionTimeout());
+        connectionManager.getParams().setSoTimeout(client.getHttpConnectionManager().getParams().getSoTimeout());
+        this.client = new HttpClient(client.getParams(), connectionManager);
+        this.client.setState(client.getState());
+        this.client.setHostConfiguration(client.getHostConfiguration());
+    }
+
+    /**
+     * Asks the server for the size of the file and whether it accepts range
+     * requests.
+     *
+     * @return true if the file can be downloaded in more than one segment
+     */
+    public boolean isSupported() throws IOException {
+        if (segments < 2) {
+            return false;
+        }
+
+        HeadMethod head = new HeadMethod(url);
+        addHeaders(head);
+        head.setFollowRedirects(true);
+        boolean supported = false;
+        try {
+            int status = client.executeMethod(head);
+            if (status != HttpStatus.SC_OK) {
+                s_logger.debug("HEAD request on " + url + " returned " + status + ", not downloading it in segments");
+                return false;
+            }
+
+            Header acceptRanges = head.getResponseHeader("Accept-Ranges");
+            Header length = head.getResponseHeader("Content-Length");
+            if (acceptRanges == null || !"bytes".equalsIgnoreCase(acceptRanges.getValue().trim()) || length == null) {
+                s_logger.debug("Server of " + url + " does not accept range requests, not downloading it in segments");
+                return false;
+            }
+            contentLength = Long.parseLong(length.getValue().trim());
+            supported = contentLength >= 2 * minSegmentSize;
+            return supported;
+        } catch (NumberFormatException e) {
+            return false;
+        } finally {
+            head.releaseConnection();
+            if (!supported) {
+                connectionManager.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Downloads the file into the given one, which is truncated to the size of the download.
+     * {@link #isSupported()} has to be called first.
+     *
+     * @return the number of bytes downloaded
+     * @throws IOException if a segment could not be downloaded, or the download was aborted
+     */
+    public long download(File target) throws IOException {
+        if (contentLength < 0) {
+            throw new IllegalStateException("Size of " + url + " is unknown");
+        }
+
+        int count = (int)Math.max(1, Math.min(segments, contentLength / minSegmentSize));
+        long segmentSize = (contentLength + count - 1) / count;
+        s_logger.info("Downloading " + url + " (" + toHumanReadableSize(contentLength) + ") in " + count + " segments of " + toHumanReadableSize(segmentSize));
+
+        ExecutorService executor = Executors.newFixedThreadPool(count, new NamedThreadFactory("RangedHttpDownload"));
+        try (RandomAccessFile file = new RandomAccessFile(target, "rw")) {
+            file.setLength(contentLength);
+            FileChannel channel = file.getChannel();
+
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (long start = 0; start < contentLength; start += segmentSize) {
+                futures.add(executor.submit(new Segment(channel, start, Math.min(start + segmentSize, contentLength) - 1)));
+            }
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    aborted = true;
+                    throw new IOException("Interrupted while downloading " + url, e);
+                } catch (ExecutionException e) {
+                    // no need for the other segments to go on
+                    aborted = true;
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException)e.getCause();
+                    }
+                    throw new IOException("Failed to download " + url, e.getCause());
+                }
+            }
+            channel.force(false);
+        } finally {
+            executor.shutdownNow();
+            connectionManager.shutdown();
+        }
+        return downloadedBytes.get();
+    }
+
+    /**
+     * @param headSize bytes from the start of the file to wait for, the first
+     *        segment if it is smaller
+     */
+    public void setHeadListener(long headSize, HeadListener headListener) {
+        this.headSize = headSize;
+        this.headListener = headListener;
+    }
+
+    public void abort() {
+        aborted = true;
+    }
+
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    public long getDownloadedBytes() {
+        return downloadedBytes.get();
+    }
+
+    private void addHeaders(HttpMethodBase method) {
+        if (headers != null) {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                method.setRequestHeader(header.getKey(), header.getValue());
+            }
+        }
+    }
+
+    private class Segment implements Callable<Void> {
+        private final FileChannel channel;
+        private final long end;
+        private long position;
+        private boolean headPending;
+
+        Segment(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.position = start;
+            this.end = end;
+            this.headPending = start == 0 && headListener != null;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            int retries = 0;
+            while (position <= end) {
+                try {
+                    fetch();
+                } catch (IOException e) {
+                    if (aborted || ++retries > MAX_SEGMENT_RETRIES) {
+                        throw e;
+                    }
+                    s_logger.info("Resuming segment of " + url + " at " + position + " after: " + e.getMessage());
+                }
+            }
+            return null;
+        }
+
+        private void fetch() throws IOException {
+            GetMethod request = new GetMethod(url);
+            addHeaders(request);
+            request.setFollowRedirects(true);
+            request.setRequestHeader("Range", "bytes=" + position + "-" + end);
+            try {
+                int status = client.executeMethod(request);
+                if (status != HttpStatus.SC_PARTIAL_CONTENT) {
+                    throw new IOException("Range request on " + url + " returned " + status);
+                }
+                Header contentRange = request.getResponseHeader("Content-Range");
+                if (contentRange == null || !contentRange.getValue().trim().startsWith("bytes " + position + "-")) {
+                    throw new IOException("Unexpected range returned by " + url + ": " + (contentRange == null ? null : contentRange.getValue()));
+                }
+
+                byte[] buffer = new byte[BUFFER_SIZE];
+                InputStream in = request.getResponseBodyAsStream();
+                while (position <= end) {
+                    if (aborted) {
+                        throw new IOException("Download of " + url + " aborted");
+                    }
+                    int read = in.read(buffer, 0, (int)Math.min(buffer.length, end - position + 1));
+                    if (read < 0) {
+                        throw new IOException("Connection closed at " + position + " while downloading " + url);
+                    }
+                    ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, read);
+                    while (bytes.hasRemaining()) {
+                        position += channel.write(bytes, position);
+                    }
+                    downloadedBytes.addAndGet(read);
+                    if (headPending && (position >= headSize || position > end)) {
+                        headPending = false;
+                        notifyHead();
+                    }
+                }
+            } finally {
+                if (position <= end) {
+                    // do not read the rest of the response to reuse the connection
+                    request.abort();
+                }
+                request.releaseConnection();
+            }
+        }
+
+        private void notifyHead() throws IOException {
+            try {
+                headListener.headWritten();
+            } catch (IOException | RuntimeException e) {
+                // not worth resuming the segment
+                aborted = true;
+                throw e;
+            }
+        }
+    }
+}
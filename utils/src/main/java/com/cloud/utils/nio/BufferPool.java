@@ -0,0 +1,128 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.utils.nio;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.cloud.utils.mgmt.JmxUtil;
+
+/**
+ * A bounded pool of direct buffers used for the SSL packets and application
+ * data exchanged over a Link. The buffer size follows the largest size asked
+ * for, which is the SSL session's packet or application buffer size, so after
+ * the first handshake every borrow is served from the pool until it runs dry.
+ * Buffers that don't fit the pool are dropped on release and left to the GC.
+ */
+public class BufferPool implements BufferPoolMBean {
+    private static final Logger s_logger = Logger.getLogger(BufferPool.class);
+
+    private final ConcurrentLinkedQueue<ByteBuffer> _buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+    private final AtomicInteger _pooled = new AtomicInteger();
+    private final AtomicLong _hits = new AtomicLong();
+    private final AtomicLong _misses = new AtomicLong();
+    private final AtomicLong _bytesInFlight = new AtomicLong();
+    private final int _maxPooledBuffers;
+    private volatile int _bufferSize;
+
+    public BufferPool(final String name, final int maxPooledBuffers) {
+        _maxPooledBuffers = maxPooledBuffers;
+        try {
+            JmxUtil.registerMBean("NioBufferPool", name, this);
+        } catch (final Exception e) {
+            s_logger.warn("Unable to register the buffer pool " + name + " with JMX", e);
+        }
+    }
+
+    /**
+     * @return a cleared buffer with at least size bytes of capacity, to be
+     *         handed back with {@link #release(ByteBuffer)}.
+     */
+    public ByteBuffer borrow(final int size) {
+        ByteBuffer buffer = null;
+        if (size <= _bufferSize) {
+            buffer = _buffers.poll();
+        } else {
+            _bufferSize = size;
+        }
+        if (buffer != null) {
+            _pooled.decrementAndGet();
+            if (buffer.capacity() >= size) {
+                _hits.incrementAndGet();
+                _bytesInFlight.addAndGet(buffer.capacity());
+                buffer.clear();
+                return buffer;
+            }
+        }
+        _misses.incrementAndGet();
+        buffer = ByteBuffer.allocateDirect(Math.max(size, _bufferSize));
+        _bytesInFlight.addAndGet(buffer.capacity());
+        return buffer;
+    }
+
+    public void release(final ByteBuffer buffer) {
+        if (buffer == null) {
+            return;
+        }
+        _bytesInFlight.addAndGet(-buffer.capacity());
+        if (!buffer.isDirect() || buffer.capacity() < _bufferSize) {
+            return;
+        }
+        if (_pooled.incrementAndGet() > _maxPooledBuffers) {
+            _pooled.decrementAndGet();
+            return;
+        }
+        _buffers.offer(buffer);
+    }
+
+    @Override
+    public int getBufferSize() {
+        return _bufferSize;
+    }
+
+    @Override
+    public int getMaxPooledBuffers() {
+        return _maxPooledBuffers;
+    }
+
+    @Override
+    public int getPooledBuffers() {
+        return _pooled.get();
+    }
+
+    @Override
+    public long getHits() {
+        return _hits.get();
+    }
+
+    @Override
+    public long getMisses() {
+        return _misses.get();
+    }
+
+    @Override
+    public long getBytesInFlight() {
+        return _bytesInFlight.get();
+    }
+}
@@ -32,8 +32,8 @@ import java.security.GeneralSecurityException;
 import java.security.KeyStore;
 import java.security.SecureRandom;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
@@ -58,6 +58,12 @@ import com.cloud.utils.exception.CloudRuntimeException;
 public class Link {
     private static final Logger s_logger = Logger.getLogger(Link.class);
 
+    /* Shared by all the connections in this JVM, 512 buffers of ~16k is 8MB of direct memory at most */
+    protected static final BufferPool s_bufferPool = new BufferPool("Link", 512);
+    /* Plain text buffers larger than this are not kept around between packets */
+    protected static final int MAX_RETAINED_PLAINTEXT_SIZE = 64 * 1024;
+    private static final ByteBuffer[] CLOSE_REQUEST = new ByteBuffer[0];
+
     private final InetSocketAddress _addr;
     private final NioConnection _connection;
     private SelectionKey _key;
@@ -105,55 +111,47 @@ public class Link {
 
     private static void doWrite(SocketChannel ch, ByteBuffer[] buffers, SSLEngine sslEngine) throws IOException {
         SSLSession sslSession = sslEngine.getSession();
-        ByteBuffer pkgBuf = ByteBuffer.allocate(sslSession.getPacketBufferSize() + 40);
+        // The 4 bytes header and the SSL packet go out in the same buffer so that each packet is a single write.
+        ByteBuffer pkgBuf = s_bufferPool.borrow(sslSession.getPacketBufferSize() + 4);
         SSLEngineResult engResult;
 
-        ByteBuffer headBuf = ByteBuffer.allocate(4);
-
-        int totalLen = 0;
-        for (ByteBuffer buffer : buffers) {
-            totalLen += buffer.limit();
-        }
-
-        int processedLen = 0;
-        while (processedLen < totalLen) {
-            headBuf.clear();
-            pkgBuf.clear();
-            engResult = sslEngine.wrap(buffers, pkgBuf);
-            if (engResult.getHandshakeStatus() != HandshakeStatus.FINISHED && engResult.getHandshakeStatus() != HandshakeStatus.NOT_HANDSHAKING &&
-                    engResult.getStatus() != SSLEngineResult.Status.OK) {
-                throw new IOException("SSL: SSLEngine return bad result! " + engResult);
-            }
-
-            processedLen = 0;
+        try {
+            int totalLen = 0;
             for (ByteBuffer buffer : buffers) {
-                processedLen += buffer.position();
+                totalLen += buffer.limit();
             }
 
-            int dataRemaining = pkgBuf.position();
-            int header = dataRemaining;
-            int headRemaining = 4;
-            pkgBuf.flip();
-            if (processedLen < totalLen) {
-                header = header | HEADER_FLAG_FOLLOWING;
-            }
-            headBuf.putInt(header);
-            headBuf.flip();
+            int processedLen = 0;
+            while (processedLen < totalLen) {
+                pkgBuf.clear();
+                pkgBuf.position(4);
+                engResult = sslEngine.wrap(buffers, pkgBuf);
+                if (engResult.getHandshakeStatus() != HandshakeStatus.FINISHED && engResult.getHandshakeStatus() != HandshakeStatus.NOT_HANDSHAKING &&
+                        engResult.getStatus() != SSLEngineResult.Status.OK) {
+                    throw new IOException("SSL: SSLEngine return bad result! " + engResult);
+                }
 
-            while (headRemaining > 0) {
-                if (s_logger.isTraceEnabled()) {
-                    s_logger.trace("Writing Header " + headRemaining);
+                processedLen = 0;
+                for (ByteBuffer buffer : buffers) {
+                    processedLen += buffer.position();
                 }
-                long count = ch.write(headBuf);
-                headRemaining -= count;
-            }
-            while (dataRemaining > 0) {
-                if (s_logger.isTraceEnabled()) {
-                    s_logger.trace("Writing Data " + dataRemaining);
+
+                int header = pkgBuf.position() - 4;
+                if (processedLen < totalLen) {
+                    header = header | HEADER_FLAG_FOLLOWING;
+                }
+                pkgBuf.putInt(0, header);
+                pkgBuf.flip();
+
+                while (pkgBuf.hasRemaining()) {
+                    if (s_logger.isTraceEnabled()) {
+                        s_logger.trace("Writing Data " + pkgBuf.remaining());
+                    }
+                    ch.write(pkgBuf);
                 }
-                long count = ch.write(pkgBuf);
-                dataRemaining -= count;
             }
+        } finally {
+            s_bufferPool.release(pkgBuf);
         }
     }
 
@@ -175,6 +173,7 @@ public class Link {
     /* SSL has limitation of 16k, we may need to split packets. 18000 is 16k + some extra SSL informations */
     protected static final int MAX_SIZE_PER_PACKET = 18000;
     protected static final int HEADER_FLAG_FOLLOWING = 0x10000;
+    private static final long HANDSHAKE_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
 
     public byte[] read(SocketChannel ch) throws IOException {
         if (_readHeader) {   // Start of a packet
@@ -202,7 +201,11 @@ public class Link {
             }
 
             if (!_gotFollowingPacket) {
-                _plaintextBuffer = ByteBuffer.allocate(2000);
+                if (_plaintextBuffer == null) {
+                    _plaintextBuffer = ByteBuffer.allocate(2000);
+                } else {
+                    _plaintextBuffer.clear();
+                }
             }
 
             if ((header & HEADER_FLAG_FOLLOWING) != 0) {
@@ -236,36 +239,39 @@ public class Link {
 
         _readBuffer.flip();
 
-        ByteBuffer appBuf;
-
         SSLSession sslSession = _sslEngine.getSession();
         SSLEngineResult engResult;
         int remaining = 0;
 
-        while (_readBuffer.hasRemaining()) {
-            remaining = _readBuffer.remaining();
-            appBuf = ByteBuffer.allocate(sslSession.getApplicationBufferSize() + 40);
-            engResult = _sslEngine.unwrap(_readBuffer, appBuf);
-            if (engResult.getHandshakeStatus() != HandshakeStatus.FINISHED && engResult.getHandshakeStatus() != HandshakeStatus.NOT_HANDSHAKING &&
-                    engResult.getStatus() != SSLEngineResult.Status.OK) {
-                throw new IOException("SSL: SSLEngine return bad result! " + engResult);
-            }
-            if (remaining == _readBuffer.remaining()) {
-                throw new IOException("SSL: Unable to unwrap received data! still remaining " + remaining + "bytes!");
-            }
+        ByteBuffer appBuf = s_bufferPool.borrow(sslSession.getApplicationBufferSize() + 40);
+        try {
+            while (_readBuffer.hasRemaining()) {
+                remaining = _readBuffer.remaining();
+                appBuf.clear();
+                engResult = _sslEngine.unwrap(_readBuffer, appBuf);
+                if (engResult.getHandshakeStatus() != HandshakeStatus.FINISHED && engResult.getHandshakeStatus() != HandshakeStatus.NOT_HANDSHAKING &&
+                        engResult.getStatus() != SSLEngineResult.Status.OK) {
+                    throw new IOException("SSL: SSLEngine return bad result! " + engResult);
+                }
+                if (remaining == _readBuffer.remaining()) {
+                    throw new IOException("SSL: Unable to unwrap received data! still remaining " + remaining + "bytes!");
+                }
 
-            appBuf.flip();
-            if (_plaintextBuffer.remaining() < appBuf.limit()) {
-                // We need to expand _plaintextBuffer for more data
-                ByteBuffer newBuffer = ByteBuffer.allocate(_plaintextBuffer.capacity() + appBuf.limit() * 5);
-                _plaintextBuffer.flip();
-                newBuffer.put(_plaintextBuffer);
-                _plaintextBuffer = newBuffer;
-            }
-            _plaintextBuffer.put(appBuf);
-            if (s_logger.isTraceEnabled()) {
-                s_logger.trace("Done with packet: " + appBuf.limit());
+                appBuf.flip();
+                if (_plaintextBuffer.remaining() < appBuf.limit()) {
+                    // We need to expand _plaintextBuffer for more data
+                    ByteBuffer newBuffer = ByteBuffer.allocate(Math.max(_plaintextBuffer.capacity() * 2, _plaintextBuffer.position() + appBuf.limit()));
+                    _plaintextBuffer.flip();
+                    newBuffer.put(_plaintextBuffer);
+                    _plaintextBuffer = newBuffer;
+                }
+                _plaintextBuffer.put(appBuf);
+                if (s_logger.isTraceEnabled()) {
+                    s_logger.trace("Done with packet: " + appBuf.limit());
+                }
             }
+        } finally {
+            s_bufferPool.release(appBuf);
         }
 
         _readBuffer.clear();
@@ -275,6 +281,9 @@ public class Link {
             _plaintextBuffer.flip();
             byte[] result = new byte[_plaintextBuffer.limit()];
             _plaintextBuffer.get(result);
+            if (_plaintextBuffer.capacity() > MAX_RETAINED_PLAINTEXT_SIZE) {
+                _plaintextBuffer = null;
+            }
             return result;
         } else {
             if (s_logger.isTraceEnabled()) {
@@ -293,24 +302,17 @@ public class Link {
     }
 
     public void send(ByteBuffer[] data, boolean close) throws ClosedChannelException {
-        ByteBuffer[] item = new ByteBuffer[data.length + 1];
-        int remaining = 0;
-        for (int i = 0; i < data.length; i++) {
-            remaining += data[i].remaining();
-            item[i + 1] = data[i];
-        }
-
-        item[0] = ByteBuffer.allocate(4);
-        item[0].putInt(remaining);
-        item[0].flip();
-
         if (s_logger.isTraceEnabled()) {
+            int remaining = 0;
+            for (ByteBuffer buffer : data) {
+                remaining += buffer.remaining();
+            }
             s_logger.trace("Sending packet of length " + remaining);
         }
 
-        _writeQueue.add(item);
+        _writeQueue.add(data);
         if (close) {
-            _writeQueue.add(new ByteBuffer[0]);
+            _writeQueue.add(CLOSE_REQUEST);
         }
         synchronized (this) {
             if (_key == null) {
@@ -333,17 +335,14 @@ public class Link {
     public boolean write(SocketChannel ch) throws IOException {
         ByteBuffer[] data = null;
         while ((data = _writeQueue.poll()) != null) {
-            if (data.length == 0) {
+            if (data == CLOSE_REQUEST) {
                 if (s_logger.isTraceEnabled()) {
                     s_logger.trace("Closing connection requested");
                 }
                 return true;
             }
 
-            ByteBuffer[] raw_data = new ByteBuffer[data.length - 1];
-            System.arraycopy(data, 1, raw_data, 0, data.length - 1);
-
-            doWrite(ch, raw_data, _sslEngine);
+            doWrite(ch, data, _sslEngine);
         }
         return false;
     }
@@ -482,7 +481,8 @@ public class Link {
         if (socketChannel == null || sslEngine == null || peerAppData == null || peerNetData == null || appBufferSize < 0) {
             return new HandshakeHolder(peerAppData, peerNetData, false);
         }
-        if (socketChannel.read(peerNetData) < 0) {
+        final int read = socketChannel.read(peerNetData);
+        if (read < 0) {
             if (sslEngine.isInboundDone() && sslEngine.isOutboundDone()) {
                 return new HandshakeHolder(peerAppData, peerNetData, false);
             }
@@ -521,6 +521,10 @@ public class Link {
                 // Will occur either when no data was read from the peer or when the peerNetData buffer
                 // was too small to hold all peer's data.
                 peerNetData = handleBufferUnderflow(sslEngine, peerNetData);
+                if (read == 0) {
+                    // Nothing arrived yet, don't spin on the socket while the peer is busy.
+                    LockSupport.parkNanos(HANDSHAKE_POLL_NANOS);
+                }
                 break;
             case CLOSED:
                 if (sslEngine.isOutboundDone()) {
@@ -601,7 +605,6 @@ public class Link {
         ByteBuffer myNetData = ByteBuffer.allocate(netBufferSize);
         ByteBuffer peerNetData = ByteBuffer.allocate(netBufferSize);
 
-        final Executor executor = Executors.newSingleThreadExecutor();
         final long startTimeMills = System.currentTimeMillis();
 
         HandshakeStatus handshakeStatus = sslEngine.getHandshakeStatus();
@@ -635,7 +638,7 @@ public class Link {
                         if (s_logger.isTraceEnabled()) {
                             s_logger.trace("SSL: Running delegated task!");
                         }
-                        executor.execute(task);
+                        task.run();
                     }
                     break;
                 case FINISHED:
@@ -56,7 +56,8 @@ public class NioClient extends NioConnection {
             _clientConnection.connect(peerAddr);
             _clientConnection.configureBlocking(false);
 
-            final SSLContext sslContext = Link.initClientSSLContext();
+            // Management servers talking to each other use the keystore of the CA framework
+            final SSLContext sslContext = caService != null ? Link.initManagementSSLContext(caService) : Link.initClientSSLContext();
             SSLEngine sslEngine = sslContext.createSSLEngine(_host, _port);
             sslEngine.setUseClientMode(true);
             sslEngine.setEnabledProtocols(SSLUtils.getSupportedProtocols(sslEngine.getEnabledProtocols()));
@@ -33,16 +33,22 @@ import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.net.ssl.SSLEngine;
 
@@ -73,15 +79,41 @@ public abstract class NioConnection implements Callable<Boolean> {
     protected ExecutorService _executor;
     protected ExecutorService _sslHandshakeExecutor;
     protected CAService caService;
+    // Additional selectors that share the I/O of the accepted sockets, see NioServer.
+    protected SelectorLoop[] _ioLoops = new SelectorLoop[0];
+    private final AtomicInteger _nextIoLoop = new AtomicInteger();
+    // Tasks the handler pool had no room for, in the order they were produced.
+    private final Queue<HeldTask> _heldTasks = new ConcurrentLinkedQueue<HeldTask>();
+    // Sockets not read from until the task they produced could be queued.
+    private final Set<SelectionKey> _suspendedKeys = Collections.newSetFromMap(new ConcurrentHashMap<SelectionKey, Boolean>());
 
     public NioConnection(final String name, final int port, final int workers, final HandlerFactory factory) {
+        this(name, port, workers, 0, factory);
+    }
+
+    /**
+     * @param handlerQueueSize number of tasks that can wait for a handler
+     *        thread, 0 for no limit. Once the queue and all the handler
+     *        threads are busy, the tasks are held back and the sockets that
+     *        produced them aren't read from until they could be queued, which
+     *        pushes back on those peers while the selector keeps serving the
+     *        others.
+     */
+    public NioConnection(final String name, final int port, final int workers, final int handlerQueueSize, final HandlerFactory factory) {
         _name = name;
         _isRunning = false;
         _selector = null;
         _port = port;
         _factory = factory;
-        _executor = new ThreadPoolExecutor(workers, 5 * workers, 1, TimeUnit.DAYS, new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory(name + "-Handler"));
-        _sslHandshakeExecutor = Executors.newCachedThreadPool(new NamedThreadFactory(name + "-SSLHandshakeHandler"));
+        if (handlerQueueSize > 0) {
+            _executor = new ThreadPoolExecutor(workers, 5 * workers, 1, TimeUnit.DAYS, new LinkedBlockingQueue<Runnable>(handlerQueueSize), new NamedThreadFactory(name + "-Handler"));
+            // Handshakes beyond what the pool can queue are refused, the peers will reconnect.
+            _sslHandshakeExecutor = new ThreadPoolExecutor(workers, 5 * workers, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(handlerQueueSize),
+                    new NamedThreadFactory(name + "-SSLHandshakeHandler"));
+        } else {
+            _executor = new ThreadPoolExecutor(workers, 5 * workers, 1, TimeUnit.DAYS, new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory(name + "-Handler"));
+            _sslHandshakeExecutor = Executors.newCachedThreadPool(new NamedThreadFactory(name + "-SSLHandshakeHandler"));
+        }
     }
 
     public void setCAService(final CAService caService) {
@@ -105,13 +137,17 @@ public abstract class NioConnection implements Callable<Boolean> {
         }
         _isStartup = true;
 
-        _threadExecutor = Executors.newSingleThreadExecutor(new NamedThreadFactory(this._name + "-NioConnectionHandler"));
+        _threadExecutor = Executors.newFixedThreadPool(1 + _ioLoops.length, new NamedThreadFactory(this._name + "-NioConnectionHandler"));
         _isRunning = true;
         _futureTask = _threadExecutor.submit(this);
+        for (final SelectorLoop loop : _ioLoops) {
+            _threadExecutor.submit(loop);
+        }
     }
 
     public void stop() {
         _executor.shutdown();
+        _sslHandshakeExecutor.shutdown();
         _isRunning = false;
         if (_threadExecutor != null) {
             _futureTask.cancel(false);
@@ -131,43 +167,7 @@ public abstract class NioConnection implements Callable<Boolean> {
     public Boolean call() throws NioConnectionException {
         while (_isRunning) {
             try {
-                _selector.select(50);
-
-                // Someone is ready for I/O, get the ready keys
-                final Set<SelectionKey> readyKeys = _selector.selectedKeys();
-                final Iterator<SelectionKey> i = readyKeys.iterator();
-
-                if (s_logger.isTraceEnabled()) {
-                    s_logger.trace("Keys Processing: " + readyKeys.size());
-                }
-                // Walk through the ready keys collection.
-                while (i.hasNext()) {
-                    final SelectionKey sk = i.next();
-                    i.remove();
-
-                    if (!sk.isValid()) {
-                        if (s_logger.isTraceEnabled()) {
-                            s_logger.trace("Selection Key is invalid: " + sk.toString());
-                        }
-                        final Link link = (Link)sk.attachment();
-                        if (link != null) {
-                            link.terminated();
-                        } else {
-                            closeConnection(sk);
-                        }
-                    } else if (sk.isReadable()) {
-                        read(sk);
-                    } else if (sk.isWritable()) {
-                        write(sk);
-                    } else if (sk.isAcceptable()) {
-                        accept(sk);
-                    } else if (sk.isConnectable()) {
-                        connect(sk);
-                    }
-                }
-
-                s_logger.trace("Keys Done Processing.");
-
+                processKeys(_selector);
                 processTodos();
             } catch (final ClosedSelectorException e) {
                 /*
@@ -183,6 +183,58 @@ public abstract class NioConnection implements Callable<Boolean> {
         return true;
     }
 
+    protected void processKeys(final Selector selector) throws IOException {
+        selector.select(50);
+        if (!_heldTasks.isEmpty()) {
+            submitHeldTasks();
+        }
+
+        // Someone is ready for I/O, get the ready keys
+        final Set<SelectionKey> readyKeys = selector.selectedKeys();
+        final Iterator<SelectionKey> i = readyKeys.iterator();
+
+        if (s_logger.isTraceEnabled()) {
+            s_logger.trace("Keys Processing: " + readyKeys.size());
+        }
+        // Walk through the ready keys collection.
+        while (i.hasNext()) {
+            final SelectionKey sk = i.next();
+            i.remove();
+
+            if (!sk.isValid()) {
+                if (s_logger.isTraceEnabled()) {
+                    s_logger.trace("Selection Key is invalid: " + sk.toString());
+                }
+                final Link link = (Link)sk.attachment();
+                if (link != null) {
+                    link.terminated();
+                } else {
+                    closeConnection(sk);
+                }
+            } else if (sk.isReadable()) {
+                read(sk);
+            } else if (sk.isWritable()) {
+                write(sk);
+            } else if (sk.isAcceptable()) {
+                accept(sk);
+            } else if (sk.isConnectable()) {
+                connect(sk);
+            }
+        }
+
+        s_logger.trace("Keys Done Processing.");
+    }
+
+    /**
+     * @return the selector that is going to serve the next accepted socket.
+     */
+    protected Selector nextIoSelector() {
+        if (_ioLoops.length == 0) {
+            return _selector;
+        }
+        return _ioLoops[(_nextIoLoop.getAndIncrement() & Integer.MAX_VALUE) % _ioLoops.length].selector;
+    }
+
     abstract void init() throws IOException;
 
     abstract void registerLink(InetSocketAddress saddr, Link link);
@@ -222,10 +274,12 @@ public abstract class NioConnection implements Callable<Boolean> {
                         final InetSocketAddress saddr = (InetSocketAddress)socket.getRemoteSocketAddress();
                         final Link link = new Link(saddr, nioConnection);
                         link.setSSLEngine(sslEngine);
-                        link.setKey(socketChannel.register(key.selector(), SelectionKey.OP_READ, link));
+                        final Selector ioSelector = nextIoSelector();
+                        link.setKey(socketChannel.register(ioSelector, SelectionKey.OP_READ, link));
+                        ioSelector.wakeup();
                         final Task task = _factory.create(Task.Type.CONNECT, link, null);
                         registerLink(saddr, link);
-                        _executor.submit(task);
+                        submitTask(task, null);
                     } catch (IOException e) {
                         if (s_logger.isTraceEnabled()) {
                             s_logger.trace("Connection closed due to failure: " + e.getMessage());
@@ -255,12 +309,7 @@ public abstract class NioConnection implements Callable<Boolean> {
             link.terminated();
             final Task task = _factory.create(Task.Type.DISCONNECT, link, null);
             unregisterLink(link.getSocketAddress());
-
-            try {
-                _executor.submit(task);
-            } catch (final Exception e) {
-                s_logger.warn("Exception occurred when submitting the task", e);
-            }
+            submitTask(task, null);
         }
     }
 
@@ -279,12 +328,7 @@ public abstract class NioConnection implements Callable<Boolean> {
                 return;
             }
             final Task task = _factory.create(Task.Type.DATA, link, data);
-
-            try {
-                _executor.submit(task);
-            } catch (final Exception e) {
-                s_logger.warn("Exception occurred when submitting the task", e);
-            }
+            submitTask(task, key);
         } catch (final Exception e) {
             logDebug(e, key, 1);
             terminate(key);
@@ -329,7 +373,10 @@ public abstract class NioConnection implements Callable<Boolean> {
             todos = _todos;
             _todos = new ArrayList<ChangeRequest>();
         }
+        processTodos(_selector, todos);
+    }
 
+    protected void processTodos(final Selector selector, final List<ChangeRequest> todos) {
         if (s_logger.isTraceEnabled()) {
             s_logger.trace("Todos Processing: " + todos.size());
         }
@@ -351,9 +398,19 @@ public abstract class NioConnection implements Callable<Boolean> {
                     s_logger.debug("key has been cancelled");
                 }
                 break;
+            case ChangeRequest.RESUME_READ:
+                try {
+                    key = (SelectionKey)todo.key;
+                    if (key.isValid() && !_suspendedKeys.contains(key)) {
+                        key.interestOps(key.interestOps() | todo.ops);
+                    }
+                } catch (final CancelledKeyException e) {
+                    s_logger.debug("key has been cancelled");
+                }
+                break;
             case ChangeRequest.REGISTER:
                 try {
-                    key = ((SocketChannel)todo.key).register(_selector, todo.ops, todo.att);
+                    key = ((SocketChannel)todo.key).register(selector, todo.ops, todo.att);
                     if (todo.att != null) {
                         final Link link = (Link)todo.att;
                         link.setKey(key);
@@ -408,12 +465,7 @@ public abstract class NioConnection implements Callable<Boolean> {
             link.setKey(key);
             key.attach(link);
             final Task task = _factory.create(Task.Type.CONNECT, link, null);
-
-            try {
-                _executor.submit(task);
-            } catch (final Exception e) {
-                s_logger.warn("Exception occurred when submitting the task", e);
-            }
+            submitTask(task, null);
         } catch (final IOException e) {
             logTrace(e, key, 2);
             terminate(key);
@@ -421,10 +473,57 @@ public abstract class NioConnection implements Callable<Boolean> {
     }
 
     protected void scheduleTask(final Task task) {
-        try {
-            _executor.submit(task);
-        } catch (final Exception e) {
-            s_logger.warn("Exception occurred when submitting the task", e);
+        submitTask(task, null);
+    }
+
+    /**
+     * Hands the task to the handler pool, or holds it back when the pool has
+     * no room left. Held tasks are queued in order as soon as the pool catches
+     * up, and a socket whose task is held isn't read from until then.
+     *
+     * @param key the socket the task was read from, only to be passed by the
+     *        thread running its selector.
+     */
+    protected void submitTask(final Task task, final SelectionKey key) {
+        synchronized (_heldTasks) {
+            if (_heldTasks.isEmpty()) {
+                try {
+                    _executor.submit(task);
+                    return;
+                } catch (final RejectedExecutionException e) {
+                    if (_executor.isShutdown()) {
+                        s_logger.warn("Exception occurred when submitting the task", e);
+                        return;
+                    }
+                }
+            }
+            if (key != null && key.isValid()) {
+                _suspendedKeys.add(key);
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            }
+            _heldTasks.add(new HeldTask(task, key));
+        }
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Handler pool is busy, holding back " + task.getType() + " task of " + task.getLink().getSocketAddress());
+        }
+    }
+
+    protected void submitHeldTasks() {
+        synchronized (_heldTasks) {
+            HeldTask held;
+            while ((held = _heldTasks.peek()) != null) {
+                try {
+                    _executor.submit(held.task);
+                } catch (final RejectedExecutionException e) {
+                    if (!_executor.isShutdown()) {
+                        return;
+                    }
+                }
+                _heldTasks.poll();
+                if (held.key != null && _suspendedKeys.remove(held.key)) {
+                    addTodo(held.key, new ChangeRequest(held.key, ChangeRequest.RESUME_READ, SelectionKey.OP_READ, null));
+                }
+            }
         }
     }
 
@@ -439,7 +538,7 @@ public abstract class NioConnection implements Callable<Boolean> {
                 closeConnection(key);
                 link.terminated();
             } else {
-                key.interestOps(SelectionKey.OP_READ);
+                key.interestOps(_suspendedKeys.contains(key) ? 0 : SelectionKey.OP_READ);
             }
         } catch (final Exception e) {
             logDebug(e, key, 3);
@@ -449,6 +548,7 @@ public abstract class NioConnection implements Callable<Boolean> {
 
     protected void closeConnection(final SelectionKey key) {
         if (key != null) {
+            _suspendedKeys.remove(key);
             final SocketChannel channel = (SocketChannel)key.channel();
             key.cancel();
             try {
@@ -473,15 +573,25 @@ public abstract class NioConnection implements Callable<Boolean> {
     }
 
     public void change(final int ops, final SelectionKey key, final Object att) {
-        final ChangeRequest todo = new ChangeRequest(key, ChangeRequest.CHANGEOPS, ops, att);
-        synchronized (this) {
-            _todos.add(todo);
-        }
-        _selector.wakeup();
+        addTodo(key, new ChangeRequest(key, ChangeRequest.CHANGEOPS, ops, att));
     }
 
     public void close(final SelectionKey key) {
-        final ChangeRequest todo = new ChangeRequest(key, ChangeRequest.CLOSE, 0, null);
+        addTodo(key, new ChangeRequest(key, ChangeRequest.CLOSE, 0, null));
+    }
+
+    /**
+     * Changes to a key have to be applied by the thread running its selector.
+     */
+    private void addTodo(final SelectionKey key, final ChangeRequest todo) {
+        if (key != null) {
+            for (final SelectorLoop loop : _ioLoops) {
+                if (loop.selector == key.selector()) {
+                    loop.add(todo);
+                    return;
+                }
+            }
+        }
         synchronized (this) {
             _todos.add(todo);
         }
@@ -493,12 +603,70 @@ public abstract class NioConnection implements Callable<Boolean> {
         if (_selector != null) {
             _selector.close();
         }
+        for (final SelectorLoop loop : _ioLoops) {
+            loop.selector.close();
+        }
+    }
+
+    /**
+     * Runs an additional selector that only serves reads and writes of the
+     * sockets assigned to it.
+     */
+    protected class SelectorLoop implements Callable<Boolean> {
+        protected final Selector selector;
+        private List<ChangeRequest> _loopTodos = new ArrayList<ChangeRequest>();
+
+        public SelectorLoop(final Selector selector) {
+            this.selector = selector;
+        }
+
+        protected void add(final ChangeRequest todo) {
+            synchronized (this) {
+                _loopTodos.add(todo);
+            }
+            selector.wakeup();
+        }
+
+        @Override
+        public Boolean call() throws NioConnectionException {
+            while (_isRunning) {
+                try {
+                    processKeys(selector);
+                    final List<ChangeRequest> todos;
+                    synchronized (this) {
+                        if (_loopTodos.isEmpty()) {
+                            continue;
+                        }
+                        todos = _loopTodos;
+                        _loopTodos = new ArrayList<ChangeRequest>();
+                    }
+                    processTodos(selector, todos);
+                } catch (final ClosedSelectorException e) {
+                    return true;
+                } catch (final IOException e) {
+                    s_logger.error("Selector loop will die due to this IOException!", e);
+                    throw new NioConnectionException(e.getMessage(), e);
+                }
+            }
+            return true;
+        }
+    }
+
+    private static class HeldTask {
+        final Task task;
+        final SelectionKey key;
+
+        HeldTask(final Task task, final SelectionKey key) {
+            this.task = task;
+            this.key = key;
+        }
     }
 
     public class ChangeRequest {
         public static final int REGISTER = 1;
         public static final int CHANGEOPS = 2;
         public static final int CLOSE = 3;
+        public static final int RESUME_READ = 4;
 
         public Object key;
         public int type;
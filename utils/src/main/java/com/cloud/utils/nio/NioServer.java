@@ -25,6 +25,8 @@ import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.spi.SelectorProvider;
+import java.util.Collections;
+import java.util.Map;
 import java.util.WeakHashMap;
 
 import org.apache.cloudstack.framework.ca.CAService;
@@ -36,13 +38,26 @@ public class NioServer extends NioConnection {
     protected InetSocketAddress _localAddr;
     private ServerSocketChannel _serverSocket;
 
-    protected WeakHashMap<InetSocketAddress, Link> _links;
+    protected Map<InetSocketAddress, Link> _links;
+    private final int _selectors;
 
     public NioServer(final String name, final int port, final int workers, final HandlerFactory factory, final CAService caService) {
-        super(name, port, workers, factory);
+        this(name, port, workers, factory, caService, 1, 0);
+    }
+
+    /**
+     * @param selectors number of selectors serving the accepted sockets, 0 for
+     *        one per core. With more than one, the listening socket keeps its
+     *        own selector and the accepted sockets are spread over the others.
+     * @param handlerQueueSize see {@link NioConnection#NioConnection(String, int, int, int, HandlerFactory)}
+     */
+    public NioServer(final String name, final int port, final int workers, final HandlerFactory factory, final CAService caService, final int selectors,
+            final int handlerQueueSize) {
+        super(name, port, workers, handlerQueueSize, factory);
         setCAService(caService);
         _localAddr = null;
-        _links = new WeakHashMap<InetSocketAddress, Link>(1024);
+        _links = Collections.synchronizedMap(new WeakHashMap<InetSocketAddress, Link>(1024));
+        _selectors = selectors > 0 ? selectors : Runtime.getRuntime().availableProcessors();
     }
 
     public int getPort() {
@@ -61,7 +76,14 @@ public class NioServer extends NioConnection {
 
         _serverSocket.register(_selector, SelectionKey.OP_ACCEPT, null);
 
-        s_logger.info("NioServer started and listening on " + _serverSocket.socket().getLocalSocketAddress());
+        if (_selectors > 1) {
+            _ioLoops = new SelectorLoop[_selectors];
+            for (int i = 0; i < _selectors; i++) {
+                _ioLoops[i] = new SelectorLoop(SelectorProvider.provider().openSelector());
+            }
+        }
+
+        s_logger.info("NioServer started and listening on " + _serverSocket.socket().getLocalSocketAddress() + " with " + _selectors + " selector(s)");
     }
 
     @Override
@@ -30,17 +30,23 @@ public class DigestHelper {
 
     public static ChecksumValue digest(String algorithm, InputStream is) throws NoSuchAlgorithmException, IOException {
         MessageDigest digest = MessageDigest.getInstance(algorithm);
-        ChecksumValue checksum = null;
         byte[] buffer = new byte[8192];
         int read = 0;
         while ((read = is.read(buffer)) > 0) {
             digest.update(buffer, 0, read);
         }
+        return checksum(digest);
+    }
+
+    /**
+     * Completes the given digest, fed by the caller, into a checksum value
+     * formatted the same way as {@link #digest(String, InputStream)}.
+     */
+    public static ChecksumValue checksum(MessageDigest digest) {
         byte[] md5sum = digest.digest();
         // TODO make sure this is valid for all types of checksums !?!
         BigInteger bigInt = new BigInteger(1, md5sum);
-        checksum = new ChecksumValue(digest.getAlgorithm(), getPaddedDigestString(digest,bigInt));
-        return checksum;
+        return new ChecksumValue(digest.getAlgorithm(), getPaddedDigestString(digest,bigInt));
     }
 
     public static boolean check(String checksum, InputStream is) throws IOException, NoSuchAlgorithmException {
@@ -0,0 +1,197 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.utils.net;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class RangedHttpDownloaderTest {
+    private static final int SEGMENT_SIZE = 64 * 1024;
+
+    private HttpServer server;
+    private File target;
+    private final byte[] content = new byte[SEGMENT_SIZE * 8 + 123];
+    private final List<String> ranges = new CopyOnWriteArrayList<String>();
+    private boolean acceptRanges = true;
+    // drops the connection in the middle of the first response of the last segment
+    private final AtomicBoolean dropConnection = new AtomicBoolean(false);
+
+    private class FileHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange t) throws IOException {
+            try {
+                if (acceptRanges) {
+                    t.getResponseHeaders().set("Accept-Ranges", "bytes");
+                }
+                if ("HEAD".equals(t.getRequestMethod())) {
+                    t.getResponseHeaders().set("Content-Length", String.valueOf(content.length));
+                    t.sendResponseHeaders(200, -1);
+                    return;
+                }
+
+                String range = t.getRequestHeaders().getFirst("Range");
+                int start = 0;
+                int end = content.length - 1;
+                if (range != null && acceptRanges) {
+                    ranges.add(range);
+                    String[] bounds = range.substring("bytes=".length()).split("-");
+                    start = Integer.parseInt(bounds[0]);
+                    end = Integer.parseInt(bounds[1]);
+                    t.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + content.length);
+                    t.sendResponseHeaders(206, end - start + 1);
+                } else {
+                    t.sendResponseHeaders(200, content.length);
+                }
+
+                OutputStream os = t.getResponseBody();
+                if (end == content.length - 1 && start > 0 && dropConnection.compareAndSet(true, false)) {
+                    os.write(content, start, (end - start + 1) / 2);
+                    os.flush();
+                    // the server closes the connection without completing the response
+                    throw new IOException("Connection dropped");
+                }
+                os.write(content, start, end - start + 1);
+                os.close();
+            } finally {
+                t.close();
+            }
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        new Random(11).nextBytes(content);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/template.qcow2", new FileHandler());
+        server.start();
+        target = File.createTempFile("template", ".qcow2");
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        target.delete();
+    }
+
+    private RangedHttpDownloader createDownloader(int segments) {
+        HttpClient client = new HttpClient(new MultiThreadedHttpConnectionManager());
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/template.qcow2";
+        return new RangedHttpDownloader(client, url, null, segments, SEGMENT_SIZE);
+    }
+
+    @Test
+    public void testDownloadInSegments() throws Exception {
+        RangedHttpDownloader downloader = createDownloader(4);
+        Assert.assertTrue(downloader.isSupported());
+        Assert.assertEquals(content.length, downloader.getContentLength());
+
+        Assert.assertEquals(content.length, downloader.download(target));
+        Assert.assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        Assert.assertEquals(4, ranges.size());
+        Assert.assertTrue(ranges.contains("bytes=0-131102"));
+        Assert.assertTrue(ranges.contains("bytes=393309-524410"));
+    }
+
+    @Test
+    public void testInterruptedSegmentIsResumed() throws Exception {
+        dropConnection.set(true);
+        RangedHttpDownloader downloader = createDownloader(4);
+        Assert.assertTrue(downloader.isSupported());
+
+        Assert.assertEquals(content.length, downloader.download(target));
+        Assert.assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        Assert.assertFalse(dropConnection.get());
+        // the last segment asked again for what it was missing only
+        Assert.assertEquals(5, ranges.size());
+    }
+
+    @Test
+    public void testHeadIsCheckedBeforeTheEnd() throws Exception {
+        final AtomicBoolean headChecked = new AtomicBoolean(false);
+        RangedHttpDownloader downloader = createDownloader(4);
+        Assert.assertTrue(downloader.isSupported());
+        downloader.setHeadListener(1000, new RangedHttpDownloader.HeadListener() {
+            @Override
+            public void headWritten() throws IOException {
+                byte[] head = new byte[1000];
+                System.arraycopy(Files.readAllBytes(target.toPath()), 0, head, 0, head.length);
+                Assert.assertArrayEquals(Arrays.copyOf(content, head.length), head);
+                headChecked.set(true);
+            }
+        });
+
+        Assert.assertEquals(content.length, downloader.download(target));
+        Assert.assertTrue(headChecked.get());
+    }
+
+    @Test
+    public void testHeadCheckFailsTheDownload() throws Exception {
+        RangedHttpDownloader downloader = createDownloader(4);
+        Assert.assertTrue(downloader.isSupported());
+        downloader.setHeadListener(1000, new RangedHttpDownloader.HeadListener() {
+            @Override
+            public void headWritten() throws IOException {
+                throw new IOException("Unsupported format");
+            }
+        });
+
+        try {
+            downloader.download(target);
+            Assert.fail("The download should fail on the head check");
+        } catch (IOException e) {
+            Assert.assertEquals("Unsupported format", e.getMessage());
+        }
+        // the segment was not resumed after the failed check
+        Assert.assertTrue(ranges.size() <= 4);
+    }
+
+    @Test
+    public void testNotSupported() throws Exception {
+        Assert.assertFalse(createDownloader(1).isSupported());
+
+        // too small to be split
+        HttpClient client = new HttpClient(new MultiThreadedHttpConnectionManager());
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/template.qcow2";
+        Assert.assertFalse(new RangedHttpDownloader(client, url, null, 4, content.length).isSupported());
+
+        acceptRanges = false;
+        Assert.assertFalse(createDownloader(4).isSupported());
+    }
+}
@@ -0,0 +1,77 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.utils.nio;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BufferPoolTest {
+
+    @Test
+    public void testBorrowedBuffersAreReused() {
+        final BufferPool pool = new BufferPool("BufferPoolTest-reuse", 2);
+        final ByteBuffer first = pool.borrow(1024);
+        Assert.assertTrue(first.isDirect());
+        Assert.assertTrue(first.capacity() >= 1024);
+        Assert.assertEquals(first.capacity(), pool.getBytesInFlight());
+        Assert.assertEquals(1, pool.getMisses());
+
+        first.put((byte)1);
+        pool.release(first);
+        Assert.assertEquals(0, pool.getBytesInFlight());
+        Assert.assertEquals(1, pool.getPooledBuffers());
+
+        final ByteBuffer second = pool.borrow(512);
+        Assert.assertSame(first, second);
+        Assert.assertEquals(0, second.position());
+        Assert.assertEquals(1, pool.getHits());
+        Assert.assertEquals(0, pool.getPooledBuffers());
+    }
+
+    @Test
+    public void testPoolIsBounded() {
+        final BufferPool pool = new BufferPool("BufferPoolTest-bounded", 2);
+        final ByteBuffer[] buffers = new ByteBuffer[4];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = pool.borrow(256);
+        }
+        for (final ByteBuffer buffer : buffers) {
+            pool.release(buffer);
+        }
+        Assert.assertEquals(2, pool.getPooledBuffers());
+        Assert.assertEquals(0, pool.getBytesInFlight());
+    }
+
+    @Test
+    public void testPoolGrowsWithRequestedSize() {
+        final BufferPool pool = new BufferPool("BufferPoolTest-grow", 4);
+        final ByteBuffer small = pool.borrow(256);
+        final ByteBuffer large = pool.borrow(16 * 1024);
+        Assert.assertEquals(16 * 1024, pool.getBufferSize());
+
+        // Buffers that are too small for the current size are dropped
+        pool.release(small);
+        pool.release(large);
+        Assert.assertEquals(1, pool.getPooledBuffers());
+        Assert.assertSame(large, pool.borrow(256));
+    }
+}
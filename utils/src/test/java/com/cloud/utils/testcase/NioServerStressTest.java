@@ -0,0 +1,195 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.utils.testcase;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+
+import org.apache.cloudstack.utils.security.SSLUtils;
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.cloud.utils.concurrency.NamedThreadFactory;
+import com.cloud.utils.nio.HandlerFactory;
+import com.cloud.utils.nio.Link;
+import com.cloud.utils.nio.NioServer;
+import com.cloud.utils.nio.Task;
+
+/**
+ * Opens a lot of SSL links to a NioServer at once, like the agents do after a
+ * management server restart, and measures the time until the server has
+ * received a packet on all of them. The number of links can be raised with
+ * -Dnio.stress.links for a proper run.
+ */
+public class NioServerStressTest {
+    private static final Logger LOGGER = Logger.getLogger(NioServerStressTest.class);
+
+    private static final int LINKS = Integer.getInteger("nio.stress.links", 200);
+    private static final int CLIENT_THREADS = 16;
+
+    @Test(timeout = 120000)
+    public void testSingleSelector() throws Exception {
+        stress(1, 0);
+    }
+
+    @Test(timeout = 120000)
+    public void testMultipleSelectorsWithBoundedQueue() throws Exception {
+        stress(4, 64);
+    }
+
+    @Test(timeout = 120000)
+    public void testFullHandlerPoolHoldsBackReads() throws Exception {
+        final int links = 10;
+        final CountDownLatch received = new CountDownLatch(2 * links);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Set<String> handlerThreads = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        final NioServer server = new NioServer("NioBusyServer", 0, 1, new HandlerFactory() {
+            @Override
+            public Task create(final Task.Type type, final Link link, final byte[] data) {
+                return new Task(type, link, data) {
+                    @Override
+                    protected void doTask(final Task task) {
+                        if (task.getType() == Task.Type.DATA) {
+                            handlerThreads.add(Thread.currentThread().getName());
+                            try {
+                                release.await();
+                            } catch (final InterruptedException e) {
+                                return;
+                            }
+                            received.countDown();
+                        }
+                    }
+                };
+            }
+        }, null, 1, 1);
+        server.start();
+
+        final SSLContext sslContext = Link.initClientSSLContext();
+        final List<SocketChannel> channels = new ArrayList<SocketChannel>();
+        try {
+            for (int i = 0; i < links; i++) {
+                // Each link sends two packets, more than the 5 threads and the queue of 1 can take.
+                final SSLEngine sslEngine = sslContext.createSSLEngine("127.0.0.1", server.getPort());
+                final SocketChannel channel = connect(sslContext, server.getPort(), sslEngine);
+                Link.write(channel, new ByteBuffer[] {ByteBuffer.wrap(new byte[] {5, 6, 7, 8})}, sslEngine);
+                channels.add(channel);
+            }
+            Assert.assertFalse(received.await(1, TimeUnit.SECONDS));
+            release.countDown();
+            Assert.assertTrue("Not all packets were handled", received.await(100, TimeUnit.SECONDS));
+            for (final String thread : handlerThreads) {
+                Assert.assertTrue("Handler ran on " + thread, thread.startsWith("NioBusyServer-Handler"));
+            }
+        } finally {
+            release.countDown();
+            for (final SocketChannel channel : channels) {
+                channel.close();
+            }
+            server.stop();
+            server.cleanUp();
+        }
+    }
+
+    private void stress(final int selectors, final int handlerQueueSize) throws Exception {
+        final CountDownLatch received = new CountDownLatch(LINKS);
+        final NioServer server = new NioServer("NioStressServer", 0, 4, new CountingHandlerFactory(received), null, selectors, handlerQueueSize);
+        server.start();
+
+        final SSLContext sslContext = Link.initClientSSLContext();
+        final ExecutorService clients = Executors.newFixedThreadPool(CLIENT_THREADS, new NamedThreadFactory("NioStressClient"));
+        final List<Future<SocketChannel>> channels = new ArrayList<Future<SocketChannel>>();
+        final long start = System.currentTimeMillis();
+        try {
+            for (int i = 0; i < LINKS; i++) {
+                channels.add(clients.submit(new Callable<SocketChannel>() {
+                    @Override
+                    public SocketChannel call() throws Exception {
+                        return connect(sslContext, server.getPort());
+                    }
+                }));
+            }
+            Assert.assertTrue("Not all links were served", received.await(100, TimeUnit.SECONDS));
+            LOGGER.info(LINKS + " links with " + selectors + " selector(s) connected in " + (System.currentTimeMillis() - start) + " ms");
+        } finally {
+            for (final Future<SocketChannel> channel : channels) {
+                channel.get().close();
+            }
+            clients.shutdown();
+            server.stop();
+            server.cleanUp();
+        }
+    }
+
+    private static SocketChannel connect(final SSLContext sslContext, final int port) throws Exception {
+        return connect(sslContext, port, sslContext.createSSLEngine("127.0.0.1", port));
+    }
+
+    private static SocketChannel connect(final SSLContext sslContext, final int port, final SSLEngine sslEngine) throws Exception {
+        final SocketChannel channel = SocketChannel.open();
+        channel.connect(new InetSocketAddress("127.0.0.1", port));
+        channel.configureBlocking(false);
+
+        sslEngine.setUseClientMode(true);
+        sslEngine.setEnabledProtocols(SSLUtils.getSupportedProtocols(sslEngine.getEnabledProtocols()));
+        sslEngine.beginHandshake();
+        if (!Link.doHandshake(channel, sslEngine)) {
+            channel.close();
+            throw new IllegalStateException("SSL handshake failed");
+        }
+        Link.write(channel, new ByteBuffer[] {ByteBuffer.wrap(new byte[] {1, 2, 3, 4})}, sslEngine);
+        return channel;
+    }
+
+    private static class CountingHandlerFactory implements HandlerFactory {
+        private final CountDownLatch _received;
+
+        CountingHandlerFactory(final CountDownLatch received) {
+            _received = received;
+        }
+
+        @Override
+        public Task create(final Task.Type type, final Link link, final byte[] data) {
+            return new Task(type, link, data) {
+                @Override
+                protected void doTask(final Task task) {
+                    if (task.getType() == Task.Type.DATA) {
+                        _received.countDown();
+                    }
+                }
+            };
+        }
+    }
+}